@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import committools.data.SyntheticRepositoryGenerator;
+
+/**
+ * Create small, deterministic repositories for the benchmarks, with a
+ * {@link SyntheticRepositoryGenerator}.
+ *
+ * The history is linear. Each commit edits a few files (replacing, inserting
+ * and deleting lines) and occasionally renames one. Authors are drawn from a
+ * fixed pool, some of them using more than one email address.
+ */
+final class BenchmarkRepository {
+
+	/**
+	 * Create a repository in a new temporary directory.
+	 *
+	 * @param nCommits
+	 * @param nFiles
+	 * @param seed
+	 * @return the directory of the repository
+	 * @throws IOException
+	 */
+	static File create(final int nCommits, final int nFiles, final long seed)
+			throws IOException {
+		final File directory = File.createTempFile("benchmarkRepository", "");
+		if (!directory.delete() || !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		new SyntheticRepositoryGenerator().setNumCommits(nCommits)
+				.setNumFiles(nFiles).setNumAuthors(20).setSeed(seed)
+				.setBranchProbability(0).setMergeProbability(0)
+				.setRenameProbability(.05).setChurn(3, 3).generate(directory);
+		return directory;
+	}
+
+	static void delete(final File directory) throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private BenchmarkRepository() {
+		// Cannot be constructed.
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks, reporting throughput and allocation rate (via the GC
+ * profiler).
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * @param args
+	 * @throws RunnerException
+	 */
+	public static void main(final String[] args) throws RunnerException {
+		if (args.length > 2) {
+			System.err.println("Usage [<benchmarkRegex> [<resultJsonFile>]]");
+			System.exit(-1);
+		}
+		final ChainedOptionsBuilder options = new OptionsBuilder()
+				.include(args.length > 0 ? args[0]
+						: BenchmarkRunner.class.getPackage().getName() + ".*")
+				.addProfiler(GCProfiler.class);
+		if (args.length > 1) {
+			options.resultFormat(ResultFormatType.JSON).result(args[1]);
+		}
+		new Runner(options.build()).run();
+	}
+
+	private BenchmarkRunner() {
+		// Cannot be constructed.
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import committools.data.CommitTable;
+import committools.data.GitCommitUtils;
+
+/**
+ * Benchmark the enumeration of the commits of a repository.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CommitWalkBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int nCommits;
+
+	private File directory;
+
+	private Git git;
+
+	@Benchmark
+	public List<RevCommit> baseWalk() throws Exception {
+		return GitCommitUtils.getAllBaseCommits(git);
+	}
+
+	@Benchmark
+	public CommitTable commitTable() throws Exception {
+		return CommitTable.build(git);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		directory = BenchmarkRepository.create(nCommits, 50, 1);
+		git = GitCommitUtils.getGitRepository(directory.getAbsolutePath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		git.getRepository().close();
+		BenchmarkRepository.delete(directory);
+	}
+
+	@Benchmark
+	public List<RevCommit> topologicalWalk() throws Exception {
+		return GitCommitUtils.getAllCommitsTopological(git);
+	}
+}
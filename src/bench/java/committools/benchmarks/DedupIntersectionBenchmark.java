@@ -0,0 +1,104 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import committools.deduplication.CommitIdSet;
+
+/**
+ * Benchmark intersecting the commit id sets of two repositories, as done for
+ * each pair of repositories during deduplication.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DedupIntersectionBenchmark {
+
+	private static final int THRESHOLD = 10;
+
+	@Param({ "10000" })
+	public int size;
+
+	/**
+	 * The ratio of the sizes of the two sets.
+	 */
+	@Param({ "1", "100" })
+	public int sizeRatio;
+
+	/**
+	 * The fraction of the smaller set shared with the larger one.
+	 */
+	@Param({ "0", "0.5" })
+	public double sharedFraction;
+
+	private Set<ObjectId> hashSetA;
+
+	private Set<ObjectId> hashSetB;
+
+	private CommitIdSet idSetA;
+
+	private CommitIdSet idSetB;
+
+	@Benchmark
+	public int commitIdSetCountCommon() {
+		return idSetA.countCommon(idSetB);
+	}
+
+	@Benchmark
+	public boolean commitIdSetSharesMoreThan() {
+		return idSetA.sharesMoreThan(idSetB, THRESHOLD);
+	}
+
+	@Benchmark
+	public int hashSetIntersection() {
+		return Sets.intersection(hashSetA, hashSetB).size();
+	}
+
+	private static ObjectId randomId(final Random random) {
+		final byte[] raw = new byte[20];
+		random.nextBytes(raw);
+		return ObjectId.fromRaw(raw);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Random random = new Random(1);
+		final List<ObjectId> a = Lists.newArrayList();
+		final List<ObjectId> b = Lists.newArrayList();
+		for (int i = 0; i < size; i++) {
+			a.add(randomId(random));
+		}
+		for (int i = 0; i < size * sizeRatio; i++) {
+			b.add(i < size * sharedFraction ? a.get(i) : randomId(random));
+		}
+		hashSetA = Sets.newHashSet(a);
+		hashSetB = Sets.newHashSet(b);
+		idSetA = CommitIdSet.of(a);
+		idSetB = CommitIdSet.of(b);
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+
+import committools.data.EditListRetriever;
+import committools.data.GitCommitUtils;
+import committools.data.TokenDiff;
+
+/**
+ * Benchmark the stages of retrieving the edit lists of a history: loading
+ * blobs, detecting renames, diffing with {@link MyersDiff} (by line and by
+ * token) and computing the change churn. Each benchmark processes the changes of all the commits of
+ * the repository.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DiffBenchmark {
+
+	private static final int N_COMMITS = 500;
+
+	private File directory;
+
+	private Git git;
+
+	private final List<RevCommit> commits = Lists.newArrayList();
+
+	/**
+	 * The (rename-less) diff entries of each commit.
+	 */
+	private final List<List<DiffEntry>> diffEntries = Lists.newArrayList();
+
+	/**
+	 * The old and new content of each modified file.
+	 */
+	private final List<RawText[]> modifiedFiles = Lists.newArrayList();
+
+	private final List<ObjectId> blobIds = Lists.newArrayList();
+
+	private final List<EditList> editLists = Lists.newArrayList();
+
+	@Benchmark
+	public void changeChurn(final Blackhole blackhole) {
+		for (final EditList editList : editLists) {
+			blackhole.consume(EditListRetriever.getChangeChurn(editList));
+		}
+	}
+
+	@Benchmark
+	public void editListRetriever(final Blackhole blackhole) throws Exception {
+		final EditListRetriever retriever = new EditListRetriever(git,
+				TrueFileFilter.TRUE);
+		for (final RevCommit commit : commits) {
+			if (commit.getParentCount() == 1) {
+				blackhole.consume(retriever.retrieveEditListBetween(commit,
+						commit.getParent(0)));
+			}
+		}
+	}
+
+	@Benchmark
+	public long loadBlobs() throws IOException {
+		final ObjectReader reader = git.getRepository().newObjectReader();
+		long nBytes = 0;
+		try {
+			for (final ObjectId blobId : blobIds) {
+				nBytes += reader.open(blobId, Constants.OBJ_BLOB)
+						.getCachedBytes().length;
+			}
+		} finally {
+			reader.release();
+		}
+		return nBytes;
+	}
+
+	@Benchmark
+	public void myersDiff(final Blackhole blackhole) {
+		for (final RawText[] file : modifiedFiles) {
+			blackhole.consume(MyersDiff.INSTANCE.diff(
+					RawTextComparator.WS_IGNORE_ALL, file[0], file[1]));
+		}
+	}
+
+	@Benchmark
+	public void renameDetection(final Blackhole blackhole) throws IOException {
+		final RenameDetector renameDetector = new RenameDetector(
+				git.getRepository());
+		for (final List<DiffEntry> entries : diffEntries) {
+			renameDetector.reset();
+			renameDetector.addAll(entries);
+			blackhole.consume(renameDetector.compute());
+		}
+	}
+
+	@Benchmark
+	public void tokenDiffRetriever(final Blackhole blackhole) throws Exception {
+		final EditListRetriever retriever = new EditListRetriever(git,
+				TrueFileFilter.TRUE);
+		final EditListRetriever.ITokenDiffCallback callback = new EditListRetriever.ITokenDiffCallback() {
+
+			@Override
+			public void visitDiffEntry(final DiffEntry entry,
+					final TokenDiff tokenDiff, final RevCommit commit) {
+				blackhole.consume(tokenDiff);
+			}
+		};
+		for (final RevCommit commit : commits) {
+			if (commit.getParentCount() == 1) {
+				retriever.retrieveTokenDiffBetweenAndCallback(commit,
+						commit.getParent(0), callback);
+			}
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		directory = BenchmarkRepository.create(N_COMMITS, 50, 1);
+		git = GitCommitUtils.getGitRepository(directory.getAbsolutePath());
+		commits.addAll(GitCommitUtils.getAllBaseCommits(git));
+
+		final ObjectReader reader = git.getRepository().newObjectReader();
+		final TreeWalk treeWalk = new TreeWalk(reader);
+		try {
+			for (final RevCommit commit : commits) {
+				if (commit.getParentCount() != 1) {
+					continue;
+				}
+				treeWalk.reset(commit.getParent(0).getTree(), commit.getTree());
+				final List<DiffEntry> entries = DiffEntry.scan(treeWalk);
+				diffEntries.add(entries);
+				for (final DiffEntry entry : entries) {
+					if (entry.getChangeType() != DiffEntry.ChangeType.MODIFY) {
+						continue;
+					}
+					final ObjectId oldId = entry.getOldId().toObjectId();
+					final ObjectId newId = entry.getNewId().toObjectId();
+					blobIds.add(oldId);
+					blobIds.add(newId);
+					final RawText[] file = new RawText[] {
+							new RawText(reader.open(oldId).getCachedBytes()),
+							new RawText(reader.open(newId).getCachedBytes()) };
+					modifiedFiles.add(file);
+					editLists.add(MyersDiff.INSTANCE.diff(
+							RawTextComparator.WS_IGNORE_ALL, file[0], file[1]));
+				}
+			}
+		} finally {
+			treeWalk.release();
+			reader.release();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		git.getRepository().close();
+		BenchmarkRepository.delete(directory);
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.PersonIdent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import committools.data.CommiterIdentityResolver;
+import committools.data.GitCommiterIdentity;
+
+/**
+ * Benchmark aggregating commits per commiter identity.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IdentityAggregationBenchmark {
+
+	private static final int N_COMMITS = 100000;
+
+	@Param({ "10", "1000" })
+	public int nAuthors;
+
+	private final List<PersonIdent> authors = Lists.newArrayList();
+
+	@Benchmark
+	public Map<GitCommiterIdentity, Integer> identityMap() {
+		final Map<GitCommiterIdentity, Integer> commitsPerIdentity = Maps
+				.newHashMap();
+		for (final PersonIdent author : authors) {
+			final GitCommiterIdentity identity = new GitCommiterIdentity(author);
+			final Integer nCommits = commitsPerIdentity.get(identity);
+			commitsPerIdentity.put(identity, nCommits == null ? 1
+					: nCommits + 1);
+		}
+		return commitsPerIdentity;
+	}
+
+	@Benchmark
+	public int[] resolvedIdentities() {
+		final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+		final int[] identityIds = new int[authors.size()];
+		for (int i = 0; i < identityIds.length; i++) {
+			identityIds[i] = resolver.addIdentity(new GitCommiterIdentity(
+					authors.get(i)));
+		}
+		final int[] developerIds = resolver.resolve();
+		final int[] commitsPerDeveloper = new int[resolver.numIdentities()];
+		for (final int identityId : identityIds) {
+			commitsPerDeveloper[developerIds[identityId]]++;
+		}
+		return commitsPerDeveloper;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		final Random random = new Random(1);
+		for (int i = 0; i < N_COMMITS; i++) {
+			final int author = random.nextInt(nAuthors);
+			// Some authors use a second name with the same address
+			final String name = random.nextInt(10) == 0 ? "A. " + author
+					: "Author " + author;
+			authors.add(new PersonIdent(name, "author" + author
+					+ "@example.org"));
+		}
+	}
+}
@@ -0,0 +1,472 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand.ResetType;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import committools.data.ActiveCommiterData;
+import committools.data.CommitLogMatches;
+import committools.data.CommitMessageIndex;
+import committools.data.DeveloperDictionary;
+import committools.data.InternalExternalCommiterData;
+import committools.data.RepositorySnapshot;
+import committools.data.SyntheticRepositoryGenerator;
+import committools.data.tui.BaseCommitPrinter;
+import committools.dataextractors.BugIntroducingCommits;
+import committools.dataextractors.LineLifecycle;
+import committools.dataextractors.LinesOfCodeTimeSeries;
+import committools.deduplication.IncrementalDeduplicator;
+import committools.deduplication.InvertedIndexDeduplicator;
+import committools.deduplication.MinHashDeduplicator;
+import committools.deduplication.ParallelDeduplicator;
+import committools.deduplication.RepositoryDeduplicator;
+
+/**
+ * Run the command line tools end-to-end on a generated corpus and compare
+ * their resource use and output with a stored baseline.
+ *
+ * Each tool runs in its own JVM (through {@link MacroBenchmarkLauncher}) a
+ * few times. The median wall, CPU and GC time and the maximum peak heap and
+ * resident set size are recorded, along with a checksum of the output. The
+ * checksum ignores the order of the output lines, since the parallel tools
+ * print in no particular order. Tools that change their input repository run
+ * on a fresh copy of it and tools that keep state start from an empty state
+ * directory.
+ *
+ * When checking against a baseline, a metric regresses when it grows by more
+ * than the tolerance (and by more than a small absolute amount, to ignore
+ * noise in short runs). A changed checksum is always reported. Checking
+ * without a baseline file records one instead, since the baseline depends on
+ * the machine and is not part of the sources.
+ */
+public final class MacroBenchmark {
+
+	/**
+	 * A run of a tool. The arguments may refer to the directory of the corpus
+	 * repositories as ${repos}, to the corpus as ${corpus} and to the state
+	 * directory as ${state}.
+	 */
+	private static final class Case {
+		final String name;
+		final Class<?> mainClass;
+
+		/**
+		 * The corpus repository to copy into the state directory before
+		 * each run, or null.
+		 */
+		final String workingCopy;
+
+		final String[] args;
+
+		Case(final String name, final Class<?> mainClass,
+				final String workingCopy, final String... args) {
+			this.name = name;
+			this.mainClass = mainClass;
+			this.workingCopy = workingCopy;
+			this.args = args;
+		}
+	}
+
+	/**
+	 * The aggregated measurements of the runs of a case.
+	 */
+	private static final class Measurement {
+		final long[] metrics = new long[METRICS.length];
+		String checksum;
+	}
+
+	private static final String[] METRICS = { "wallTime",
+			MacroBenchmarkLauncher.CPU_TIME, MacroBenchmarkLauncher.GC_TIME,
+			MacroBenchmarkLauncher.PEAK_HEAP, MacroBenchmarkLauncher.PEAK_RSS };
+
+	/**
+	 * The number of leading metrics that are times in milliseconds. The rest
+	 * are sizes in bytes.
+	 */
+	private static final int N_TIME_METRICS = 3;
+
+	private static final long MIN_TIME_DIFFERENCE = 100;
+
+	private static final long MIN_MEMORY_DIFFERENCE = 16 * 1024 * 1024;
+
+	private static final String NONDETERMINISTIC = "nondeterministic";
+
+	private static final String FAILED = "failed";
+
+	private static final String DEDUPLICATION_THRESHOLD = "100";
+
+	private static final List<Case> CASES = Arrays
+			.asList(new Case("parallelDeduplicator",
+					ParallelDeduplicator.class, null,
+					DEDUPLICATION_THRESHOLD, "${repos}"),
+					new Case("invertedIndexDeduplicator",
+							InvertedIndexDeduplicator.class, null,
+							DEDUPLICATION_THRESHOLD, "${repos}"),
+					new Case("minHashDeduplicator", MinHashDeduplicator.class,
+							null, DEDUPLICATION_THRESHOLD, "${repos}",
+							"${state}/sketches"),
+					new Case("incrementalDeduplicator",
+							IncrementalDeduplicator.class, null,
+							DEDUPLICATION_THRESHOLD, "${repos}",
+							"${state}/index"),
+					new Case("repositoryDeduplicator",
+							RepositoryDeduplicator.class, null, "${repos}",
+							DEDUPLICATION_THRESHOLD),
+					new Case("activeCommiters", ActiveCommiterData.class,
+							null, "multiple", "${repos}"),
+					new Case("internalExternalCommiters",
+							InternalExternalCommiterData.class, null,
+							"${repos}"),
+					new Case("commitLogMatches", CommitLogMatches.class, null,
+							"multiple", "${repos}", "-i", "-k", "change",
+							"merge"),
+					new Case("commitMessageIndex", CommitMessageIndex.class,
+							null, "update", "${state}/messages", "${repos}"),
+					new Case("developerDictionary", DeveloperDictionary.class,
+							null, "${state}/developers", "${repos}"),
+					new Case("repositorySnapshot", RepositorySnapshot.class,
+							null, "multiple", "${repos}"),
+					new Case("linesOfCode", LinesOfCodeTimeSeries.class, null,
+							"${repos}/project", "7"),
+					new Case("bugIntroducingCommits",
+							BugIntroducingCommits.class, null,
+							"${repos}/project", "regex", "Change [0-9]*7$"),
+					new Case("lineLifecycle", LineLifecycle.class,
+							"lifecycle", "${state}/lifecycle"),
+					new Case("baseCommits", BaseCommitPrinter.class, null,
+							"${repos}/project"));
+
+	/**
+	 * Return the measurements of the cases in the baseline file.
+	 */
+	private static SortedMap<String, Measurement> readBaseline(
+			final File baselineFile) throws IOException {
+		final SortedMap<String, Measurement> baseline = Maps.newTreeMap();
+		final List<String> lines = Files.readLines(baselineFile,
+				Charsets.UTF_8);
+		for (final String line : lines.subList(1, lines.size())) {
+			final String[] fields = line.split(",");
+			checkArgument(fields.length == METRICS.length + 2,
+					"Malformed baseline line: %s", line);
+			final Measurement measurement = new Measurement();
+			for (int i = 0; i < METRICS.length; i++) {
+				measurement.metrics[i] = Long.parseLong(fields[i + 1]);
+			}
+			measurement.checksum = fields[METRICS.length + 1];
+			baseline.put(fields[0], measurement);
+		}
+		return baseline;
+	}
+
+	/**
+	 * Generate the corpus, if it does not exist. The corpus is deterministic,
+	 * so it can be reused across runs.
+	 */
+	private static void generateCorpus(final File corpus) throws IOException {
+		if (corpus.exists()) {
+			return;
+		}
+		final File partialCorpus = new File(corpus.getPath() + ".partial");
+		FileUtils.deleteDirectory(partialCorpus);
+		final File repos = new File(partialCorpus, "repos");
+		new SyntheticRepositoryGenerator().setNumCommits(500).setNumFiles(100)
+				.setNumAuthors(20).setBinaryFraction(.05)
+				.generateFamily(repos, "project", 3, 100);
+		new SyntheticRepositoryGenerator().setNumCommits(1000)
+				.setNumFiles(300).setNumAuthors(40).setSeed(1)
+				.setRenameProbability(.05).generate(new File(repos, "library"));
+		new SyntheticRepositoryGenerator().setNumCommits(300).setNumFiles(50)
+				.setNumAuthors(5).setSeed(2).setBranchProbability(.2)
+				.generate(new File(repos, "tool"));
+		new SyntheticRepositoryGenerator().setNumCommits(100).setNumFiles(20)
+				.setSeed(3).setBranchProbability(0)
+				.generate(new File(partialCorpus, "lifecycle"));
+		if (!partialCorpus.renameTo(corpus)) {
+			throw new IOException("Could not create " + corpus);
+		}
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 3 || args.length > 5) {
+			System.err
+					.println("Usage record|check <workDirectory> <baselineFile> [<repetitions> [<tolerance>]]");
+			System.exit(-1);
+		}
+		final boolean record;
+		if (args[0].equals("record")) {
+			record = true;
+		} else if (args[0].equals("check")) {
+			record = false;
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[0]);
+		}
+		final File baselineFile = new File(args[2]);
+		final int repetitions = args.length > 3 ? Integer.parseInt(args[3])
+				: 3;
+		final double tolerance = args.length > 4 ? Double
+				.parseDouble(args[4]) : .1;
+		checkArgument(repetitions > 0 && tolerance >= 0);
+
+		final MacroBenchmark benchmark = new MacroBenchmark(new File(args[1]));
+		final SortedMap<String, Measurement> measurements = Maps.newTreeMap();
+		for (final Case benchmarkCase : CASES) {
+			measurements.put(benchmarkCase.name,
+					benchmark.measure(benchmarkCase, repetitions));
+		}
+
+		if (record) {
+			writeBaseline(baselineFile, measurements);
+			System.out.println("Baseline written to " + baselineFile);
+		} else if (!baselineFile.exists()) {
+			writeBaseline(baselineFile, measurements);
+			System.out.println("No baseline to check against, recorded "
+					+ baselineFile);
+		} else {
+			final int nRegressions = compare(readBaseline(baselineFile),
+					measurements, tolerance);
+			System.out.println(nRegressions + " regressions");
+			if (nRegressions > 0) {
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Print the changes of the measurements against the baseline and return
+	 * the number of regressions.
+	 */
+	private static int compare(final SortedMap<String, Measurement> baseline,
+			final SortedMap<String, Measurement> measurements,
+			final double tolerance) {
+		int nRegressions = 0;
+		System.out.println("case,metric,baseline,current,change,status");
+		for (final Map.Entry<String, Measurement> entry : measurements
+				.entrySet()) {
+			final Measurement current = entry.getValue();
+			final Measurement previous = baseline.get(entry.getKey());
+			if (previous == null) {
+				System.out.println(entry.getKey() + ",,,,,NO_BASELINE");
+				continue;
+			}
+			for (int i = 0; i < METRICS.length; i++) {
+				final long before = previous.metrics[i];
+				final long after = current.metrics[i];
+				if (before < 0 || after < 0) {
+					continue; // Not available
+				}
+				final long minDifference = i < N_TIME_METRICS ? MIN_TIME_DIFFERENCE
+						: MIN_MEMORY_DIFFERENCE;
+				final boolean regressed = after > before * (1 + tolerance)
+						&& after - before > minDifference;
+				if (regressed) {
+					nRegressions++;
+				}
+				System.out.println(entry.getKey()
+						+ ","
+						+ METRICS[i]
+						+ ","
+						+ before
+						+ ","
+						+ after
+						+ ","
+						+ String.format("%+.1f%%", before == 0 ? 0
+								: 100. * (after - before) / before) + ","
+						+ (regressed ? "REGRESSION" : "OK"));
+			}
+			final boolean outputChanged = current.checksum.equals(FAILED)
+					|| !previous.checksum.equals(NONDETERMINISTIC)
+					&& !previous.checksum.equals(current.checksum);
+			if (outputChanged) {
+				nRegressions++;
+			}
+			System.out.println(entry.getKey() + ",checksum,"
+					+ previous.checksum + "," + current.checksum + ",,"
+					+ (outputChanged ? "CHANGED_OUTPUT" : "OK"));
+		}
+		return nRegressions;
+	}
+
+	private static long median(final List<Long> values) {
+		Collections.sort(values);
+		return values.get(values.size() / 2);
+	}
+
+	private static void writeBaseline(final File baselineFile,
+			final SortedMap<String, Measurement> measurements)
+			throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("case,").append(Joiner.on(',').join(METRICS))
+				.append(",checksum\n");
+		for (final Map.Entry<String, Measurement> entry : measurements
+				.entrySet()) {
+			sb.append(entry.getKey());
+			for (final long value : entry.getValue().metrics) {
+				sb.append(',').append(value);
+			}
+			sb.append(',').append(entry.getValue().checksum).append('\n');
+		}
+		Files.write(sb.toString(), baselineFile, Charsets.UTF_8);
+	}
+
+	private final File workDirectory;
+
+	private final File corpus;
+
+	private final File stateDirectory;
+
+	private final File outputDirectory;
+
+	private MacroBenchmark(final File workDirectory) throws IOException {
+		this.workDirectory = workDirectory.getAbsoluteFile();
+		corpus = new File(this.workDirectory, "corpus");
+		stateDirectory = new File(this.workDirectory, "state");
+		outputDirectory = new File(this.workDirectory, "output");
+		generateCorpus(corpus);
+		FileUtils.forceMkdir(outputDirectory);
+	}
+
+	/**
+	 * Return a checksum of the lines of the output, independent of their
+	 * order and of the location of the work directory.
+	 */
+	private String getChecksum(final File output) throws IOException {
+		final List<String> lines = Lists.newArrayList();
+		for (final String line : Files.readLines(output, Charsets.UTF_8)) {
+			lines.add(line.replace(workDirectory.getPath(), "<work>"));
+		}
+		Collections.sort(lines);
+		final Hasher hasher = Hashing.sha1().newHasher();
+		for (final String line : lines) {
+			hasher.putString(line, Charsets.UTF_8).putByte((byte) '\n');
+		}
+		return hasher.hash().toString();
+	}
+
+	private Measurement measure(final Case benchmarkCase, final int repetitions)
+			throws IOException, InterruptedException {
+		final List<List<Long>> values = Lists.newArrayList();
+		for (int i = 0; i < METRICS.length; i++) {
+			values.add(Lists.<Long> newArrayList());
+		}
+		final Measurement measurement = new Measurement();
+		for (int i = 0; i < repetitions; i++) {
+			final long[] metrics = new long[METRICS.length];
+			final String checksum = run(benchmarkCase, metrics);
+			for (int j = 0; j < METRICS.length; j++) {
+				values.get(j).add(metrics[j]);
+			}
+			if (measurement.checksum == null) {
+				measurement.checksum = checksum;
+			} else if (!measurement.checksum.equals(checksum)
+					&& !measurement.checksum.equals(FAILED)) {
+				measurement.checksum = checksum.equals(FAILED) ? FAILED
+						: NONDETERMINISTIC;
+			}
+		}
+		for (int i = 0; i < METRICS.length; i++) {
+			measurement.metrics[i] = i < N_TIME_METRICS ? median(values.get(i))
+					: Collections.max(values.get(i));
+		}
+		System.err.println(benchmarkCase.name + ": "
+				+ measurement.metrics[0] + "ms " + measurement.checksum);
+		return measurement;
+	}
+
+	/**
+	 * Run the case once, fill in its metrics and return the checksum of its
+	 * output.
+	 */
+	private String run(final Case benchmarkCase, final long[] metrics)
+			throws IOException, InterruptedException {
+		FileUtils.deleteDirectory(stateDirectory);
+		FileUtils.forceMkdir(stateDirectory);
+		if (benchmarkCase.workingCopy != null) {
+			final File workingCopy = new File(stateDirectory,
+					benchmarkCase.workingCopy);
+			FileUtils.copyDirectory(new File(corpus, benchmarkCase.workingCopy),
+					workingCopy);
+			final Git git = Git.open(workingCopy);
+			try {
+				git.reset().setMode(ResetType.HARD).call();
+			} catch (final GitAPIException e) {
+				throw new IOException(e);
+			} finally {
+				git.close();
+			}
+		}
+
+		final File metricsFile = new File(outputDirectory, benchmarkCase.name
+				+ ".metrics");
+		final File output = new File(outputDirectory, benchmarkCase.name
+				+ ".out");
+		final List<String> command = Lists.newArrayList(
+				new File(System.getProperty("java.home"), "bin/java").getPath(),
+				"-cp", System.getProperty("java.class.path"),
+				MacroBenchmarkLauncher.class.getName(), metricsFile.getPath(),
+				benchmarkCase.mainClass.getName());
+		for (final String arg : benchmarkCase.args) {
+			command.add(arg
+					.replace("${repos}", new File(corpus, "repos").getPath())
+					.replace("${corpus}", corpus.getPath())
+					.replace("${state}", stateDirectory.getPath()));
+		}
+		FileUtils.deleteQuietly(metricsFile);
+		final long start = System.nanoTime();
+		final Process process = new ProcessBuilder(command)
+				.redirectOutput(output)
+				.redirectError(
+						new File(outputDirectory, benchmarkCase.name + ".err"))
+				.start();
+		final int exitValue = process.waitFor();
+		metrics[0] = (System.nanoTime() - start) / 1000000;
+
+		final Properties properties = new Properties();
+		if (metricsFile.exists()) {
+			final InputStream in = new FileInputStream(metricsFile);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		for (int i = 1; i < METRICS.length; i++) {
+			metrics[i] = Long.parseLong(properties.getProperty(METRICS[i],
+					"-1"));
+		}
+		if (exitValue != 0) {
+			System.err.println(benchmarkCase.name + " exited with "
+					+ exitValue);
+			return FAILED;
+		}
+		return getChecksum(output);
+	}
+}
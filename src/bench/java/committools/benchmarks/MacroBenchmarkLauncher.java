@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package committools.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Run the main method of a tool in this JVM and, when the JVM exits, write the
+ * resources it used into a properties file. Used by {@link MacroBenchmark} to
+ * measure each tool in its own JVM.
+ */
+public final class MacroBenchmarkLauncher {
+
+	static final String CPU_TIME = "cpuTime";
+
+	static final String GC_TIME = "gcTime";
+
+	static final String PEAK_HEAP = "peakHeap";
+
+	static final String PEAK_RSS = "peakRss";
+
+	/**
+	 * Return the CPU time of the process in milliseconds or -1 if it is not
+	 * available.
+	 */
+	private static long getCpuTime() {
+		final OperatingSystemMXBean bean = ManagementFactory
+				.getOperatingSystemMXBean();
+		if (bean instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) bean)
+					.getProcessCpuTime() / 1000000;
+		}
+		return -1;
+	}
+
+	private static long getGcTime() {
+		long gcTime = 0;
+		for (final GarbageCollectorMXBean bean : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			gcTime += Math.max(0, bean.getCollectionTime());
+		}
+		return gcTime;
+	}
+
+	private static long getPeakHeap() {
+		long peakHeap = 0;
+		for (final MemoryPoolMXBean pool : ManagementFactory
+				.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peakHeap += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peakHeap;
+	}
+
+	/**
+	 * Return the peak resident set size in bytes or -1 if it is not available
+	 * (it is only read on Linux).
+	 */
+	private static long getPeakRss() {
+		final File status = new File("/proc/self/status");
+		if (!status.exists()) {
+			return -1;
+		}
+		try {
+			final BufferedReader reader = new BufferedReader(new FileReader(
+					status));
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("VmHWM:")) {
+						final String[] fields = line.trim().split("\\s+");
+						return Long.parseLong(fields[1]) * 1024;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (final IOException e) {
+			// Not available
+		}
+		return -1;
+	}
+
+	/**
+	 * @param args
+	 * @throws Throwable
+	 */
+	public static void main(final String[] args) throws Throwable {
+		if (args.length < 2) {
+			System.err.println("Usage <metricsFile> <mainClass> [<args>...]");
+			System.exit(-1);
+		}
+		final File metricsFile = new File(args[0]);
+		// Tools may call System.exit(), so write the metrics on shutdown
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				writeMetrics(metricsFile);
+			}
+		});
+		try {
+			Class.forName(args[1])
+					.getMethod("main", String[].class)
+					.invoke(null,
+							(Object) Arrays.copyOfRange(args, 2, args.length));
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static void writeMetrics(final File metricsFile) {
+		final Properties metrics = new Properties();
+		metrics.setProperty(CPU_TIME, Long.toString(getCpuTime()));
+		metrics.setProperty(GC_TIME, Long.toString(getGcTime()));
+		metrics.setProperty(PEAK_HEAP, Long.toString(getPeakHeap()));
+		metrics.setProperty(PEAK_RSS, Long.toString(getPeakRss()));
+		try {
+			final OutputStream out = new FileOutputStream(metricsFile);
+			try {
+				metrics.store(out, null);
+			} finally {
+				out.close();
+			}
+		} catch (final IOException e) {
+			System.err.println("Failed to write " + metricsFile + ": " + e);
+		}
+	}
+
+	private MacroBenchmarkLauncher() {
+		// Cannot be constructed.
+	}
+}
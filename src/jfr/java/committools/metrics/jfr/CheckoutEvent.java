@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The checkout of a commit into the working tree by a repository file walker.
+ */
+@Name("committools.Checkout")
+@Label("Checkout")
+@Category({ "Commit Tools", "Walk" })
+@Description("The checkout of a commit into the working tree")
+final class CheckoutEvent extends Event {
+
+	@Label("Repository")
+	String repository;
+
+	@Label("Commit")
+	String commit;
+}
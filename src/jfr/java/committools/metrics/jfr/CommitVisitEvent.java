@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The visit of a single commit by a commit walker.
+ */
+@Name("committools.CommitVisit")
+@Label("Commit Visit")
+@Category({ "Commit Tools", "Walk" })
+@Description("The visit of a commit by a commit walker")
+final class CommitVisitEvent extends Event {
+
+	@Label("Repository")
+	String repository;
+
+	@Label("Commit")
+	String commit;
+}
@@ -0,0 +1,38 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * The comparison of the commits of two repositories by a deduplicator. There
+ * are many comparisons, so by default only the slow ones are recorded.
+ */
+@Name("committools.DeduplicationComparison")
+@Label("Deduplication Comparison")
+@Category({ "Commit Tools", "Deduplication" })
+@Description("The comparison of the commits of two repositories")
+@Threshold("1 ms")
+final class DeduplicationComparisonEvent extends Event {
+
+	@Label("Repository")
+	String repository;
+
+	@Label("Other Repository")
+	String otherRepository;
+
+	@Label("Commits")
+	int commits;
+
+	@Label("Other Commits")
+	int otherCommits;
+
+	@Label("Duplicate")
+	boolean duplicate;
+}
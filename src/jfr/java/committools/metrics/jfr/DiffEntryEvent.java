@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The retrieval of the edit list of a single file change: loading both blobs
+ * and diffing them.
+ */
+@Name("committools.DiffEntry")
+@Label("Diff Entry")
+@Category({ "Commit Tools", "Diff" })
+@Description("Loading and diffing the blobs of a file change")
+final class DiffEntryEvent extends Event {
+
+	@Label("Repository")
+	String repository;
+
+	@Label("Commit")
+	String commit;
+
+	@Label("Path")
+	String path;
+
+	@Label("Change Type")
+	String changeType;
+
+	@Label("Old Size")
+	@DataAmount
+	long oldSize;
+
+	@Label("New Size")
+	@DataAmount
+	long newSize;
+
+	@Label("Edits")
+	int edits;
+
+	@Label("Diff Time")
+	@Description("The time spent in the diff algorithm")
+	@Timespan(Timespan.NANOSECONDS)
+	long diffTime;
+}
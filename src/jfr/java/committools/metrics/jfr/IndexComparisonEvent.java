@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The comparison of all the repositories of an inverted index of their
+ * commits by a deduplicator. Unlike pairwise comparisons, there is one per
+ * run, so all of them are recorded.
+ */
+@Name("committools.IndexComparison")
+@Label("Index Comparison")
+@Category({ "Commit Tools", "Deduplication" })
+@Description("The comparison of all the repositories of an inverted commit index")
+final class IndexComparisonEvent extends Event {
+
+	@Label("Deduplicator")
+	String deduplicator;
+
+	@Label("Repositories")
+	int repositories;
+
+	@Label("Shared Commit Groups")
+	int sharedCommitGroups;
+
+	@Label("Sharing Pairs")
+	int sharingPairs;
+
+	@Label("Duplicate Pairs")
+	int duplicatePairs;
+}
@@ -0,0 +1,172 @@
+/**
+ *
+ */
+package committools.metrics.jfr;
+
+import java.io.File;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+import committools.metrics.ITracer;
+
+/**
+ * Trace the operations of the tools as Java Flight Recorder events. Events
+ * are only created when they are enabled in the running recording.
+ */
+public final class JfrTracer implements ITracer {
+
+	private static String getName(final Repository repository) {
+		final File directory = repository.getDirectory();
+		if (directory.getName().equals(Constants.DOT_GIT)) {
+			return directory.getParent();
+		}
+		return directory.getPath();
+	}
+
+	@Override
+	public Object beginCheckout() {
+		final CheckoutEvent event = new CheckoutEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginCommitVisit() {
+		final CommitVisitEvent event = new CommitVisitEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginComparison() {
+		final DeduplicationComparisonEvent event = new DeduplicationComparisonEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginDiffEntry() {
+		final DiffEntryEvent event = new DiffEntryEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public Object beginIndexComparison() {
+		final IndexComparisonEvent event = new IndexComparisonEvent();
+		if (!event.isEnabled()) {
+			return null;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void endCheckout(final Object span, final Repository repository,
+			final AnyObjectId commit) {
+		if (span == null) {
+			return;
+		}
+		final CheckoutEvent event = (CheckoutEvent) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.repository = getName(repository);
+			event.commit = commit.name();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void endCommitVisit(final Object span, final Repository repository,
+			final AnyObjectId commit) {
+		if (span == null) {
+			return;
+		}
+		final CommitVisitEvent event = (CommitVisitEvent) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.repository = getName(repository);
+			event.commit = commit.name();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void endComparison(final Object span, final String repository,
+			final String otherRepository, final int nCommits,
+			final int nOtherCommits, final boolean duplicate) {
+		if (span == null) {
+			return;
+		}
+		final DeduplicationComparisonEvent event = (DeduplicationComparisonEvent) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.repository = repository;
+			event.otherRepository = otherRepository;
+			event.commits = nCommits;
+			event.otherCommits = nOtherCommits;
+			event.duplicate = duplicate;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void endDiffEntry(final Object span, final Repository repository,
+			final AnyObjectId commit, final DiffEntry entry,
+			final long oldSize, final long newSize, final int nEdits,
+			final long diffNanos) {
+		if (span == null) {
+			return;
+		}
+		final DiffEntryEvent event = (DiffEntryEvent) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.repository = getName(repository);
+			event.commit = commit.name();
+			event.path = entry.getChangeType() == ChangeType.DELETE ? entry
+					.getOldPath() : entry.getNewPath();
+			event.changeType = entry.getChangeType().name();
+			event.oldSize = oldSize;
+			event.newSize = newSize;
+			event.edits = nEdits;
+			event.diffTime = diffNanos;
+			event.commit();
+		}
+	}
+
+	@Override
+	public void endIndexComparison(final Object span,
+			final String deduplicator, final int nRepositories,
+			final int nSharedCommitGroups, final int nSharingPairs,
+			final int nDuplicatePairs) {
+		if (span == null) {
+			return;
+		}
+		final IndexComparisonEvent event = (IndexComparisonEvent) span;
+		event.end();
+		if (event.shouldCommit()) {
+			event.deduplicator = deduplicator;
+			event.repositories = nRepositories;
+			event.sharedCommitGroups = nSharedCommitGroups;
+			event.sharingPairs = nSharingPairs;
+			event.duplicatePairs = nDuplicatePairs;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ *
+ */
+package committools.data;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * A filter that visits each commit while its body is available and then
+ * rejects it, so that the walker can immediately discard the body. Walking
+ * with such a filter scans all the commits without retaining any of them.
+ */
+abstract class AbstractCommitBodyScanner extends RevFilter {
+
+	@Override
+	public final RevFilter clone() {
+		return this;
+	}
+
+	@Override
+	public final boolean include(final RevWalk walker, final RevCommit commit) {
+		visit(commit);
+		return false;
+	}
+
+	@Override
+	public final boolean requiresCommitBody() {
+		return true;
+	}
+
+	/**
+	 * Visit a commit, whose raw buffer is available.
+	 */
+	protected abstract void visit(final RevCommit commit);
+}
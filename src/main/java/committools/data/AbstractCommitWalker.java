@@ -16,6 +16,11 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
 import org.eclipse.jgit.revwalk.RevCommit;
 
+import committools.metrics.Counter;
+import committools.metrics.Metrics;
+import committools.metrics.Timer;
+import committools.metrics.Tracing;
+
 /**
  * Commit Walker that visits the commit in a topological order.
  * 
@@ -75,6 +80,14 @@ public abstract class AbstractCommitWalker {
 	private static final Logger LOGGER = Logger
 			.getLogger(AbstractCommitWalker.class.getName());
 
+	private static final Timer WALK_TIME = Metrics.timer("walker.getWalk");
+
+	private static final Timer VISIT_TIME = Metrics
+			.timer("walker.visitCommit");
+
+	private static final Counter VISITED_COMMITS = Metrics
+			.counter("walker.commits");
+
 	public AbstractCommitWalker(final String repositoryDirectory,
 			final ICommitWalkingStrategy walkingStrategy) throws IOException {
 		repository = GitCommitUtils.getGitRepository(repositoryDirectory);
@@ -90,14 +103,43 @@ public abstract class AbstractCommitWalker {
 	}
 
 	public void doWalk(final int startFrom, final int nCommits) {
+		doWalk(commitWalkingStrategy, startFrom, nCommits);
+	}
+
+	/**
+	 * Walk the commits given by the given strategy, instead of the strategy
+	 * of the walker.
+	 */
+	protected void doWalk(final ICommitWalkingStrategy walkingStrategy) {
+		doWalk(walkingStrategy, 0, Integer.MAX_VALUE);
+	}
+
+	private void doWalk(final ICommitWalkingStrategy walkingStrategy,
+			final int startFrom, final int nCommits) {
 		try {
-			final List<RevCommit> allCommits = commitWalkingStrategy
+			final long walkStart = WALK_TIME.start();
+			final List<RevCommit> allCommits = walkingStrategy
 					.getWalk(repository);
+			WALK_TIME.stop(walkStart);
 
 			int iteration = 0;
 			for (final RevCommit commit : allCommits) {
 				if (iteration >= startFrom) {
-					if (iteration > startFrom + nCommits || !vistCommit(commit)) {
+					if (iteration > startFrom + nCommits) {
+						break;
+					}
+					final long visitStart = VISIT_TIME.start();
+					final Object span = Tracing.TRACER.beginCommitVisit();
+					final boolean continueWalk;
+					try {
+						continueWalk = vistCommit(commit);
+					} finally {
+						Tracing.TRACER.endCommitVisit(span,
+								repository.getRepository(), commit);
+					}
+					VISIT_TIME.stop(visitStart);
+					VISITED_COMMITS.increment();
+					if (!continueWalk) {
 						break;
 					}
 				}
@@ -4,34 +4,160 @@
 package committools.data;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
-import java.util.logging.Logger;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.RawParseUtils;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
-import com.google.common.collect.RangeMap;
-import com.google.common.collect.TreeRangeMap;
+
+import committools.data.CompositeCommitWalker.ICommitVisitor;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
 
 /**
  * Extract the active committers through time from a single Git repository
  *
+ * If a state directory is set (see {@link IncrementalHistory}), the first and
+ * last commit of each author are kept and only the new commits are read on
+ * the next run.
+ *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
  */
 public class ActiveCommiterData {
 
+	/**
+	 * The first and last commit time of each author identity and of the
+	 * repository, updated while the commits are walked. This is the state
+	 * kept between incremental runs.
+	 */
+	private static final class AuthorActivity extends
+			AbstractCommitBodyScanner {
+
+		/**
+		 * The first and last commit time of each identity.
+		 */
+		final Map<GitCommiterIdentity, int[]> identityTimes = Maps
+				.newHashMap();
+
+		int firstCommitTime = Integer.MAX_VALUE;
+
+		int lastCommitTime = Integer.MIN_VALUE;
+
+		void addCommit(final GitCommiterIdentity identity, final int commitTime) {
+			if (commitTime < firstCommitTime) {
+				firstCommitTime = commitTime;
+			}
+			if (commitTime > lastCommitTime) {
+				lastCommitTime = commitTime;
+			}
+			if (identity == null) {
+				return;
+			}
+			final int[] times = identityTimes.get(identity);
+			if (times == null) {
+				identityTimes.put(identity,
+						new int[] { commitTime, commitTime });
+			} else if (commitTime < times[0]) {
+				times[0] = commitTime;
+			} else if (commitTime > times[1]) {
+				times[1] = commitTime;
+			}
+		}
+
+		@Override
+		protected void visit(final RevCommit commit) {
+			final byte[] raw = commit.getRawBuffer();
+			final int identStart = RawParseUtils.author(raw, 0);
+			addCommit(identStart < 0 ? null : new GitCommiterIdentity(
+					RawParseUtils.parsePersonIdent(raw, identStart)),
+					commit.getCommitTime());
+		}
+
+		void read(final DataInputStream in) throws IOException {
+			firstCommitTime = in.readInt();
+			lastCommitTime = in.readInt();
+			final int nIdentities = in.readInt();
+			for (int i = 0; i < nIdentities; i++) {
+				final GitCommiterIdentity identity = new GitCommiterIdentity(
+						in.readUTF(), in.readUTF());
+				identityTimes.put(identity,
+						new int[] { in.readInt(), in.readInt() });
+			}
+		}
+
+		/**
+		 * Merge the aliases of each author and return the activity of the
+		 * authors, as computed by {@link ActiveCommiterData#buildData(String)}.
+		 */
+		ActiveCommiterTimeSeries toTimeSeries() {
+			final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+			final List<int[]> times = Lists.newArrayList();
+			for (final Map.Entry<GitCommiterIdentity, int[]> entry : identityTimes
+					.entrySet()) {
+				resolver.addIdentity(entry.getKey());
+				times.add(entry.getValue());
+			}
+			final int[] developerIds = resolver.resolve();
+			int nDevelopers = 0;
+			for (final int developerId : developerIds) {
+				nDevelopers = Math.max(nDevelopers, developerId + 1);
+			}
+			final int[] activityStarts = new int[nDevelopers];
+			final int[] lastCommitTimes = new int[nDevelopers];
+			Arrays.fill(activityStarts, Integer.MAX_VALUE);
+			Arrays.fill(lastCommitTimes, Integer.MIN_VALUE);
+			for (int i = 0; i < developerIds.length; i++) {
+				final int developer = developerIds[i];
+				activityStarts[developer] = Math.min(activityStarts[developer],
+						times.get(i)[0]);
+				lastCommitTimes[developer] = Math.max(
+						lastCommitTimes[developer], times.get(i)[1]);
+			}
+			final int[] activityEnds = new int[nDevelopers];
+			for (int i = 0; i < nDevelopers; i++) {
+				activityEnds[i] = Math.max(activityStarts[i] + 1,
+						lastCommitTimes[i]);
+			}
+			return new ActiveCommiterTimeSeries(activityStarts, activityEnds,
+					firstCommitTime, lastCommitTime);
+		}
+
+		void write(final DataOutputStream out) throws IOException {
+			out.writeInt(firstCommitTime);
+			out.writeInt(lastCommitTime);
+			out.writeInt(identityTimes.size());
+			for (final Map.Entry<GitCommiterIdentity, int[]> entry : identityTimes
+					.entrySet()) {
+				out.writeUTF(entry.getKey().name);
+				out.writeUTF(entry.getKey().emailUsername);
+				out.writeInt(entry.getValue()[0]);
+				out.writeInt(entry.getValue()[1]);
+			}
+		}
+	}
+
 	/**
 	 * Return a map with the last commit of each user giving a grace period
-	 * around the last commit seen in allCommits.
+	 * around the last commit seen in allCommits. The aliases of each user are
+	 * merged and the user is represented by their first identity.
 	 *
 	 * @param allCommits
 	 * @param activeGracePeriod
@@ -40,13 +166,25 @@ public class ActiveCommiterData {
 	public static Map<GitCommiterIdentity, Range<Integer>> getCommitActivityTimePerUser(
 			final SortedMap<Integer, RevCommit> allCommits,
 			final int activeGracePeriod) {
+		final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+		for (final RevCommit commit : allCommits.values()) {
+			resolver.addIdentity(new GitCommiterIdentity(commit
+					.getAuthorIdent()));
+		}
+		final int[] developerIds = resolver.resolve();
+		final GitCommiterIdentity[] developers = new GitCommiterIdentity[developerIds.length];
+		for (int i = developerIds.length - 1; i >= 0; i--) {
+			developers[developerIds[i]] = resolver.getIdentity(i);
+		}
+
 		final Map<GitCommiterIdentity, Range<Integer>> commitRanges = Maps
 				.newHashMap();
 		// Get last commit time for all users and maxTime
 		int maxTime = 0;
 		for (final Map.Entry<Integer, RevCommit> commit : allCommits.entrySet()) {
-			final GitCommiterIdentity identity = new GitCommiterIdentity(commit
-					.getValue().getAuthorIdent());
+			final GitCommiterIdentity identity = developers[developerIds[resolver
+					.addIdentity(new GitCommiterIdentity(commit.getValue()
+							.getAuthorIdent()))]];
 			Range<Integer> commitRange = commitRanges.get(identity);
 			if (commitRange == null) {
 				commitRange = Range.closed(commit.getValue().getCommitTime(),
@@ -85,30 +223,97 @@ public class ActiveCommiterData {
 	 */
 	public static void main(final String[] args) throws NoHeadException,
 	IOException, GitAPIException {
-		if (args.length != 2) {
-			System.err.println("Usage single|multiple <directory>");
+		if (args.length < 2) {
+			System.err
+			.println("Usage single|multiple <directory> [<windowDays>:<gracePeriodDays>...]");
 			System.exit(-1);
 		}
+		final List<int[]> configurations = Lists.newArrayList();
+		for (int i = 2; i < args.length; i++) {
+			final String[] configuration = args[i].split(":");
+			checkArgument(configuration.length == 2,
+					"Expected <windowDays>:<gracePeriodDays> but got %s",
+					args[i]);
+			configurations.add(new int[] {
+					Integer.parseInt(configuration[0])
+							* CommitTimeUtils.SECONDS_PER_DAY,
+					Integer.parseInt(configuration[1])
+							* CommitTimeUtils.SECONDS_PER_DAY });
+		}
+
 		if (args[0].equals("single")) {
 			final ActiveCommiterData acd = new ActiveCommiterData();
-			acd.buildData(args[1]);
-			acd.printTimeSeries();
-			System.out.println("Activity Ratio: " + acd.getLastActivityRatio());
+			acd.buildData(args[1], IncrementalHistory.getStateFile(new File(
+					args[1]), STATE_NAME));
+			if (ResultSinks.isOutputFileSet()) {
+				final IResultSink sink = ResultSinks.open(TIME_SERIES_SCHEMA);
+				try {
+					if (configurations.isEmpty()) {
+						acd.writeTimeSeries("default", sink);
+					}
+					for (int i = 0; i < configurations.size(); i++) {
+						acd.setTimeSeries(configurations.get(i)[0],
+								configurations.get(i)[1]);
+						acd.writeTimeSeries(args[i + 2], sink);
+					}
+				} finally {
+					sink.close();
+				}
+				return;
+			}
+			if (configurations.isEmpty()) {
+				acd.printTimeSeries();
+				System.out.println("Activity Ratio: "
+						+ acd.getLastActivityRatio());
+			}
+			for (int i = 0; i < configurations.size(); i++) {
+				acd.setTimeSeries(configurations.get(i)[0],
+						configurations.get(i)[1]);
+				System.out.print(args[i + 2] + " ");
+				acd.printTimeSeries();
+			}
 		} else if (args[0].equals("multiple")) {
 			final File projectsDir = new File(args[1]);
 			checkArgument(projectsDir.isDirectory());
-			for (final File project : projectsDir.listFiles()) {
-				try {
-					final ActiveCommiterData acd = new ActiveCommiterData();
-					acd.buildData(project.getAbsolutePath());
-					System.out.println(project.getName() + ","
-							+ String.format("%.4f", acd.getLastActivityRatio())
-							+ "," + acd.getLastNumOfActiveCommiters());
-				} catch (final Throwable e) {
-					LOGGER.warning("Failed to extract information for "
-							+ project + " because "
-							+ ExceptionUtils.getFullStackTrace(e));
-				}
+			final IResultSink sink = ResultSinks
+					.open(newRepositorySchema(!configurations.isEmpty()));
+			try {
+				RepositoryThreadPool.writeForEachRepository(
+						projectsDir.listFiles(),
+						new RepositoryThreadPool.IRepositoryTask() {
+
+							@Override
+							public void process(final File project,
+									final IResultSink projectSink)
+									throws Exception {
+								final ActiveCommiterData acd = new ActiveCommiterData();
+								acd.buildData(project.getAbsolutePath(),
+										IncrementalHistory.getStateFile(
+												project, STATE_NAME));
+								if (configurations.isEmpty()) {
+									projectSink.writeString(project.getName());
+									projectSink.writeDouble(acd
+											.getLastActivityRatio());
+									projectSink.writeLong(acd
+											.getLastNumOfActiveCommiters());
+									projectSink.endRow();
+								}
+								for (int i = 0; i < configurations.size(); i++) {
+									acd.setTimeSeries(
+											configurations.get(i)[0],
+											configurations.get(i)[1]);
+									projectSink.writeString(project.getName());
+									projectSink.writeString(args[i + 2]);
+									projectSink.writeDouble(acd
+											.getLastActivityRatio());
+									projectSink.writeLong(acd
+											.getLastNumOfActiveCommiters());
+									projectSink.endRow();
+								}
+							}
+						}, sink);
+			} finally {
+				sink.close();
 			}
 		} else {
 			throw new IllegalArgumentException("unrecognized parameter "
@@ -116,48 +321,175 @@ public class ActiveCommiterData {
 		}
 	}
 
-	private static final Logger LOGGER = Logger
-			.getLogger(ActiveCommiterData.class.getName());
+	/**
+	 * Return the schema of the rows of "multiple": the project, the
+	 * configuration if any, the activity ratio and the number of active
+	 * commiters.
+	 */
+	static ResultSchema newRepositorySchema(final boolean withConfiguration) {
+		final ResultSchema schema = ResultSchema.create().addString("project");
+		if (withConfiguration) {
+			schema.addString("configuration");
+		}
+		return schema.addDouble("activityRatio", "%.4f")
+				.addLong("activeCommiters").withoutHeader();
+	}
+
+	private static final int GRACE_PERIOD = CommitTimeUtils.SECONDS_PER_DAY
+			* 30 * 6;
+
+	/**
+	 * The name of the state of the incremental mode.
+	 */
+	private static final String STATE_NAME = "activeCommiters";
+
+	private static final int STATE_MAGIC = 0x41435444; // "ACTD"
 
-	private static final int GRACE_PERIOD = 60 * 60 * 24 * 30 * 6;
+	private static final int STATE_VERSION = 1;
 
-	final RangeMap<Integer, Integer> numActiveCommiters = TreeRangeMap.create();
+	public static final ResultSchema TIME_SERIES_SCHEMA = ResultSchema
+			.create().addString("configuration").addLong("window")
+			.addLong("activeCommiters");
+
+	/**
+	 * The activity of all commiters, from which time series can be computed.
+	 */
+	private ActiveCommiterTimeSeries activity;
+
+	/**
+	 * The number of active commiters in each window of the current time
+	 * series.
+	 */
+	private int[] numActiveCommiters;
+
+	/**
+	 * Build the data from the commits of the walk of the given composite
+	 * walker, instead of walking the repository separately. The data is
+	 * available once the walk is complete.
+	 *
+	 * @param walker
+	 *            a walker of all the commits of the repository
+	 */
+	public void addTo(final CompositeCommitWalker walker) {
+		checkArgument(!walker.isFirstParentHistory(),
+				"The walker must visit all the commits");
+		final AuthorActivity state = new AuthorActivity();
+		walker.addCommitVisitor(new ICommitVisitor() {
+
+			@Override
+			public boolean visitCommit(final RevCommit commit) {
+				state.visit(commit);
+				return true;
+			}
+
+			@Override
+			public void walkCompleted() {
+				activity = state.toTimeSeries();
+
+				// Split period into 6 months chunks
+				setTimeSeries(GRACE_PERIOD, GRACE_PERIOD);
+			}
+		});
+	}
 
 	public void buildData(final String gitDirectory) throws NoHeadException,
 			IOException, GitAPIException {
-		final SortedMap<Integer, RevCommit> allCommits = GitCommitUtils
-				.getCommitsWithTime(GitCommitUtils
-						.getGitRepository(gitDirectory));
-		final Integer startTime = allCommits.firstKey();
-		final Range<Integer> activityPeriod = Range.closed(startTime,
-				allCommits.lastKey());
+		final Git git = GitCommitUtils.getGitRepository(gitDirectory);
+		final CommitTable commits;
+		try {
+			commits = CommitTable.build(git);
+		} finally {
+			git.getRepository().close();
+		}
 
-		final Map<GitCommiterIdentity, Range<Integer>> commitTimeRanges = getCommitActivityTimePerUser(
-				allCommits, GRACE_PERIOD);
+		// The first and last commit time of each author
+		final int[] activityStarts = new int[commits.getNumAuthors()];
+		final int[] activityEnds = new int[commits.getNumAuthors()];
+		Arrays.fill(activityEnds, Integer.MIN_VALUE);
+		for (int i = 0; i < commits.size(); i++) {
+			final int authorId = commits.getAuthorId(i);
+			if (authorId < 0) {
+				continue;
+			}
+			final int commitTime = commits.getCommitTime(i);
+			if (activityEnds[authorId] == Integer.MIN_VALUE) {
+				activityStarts[authorId] = commitTime;
+				activityEnds[authorId] = commitTime + 1;
+			} else if (activityEnds[authorId] < commitTime) {
+				activityEnds[authorId] = commitTime;
+			}
+		}
+		activity = new ActiveCommiterTimeSeries(activityStarts, activityEnds,
+				commits.getFirstCommitTime(), commits.getLastCommitTime());
 
 		// Split period into 6 months chunks
-		final int nChunks = (int) Math.ceil(((double) activityPeriod
-				.upperEndpoint() - activityPeriod.lowerEndpoint())
-				/ GRACE_PERIOD);
-
-		for (int i = 0; i < nChunks; i++) {
-			final Range<Integer> currentPeriod = Range.closedOpen(startTime + i
-					* GRACE_PERIOD, startTime + (i + 1) * GRACE_PERIOD);
-			int nActiveCommiters = 0;
-			for (final Range<Integer> userActivityPeriod : commitTimeRanges
-					.values()) {
-				if (userActivityPeriod.isConnected(currentPeriod)) {
-					nActiveCommiters++;
-				}
+		setTimeSeries(GRACE_PERIOD, GRACE_PERIOD);
+	}
+
+	/**
+	 * Build the data incrementally, if a state file is given. The activity
+	 * of each author identity is read from the state file and updated with
+	 * the commits that are new since it was written, or computed from
+	 * scratch if the file does not exist or HEAD does not descend from the
+	 * HEAD it was computed at. The state file is then updated.
+	 *
+	 * @param gitDirectory
+	 * @param stateFile
+	 *            the file of the state or null to build the data from
+	 *            scratch without keeping a state
+	 */
+	public void buildData(final String gitDirectory, final File stateFile)
+			throws NoHeadException, IOException, GitAPIException {
+		if (stateFile == null) {
+			buildData(gitDirectory);
+			return;
+		}
+		final Git git = GitCommitUtils.getGitRepository(gitDirectory);
+		final AuthorActivity[] state = { new AuthorActivity() };
+		try {
+			final ObjectId head = GitCommitUtils.getHeadId(git);
+
+			ObjectId lastHead = IncrementalHistory.readState(stateFile,
+					STATE_MAGIC, STATE_VERSION,
+					new IncrementalHistory.IStateReader() {
+						@Override
+						public void read(final DataInputStream in)
+								throws IOException {
+							state[0].read(in);
+						}
+					});
+			if (lastHead != null
+					&& !IncrementalHistory.isAncestor(git, lastHead, head)) {
+				lastHead = null;
+			}
+			if (lastHead == null) {
+				state[0] = new AuthorActivity();
+			}
+			if (!head.equals(lastHead)) {
+				IncrementalHistory.walkNewCommits(git, head, lastHead,
+						state[0]);
+				IncrementalHistory.writeState(stateFile, STATE_MAGIC,
+						STATE_VERSION, head,
+						new IncrementalHistory.IStateWriter() {
+							@Override
+							public void write(final DataOutputStream out)
+									throws IOException {
+								state[0].write(out);
+							}
+						});
 			}
-			numActiveCommiters.put(currentPeriod, nActiveCommiters);
+		} finally {
+			git.getRepository().close();
 		}
+		activity = state[0].toTimeSeries();
+
+		// Split period into 6 months chunks
+		setTimeSeries(GRACE_PERIOD, GRACE_PERIOD);
 	}
 
 	public double getLastActivityRatio() {
 		int max = 0;
-		for (final int activeCommiters : numActiveCommiters.asMapOfRanges()
-				.values()) {
+		for (final int activeCommiters : numActiveCommiters) {
 			if (max < activeCommiters) {
 				max = activeCommiters;
 			}
@@ -167,17 +499,55 @@ public class ActiveCommiterData {
 	}
 
 	public int getLastNumOfActiveCommiters() {
-		final int nowActiveCommiters = numActiveCommiters
-				.get(numActiveCommiters.span().upperEndpoint() - 1);
-		return nowActiveCommiters;
+		checkState(numActiveCommiters.length > 0,
+				"Repository has no activity period");
+		return numActiveCommiters[numActiveCommiters.length - 1];
+	}
+
+	/**
+	 * Return the number of active commiters in each time window.
+	 *
+	 * @return
+	 */
+	public int[] getTimeSeries() {
+		return numActiveCommiters;
 	}
 
 	public void printTimeSeries() {
-		final StringBuffer sb = new StringBuffer();
-		for (final int activeCommiters : numActiveCommiters.asMapOfRanges()
-				.values()) {
-			sb.append(activeCommiters + ",");
+		final StringBuilder sb = new StringBuilder(
+				numActiveCommiters.length * 4);
+		for (final int activeCommiters : numActiveCommiters) {
+			sb.append(activeCommiters).append(',');
+		}
+		System.out.println(sb);
+	}
+
+	/**
+	 * Write a row (configuration, window, activeCommiters) for each window of
+	 * the current time series, in the schema of {@link #TIME_SERIES_SCHEMA}.
+	 */
+	public void writeTimeSeries(final String configuration,
+			final IResultSink sink) throws IOException {
+		for (int i = 0; i < numActiveCommiters.length; i++) {
+			sink.writeString(configuration);
+			sink.writeLong(i);
+			sink.writeLong(numActiveCommiters[i]);
+			sink.endRow();
 		}
-		System.out.println(sb.toString());
+	}
+
+	/**
+	 * Compute the time series of active commiters for the given window size
+	 * and grace period. The commits are not read again.
+	 *
+	 * @param windowSize
+	 *            the size of each time window in seconds
+	 * @param gracePeriod
+	 *            the grace period in seconds
+	 */
+	public void setTimeSeries(final int windowSize, final int gracePeriod) {
+		checkState(activity != null, "buildData() has not been called");
+		numActiveCommiters = activity.getNumActiveCommiters(windowSize,
+				gracePeriod);
 	}
 }
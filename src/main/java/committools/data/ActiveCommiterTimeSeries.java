@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * The activity periods of all the commiters of a repository, from which the
+ * number of active commiters per time window can be computed for any window
+ * size and grace period.
+ *
+ * A commiter is active from their first to their last commit. If the last
+ * commit is within the grace period from the last commit of the repository,
+ * the commiter is considered active until now. The starts and ends of the activity
+ * periods are kept sorted, so that the number of active commiters in a window
+ * [from, to) is the number of all commiters minus those that start after to
+ * and minus those that end before from. Each window thus costs two binary
+ * searches, i.e. O((n + k) log n) in total for n commiters and k windows.
+ */
+public final class ActiveCommiterTimeSeries {
+
+	private final int[] sortedStarts;
+
+	private final int[] sortedEnds;
+
+	private final int startTime;
+
+	private final int endTime;
+
+	/**
+	 * @param activityStarts
+	 *            the time of the first commit of each commiter
+	 * @param activityEnds
+	 *            the time of the last commit of each commiter
+	 * @param startTime
+	 *            the time of the first commit of the repository
+	 * @param endTime
+	 *            the time of the last commit of the repository
+	 */
+	public ActiveCommiterTimeSeries(final int[] activityStarts,
+			final int[] activityEnds, final int startTime, final int endTime) {
+		checkArgument(activityStarts.length == activityEnds.length);
+		sortedStarts = activityStarts.clone();
+		Arrays.sort(sortedStarts);
+		sortedEnds = activityEnds.clone();
+		Arrays.sort(sortedEnds);
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	/**
+	 * Return the number of active commiters in each window, starting from the
+	 * first commit of the repository.
+	 *
+	 * @param windowSize
+	 *            the size of each window in seconds
+	 * @param gracePeriod
+	 *            the period (in seconds) before the last commit of the
+	 *            repository during which committing makes a commiter active
+	 *            until now.
+	 * @return
+	 */
+	public int[] getNumActiveCommiters(final int windowSize,
+			final int gracePeriod) {
+		checkArgument(windowSize > 0);
+		final int nWindows = (int) Math
+				.ceil(((double) endTime - startTime) / windowSize);
+		final int[] numActive = new int[nWindows];
+
+		// Commiters ending after this are active until now
+		final long graceTime = ((long) endTime) - gracePeriod;
+		for (int i = 0; i < nWindows; i++) {
+			final long windowStart = ((long) startTime) + ((long) i)
+					* windowSize;
+			final long windowEnd = windowStart + windowSize;
+			final int startingAfter = sortedStarts.length
+					- CommitTimeUtils.countSmallerThan(sortedStarts,
+							Ints.saturatedCast(windowEnd + 1));
+			final int endingBefore = CommitTimeUtils.countSmallerThan(
+					sortedEnds,
+					Ints.saturatedCast(Math.min(windowStart, graceTime + 1)));
+			numActive[i] = sortedStarts.length - startingAfter - endingBefore;
+		}
+		return numActive;
+	}
+
+	/**
+	 * Return the number of commiters.
+	 */
+	public int getNumCommiters() {
+		return sortedStarts.length;
+	}
+}
@@ -5,25 +5,211 @@ package committools.data;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
-import java.util.logging.Logger;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.RawParseUtils;
 
+import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 
+import committools.data.CompositeCommitWalker.ICommitVisitor;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
 /**
  * Print the number of commits that contain a set of keywords.
  *
+ * The commit messages are scanned while the commits are walked, so that no
+ * message is retained. If a state directory is set (see
+ * {@link IncrementalHistory}), the counts are kept for each set of keywords
+ * and only the messages of new commits are scanned on the next run.
+ *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
  */
 public class CommitLogMatches {
 
+	/**
+	 * The name of the state of the incremental mode.
+	 */
+	private static final String STATE_NAME = "logMatches";
+
+	private static final int STATE_MAGIC = 0x434c4d54; // "CLMT"
+
+	private static final int STATE_VERSION = 1;
+
+	/**
+	 * Counts the keywords in each commit message.
+	 */
+	private static final class MessageMatcher extends
+			AbstractCommitBodyScanner {
+
+		final KeywordMatcher matcher;
+
+		final KeywordMatcher.Counts counts;
+
+		MessageMatcher(final KeywordMatcher matcher) {
+			this.matcher = matcher;
+			counts = matcher.newCounts();
+		}
+
+		@Override
+		protected void visit(final RevCommit commit) {
+			final byte[] raw = commit.getRawBuffer();
+			final int messageStart = RawParseUtils.commitMessage(raw, 0);
+			matcher.count(raw, messageStart < 0 ? raw.length : messageStart,
+					raw.length, counts);
+		}
+	}
+
+	/**
+	 * Count the keywords in the messages of the commits of the walk of the
+	 * given composite walker, instead of walking the repository separately.
+	 *
+	 * @param walker
+	 *            a walker of all the commits of the repository
+	 * @param matcher
+	 * @return the counts, which are complete once the walk is complete
+	 */
+	public static KeywordMatcher.Counts addTo(
+			final CompositeCommitWalker walker, final KeywordMatcher matcher) {
+		checkArgument(!walker.isFirstParentHistory(),
+				"The walker must visit all the commits");
+		final MessageMatcher messageMatcher = new MessageMatcher(matcher);
+		walker.addCommitVisitor(new ICommitVisitor() {
+
+			@Override
+			public boolean visitCommit(final RevCommit commit) {
+				messageMatcher.visit(commit);
+				return true;
+			}
+
+			@Override
+			public void walkCompleted() {
+				// The counts are updated on each commit.
+			}
+		});
+		return messageMatcher.counts;
+	}
+
+	/**
+	 * Count the commits reachable from HEAD whose message contains each of
+	 * the keywords of the given matcher.
+	 *
+	 * @param directory
+	 * @param matcher
+	 * @return
+	 * @throws IOException
+	 */
+	public static KeywordMatcher.Counts countMatches(final File directory,
+			final KeywordMatcher matcher) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(directory
+				.getAbsolutePath());
+		try {
+			final MessageMatcher messageMatcher = new MessageMatcher(matcher);
+			IncrementalHistory.walkNewCommits(git,
+					GitCommitUtils.getHeadId(git), null, messageMatcher);
+			return messageMatcher.counts;
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Count the commits reachable from HEAD whose message contains any and
+	 * each of the keywords of the given matcher, incrementally if a state
+	 * file is given. The counts kept in the state file are updated with the
+	 * commits that are new since it was written. They are counted from
+	 * scratch if the file does not exist, was written for other keywords or
+	 * HEAD does not descend from the HEAD it was written at.
+	 *
+	 * @param directory
+	 * @param matcher
+	 * @param configuration
+	 *            the keywords and options of the matcher, to check that the
+	 *            state was counted with the same matcher
+	 * @param stateFile
+	 *            the file of the state or null to count from scratch without
+	 *            keeping a state
+	 * @return the number of commits that match any keyword, followed by the
+	 *         number of commits that match each keyword
+	 * @throws IOException
+	 */
+	public static int[] countMatches(final File directory,
+			final KeywordMatcher matcher, final String configuration,
+			final File stateFile) throws IOException {
+		if (stateFile == null) {
+			return toArray(countMatches(directory, matcher), matcher);
+		}
+		final Git git = GitCommitUtils.getGitRepository(directory
+				.getAbsolutePath());
+		try {
+			final ObjectId head = GitCommitUtils.getHeadId(git);
+
+			final int[] counts = new int[matcher.numKeywords() + 1];
+			final boolean[] sameConfiguration = { false };
+			ObjectId lastHead = IncrementalHistory.readState(stateFile,
+					STATE_MAGIC, STATE_VERSION,
+					new IncrementalHistory.IStateReader() {
+						@Override
+						public void read(final DataInputStream in)
+								throws IOException {
+							sameConfiguration[0] = in.readUTF().equals(
+									configuration);
+							if (sameConfiguration[0]) {
+								for (int i = 0; i < counts.length; i++) {
+									counts[i] = in.readInt();
+								}
+							}
+						}
+					});
+			if (lastHead != null
+					&& (!sameConfiguration[0] || !IncrementalHistory.isAncestor(
+							git, lastHead, head))) {
+				lastHead = null;
+			}
+			if (lastHead == null) {
+				Arrays.fill(counts, 0);
+			}
+			if (head.equals(lastHead)) {
+				return counts;
+			}
+
+			final MessageMatcher messageMatcher = new MessageMatcher(matcher);
+			IncrementalHistory.walkNewCommits(git, head, lastHead,
+					messageMatcher);
+			final int[] newCounts = toArray(messageMatcher.counts, matcher);
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += newCounts[i];
+			}
+			IncrementalHistory.writeState(stateFile, STATE_MAGIC, STATE_VERSION,
+					head, new IncrementalHistory.IStateWriter() {
+						@Override
+						public void write(final DataOutputStream out)
+								throws IOException {
+							out.writeUTF(configuration);
+							for (final int count : counts) {
+								out.writeInt(count);
+							}
+						}
+					});
+			return counts;
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
 	/**
 	 * @param args
 	 * @throws GitAPIException
@@ -34,28 +220,73 @@ public class CommitLogMatches {
 			GitAPIException {
 		if (args.length < 3) {
 			System.err
-			.println("Usage single|multiple <directory> <keywords...>");
+			.println("Usage single|multiple <directory> [-i] [-w] [-k] <keywords...>");
 			System.exit(-1);
 		}
 		File directory = new File(args[1]);
 		checkArgument(directory.isDirectory());
 
+		boolean ignoreCase = false;
+		boolean wholeWords = false;
+		// Also output the number of commits that match each keyword
+		boolean perKeyword = false;
+		int firstKeyword = 2;
+		for (; firstKeyword < args.length; firstKeyword++) {
+			if (args[firstKeyword].equals("-i")) {
+				ignoreCase = true;
+			} else if (args[firstKeyword].equals("-w")) {
+				wholeWords = true;
+			} else if (args[firstKeyword].equals("-k")) {
+				perKeyword = true;
+			} else {
+				break;
+			}
+		}
 		List<String> keywords = Lists.newArrayList();
-		for (int i = 2; i < args.length; i++) {
+		for (int i = firstKeyword; i < args.length; i++) {
 			keywords.add(args[i]);
 		}
+		final KeywordMatcher matcher = KeywordMatcher.compile(keywords,
+				ignoreCase, wholeWords);
+		// The state keeps all the counts, whichever are output
+		final String configuration = Joiner.on('\0').join(ignoreCase,
+				wholeWords, keywords.toArray());
+		final int nOutputCounts = perKeyword ? matcher.numKeywords() + 1 : 1;
 
 		if (args[0].equals("single")) {
-			System.out.println(numCommits(directory, keywords));
+			final int[] counts = countMatches(directory, matcher,
+					configuration,
+					IncrementalHistory.getStateFile(directory, STATE_NAME));
+			System.out.println(counts[0]);
+			for (int i = 0; i < nOutputCounts - 1; i++) {
+				System.out.println(matcher.getKeyword(i) + ","
+						+ counts[i + 1]);
+			}
 		} else if (args[0].equals("multiple")) {
-			for (final File project : directory.listFiles()) {
-				try {
-					System.out.println(project.getName() + ","
-							+ numCommits(project, keywords));
-				} catch (Throwable e) {
-					LOGGER.warning("Failed to get count for project " + project
-							+ " because " + ExceptionUtils.getFullStackTrace(e));
-				}
+			final IResultSink sink = ResultSinks
+					.open(newRepositorySchema(nOutputCounts - 1));
+			try {
+				RepositoryThreadPool.writeForEachRepository(
+						directory.listFiles(),
+						new RepositoryThreadPool.IRepositoryTask() {
+
+							@Override
+							public void process(final File project,
+									final IResultSink projectSink)
+									throws IOException {
+								final int[] counts = countMatches(project,
+										matcher, configuration,
+										IncrementalHistory.getStateFile(
+												project, STATE_NAME));
+								projectSink.writeString(project.getName());
+								for (int i = 0; i < nOutputCounts; i++) {
+									projectSink.writeLong(counts[i]);
+								}
+								projectSink.endRow();
+							}
+						}, sink);
+			} finally {
+				sink.close();
 			}
 		} else {
 			throw new IllegalArgumentException("Unrecognized " + args[0]);
@@ -63,27 +294,44 @@ public class CommitLogMatches {
 
 	}
 
+	/**
+	 * Return the schema of the rows of "multiple": the project, the number of
+	 * commits that match any keyword and the number of commits that match
+	 * each of the given number of keywords.
+	 */
+	static ResultSchema newRepositorySchema(final int nKeywords) {
+		final ResultSchema schema = ResultSchema.create().addString("project")
+				.addLong("any");
+		for (int i = 0; i < nKeywords; i++) {
+			schema.addLong("keyword" + i);
+		}
+		return schema.withoutHeader();
+	}
+
+	/**
+	 * Return the number of commits whose message contains any of the given
+	 * keywords.
+	 */
 	public static int numCommits(final File directory,
 			final List<String> keywords) throws NoHeadException, IOException,
 			GitAPIException {
-		List<String> allCommitMessages = GitCommitUtils
-				.getAllCommitMessages(directory.getAbsolutePath());
-		int matchingCommits = 0;
-		for (final String message : allCommitMessages) {
-			boolean matches = false;
-			for (final String keyword : keywords) {
-				if (message.contains(keyword)) {
-					matches = true;
-					break;
-				}
-			}
-			matchingCommits += matches ? 1 : 0;
-		}
-		return matchingCommits;
+		return countMatches(directory,
+				KeywordMatcher.compile(keywords, false, false)).getAnyCount();
 	}
 
-	private static final Logger LOGGER = Logger
-			.getLogger(CommitLogMatches.class.getName());
+	/**
+	 * Return the number of texts that match any keyword, followed by the
+	 * number of texts that match each keyword.
+	 */
+	private static int[] toArray(final KeywordMatcher.Counts counts,
+			final KeywordMatcher matcher) {
+		final int[] array = new int[matcher.numKeywords() + 1];
+		array[0] = counts.getAnyCount();
+		for (int i = 0; i < matcher.numKeywords(); i++) {
+			array[i + 1] = counts.getCount(i);
+		}
+		return array;
+	}
 
 	private CommitLogMatches() {
 		// Cannot be constructed.
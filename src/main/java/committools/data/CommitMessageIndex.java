@@ -0,0 +1,668 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+/**
+ * A persistent inverted index of the commit messages of a corpus of
+ * repositories. Messages are split into lowercase word tokens and, for each
+ * repository, each token has a posting list of the commits (ordered by
+ * commit time) whose message contains it.
+ *
+ * Each repository is stored in its own file in the index directory, along
+ * with the HEAD it was indexed at. On update, only the commits that are not
+ * reachable from the previously indexed HEAD are read. If the old HEAD is not
+ * an ancestor of the new one, the repository is indexed from scratch.
+ *
+ * The index of a repository is only read when it is needed and is not kept
+ * in memory afterwards, so an update or a count holds one repository index
+ * at a time. The file of a repository starts with a dictionary of its tokens,
+ * with the offset of the posting list of each token, so a count only reads the
+ * dictionary and seeks to the postings of the queried tokens. Files are
+ * replaced atomically, so an interrupted update leaves the previous index.
+ */
+public final class CommitMessageIndex {
+
+	/**
+	 * A growable list of ints.
+	 */
+	private static final class IntList {
+		int[] values = new int[4];
+		int size = 0;
+
+		void add(final int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		int last() {
+			return size == 0 ? -1 : values[size - 1];
+		}
+	}
+
+	/**
+	 * Tokenizes each commit message into the postings of its tokens.
+	 */
+	private static final class MessageTokenizer extends
+			AbstractCommitBodyScanner {
+
+		final IntList commitTimes = new IntList();
+
+		final Map<String, IntList> postings = Maps.newHashMap();
+
+		@Override
+		protected void visit(final RevCommit commit) {
+			final int position = commitTimes.size;
+			commitTimes.add(commit.getCommitTime());
+			final byte[] raw = commit.getRawBuffer();
+			final int messageStart = RawParseUtils.commitMessage(raw, 0);
+			if (messageStart < 0) {
+				return;
+			}
+			for (final String token : tokenize(raw, messageStart, raw.length)) {
+				IntList posting = postings.get(token);
+				if (posting == null) {
+					posting = new IntList();
+					postings.put(token, posting);
+				}
+				if (posting.last() != position) {
+					posting.add(position);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The index of a single repository.
+	 */
+	private static final class RepositoryIndex {
+
+		final ObjectId head;
+
+		/**
+		 * The commit times, in increasing order.
+		 */
+		final int[] commitTimes;
+
+		/**
+		 * The (sorted) positions of the commits containing each token.
+		 */
+		final Map<String, int[]> postings;
+
+		RepositoryIndex(final ObjectId head, final int[] commitTimes,
+				final Map<String, int[]> postings) {
+			this.head = head;
+			this.commitTimes = commitTimes;
+			this.postings = postings;
+		}
+
+		/**
+		 * Return the position of the first commit at or after the given time.
+		 */
+		int firstCommitAtOrAfter(final int time) {
+			int from = 0;
+			int to = commitTimes.length;
+			while (from < to) {
+				final int mid = (from + to) >>> 1;
+				if (commitTimes[mid] < time) {
+					from = mid + 1;
+				} else {
+					to = mid;
+				}
+			}
+			return from;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(CommitMessageIndex.class.getName());
+
+	private static final int FILE_MAGIC = 0x434d4958; // "CMIX"
+
+	private static final int FILE_VERSION = 1;
+
+	private static final String FILE_SUFFIX = ".msgidx";
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err
+					.println("Usage update <indexDirectory> <directoryOfRepos>\n"
+							+ "      count <indexDirectory> <keywords...>");
+			System.exit(-1);
+		}
+		final CommitMessageIndex index = open(new File(args[1]));
+		if (args[0].equals("update")) {
+			index.update(new File(args[2]));
+		} else if (args[0].equals("count")) {
+			final List<String> keywords = Arrays.asList(args).subList(2,
+					args.length);
+			final ResultSchema schema = ResultSchema.create()
+					.addString("repository").addLong("any");
+			for (int i = 0; i < keywords.size(); i++) {
+				schema.addLong("keyword" + i);
+			}
+			final IResultSink sink = ResultSinks.open(schema.withoutHeader());
+			try {
+				for (final Map.Entry<String, int[]> entry : index.count(
+						keywords, Integer.MIN_VALUE, Integer.MAX_VALUE)
+						.entrySet()) {
+					sink.writeString(entry.getKey());
+					for (final int count : entry.getValue()) {
+						sink.writeLong(count);
+					}
+					sink.endRow();
+				}
+			} finally {
+				sink.close();
+			}
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[0]);
+		}
+	}
+
+	/**
+	 * Open (or create) the index stored in the given directory.
+	 *
+	 * @param indexDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	public static CommitMessageIndex open(final File indexDirectory)
+			throws IOException {
+		if (!indexDirectory.exists() && !indexDirectory.mkdirs()) {
+			throw new IOException("Could not create " + indexDirectory);
+		}
+		checkArgument(indexDirectory.isDirectory());
+		final CommitMessageIndex index = new CommitMessageIndex(indexDirectory);
+		for (final File file : indexDirectory.listFiles()) {
+			final String name = file.getName();
+			if (name.endsWith(FILE_SUFFIX)) {
+				index.repositories.add(name.substring(0, name.length()
+						- FILE_SUFFIX.length()));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Read the index of a repository. The token dictionary is read in full,
+	 * but only the postings of the given tokens are read and the others are
+	 * skipped.
+	 *
+	 * @param tokens
+	 *            the tokens whose postings are read or null to read all the
+	 *            postings
+	 */
+	private static RepositoryIndex read(final File file,
+			final Set<String> tokens) throws IOException {
+		final CountingInputStream counter = new CountingInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		final DataInputStream in = new DataInputStream(counter);
+		try {
+			final ObjectId head = readHeader(in, file);
+			final int[] commitTimes = new int[in.readInt()];
+			for (int i = 0; i < commitTimes.length; i++) {
+				commitTimes[i] = in.readInt();
+			}
+
+			// The dictionary, in the order of the postings
+			final int nTokens = in.readInt();
+			final List<String> readTokens = Lists.newArrayList();
+			final IntList postingLengths = new IntList();
+			final IntList postingOffsets = new IntList();
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < nTokens; i++) {
+				final int length = readVarInt(in);
+				if (bytes.length < length) {
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				}
+				in.readFully(bytes, 0, length);
+				final String token = new String(bytes, 0, length,
+						Charsets.UTF_8);
+				final int postingLength = readVarInt(in);
+				final int postingOffset = readVarInt(in);
+				if (tokens == null || tokens.contains(token)) {
+					readTokens.add(token);
+					postingLengths.add(postingLength);
+					postingOffsets.add(postingOffset);
+				}
+			}
+
+			final long postingsStart = counter.getCount();
+			final Map<String, int[]> postings = Maps
+					.newHashMapWithExpectedSize(readTokens.size());
+			for (int i = 0; i < readTokens.size(); i++) {
+				ByteStreams.skipFully(in, postingsStart
+						+ postingOffsets.values[i] - counter.getCount());
+				final int[] posting = new int[postingLengths.values[i]];
+				int position = 0;
+				for (int j = 0; j < posting.length; j++) {
+					position += readVarInt(in);
+					posting[j] = position;
+				}
+				postings.put(readTokens.get(i), posting);
+			}
+			return new RepositoryIndex(head, commitTimes, postings);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the HEAD of the index of a repository, without its postings.
+	 */
+	private static ObjectId readHead(final File file) throws IOException {
+		final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return readHeader(in, file);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the header of a repository index and return its HEAD.
+	 */
+	private static ObjectId readHeader(final DataInputStream in,
+			final File file) throws IOException {
+		checkArgument(in.readInt() == FILE_MAGIC, "%s is not a message index",
+				file);
+		checkArgument(in.readInt() == FILE_VERSION,
+				"Unknown message index version");
+		final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(rawHead);
+		return ObjectId.fromRaw(rawHead);
+	}
+
+	private static int readVarInt(final DataInputStream in)
+			throws IOException {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Split the given bytes into lowercase word tokens. Words are sequences of
+	 * ASCII letters, digits, underscores and non-ASCII bytes, as in
+	 * {@link KeywordMatcher}.
+	 */
+	static List<String> tokenize(final byte[] text, final int from,
+			final int to) {
+		final List<String> tokens = Lists.newArrayList();
+		final byte[] token = new byte[to - from];
+		int length = 0;
+		for (int i = from; i <= to; i++) {
+			final int b = i < to ? text[i] & 0xFF : ' ';
+			if (KeywordMatcher.isWordByte(b)) {
+				token[length++] = (byte) (b >= 'A' && b <= 'Z' ? b - 'A' + 'a'
+						: b);
+			} else if (length > 0) {
+				tokens.add(new String(token, 0, length, Charsets.UTF_8));
+				length = 0;
+			}
+		}
+		return tokens;
+	}
+
+	private static void writeVarInt(final DataOutputStream out, int value)
+			throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private final File indexDirectory;
+
+	/**
+	 * The names of the indexed repositories.
+	 */
+	private final SortedSet<String> repositories = Sets.newTreeSet();
+
+	private CommitMessageIndex(final File indexDirectory) {
+		this.indexDirectory = indexDirectory;
+	}
+
+	/**
+	 * Count the commits of each repository whose message contains each of the
+	 * given keywords, as whole words and ignoring case. A keyword of many
+	 * words matches the commits that contain all its words.
+	 *
+	 * @param keywords
+	 * @param fromTime
+	 *            the (inclusive) earliest commit time to count
+	 * @param toTime
+	 *            the (exclusive) latest commit time to count
+	 * @return a map from each repository to the number of commits matching
+	 *         any keyword, followed by the number of commits matching each
+	 *         keyword.
+	 * @throws IOException
+	 */
+	public SortedMap<String, int[]> count(final List<String> keywords,
+			final int fromTime, final int toTime) throws IOException {
+		final List<List<String>> keywordTokens = Lists.newArrayList();
+		final Set<String> queriedTokens = Sets.newHashSet();
+		for (final String keyword : keywords) {
+			final byte[] bytes = keyword.getBytes(Charsets.UTF_8);
+			final List<String> tokens = tokenize(bytes, 0, bytes.length);
+			checkArgument(!tokens.isEmpty(), "Keyword %s has no words",
+					keyword);
+			keywordTokens.add(tokens);
+			queriedTokens.addAll(tokens);
+		}
+
+		final SortedMap<String, int[]> counts = Maps.newTreeMap();
+		for (final String name : repositories) {
+			final RepositoryIndex repository = read(getRepositoryFile(name),
+					queriedTokens);
+			final int from = repository.firstCommitAtOrAfter(fromTime);
+			final int to = repository.firstCommitAtOrAfter(toTime);
+			final int[] repositoryCounts = new int[keywords.size() + 1];
+			final BitSet anyMatches = new BitSet();
+			for (int i = 0; i < keywordTokens.size(); i++) {
+				final int[] matches = getMatchingCommits(repository,
+						keywordTokens.get(i));
+				final int firstMatch = CommitTimeUtils.countSmallerThan(
+						matches, from);
+				final int lastMatch = CommitTimeUtils.countSmallerThan(
+						matches, to);
+				repositoryCounts[i + 1] = lastMatch - firstMatch;
+				for (int j = firstMatch; j < lastMatch; j++) {
+					anyMatches.set(matches[j]);
+				}
+			}
+			repositoryCounts[0] = anyMatches.cardinality();
+			counts.put(name, repositoryCounts);
+		}
+		return counts;
+	}
+
+	/**
+	 * Return the sorted positions of the commits that contain all the given
+	 * tokens.
+	 */
+	private int[] getMatchingCommits(final RepositoryIndex repository,
+			final List<String> tokens) {
+		int[] matches = null;
+		for (final String token : tokens) {
+			final int[] posting = repository.postings.get(token);
+			if (posting == null) {
+				return new int[0];
+			}
+			if (matches == null) {
+				matches = posting;
+				continue;
+			}
+			final int[] intersection = new int[Math.min(matches.length,
+					posting.length)];
+			int size = 0;
+			for (int i = 0, j = 0; i < matches.length && j < posting.length;) {
+				if (matches[i] < posting[j]) {
+					i++;
+				} else if (matches[i] > posting[j]) {
+					j++;
+				} else {
+					intersection[size++] = matches[i];
+					i++;
+					j++;
+				}
+			}
+			matches = Arrays.copyOf(intersection, size);
+		}
+		return matches;
+	}
+
+	private File getRepositoryFile(final String repositoryName) {
+		return new File(indexDirectory, repositoryName + FILE_SUFFIX);
+	}
+
+	/**
+	 * Return the names of the indexed repositories.
+	 */
+	public SortedSet<String> getRepositories() {
+		return repositories;
+	}
+
+	/**
+	 * Index the commits of the given repository that are not in the old
+	 * index, merging them with it.
+	 *
+	 * @param git
+	 * @param oldIndex
+	 *            the previous index of the repository or null
+	 * @return
+	 * @throws IOException
+	 */
+	private RepositoryIndex index(final Git git, final RepositoryIndex oldIndex)
+			throws IOException {
+		final ObjectId head = GitCommitUtils.getHeadId(git);
+		final RevWalk walk = new RevWalk(git.getRepository());
+		final MessageTokenizer tokenizer = new MessageTokenizer();
+		RepositoryIndex baseIndex = oldIndex;
+		try {
+			if (baseIndex != null) {
+				try {
+					if (!walk.isMergedInto(walk.parseCommit(baseIndex.head),
+							walk.parseCommit(head))) {
+						baseIndex = null;
+					}
+				} catch (final MissingObjectException e) {
+					baseIndex = null;
+				}
+				walk.reset();
+			}
+			walk.setRetainBody(false);
+			walk.setRevFilter(tokenizer);
+			walk.markStart(walk.parseCommit(head));
+			if (baseIndex != null) {
+				walk.markUninteresting(walk.parseCommit(baseIndex.head));
+			}
+			while (walk.next() != null) {
+				// The tokenizer rejects all commits.
+			}
+		} finally {
+			walk.release();
+		}
+
+		// Merge the old and new commits and sort them by time. Old commits
+		// come first, so their relative order is kept.
+		final int nOld = baseIndex == null ? 0 : baseIndex.commitTimes.length;
+		final int nCommits = nOld + tokenizer.commitTimes.size;
+		final long[] order = new long[nCommits];
+		for (int i = 0; i < nOld; i++) {
+			order[i] = (((long) baseIndex.commitTimes[i]) << 32) | i;
+		}
+		for (int i = nOld; i < nCommits; i++) {
+			order[i] = (((long) tokenizer.commitTimes.values[i - nOld]) << 32)
+					| i;
+		}
+		Arrays.sort(order);
+		final int[] commitTimes = new int[nCommits];
+		final int[] newPositions = new int[nCommits];
+		for (int i = 0; i < nCommits; i++) {
+			commitTimes[i] = (int) (order[i] >> 32);
+			newPositions[(int) order[i]] = i;
+		}
+
+		final Map<String, int[]> postings = Maps.newHashMap();
+		final Set<String> tokens = Sets.newHashSet(tokenizer.postings.keySet());
+		if (baseIndex != null) {
+			tokens.addAll(baseIndex.postings.keySet());
+		}
+		for (final String token : tokens) {
+			final int[] oldPosting = baseIndex == null ? null
+					: baseIndex.postings.get(token);
+			final IntList newPosting = tokenizer.postings.get(token);
+			final int nOldPosting = oldPosting == null ? 0 : oldPosting.length;
+			final int[] posting = new int[nOldPosting
+					+ (newPosting == null ? 0 : newPosting.size)];
+			for (int i = 0; i < nOldPosting; i++) {
+				posting[i] = newPositions[oldPosting[i]];
+			}
+			for (int i = nOldPosting; i < posting.length; i++) {
+				posting[i] = newPositions[nOld
+						+ newPosting.values[i - nOldPosting]];
+			}
+			Arrays.sort(posting);
+			postings.put(token, posting);
+		}
+		return new RepositoryIndex(head.copy(), commitTimes, postings);
+	}
+
+	/**
+	 * Bring the index up to date with the repositories in the given
+	 * directory. Repositories whose HEAD has not changed are not read and
+	 * repositories that no longer exist are removed from the index.
+	 *
+	 * @param repositoriesDirectory
+	 * @throws IOException
+	 */
+	public void update(final File repositoriesDirectory) throws IOException {
+		checkArgument(repositoriesDirectory.isDirectory());
+		final Set<String> existingRepositories = Sets.newHashSet();
+		for (final File project : repositoriesDirectory.listFiles()) {
+			final String name = project.getName();
+			existingRepositories.add(name);
+			try {
+				final Git git = GitCommitUtils.getGitRepository(project
+						.getAbsolutePath());
+				try {
+					final File file = getRepositoryFile(name);
+					RepositoryIndex oldIndex = null;
+					if (repositories.contains(name)) {
+						if (readHead(file).equals(GitCommitUtils.getHeadId(git))) {
+							continue;
+						}
+						oldIndex = read(file, null);
+					}
+					write(index(git, oldIndex), file);
+					repositories.add(name);
+				} finally {
+					git.getRepository().close();
+				}
+			} catch (final Throwable e) {
+				LOGGER.warning("Failed to index " + project + " because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+
+		for (final String name : Lists.newArrayList(repositories)) {
+			if (!existingRepositories.contains(name)) {
+				repositories.remove(name);
+				if (!getRepositoryFile(name).delete()) {
+					LOGGER.warning("Could not delete the index of " + name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the index of a repository to a new file that then replaces the
+	 * old one. The sorted token dictionary comes before the postings: each
+	 * token is written as the varint length of its UTF-8 bytes followed by
+	 * the bytes, the varint length of its posting list and the varint offset
+	 * of the posting list from the end of the dictionary. The posting lists
+	 * are written as the varint gaps between their positions.
+	 */
+	private void write(final RepositoryIndex index, final File file)
+			throws IOException {
+		final SortedSet<String> tokens = Sets.newTreeSet(index.postings
+				.keySet());
+		final ByteArrayOutputStream postings = new ByteArrayOutputStream();
+		final DataOutputStream postingsOut = new DataOutputStream(postings);
+		final int[] postingOffsets = new int[tokens.size()];
+		int i = 0;
+		for (final String token : tokens) {
+			postingOffsets[i++] = postings.size();
+			int previous = 0;
+			for (final int position : index.postings.get(token)) {
+				writeVarInt(postingsOut, position - previous);
+				previous = position;
+			}
+		}
+
+		final File newFile = new File(file.getPath() + ".new");
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(newFile)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			index.head.copyRawTo(out);
+			out.writeInt(index.commitTimes.length);
+			for (final int commitTime : index.commitTimes) {
+				out.writeInt(commitTime);
+			}
+			out.writeInt(tokens.size());
+			i = 0;
+			for (final String token : tokens) {
+				final byte[] bytes = token.getBytes(Charsets.UTF_8);
+				writeVarInt(out, bytes.length);
+				out.write(bytes);
+				writeVarInt(out, index.postings.get(token).length);
+				writeVarInt(out, postingOffsets[i++]);
+			}
+			postings.writeTo(out);
+		} finally {
+			out.close();
+		}
+		Files.move(newFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+}
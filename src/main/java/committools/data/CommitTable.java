@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.NoHeadException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * A compact, columnar table of the metadata of all the commits reachable from
+ * HEAD, sorted by commit time. Unlike
+ * {@link GitCommitUtils#getCommitsWithTime(Git)}, commits sharing the same
+ * commit time are all kept.
+ *
+ * The table is built in a single scan and no commit (or commit body) is
+ * retained. Authors are resolved with a {@link CommiterIdentityResolver} and
+ * stored as dense integer ids. Each author id corresponds to the first
+ * {@link GitCommiterIdentity} seen for that author.
+ */
+public final class CommitTable {
+
+	/**
+	 * Records the metadata of each commit.
+	 */
+	static final class CommitCollector extends
+			AbstractCommitBodyScanner {
+
+		int size = 0;
+		int[] commitTimes = new int[INITIAL_CAPACITY];
+		int[] authorIds = new int[INITIAL_CAPACITY];
+		byte[] parentCounts = new byte[INITIAL_CAPACITY];
+		int[] commitIds = new int[ID_INTS * INITIAL_CAPACITY];
+
+		/**
+		 * The identity ids of the raw author identities (name and email) seen
+		 * so far.
+		 */
+		final Map<ByteBuffer, Integer> rawAuthorIds = Maps.newHashMap();
+
+		/**
+		 * The dictionary that resolves the authors or null to resolve them
+		 * within the repository.
+		 */
+		final DeveloperDictionary dictionary;
+
+		final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+
+		/**
+		 * The dictionary identity id of each identity id, when resolving with
+		 * a dictionary.
+		 */
+		final List<Integer> dictionaryIdentityIds = Lists.newArrayList();
+
+		CommitCollector(final DeveloperDictionary dictionary) {
+			this.dictionary = dictionary;
+		}
+
+		private void ensureCapacity() {
+			if (size < commitTimes.length) {
+				return;
+			}
+			final int newCapacity = commitTimes.length * 2;
+			commitTimes = Arrays.copyOf(commitTimes, newCapacity);
+			authorIds = Arrays.copyOf(authorIds, newCapacity);
+			parentCounts = Arrays.copyOf(parentCounts, newCapacity);
+			commitIds = Arrays.copyOf(commitIds, ID_INTS * newCapacity);
+		}
+
+		private int getAuthorId(final byte[] raw) {
+			final int identStart = RawParseUtils.author(raw, 0);
+			if (identStart < 0) {
+				return -1;
+			}
+			final int identEnd = RawParseUtils.nextLF(raw, identStart, '>');
+			final Integer rawAuthorId = rawAuthorIds.get(ByteBuffer.wrap(raw,
+					identStart, identEnd - identStart));
+			if (rawAuthorId != null) {
+				return rawAuthorId;
+			}
+
+			final PersonIdent ident = RawParseUtils.parsePersonIdent(raw,
+					identStart);
+			final int identityId;
+			if (dictionary == null) {
+				identityId = resolver.addIdentity(new GitCommiterIdentity(
+						ident));
+			} else {
+				identityId = dictionaryIdentityIds.size();
+				dictionaryIdentityIds.add(dictionary.getIdentityId(ident));
+			}
+			rawAuthorIds.put(ByteBuffer.wrap(Arrays.copyOfRange(raw,
+					identStart, identEnd)), identityId);
+			return identityId;
+		}
+
+		/**
+		 * Merge the aliases of each author. Return the author id of each
+		 * identity id and add the identity of each author to the given list.
+		 */
+		int[] resolveAuthors(final List<GitCommiterIdentity> authors) {
+			if (dictionary == null) {
+				final int[] developerIds = resolver.resolve();
+				for (int i = 0; i < developerIds.length; i++) {
+					if (developerIds[i] == authors.size()) {
+						authors.add(resolver.getIdentity(i));
+					}
+				}
+				return developerIds;
+			}
+
+			// Resolve all the identities at once, so that other repositories
+			// cannot merge developers in the middle of the resolution.
+			final int[] developerIds = dictionary
+					.getDeveloperIds(dictionaryIdentityIds);
+			final int[] authorIds = new int[developerIds.length];
+			final Map<Integer, Integer> developerAuthorIds = Maps.newHashMap();
+			for (int i = 0; i < authorIds.length; i++) {
+				final int developerId = developerIds[i];
+				Integer authorId = developerAuthorIds.get(developerId);
+				if (authorId == null) {
+					authorId = authors.size();
+					developerAuthorIds.put(developerId, authorId);
+					authors.add(dictionary.getDeveloper(developerId));
+				}
+				authorIds[i] = authorId;
+			}
+			return authorIds;
+		}
+
+		/**
+		 * Build the table of the visited commits.
+		 */
+		CommitTable toTable() {
+			// Sort by time. Pack time and position in a long to avoid boxing.
+			final long[] order = new long[size];
+			for (int i = 0; i < size; i++) {
+				order[i] = (((long) commitTimes[i]) << 32) | i;
+			}
+			Arrays.sort(order);
+
+			final List<GitCommiterIdentity> authors = Lists.newArrayList();
+			final int[] developerIds = resolveAuthors(authors);
+
+			final CommitTable table = new CommitTable(size, authors);
+			for (int i = 0; i < size; i++) {
+				final int position = (int) order[i];
+				final int identityId = authorIds[position];
+				table.commitTimes[i] = commitTimes[position];
+				table.authorIds[i] = identityId < 0 ? -1
+						: developerIds[identityId];
+				table.parentCounts[i] = parentCounts[position];
+				System.arraycopy(commitIds, ID_INTS * position,
+						table.commitIds, ID_INTS * i, ID_INTS);
+			}
+			return table;
+		}
+
+		@Override
+		protected void visit(final RevCommit commit) {
+			ensureCapacity();
+			commitTimes[size] = commit.getCommitTime();
+			authorIds[size] = getAuthorId(commit.getRawBuffer());
+			parentCounts[size] = (byte) Math.min(commit.getParentCount(),
+					Byte.MAX_VALUE);
+			commit.copyRawTo(commitIds, ID_INTS * size);
+			size++;
+		}
+	}
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int ID_INTS = Constants.OBJECT_ID_LENGTH / 4;
+
+	/**
+	 * Build the commit table of all the commits reachable from HEAD.
+	 *
+	 * @param git
+	 * @return
+	 * @throws IOException
+	 * @throws NoHeadException
+	 *             if the repository has no HEAD
+	 */
+	public static CommitTable build(final Git git) throws IOException,
+			NoHeadException {
+		return build(git, null);
+	}
+
+	/**
+	 * Build the commit table of all the commits reachable from HEAD, merging
+	 * the aliases of the authors with the given corpus-wide dictionary, to
+	 * which the authors of the repository are added. The authors of the table
+	 * are the developers of the dictionary.
+	 *
+	 * @param git
+	 * @param dictionary
+	 *            the dictionary or null to merge aliases only within the
+	 *            repository
+	 * @return
+	 * @throws IOException
+	 * @throws NoHeadException
+	 *             if the repository has no HEAD
+	 */
+	public static CommitTable build(final Git git,
+			final DeveloperDictionary dictionary) throws IOException,
+			NoHeadException {
+		final ObjectId headId = git.getRepository().resolve(Constants.HEAD);
+		if (headId == null) {
+			throw new NoHeadException("No HEAD exists in repository");
+		}
+
+		final RevWalk walk = new RevWalk(git.getRepository());
+		final CommitCollector collector = new CommitCollector(dictionary);
+		try {
+			walk.setRetainBody(false);
+			walk.setRevFilter(collector);
+			walk.markStart(walk.parseCommit(headId));
+			while (walk.next() != null) {
+				// The collector rejects all commits.
+			}
+		} finally {
+			walk.release();
+		}
+
+		return collector.toTable();
+	}
+
+	private final int[] commitTimes;
+
+	private final int[] authorIds;
+
+	private final byte[] parentCounts;
+
+	private final int[] commitIds;
+
+	private final List<GitCommiterIdentity> authors;
+
+	private CommitTable(final int size, final List<GitCommiterIdentity> authors) {
+		commitTimes = new int[size];
+		authorIds = new int[size];
+		parentCounts = new byte[size];
+		commitIds = new int[ID_INTS * size];
+		this.authors = authors;
+	}
+
+	/**
+	 * Return the identity of the given author id.
+	 */
+	public GitCommiterIdentity getAuthor(final int authorId) {
+		return authors.get(authorId);
+	}
+
+	/**
+	 * Return the author id of the i-th commit or -1 if the commit has no
+	 * author.
+	 */
+	public int getAuthorId(final int i) {
+		return authorIds[i];
+	}
+
+	/**
+	 * Return the id of the i-th commit.
+	 */
+	public ObjectId getCommitId(final int i) {
+		return ObjectId.fromRaw(commitIds, ID_INTS * i);
+	}
+
+	/**
+	 * Return the commit time of the i-th commit in seconds since the epoch.
+	 */
+	public int getCommitTime(final int i) {
+		return commitTimes[i];
+	}
+
+	/**
+	 * Return the time of the first commit.
+	 *
+	 * @throws IllegalStateException
+	 *             if the table has no commits
+	 */
+	public int getFirstCommitTime() {
+		checkState(commitTimes.length > 0, "The commit table is empty");
+		return commitTimes[0];
+	}
+
+	/**
+	 * Return the time of the last commit.
+	 *
+	 * @throws IllegalStateException
+	 *             if the table has no commits
+	 */
+	public int getLastCommitTime() {
+		checkState(commitTimes.length > 0, "The commit table is empty");
+		return commitTimes[commitTimes.length - 1];
+	}
+
+	/**
+	 * Return the number of distinct authors.
+	 */
+	public int getNumAuthors() {
+		return authors.size();
+	}
+
+	/**
+	 * Return the number of parents of the i-th commit.
+	 */
+	public int getParentCount(final int i) {
+		return parentCounts[i];
+	}
+
+	/**
+	 * Return the number of commits.
+	 */
+	public int size() {
+		return commitTimes.length;
+	}
+}
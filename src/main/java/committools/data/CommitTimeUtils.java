@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package committools.data;
+
+/**
+ * Utilities for the commit times of a repository, in seconds since the
+ * epoch.
+ */
+public final class CommitTimeUtils {
+
+	public static final int SECONDS_PER_DAY = 60 * 60 * 24;
+
+	/**
+	 * Return the number of elements in the sorted array that are smaller than
+	 * the given value.
+	 */
+	public static int countSmallerThan(final int[] sorted, final int value) {
+		int from = 0;
+		int to = sorted.length;
+		while (from < to) {
+			final int mid = (from + to) >>> 1;
+			if (sorted[mid] < value) {
+				from = mid + 1;
+			} else {
+				to = mid;
+			}
+		}
+		return from;
+	}
+
+	private CommitTimeUtils() {
+		// No instances
+	}
+}
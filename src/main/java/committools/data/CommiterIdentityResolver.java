@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package committools.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Resolve commiter identities into developers. Two identities belong to the
+ * same developer when they share the name or the email username, directly or
+ * through other identities (i.e. the transitive closure of the relation
+ * used to be implied by {@link GitCommiterIdentity}). Identities are merged
+ * with a union-find structure and each developer is given a dense integer id.
+ *
+ * Empty names and email usernames are not used for merging.
+ */
+public final class CommiterIdentityResolver {
+
+	private final Map<GitCommiterIdentity, Integer> identityIds = Maps
+			.newHashMap();
+
+	private final List<GitCommiterIdentity> identities = Lists.newArrayList();
+
+	private final Map<String, Integer> nameIdentities = Maps.newHashMap();
+
+	private final Map<String, Integer> emailIdentities = Maps.newHashMap();
+
+	private int[] parent = new int[16];
+
+	private int[] groupSize = new int[16];
+
+	/**
+	 * The smallest identity id in each group.
+	 */
+	private int[] groupFirst = new int[16];
+
+	/**
+	 * Add an identity.
+	 *
+	 * @param identity
+	 * @return the id of the identity, to be resolved by {@link #resolve()}.
+	 */
+	public int addIdentity(final GitCommiterIdentity identity) {
+		final Integer existingId = identityIds.get(identity);
+		if (existingId != null) {
+			return existingId;
+		}
+
+		final int id = identities.size();
+		identities.add(identity);
+		identityIds.put(identity, id);
+		if (id == parent.length) {
+			parent = Arrays.copyOf(parent, 2 * id);
+			groupSize = Arrays.copyOf(groupSize, 2 * id);
+			groupFirst = Arrays.copyOf(groupFirst, 2 * id);
+		}
+		parent[id] = id;
+		groupSize[id] = 1;
+		groupFirst[id] = id;
+
+		mergeOnKey(nameIdentities, identity.name, id);
+		mergeOnKey(emailIdentities, identity.emailUsername, id);
+		return id;
+	}
+
+	private int find(int id) {
+		while (parent[id] != id) {
+			parent[id] = parent[parent[id]]; // Path halving
+			id = parent[id];
+		}
+		return id;
+	}
+
+	/**
+	 * Return the smallest identity id of the developer that the given
+	 * identity belongs to. Since identity ids are given in the order that
+	 * identities are added, this id does not change when new identities are
+	 * added, unless they merge two developers.
+	 *
+	 * @param identityId
+	 * @return
+	 */
+	public int getFirstIdentityId(final int identityId) {
+		return groupFirst[find(identityId)];
+	}
+
+	/**
+	 * Return the identity with the given id.
+	 */
+	public GitCommiterIdentity getIdentity(final int identityId) {
+		return identities.get(identityId);
+	}
+
+	private void mergeOnKey(final Map<String, Integer> keyIdentities,
+			final String key, final int id) {
+		if (key == null || key.isEmpty()) {
+			return;
+		}
+		final Integer other = keyIdentities.get(key);
+		if (other == null) {
+			keyIdentities.put(key, id);
+		} else {
+			union(id, other);
+		}
+	}
+
+	/**
+	 * Return the number of distinct identities added.
+	 */
+	public int numIdentities() {
+		return identities.size();
+	}
+
+	/**
+	 * Resolve the identities added so far into developers.
+	 *
+	 * @return an array with the developer id of each identity id. Developer
+	 *         ids are dense and assigned in the order that the first identity
+	 *         of each developer was added.
+	 */
+	public int[] resolve() {
+		final int[] developerIds = new int[identities.size()];
+		final int[] rootDeveloperIds = new int[identities.size()];
+		Arrays.fill(rootDeveloperIds, -1);
+		int nDevelopers = 0;
+		for (int i = 0; i < developerIds.length; i++) {
+			final int root = find(i);
+			if (rootDeveloperIds[root] == -1) {
+				rootDeveloperIds[root] = nDevelopers++;
+			}
+			developerIds[i] = rootDeveloperIds[root];
+		}
+		return developerIds;
+	}
+
+	private void union(final int a, final int b) {
+		int rootA = find(a);
+		int rootB = find(b);
+		if (rootA == rootB) {
+			return;
+		}
+		if (groupSize[rootA] < groupSize[rootB]) {
+			final int tmp = rootA;
+			rootA = rootB;
+			rootB = tmp;
+		}
+		parent[rootB] = rootA;
+		groupSize[rootA] += groupSize[rootB];
+		groupFirst[rootA] = Math.min(groupFirst[rootA], groupFirst[rootB]);
+	}
+}
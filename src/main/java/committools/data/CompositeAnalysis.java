@@ -0,0 +1,254 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import com.google.common.collect.Lists;
+
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+import committools.output.RowBuffer;
+
+/**
+ * Run several analyses on each repository of a directory with a single walk
+ * of its commits (see {@link CompositeCommitWalker}), instead of one walk per
+ * analysis. Each analysis writes the same rows as the "multiple" mode of its
+ * tool, to its own file in the output directory.
+ */
+public final class CompositeAnalysis {
+
+	/**
+	 * An analysis that can share the walk of a repository.
+	 */
+	private interface IAnalysis {
+		/**
+		 * Register the analysis on the walker and return the writer of its
+		 * row, which is called once the walk is complete.
+		 */
+		IResultWriter addTo(CompositeCommitWalker walker);
+
+		String getName();
+
+		ResultSchema newSchema();
+	}
+
+	/**
+	 * Write the results of an analysis of a repository.
+	 */
+	private interface IResultWriter {
+		void write(String project, IResultSink sink) throws IOException;
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(CompositeAnalysis.class.getName());
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err
+					.println("Usage <directoryOfRepos> <outputDirectory> <analysis>...\n"
+							+ "where analysis is activeCommiters, internalExternalCommiters or commitLogMatches:<keyword>[,<keyword>...]");
+			System.exit(-1);
+		}
+		final File projectsDir = new File(args[0]);
+		checkArgument(projectsDir.isDirectory());
+		final File outputDir = new File(args[1]);
+		checkArgument(outputDir.isDirectory());
+		final List<IAnalysis> analyses = Lists.newArrayList();
+		for (int i = 2; i < args.length; i++) {
+			analyses.add(parseAnalysis(args[i]));
+		}
+
+		final File[] projects = projectsDir.listFiles();
+		Arrays.sort(projects);
+		final RowBuffer[][] outputs = runAnalyses(projects, analyses);
+		for (int i = 0; i < analyses.size(); i++) {
+			final IAnalysis analysis = analyses.get(i);
+			final IResultSink sink = ResultSinks.open(new File(outputDir,
+					analysis.getName() + ".csv"), analysis.newSchema());
+			try {
+				for (final RowBuffer[] projectOutputs : outputs) {
+					if (projectOutputs != null && projectOutputs[i] != null) {
+						projectOutputs[i].writeTo(sink);
+					}
+				}
+			} finally {
+				sink.close();
+			}
+		}
+	}
+
+	/**
+	 * Parse the name of an analysis, as given in the command line.
+	 */
+	private static IAnalysis parseAnalysis(final String name) {
+		if (name.equals("activeCommiters")) {
+			return new IAnalysis() {
+				@Override
+				public IResultWriter addTo(final CompositeCommitWalker walker) {
+					final ActiveCommiterData data = new ActiveCommiterData();
+					data.addTo(walker);
+					return new IResultWriter() {
+						@Override
+						public void write(final String project,
+								final IResultSink sink) throws IOException {
+							sink.writeString(project);
+							sink.writeDouble(data.getLastActivityRatio());
+							sink.writeLong(data.getLastNumOfActiveCommiters());
+							sink.endRow();
+						}
+					};
+				}
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public ResultSchema newSchema() {
+					return ActiveCommiterData.newRepositorySchema(false);
+				}
+			};
+		} else if (name.equals("internalExternalCommiters")) {
+			return new IAnalysis() {
+				@Override
+				public IResultWriter addTo(final CompositeCommitWalker walker) {
+					final InternalExternalCommiterData data = new InternalExternalCommiterData();
+					data.addTo(walker);
+					return new IResultWriter() {
+						@Override
+						public void write(final String project,
+								final IResultSink sink) throws IOException {
+							data.writeRow(project, sink);
+						}
+					};
+				}
+
+				@Override
+				public String getName() {
+					return name;
+				}
+
+				@Override
+				public ResultSchema newSchema() {
+					return InternalExternalCommiterData.newRepositorySchema();
+				}
+			};
+		} else if (name.startsWith("commitLogMatches:")) {
+			final KeywordMatcher matcher = KeywordMatcher.compile(
+					Arrays.asList(name.substring(name.indexOf(':') + 1).split(
+							",")), false, false);
+			return new IAnalysis() {
+				@Override
+				public IResultWriter addTo(final CompositeCommitWalker walker) {
+					final KeywordMatcher.Counts counts = CommitLogMatches
+							.addTo(walker, matcher);
+					return new IResultWriter() {
+						@Override
+						public void write(final String project,
+								final IResultSink sink) throws IOException {
+							sink.writeString(project);
+							sink.writeLong(counts.getAnyCount());
+							sink.endRow();
+						}
+					};
+				}
+
+				@Override
+				public String getName() {
+					return "commitLogMatches";
+				}
+
+				@Override
+				public ResultSchema newSchema() {
+					return CommitLogMatches.newRepositorySchema(0);
+				}
+			};
+		}
+		throw new IllegalArgumentException("Unrecognized analysis " + name);
+	}
+
+	/**
+	 * Walk each repository once for all the analyses and return the rows of
+	 * each repository and analysis. The rows of a repository that failed are
+	 * null, as are the rows of an analysis that failed on a repository, which
+	 * does not affect the other analyses.
+	 */
+	private static RowBuffer[][] runAnalyses(final File[] projects,
+			final List<IAnalysis> analyses) {
+		final RowBuffer[][] outputs = new RowBuffer[projects.length][];
+		final RepositoryThreadPool pool = new RepositoryThreadPool();
+		for (int i = 0; i < projects.length; i++) {
+			final int project = i;
+			pool.pushTask(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final CompositeCommitWalker walker = new CompositeCommitWalker(
+								projects[project].getAbsolutePath(), false);
+						final IResultWriter[] writers = new IResultWriter[analyses
+								.size()];
+						for (int j = 0; j < writers.length; j++) {
+							try {
+								writers[j] = analyses.get(j).addTo(walker);
+							} catch (final Throwable e) {
+								logFailure(analyses.get(j), e);
+							}
+						}
+						walker.doWalk();
+
+						final RowBuffer[] projectOutputs = new RowBuffer[writers.length];
+						for (int j = 0; j < writers.length; j++) {
+							if (writers[j] == null) {
+								continue;
+							}
+							try {
+								final RowBuffer output = new RowBuffer(analyses
+										.get(j).newSchema());
+								writers[j].write(projects[project].getName(),
+										output);
+								projectOutputs[j] = output;
+							} catch (final Throwable e) {
+								logFailure(analyses.get(j), e);
+							}
+						}
+						synchronized (outputs) {
+							outputs[project] = projectOutputs;
+						}
+					} catch (final Throwable e) {
+						LOGGER.warning("Failed to process " + projects[project]
+								+ " because " + ExceptionUtils.getFullStackTrace(e));
+					}
+				}
+
+				private void logFailure(final IAnalysis analysis,
+						final Throwable e) {
+					LOGGER.warning("Failed to run " + analysis.getName()
+							+ " on " + projects[project] + " because "
+							+ ExceptionUtils.getFullStackTrace(e));
+				}
+			});
+		}
+		pool.waitForTermination();
+		return outputs;
+	}
+
+	private CompositeAnalysis() {
+		// Cannot be constructed.
+	}
+}
@@ -0,0 +1,309 @@
+/**
+ *
+ */
+package committools.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.OrFileFilter;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import committools.data.EditListRetriever.IEditListCallback;
+
+/**
+ * A commit walker that drives many visitors from a single walk. Commits are
+ * enumerated once and the diff of each commit is computed once. Each edit
+ * list is then passed to all the edit list visitors whose file filter accepts
+ * the changed file.
+ *
+ * Commits are walked and diffed as by an
+ * {@link committools.dataextractors.EditListWalker EditListWalker} with the
+ * same history mode, so an EditListWalker added with its addTo method
+ * computes the same results as when it walks the repository by itself. Edit
+ * list visitors that are commit walkers are notified when the walk is
+ * complete. Commit visitors are called once per commit, although the
+ * topological walk lists HEAD twice.
+ *
+ * Visitors are isolated from each other: an exception thrown by a visitor is
+ * logged and does not affect the rest, unless the walk fails on errors (see
+ * {@link #setFailOnError(boolean)}). A commit visitor that returns false
+ * stops receiving commits, while the others continue.
+ */
+public class CompositeCommitWalker extends AbstractCommitWalker {
+
+	/**
+	 * A visitor of the commits of the walk.
+	 */
+	public interface ICommitVisitor {
+
+		/**
+		 * @param commit
+		 * @return true if the visitor should receive more commits
+		 * @throws Exception
+		 */
+		boolean visitCommit(final RevCommit commit) throws Exception;
+
+		/**
+		 * Called when the walk is complete.
+		 */
+		void walkCompleted() throws Exception;
+	}
+
+	/**
+	 * An edit list callback along with the files it is interested in.
+	 */
+	private static final class EditListVisitor {
+		final IOFileFilter fileFilter;
+		final IEditListCallback callback;
+
+		EditListVisitor(final IOFileFilter fileFilter,
+				final IEditListCallback callback) {
+			this.fileFilter = fileFilter;
+			this.callback = callback;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(CompositeCommitWalker.class.getName());
+
+	/**
+	 * True if the walk follows the first-parent history and diffs every
+	 * commit, as in {@link #CompositeCommitWalker(String, boolean)}.
+	 */
+	private final boolean firstParentHistory;
+
+	private final List<ICommitVisitor> commitVisitors = Lists.newArrayList();
+
+	/**
+	 * The commits passed to the commit visitors.
+	 */
+	private final Set<RevCommit> visitedCommits = Sets.newIdentityHashSet();
+
+	/**
+	 * The commit visitors that asked not to receive more commits.
+	 */
+	private final Set<ICommitVisitor> finishedVisitors = Sets
+			.newIdentityHashSet();
+
+	private final List<EditListVisitor> editListVisitors = Lists
+			.newArrayList();
+
+	/**
+	 * Retrieves the edit lists of all the files accepted by any edit list
+	 * visitor. Created at the start of the walk.
+	 */
+	private EditListRetriever editListRetriever = null;
+
+	/**
+	 * True if a failure to retrieve or visit an edit list stops the walk, see
+	 * {@link #setFailOnError(boolean)}.
+	 */
+	private boolean failOnError = false;
+
+	/**
+	 * True if a binary side of an entry is diffed as an empty file, see
+	 * {@link #setBinaryAsEmpty(boolean)}.
+	 */
+	private boolean binaryAsEmpty = false;
+
+	/**
+	 * The failure that stopped the last walk or null.
+	 */
+	private Exception failure = null;
+
+	/**
+	 * Pass each edit list to the visitors that accept it.
+	 */
+	private final IEditListCallback editListDispatcher = new IEditListCallback() {
+
+		@Override
+		public void visitDiffEntry(final DiffEntry entry,
+				final EditList editList, final RevCommit commit)
+				throws IOException {
+			final File newFile = new File(entry.getNewPath());
+			final File oldFile = new File(entry.getOldPath());
+			for (final EditListVisitor visitor : editListVisitors) {
+				if (!visitor.fileFilter.accept(newFile)
+						&& !visitor.fileFilter.accept(oldFile)) {
+					continue;
+				}
+				try {
+					visitor.callback.visitDiffEntry(entry, editList, commit);
+				} catch (final Throwable e) {
+					if (failOnError) {
+						throw new IOException("Visitor " + visitor.callback
+								+ " failed on " + commit.name(), e);
+					}
+					LOGGER.warning("Visitor " + visitor.callback
+							+ " failed on " + commit.name() + " because "
+							+ ExceptionUtils.getFullStackTrace(e));
+				}
+			}
+		}
+	};
+
+	/**
+	 * @param repositoryDirectory
+	 * @param firstParentHistory
+	 *            if true, walk only the first-parent history from the root
+	 *            commit to HEAD and diff every commit, including the root
+	 *            (against the empty tree) and merges (against their first
+	 *            parent). Otherwise, walk all commits topologically and diff
+	 *            only the commits that have a single parent.
+	 * @throws IOException
+	 */
+	public CompositeCommitWalker(final String repositoryDirectory,
+			final boolean firstParentHistory) throws IOException {
+		super(repositoryDirectory, firstParentHistory ? BASE_WALK
+				: TOPOLOGICAL_WALK);
+		this.firstParentHistory = firstParentHistory;
+	}
+
+	/**
+	 * Add a visitor that will be called for every commit of the walk.
+	 *
+	 * @param visitor
+	 */
+	public void addCommitVisitor(final ICommitVisitor visitor) {
+		commitVisitors.add(visitor);
+	}
+
+	/**
+	 * Add a visitor that will be called with the edit lists of the files
+	 * accepted by the given filter, for every non-merge commit of the walk.
+	 *
+	 * @param fileFilter
+	 * @param callback
+	 */
+	public void addEditListVisitor(final IOFileFilter fileFilter,
+			final IEditListCallback callback) {
+		editListVisitors.add(new EditListVisitor(fileFilter, callback));
+	}
+
+	@Override
+	public void doWalk(final int startFrom, final int nCommits) {
+		finishedVisitors.clear();
+		visitedCommits.clear();
+		failure = null;
+		if (!editListVisitors.isEmpty()) {
+			final List<IOFileFilter> fileFilters = Lists.newArrayList();
+			for (final EditListVisitor visitor : editListVisitors) {
+				fileFilters.add(visitor.fileFilter);
+			}
+			editListRetriever = new EditListRetriever(repository,
+					new OrFileFilter(fileFilters));
+			editListRetriever.setFailOnError(failOnError);
+			editListRetriever.setBinaryAsEmpty(binaryAsEmpty);
+		}
+		super.doWalk(startFrom, nCommits);
+		if (failure != null) {
+			throw new IllegalStateException(
+					"The walk stopped because an edit list could not be retrieved",
+					failure);
+		}
+	}
+
+	/**
+	 * Return true if the walk follows the first-parent history.
+	 */
+	public boolean isFirstParentHistory() {
+		return firstParentHistory;
+	}
+
+	/**
+	 * Diff binary files as empty files for all the edit list visitors, see
+	 * {@link EditListRetriever#setBinaryAsEmpty(boolean)}.
+	 *
+	 * @param binaryAsEmpty
+	 */
+	public void setBinaryAsEmpty(final boolean binaryAsEmpty) {
+		this.binaryAsEmpty = binaryAsEmpty;
+	}
+
+	/**
+	 * By default, the visitors are isolated from each other and the edit
+	 * lists that cannot be retrieved are skipped. If failOnError is true, the
+	 * walk stops at the first edit list that cannot be retrieved or visited
+	 * and doWalk() throws an IllegalStateException, once the visitors are
+	 * notified that the walk is complete.
+	 *
+	 * @param failOnError
+	 */
+	public void setFailOnError(final boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+	@Override
+	public boolean vistCommit(final RevCommit commit) {
+		final boolean firstVisit = visitedCommits.add(commit);
+		for (final ICommitVisitor visitor : commitVisitors) {
+			if (!firstVisit || finishedVisitors.contains(visitor)) {
+				continue;
+			}
+			try {
+				if (!visitor.visitCommit(commit)) {
+					finishedVisitors.add(visitor);
+				}
+			} catch (final Throwable e) {
+				LOGGER.warning("Visitor " + visitor + " failed on "
+						+ commit.name() + " because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+
+		if (editListRetriever != null
+				&& (commit.getParentCount() == 1 || firstParentHistory)) {
+			try {
+				editListRetriever.retrieveEditListBetweenAndCallback(commit,
+						commit.getParentCount() > 0 ? commit.getParent(0)
+								: null, editListDispatcher);
+			} catch (final Exception e) {
+				if (failOnError) {
+					failure = e;
+					return false;
+				}
+				LOGGER.warning("Failed to retrieve edit lists for "
+						+ commit.name() + " because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+		return editListRetriever != null
+				|| finishedVisitors.size() < commitVisitors.size();
+	}
+
+	@Override
+	public void walkCompleted() {
+		for (final EditListVisitor visitor : editListVisitors) {
+			if (!(visitor.callback instanceof AbstractCommitWalker)) {
+				continue;
+			}
+			try {
+				((AbstractCommitWalker) visitor.callback).walkCompleted();
+			} catch (final Throwable e) {
+				LOGGER.warning("Visitor " + visitor.callback
+						+ " failed to complete because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+		for (final ICommitVisitor visitor : commitVisitors) {
+			try {
+				visitor.walkCompleted();
+			} catch (final Throwable e) {
+				LOGGER.warning("Visitor " + visitor
+						+ " failed to complete because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+	}
+}
@@ -0,0 +1,481 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+/**
+ * A corpus-wide dictionary of developer identities, persisted in an
+ * append-only file. Names and email addresses are interned in string pools
+ * and each distinct (name, email) identity is resolved to a global developer
+ * id, merging aliases with a {@link CommiterIdentityResolver}.
+ *
+ * The developer id is the id of the first identity seen for that developer,
+ * so ids are stable across runs as long as new identities do not merge
+ * existing developers. On open the records of the file are read and replayed
+ * into the in-memory pools and resolver; new identities are appended by
+ * {@link #flush()}. A partial last record, left by an interrupted flush, is
+ * dropped and truncated from the file.
+ *
+ * All methods are synchronized, so a dictionary can be shared by the tasks of
+ * a {@link RepositoryThreadPool}. Developers are resolved with the identities
+ * added so far, so for results that do not depend on the order in which
+ * repositories are processed, add all the repositories of the corpus first
+ * with {@link #addRepositories(File[])} and only then resolve their authors.
+ */
+public final class DeveloperDictionary {
+
+	/**
+	 * A pool of interned strings.
+	 */
+	private static final class StringPool {
+		final List<String> strings = Lists.newArrayList();
+		final Map<String, Integer> ids = Maps.newHashMap();
+
+		/**
+		 * Return the id of the string or -1 if it is not in the pool.
+		 */
+		int get(final String string) {
+			final Integer id = ids.get(string);
+			return id == null ? -1 : id;
+		}
+
+		int add(final String string) {
+			final int id = strings.size();
+			strings.add(string);
+			ids.put(string, id);
+			return id;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(DeveloperDictionary.class.getName());
+
+	private static final int FILE_MAGIC = 0x44455644; // "DEVD"
+
+	private static final int FILE_VERSION = 1;
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte NAME_RECORD = 'N';
+
+	private static final byte EMAIL_RECORD = 'E';
+
+	private static final byte IDENTITY_RECORD = 'I';
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage <dictionaryFile> <directoryOfRepos>");
+			System.exit(-1);
+		}
+		final File projectsDir = new File(args[1]);
+		checkArgument(projectsDir.isDirectory());
+		final DeveloperDictionary dictionary = open(new File(args[0]));
+		final IResultSink sink = ResultSinks.open(ResultSchema.create()
+				.addString("project").addLong("developers"));
+		try {
+			for (final File project : sorted(projectsDir.listFiles())) {
+				final int nDevelopers;
+				try {
+					nDevelopers = dictionary.addRepository(project).length;
+				} catch (final Throwable e) {
+					LOGGER.warning("Failed to extract information for "
+							+ project + " because "
+							+ ExceptionUtils.getFullStackTrace(e));
+					continue;
+				}
+				sink.writeString(project.getName());
+				sink.writeLong(nDevelopers);
+				sink.endRow();
+			}
+		} finally {
+			sink.close();
+		}
+		dictionary.flush();
+		System.out.println("Total developers: "
+				+ dictionary.getNumDevelopers());
+	}
+
+	/**
+	 * Open the dictionary stored in the given file. If the file does not
+	 * exist, it will be created on {@link #flush()}.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static DeveloperDictionary open(final File file) throws IOException {
+		final DeveloperDictionary dictionary = new DeveloperDictionary(file);
+		if (file.exists()) {
+			dictionary.replay();
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Return a copy of the repositories sorted by their path.
+	 */
+	static File[] sorted(final File[] repositories) {
+		final File[] sortedRepositories = repositories.clone();
+		Arrays.sort(sortedRepositories);
+		return sortedRepositories;
+	}
+
+	private final File file;
+
+	private final StringPool names = new StringPool();
+
+	private final StringPool emails = new StringPool();
+
+	/**
+	 * The ids of the identities keyed by their name and email ids.
+	 */
+	private final Map<Long, Integer> identityIds = Maps.newHashMap();
+
+	/**
+	 * The resolver id of each identity. Identities with the same name and
+	 * email username share a resolver id.
+	 */
+	private int[] resolverIds = new int[16];
+
+	private final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+
+	/**
+	 * The records that have not been written to the file yet.
+	 */
+	private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+
+	private final DataOutputStream pendingOut = new DataOutputStream(
+			pendingRecords);
+
+	private DeveloperDictionary(final File file) {
+		this.file = file;
+	}
+
+	private int addIdentity(final int nameId, final int emailId) {
+		final int identityId = identityIds.size();
+		identityIds.put(identityKey(nameId, emailId), identityId);
+		if (identityId == resolverIds.length) {
+			resolverIds = Arrays.copyOf(resolverIds, 2 * identityId);
+		}
+		resolverIds[identityId] = resolver
+				.addIdentity(new GitCommiterIdentity(names.strings
+						.get(nameId), GitCommiterIdentity
+						.getEmailUsername(emails.strings.get(emailId))));
+		return identityId;
+	}
+
+	/**
+	 * Add the authors of the given repositories one at a time, in the order of
+	 * their paths, so that the developer ids do not depend on the order of the
+	 * array. Repositories that fail to load are logged and skipped.
+	 *
+	 * @param repositories
+	 */
+	public void addRepositories(final File[] repositories) {
+		for (final File repository : sorted(repositories)) {
+			try {
+				addRepository(repository);
+			} catch (final Throwable e) {
+				LOGGER.warning("Failed to add the authors of " + repository
+						+ " because " + ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+	}
+
+	/**
+	 * Add the authors of all the commits reachable from HEAD in the
+	 * repository of the given directory.
+	 *
+	 * @param repository
+	 * @return the ids of the developers of the repository
+	 * @throws IOException
+	 */
+	public int[] addRepository(final File repository) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repository
+				.getAbsolutePath());
+		try {
+			return addRepository(git);
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Add the authors of all the commits reachable from HEAD in the given
+	 * repository.
+	 *
+	 * @param git
+	 * @return the ids of the developers of the repository
+	 * @throws IOException
+	 */
+	public synchronized int[] addRepository(final Git git) throws IOException {
+		final RevWalk walk = new RevWalk(git.getRepository());
+		final Set<Integer> repositoryIdentities = Sets.newHashSet();
+		try {
+			walk.markStart(walk.parseCommit(GitCommitUtils.getHeadId(git)));
+			for (final RevCommit commit : walk) {
+				final byte[] raw = commit.getRawBuffer();
+				final int identStart = RawParseUtils.author(raw, 0);
+				if (identStart < 0) {
+					continue;
+				}
+				final PersonIdent ident = RawParseUtils.parsePersonIdentOnly(
+						raw, identStart);
+				if (ident == null) {
+					continue;
+				}
+				repositoryIdentities.add(getIdentityId(ident.getName(),
+						ident.getEmailAddress()));
+			}
+		} finally {
+			walk.release();
+		}
+
+		// Developers are only resolved after all identities are added.
+		final SortedSet<Integer> developers = Sets.newTreeSet();
+		for (final int identityId : repositoryIdentities) {
+			developers.add(getDeveloperId(identityId));
+		}
+		return Ints.toArray(developers);
+	}
+
+	/**
+	 * Write all new identities to the dictionary file.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		final boolean newFile = file.length() == 0;
+		if (pendingRecords.size() == 0 && !newFile) {
+			return;
+		}
+		final DataOutputStream out = new DataOutputStream(
+				new FileOutputStream(file, true));
+		try {
+			if (newFile) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+			}
+			pendingRecords.writeTo(out);
+		} finally {
+			out.close();
+		}
+		pendingRecords.reset();
+	}
+
+	/**
+	 * Return the developer id of the given identity, as resolved with the
+	 * identities added so far.
+	 *
+	 * @param identityId
+	 *            an id returned by {@link #getIdentityId(PersonIdent)}
+	 * @return
+	 */
+	public synchronized int getDeveloperId(final int identityId) {
+		return resolver.getFirstIdentityId(resolverIds[identityId]);
+	}
+
+	/**
+	 * Return the developer ids of the given identities, all resolved at once
+	 * with the identities added so far.
+	 *
+	 * @param identityIds
+	 *            ids returned by {@link #getIdentityId(PersonIdent)}
+	 * @return
+	 */
+	public synchronized int[] getDeveloperIds(final List<Integer> identityIds) {
+		final int[] developerIds = new int[identityIds.size()];
+		for (int i = 0; i < developerIds.length; i++) {
+			developerIds[i] = getDeveloperId(identityIds.get(i));
+		}
+		return developerIds;
+	}
+
+	/**
+	 * Return the global developer id of the given person, adding the identity
+	 * to the dictionary if needed.
+	 *
+	 * @param ident
+	 * @return
+	 */
+	public synchronized int getDeveloperId(final PersonIdent ident) {
+		return getDeveloperId(getIdentityId(ident.getName(),
+				ident.getEmailAddress()));
+	}
+
+	/**
+	 * Return the representative (first) identity of the given developer.
+	 *
+	 * @param developerId
+	 * @return
+	 */
+	public synchronized GitCommiterIdentity getDeveloper(final int developerId) {
+		return resolver.getIdentity(developerId);
+	}
+
+	/**
+	 * Return the id of the (name, email) identity of the given person, adding
+	 * the identity to the dictionary if needed.
+	 *
+	 * @param ident
+	 * @return
+	 */
+	public synchronized int getIdentityId(final PersonIdent ident) {
+		return getIdentityId(ident.getName(), ident.getEmailAddress());
+	}
+
+	private int getIdentityId(final String name, final String email) {
+		try {
+			int nameId = names.get(name);
+			if (nameId < 0) {
+				nameId = names.add(name);
+				writeStringRecord(NAME_RECORD, name);
+			}
+			int emailId = emails.get(email);
+			if (emailId < 0) {
+				emailId = emails.add(email);
+				writeStringRecord(EMAIL_RECORD, email);
+			}
+			final Integer identityId = identityIds.get(identityKey(nameId,
+					emailId));
+			if (identityId != null) {
+				return identityId;
+			}
+			pendingOut.writeByte(IDENTITY_RECORD);
+			pendingOut.writeInt(nameId);
+			pendingOut.writeInt(emailId);
+			return addIdentity(nameId, emailId);
+		} catch (final IOException e) {
+			// Cannot happen when writing in memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Return the number of distinct developers.
+	 */
+	public synchronized int getNumDevelopers() {
+		int nDevelopers = 0;
+		for (int i = 0; i < resolver.numIdentities(); i++) {
+			if (resolver.getFirstIdentityId(i) == i) {
+				nDevelopers++;
+			}
+		}
+		return nDevelopers;
+	}
+
+	/**
+	 * Return the number of distinct (name, email) identities.
+	 */
+	public synchronized int getNumIdentities() {
+		return identityIds.size();
+	}
+
+	private static long identityKey(final int nameId, final int emailId) {
+		return (((long) nameId) << 32) | (emailId & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Read all the records of the dictionary file. If the last record is
+	 * incomplete, it is removed from the file.
+	 */
+	private void replay() throws IOException {
+		// The length of the complete records read so far
+		long length = 0;
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			checkArgument(in.readInt() == FILE_MAGIC,
+					"%s is not a developer dictionary", file);
+			checkArgument(in.readInt() == FILE_VERSION,
+					"Unknown dictionary version");
+			length = HEADER_SIZE;
+			byte[] bytes = new byte[256];
+			int type;
+			while ((type = in.read()) >= 0) {
+				if (type == IDENTITY_RECORD) {
+					final int nameId = in.readInt();
+					final int emailId = in.readInt();
+					addIdentity(nameId, emailId);
+					length += 9;
+					continue;
+				}
+				final int stringLength = in.readInt();
+				if (bytes.length < stringLength) {
+					bytes = new byte[Math.max(stringLength, 2 * bytes.length)];
+				}
+				in.readFully(bytes, 0, stringLength);
+				final String string = new String(bytes, 0, stringLength,
+						Charsets.UTF_8);
+				if (type == NAME_RECORD) {
+					names.add(string);
+				} else if (type == EMAIL_RECORD) {
+					emails.add(string);
+				} else {
+					throw new IOException("Corrupt dictionary file " + file);
+				}
+				length += 5 + stringLength;
+			}
+			return;
+		} catch (final EOFException e) {
+			LOGGER.warning("Removing the incomplete last record of " + file);
+		} finally {
+			in.close();
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(length);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void writeStringRecord(final byte type, final String string)
+			throws IOException {
+		final byte[] bytes = string.getBytes(Charsets.UTF_8);
+		pendingOut.writeByte(type);
+		pendingOut.writeInt(bytes.length);
+		pendingOut.write(bytes);
+	}
+}
@@ -20,6 +20,8 @@ import org.eclipse.jgit.diff.RenameDetector;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.LargeObjectException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -31,11 +33,28 @@ import org.eclipse.jgit.util.io.DisabledOutputStream;
 
 import com.google.common.collect.Lists;
 
+import committools.metrics.Counter;
+import committools.metrics.Histogram;
+import committools.metrics.Metrics;
+import committools.metrics.Timer;
+import committools.metrics.Tracing;
+
 /**
  *
  * Given two commit objects, retrieve the diff and entry list between the two
  * commits. The class also detects renamings.
  *
+ * By default, an entry with a binary side has no edits. If binary files are
+ * diffed as empty (see {@link #setBinaryAsEmpty(boolean)}), a binary side has
+ * no lines instead: an entry from a binary to a text file inserts all the
+ * lines of the text and an entry between two binary files still has no edits.
+ * Submodules have no content.
+ *
+ * Diffs can also be retrieved at the token level (see {@link TokenDiff}): the
+ * changed lines of each line edit are lexed from the already loaded blobs and
+ * diffed again, so the extra cost is proportional to the size of the change
+ * rather than the size of the file.
+ *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  *
  */
@@ -47,6 +66,30 @@ public class EditListRetriever {
 				throws IOException;
 	}
 
+	public interface ITokenDiffCallback {
+		public void visitDiffEntry(final DiffEntry entry,
+				final TokenDiff tokenDiff, final RevCommit commit)
+				throws IOException;
+	}
+
+	/**
+	 * A text that exposes the offsets of its lines.
+	 */
+	private static final class LineText extends RawText {
+
+		LineText(final byte[] content) {
+			super(content);
+		}
+
+		/**
+		 * Return the offset of the start of the line or the length of the
+		 * content for line == size().
+		 */
+		int getLineStart(final int line) {
+			return lines.get(line + 1);
+		}
+	}
+
 	/**
 	 * Get the line change churn for the given edit list.
 	 *
@@ -70,6 +113,32 @@ public class EditListRetriever {
 	private static final Logger LOGGER = Logger
 			.getLogger(EditListRetriever.class.getName());
 
+	private static final Timer TREE_DIFF_TIME = Metrics
+			.timer("editList.treeDiff");
+
+	private static final Timer RENAME_DETECTION_TIME = Metrics
+			.timer("editList.renameDetection");
+
+	private static final Timer BLOB_LOAD_TIME = Metrics
+			.timer("editList.loadBlob");
+
+	private static final Histogram BLOB_BYTES = Metrics
+			.histogram("editList.blobBytes");
+
+	private static final Timer DIFF_TIME = Metrics.timer("editList.myersDiff");
+
+	private static final Timer TOKEN_DIFF_TIME = Metrics
+			.timer("editList.tokenDiff");
+
+	private static final Timer CALLBACK_TIME = Metrics
+			.timer("editList.callback");
+
+	private static final Counter DIFF_ENTRIES = Metrics
+			.counter("editList.diffEntries");
+
+	private static final Counter BINARY_ENTRIES = Metrics
+			.counter("editList.binaryEntries");
+
 	private final DiffFormatter df = new DiffFormatter(
 			DisabledOutputStream.INSTANCE);
 
@@ -79,6 +148,18 @@ public class EditListRetriever {
 
 	private final Git repository;
 
+	/**
+	 * True if a failure on an entry stops the retrieval, see
+	 * {@link #setFailOnError(boolean)}.
+	 */
+	private boolean failOnError = false;
+
+	/**
+	 * True if a binary side of an entry is diffed as an empty file, see
+	 * {@link #setBinaryAsEmpty(boolean)}.
+	 */
+	private boolean binaryAsEmpty = false;
+
 	/**
 	 *
 	 * @param repository
@@ -95,49 +176,193 @@ public class EditListRetriever {
 		editListFileFilter = fileFilter;
 	}
 
+	/**
+	 * End the span of a diff entry. The blobs and edits are null if the entry
+	 * failed before they were computed and diffStart is 0 if the diff was not
+	 * timed.
+	 */
+	private void endDiffEntrySpan(final Object span, final RevCommit commit,
+			final DiffEntry entry, final byte[] parentObj,
+			final byte[] currentObj, final EditList el, final long diffStart) {
+		Tracing.TRACER.endDiffEntry(span, repository.getRepository(), commit,
+				entry, parentObj == null ? 0 : parentObj.length,
+				currentObj == null ? 0 : currentObj.length, el == null ? 0
+						: el.size(), diffStart == 0 ? 0 : System.nanoTime()
+						- diffStart);
+	}
+
 	private byte[] getBytesForObject(final ObjectId parentOid)
 			throws MissingObjectException, IncorrectObjectTypeException,
 			IOException {
 		final byte[] parentObj;
 		if (!parentOid.equals(ObjectId.zeroId())) {
+			final long start = BLOB_LOAD_TIME.start();
 			parentObj = repository.getRepository()
 					.open(parentOid, org.eclipse.jgit.lib.Constants.OBJ_BLOB)
 					.getCachedBytes();
+			BLOB_LOAD_TIME.stop(start);
+			BLOB_BYTES.record(parentObj.length);
 		} else {
 			parentObj = new byte[0];
 		}
 		return parentObj;
 	}
 
+	/**
+	 * Return the content of a side of an entry, empty if the side is missing
+	 * or a submodule.
+	 */
+	private byte[] getBytesForSide(final FileMode mode,
+			final AbbreviatedObjectId id) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		if (mode == FileMode.GITLINK) {
+			return new byte[0];
+		}
+		return getBytesForObject(id.toObjectId());
+	}
+
 	/**
 	 * @param currentObj
 	 * @param parentObj
 	 * @return
 	 */
 	private EditList getDiff(final byte[] currentObj, final byte[] parentObj) {
+		return getDiff(currentObj.length > 0 ? new RawText(currentObj)
+				: RawText.EMPTY_TEXT, parentObj.length > 0 ? new RawText(
+				parentObj) : RawText.EMPTY_TEXT);
+	}
+
+	private EditList getDiff(final RawText currentText,
+			final RawText parentText) {
+		final long start = DIFF_TIME.start();
 		final EditList el = MyersDiff.INSTANCE.diff(
-				RawTextComparator.WS_IGNORE_ALL,
-				parentObj.length > 0 ? new RawText(parentObj)
-						: RawText.EMPTY_TEXT,
-				currentObj.length > 0 ? new RawText(currentObj)
-						: RawText.EMPTY_TEXT);
+				RawTextComparator.WS_IGNORE_ALL, parentText, currentText);
+		DIFF_TIME.stop(start);
 		return el;
 	}
 
-	private EditList getEditList(final DiffEntry entry)
+	/**
+	 * Return the diff entries between the two commits, with renames
+	 * detected.
+	 *
+	 * @param from
+	 *            the original revision or null to compare from an empty tree
+	 */
+	private List<DiffEntry> getDiffEntries(final RevCommit to,
+			final RevCommit from) throws GitAPIException, IOException {
+		final long diffStart = TREE_DIFF_TIME.start();
+		final List<DiffEntry> diffs;
+		if (from != null) {
+			diffs = repository.diff().setNewTree(getTreeIterator(to.name()))
+					.setOldTree(getTreeIterator(from.name())).call();
+		} else {
+			diffs = repository.diff().setNewTree(getTreeIterator(to.name()))
+					.setOldTree(new EmptyTreeIterator()).call();
+		}
+		TREE_DIFF_TIME.stop(diffStart);
+
+		final long renameStart = RENAME_DETECTION_TIME.start();
+		renameDetector.reset();
+		renameDetector.addAll(diffs);
+		final List<DiffEntry> entries = renameDetector.compute();
+		RENAME_DETECTION_TIME.stop(renameStart);
+		return entries;
+	}
+
+	private EditList getEditList(final DiffEntry entry, final RevCommit commit)
 			throws LargeObjectException, MissingObjectException,
 			IncorrectObjectTypeException, IOException {
-		final ObjectId baseOid = entry.getNewId().toObjectId();
-		final byte[] currentObj = getBytesForObject(baseOid);
+		final Object span = Tracing.TRACER.beginDiffEntry();
+		byte[] currentObj = null;
+		byte[] parentObj = null;
+		EditList el = null;
+		long diffStart = 0;
+		try {
+			currentObj = getBytesForSide(entry.getNewMode(), entry.getNewId());
+			parentObj = getBytesForSide(entry.getOldMode(), entry.getOldId());
 
-		final ObjectId parentOid = entry.getOldId().toObjectId();
-		final byte[] parentObj = getBytesForObject(parentOid);
+			DIFF_ENTRIES.increment();
+			final boolean currentBinary = RawText.isBinary(currentObj);
+			final boolean parentBinary = RawText.isBinary(parentObj);
+			if (currentBinary || parentBinary) {
+				BINARY_ENTRIES.increment();
+			}
+			if ((currentBinary && parentBinary)
+					|| ((currentBinary || parentBinary) && !binaryAsEmpty)) {
+				el = new EditList();
+				return el;
+			}
 
-		if (RawText.isBinary(currentObj) || RawText.isBinary(parentObj)) {
-			return new EditList();
+			diffStart = span == null ? 0 : System.nanoTime();
+			el = getDiff(currentBinary ? new byte[0] : currentObj,
+					parentBinary ? new byte[0] : parentObj);
+			return el;
+		} finally {
+			endDiffEntrySpan(span, commit, entry, parentObj, currentObj, el,
+					diffStart);
 		}
+	}
+
+	/**
+	 * Diff the lines of the entry and then the tokens of the lines of each
+	 * line edit.
+	 */
+	private TokenDiff getTokenDiff(final DiffEntry entry,
+			final RevCommit commit) throws LargeObjectException,
+			MissingObjectException, IncorrectObjectTypeException, IOException {
+		final Object span = Tracing.TRACER.beginDiffEntry();
+		byte[] currentObj = null;
+		byte[] parentObj = null;
+		EditList el = null;
+		long diffStart = 0;
+		try {
+			currentObj = getBytesForSide(entry.getNewMode(), entry.getNewId());
+			parentObj = getBytesForSide(entry.getOldMode(), entry.getOldId());
 
-		return getDiff(currentObj, parentObj);
+			DIFF_ENTRIES.increment();
+			final boolean currentBinary = RawText.isBinary(currentObj);
+			final boolean parentBinary = RawText.isBinary(parentObj);
+			if (currentBinary || parentBinary) {
+				BINARY_ENTRIES.increment();
+			}
+			if ((currentBinary && parentBinary)
+					|| ((currentBinary || parentBinary) && !binaryAsEmpty)) {
+				el = new EditList();
+				return new TokenDiff(el, new TokenSequence[0],
+						new TokenSequence[0], new EditList[0]);
+			}
+			final byte[] currentContent = currentBinary ? new byte[0]
+					: currentObj;
+			final byte[] parentContent = parentBinary ? new byte[0]
+					: parentObj;
+
+			diffStart = span == null ? 0 : System.nanoTime();
+			final LineText currentText = new LineText(currentContent);
+			final LineText parentText = new LineText(parentContent);
+			el = getDiff(currentText, parentText);
+
+			final long tokenStart = TOKEN_DIFF_TIME.start();
+			final TokenSequence[] oldTokens = new TokenSequence[el.size()];
+			final TokenSequence[] newTokens = new TokenSequence[el.size()];
+			final EditList[] tokenEdits = new EditList[el.size()];
+			for (int i = 0; i < el.size(); i++) {
+				final Edit edit = el.get(i);
+				oldTokens[i] = new TokenSequence(parentContent,
+						parentText.getLineStart(edit.getBeginA()),
+						parentText.getLineStart(edit.getEndA()));
+				newTokens[i] = new TokenSequence(currentContent,
+						currentText.getLineStart(edit.getBeginB()),
+						currentText.getLineStart(edit.getEndB()));
+				tokenEdits[i] = MyersDiff.INSTANCE.diff(
+						TokenSequenceComparator.INSTANCE, oldTokens[i],
+						newTokens[i]);
+			}
+			TOKEN_DIFF_TIME.stop(tokenStart);
+			return new TokenDiff(el, oldTokens, newTokens, tokenEdits);
+		} finally {
+			endDiffEntrySpan(span, commit, entry, parentObj, currentObj, el,
+					diffStart);
+		}
 	}
 
 	private AbstractTreeIterator getTreeIterator(final String name)
@@ -160,21 +385,16 @@ public class EditListRetriever {
 			final RevCommit from) throws GitAPIException, IOException,
 			LargeObjectException, MissingObjectException,
 			IncorrectObjectTypeException {
-		final List<DiffEntry> diffs = repository.diff()
-				.setNewTree(getTreeIterator(to.name()))
-				.setOldTree(getTreeIterator(from.name())).call();
-
-		renameDetector.reset();
-		renameDetector.addAll(diffs);
+		final List<DiffEntry> entries = getDiffEntries(to, from);
 
 		final List<EditList> edits = Lists.newArrayList();
-		for (final DiffEntry entry : renameDetector.compute()) {
+		for (final DiffEntry entry : entries) {
 			if (!editListFileFilter.accept(new File(entry.getNewPath()))
 					&& !editListFileFilter.accept(new File(entry.getOldPath()))) {
 				continue;
 			}
 
-			final EditList el = getEditList(entry);
+			final EditList el = getEditList(entry, to);
 
 			edits.add(el);
 		}
@@ -196,20 +416,9 @@ public class EditListRetriever {
 			final RevCommit from, final IEditListCallback callback)
 			throws GitAPIException, IOException, LargeObjectException,
 			MissingObjectException, IncorrectObjectTypeException {
-		final List<DiffEntry> diffs;
-		if (from != null) {
-			diffs= repository.diff()
-				.setNewTree(getTreeIterator(to.name()))
-				.setOldTree(getTreeIterator(from.name())).call();
-		} else {
-			diffs= repository.diff()
-					.setNewTree(getTreeIterator(to.name()))
-					.setOldTree(new EmptyTreeIterator()).call();
-		}
-		renameDetector.reset();
-		renameDetector.addAll(diffs);
+		final List<DiffEntry> entries = getDiffEntries(to, from);
 
-		for (final DiffEntry entry : renameDetector.compute()) {
+		for (final DiffEntry entry : entries) {
 			try {
 				if (!editListFileFilter.accept(new File(entry.getNewPath()))
 						&& !editListFileFilter.accept(new File(entry
@@ -217,13 +426,82 @@ public class EditListRetriever {
 					continue;
 				}
 
-				final EditList el = getEditList(entry);
+				final EditList el = getEditList(entry, to);
 
+				final long callbackStart = CALLBACK_TIME.start();
 				callback.visitDiffEntry(entry, el, to);
+				CALLBACK_TIME.stop(callbackStart);
 			} catch (final Throwable t) {
+				if (failOnError) {
+					throw new IOException("Failed to visit the edit list of "
+							+ entry.getNewPath() + " at " + to.name(), t);
+				}
 				LOGGER.warning("Failed fully executing callback for DiffEntry because "
 						+ ExceptionUtils.getFullStackTrace(t));
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Retrieve the token level diff between the from and the to commit.
+	 *
+	 * @param to
+	 * @param from
+	 *            the original revision or null to compare from an empty tree
+	 * @throws GitAPIException
+	 * @throws IOException
+	 */
+	public void retrieveTokenDiffBetweenAndCallback(final RevCommit to,
+			final RevCommit from, final ITokenDiffCallback callback)
+			throws GitAPIException, IOException {
+		final List<DiffEntry> entries = getDiffEntries(to, from);
+
+		for (final DiffEntry entry : entries) {
+			try {
+				if (!editListFileFilter.accept(new File(entry.getNewPath()))
+						&& !editListFileFilter.accept(new File(entry
+								.getOldPath()))) {
+					continue;
+				}
+
+				final TokenDiff tokenDiff = getTokenDiff(entry, to);
+
+				final long callbackStart = CALLBACK_TIME.start();
+				callback.visitDiffEntry(entry, tokenDiff, to);
+				CALLBACK_TIME.stop(callbackStart);
+			} catch (final Throwable t) {
+				if (failOnError) {
+					throw new IOException("Failed to visit the token diff of "
+							+ entry.getNewPath() + " at " + to.name(), t);
+				}
+				LOGGER.warning("Failed fully executing callback for DiffEntry because "
+						+ ExceptionUtils.getFullStackTrace(t));
+			}
+		}
+	}
+
+	/**
+	 * By default, an entry with a binary side has no edits. If binaryAsEmpty
+	 * is true, a binary side is diffed as an empty file instead, so that an
+	 * entry between a text and a binary file inserts or deletes all the lines
+	 * of the text. Callers that add up the lines of every entry should set
+	 * it.
+	 *
+	 * @param binaryAsEmpty
+	 */
+	public void setBinaryAsEmpty(final boolean binaryAsEmpty) {
+		this.binaryAsEmpty = binaryAsEmpty;
+	}
+
+	/**
+	 * By default, an entry whose edits cannot be retrieved or whose callback
+	 * fails is logged and skipped. If failOnError is true, the retrieval stops
+	 * instead and throws an IOException, so that callers that add up the
+	 * edits of every entry do not silently miss some.
+	 *
+	 * @param failOnError
+	 */
+	public void setFailOnError(final boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+}
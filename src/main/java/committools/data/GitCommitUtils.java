@@ -144,8 +144,26 @@ public final class GitCommitUtils {
 	 */
 	public static List<ObjectId> getCommits(final String repositoryDir)
 			throws IOException, NoHeadException, GitAPIException {
-		final List<ObjectId> commitSet = Lists.newArrayList();
 		final Git git = getGitRepository(repositoryDir);
+		try {
+			return getCommits(git);
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Get all the commits of an open repository.
+	 *
+	 * @param git
+	 * @return
+	 * @throws IOException
+	 * @throws GitAPIException
+	 * @throws NoHeadException
+	 */
+	public static List<ObjectId> getCommits(final Git git) throws IOException,
+			NoHeadException, GitAPIException {
+		final List<ObjectId> commitSet = Lists.newArrayList();
 
 		final RevWalk walk = new RevWalk(git.getRepository());
 
@@ -161,7 +179,9 @@ public final class GitCommitUtils {
 	}
 
 	/**
-	 * Return all the commits given the time.
+	 * Return all the commits given the time. Only one of the commits that
+	 * share the same commit time is returned. Use {@link CommitTable} to get
+	 * the metadata of all commits.
 	 * 
 	 * @param git
 	 * @return
@@ -202,6 +222,85 @@ public final class GitCommitUtils {
 		return git;
 	}
 
+	/**
+	 * Return the commit id that HEAD points to.
+	 * 
+	 * @param git
+	 * @return
+	 * @throws IOException
+	 */
+	public static ObjectId getHeadId(final Git git) throws IOException {
+		final ObjectId headId = git.getRepository().resolve(Constants.HEAD);
+		if (headId == null) {
+			throw new IOException("Repository has no HEAD");
+		}
+		return headId;
+	}
+
+	/**
+	 * Return the first-parent commits from (but excluding) the given commit
+	 * to HEAD, starting from the oldest.
+	 *
+	 * @param git
+	 * @param since
+	 * @return the commits or null if the given commit is not in the
+	 *         first-parent history of HEAD
+	 * @throws IOException
+	 */
+	public static List<RevCommit> getNewBaseCommits(final Git git,
+			final ObjectId since) throws IOException {
+		final List<RevCommit> commitList = Lists.newArrayList();
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			RevCommit currentCommit = walk.parseCommit(getHeadId(git));
+			while (!AnyObjectId.equals(currentCommit, since)) {
+				commitList.add(currentCommit);
+				if (currentCommit.getParentCount() == 0) {
+					return null;
+				}
+				currentCommit = walk.parseCommit(currentCommit.getParent(0));
+			}
+		} finally {
+			walk.release();
+		}
+		Collections.reverse(commitList);
+		return commitList;
+	}
+
+	/**
+	 * Return the commits reachable from HEAD but not from the given commit,
+	 * in topological order, starting from the oldest.
+	 *
+	 * @param git
+	 * @param since
+	 * @return the commits or null if the given commit is not an ancestor of
+	 *         HEAD
+	 * @throws IOException
+	 */
+	public static List<RevCommit> getNewCommitsTopological(final Git git,
+			final ObjectId since) throws IOException {
+		final ObjectId headId = getHeadId(git);
+		if (!IncrementalHistory.isAncestor(git, since, headId)) {
+			return null;
+		}
+		final List<RevCommit> commitList = Lists.newArrayList();
+		final RevWalk rw = new RevWalk(git.getRepository());
+		try {
+			rw.sort(RevSort.REVERSE, true);
+			rw.sort(RevSort.TOPO, true);
+			rw.markStart(rw.parseCommit(headId));
+			rw.markUninteresting(rw.parseCommit(since));
+			RevCommit currentCommit = rw.next();
+			while (currentCommit != null) {
+				commitList.add(currentCommit);
+				currentCommit = rw.next();
+			}
+		} finally {
+			rw.release();
+		}
+		return commitList;
+	}
+
 	private GitCommitUtils() {
 		// No instantiation
 	}
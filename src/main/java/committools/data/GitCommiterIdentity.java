@@ -8,7 +8,9 @@ import com.google.common.base.Objects;
 
 /**
  * A struct object containing the git commiter identity. Such objects are equal
- * when at least the name or the email are equal, allowing better deduplication.
+ * when both the name and the email username are equal. Identities of the same
+ * developer (sharing the name or the email username) are merged by
+ * {@link CommiterIdentityResolver}.
  * 
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  * 
@@ -22,8 +24,21 @@ public final class GitCommiterIdentity implements Serializable {
 	public final String emailUsername;
 
 	public GitCommiterIdentity(final PersonIdent jgitIdenity) {
-		name = jgitIdenity.getName();
-		emailUsername = jgitIdenity.getEmailAddress().split("@")[0];
+		this(jgitIdenity.getName(), getEmailUsername(jgitIdenity
+				.getEmailAddress()));
+	}
+
+	public GitCommiterIdentity(final String name, final String emailUsername) {
+		this.name = name;
+		this.emailUsername = emailUsername;
+	}
+
+	/**
+	 * Return the username part (before the @) of the email address.
+	 */
+	public static String getEmailUsername(final String emailAddress) {
+		final int at = emailAddress.indexOf('@');
+		return at < 0 ? emailAddress : emailAddress.substring(0, at);
 	}
 
 	@Override
@@ -39,12 +54,12 @@ public final class GitCommiterIdentity implements Serializable {
 		}
 		final GitCommiterIdentity other = (GitCommiterIdentity) obj;
 		return Objects.equal(name, other.name)
-				|| Objects.equal(emailUsername, other.emailUsername);
+				&& Objects.equal(emailUsername, other.emailUsername);
 	}
 
 	@Override
 	public int hashCode() {
-		return 0;
+		return Objects.hashCode(name, emailUsername);
 	}
 
 	@Override
@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Support for analyses that keep their state for each repository, along with
+ * the HEAD it was computed at, and bring it up to date (e.g. after a fetch)
+ * by reading only the commits that are not reachable from that HEAD. If the
+ * old HEAD is no longer an ancestor of the new one (e.g. after a
+ * force-push), the state is computed from scratch.
+ *
+ * The state of each analysis of a repository is kept in the directory given
+ * by the system property committools.stateDirectory, in a file named after
+ * the repository, a hash of its canonical path (so that repositories with the
+ * same name in different directories do not share their state) and the
+ * analysis. Each file starts with a magic number, the
+ * version of the analysis' state and the HEAD.
+ */
+public final class IncrementalHistory {
+
+	/**
+	 * Read the state of an analysis after the header.
+	 */
+	public interface IStateReader {
+		void read(final DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * Write the state of an analysis after the header.
+	 */
+	public interface IStateWriter {
+		void write(final DataOutputStream out) throws IOException;
+	}
+
+	public static final String STATE_DIRECTORY_PROPERTY = "committools.stateDirectory";
+
+	private static final Logger LOGGER = Logger
+			.getLogger(IncrementalHistory.class.getName());
+
+	/**
+	 * The number of hex digits of the hash of the repository path in the
+	 * names of the state files.
+	 */
+	private static final int PATH_HASH_LENGTH = 16;
+
+	/**
+	 * Return the file where the state of the given analysis of the repository
+	 * is kept or null if no state directory is set.
+	 */
+	public static File getStateFile(final File repository,
+			final String analysis) throws IOException {
+		final String directory = System.getProperty(STATE_DIRECTORY_PROPERTY);
+		if (directory == null || directory.isEmpty()) {
+			return null;
+		}
+		final File stateDirectory = new File(directory);
+		if (!stateDirectory.exists() && !stateDirectory.mkdirs()) {
+			throw new IOException("Could not create " + stateDirectory);
+		}
+		checkArgument(stateDirectory.isDirectory());
+		final File canonicalRepository = repository.getCanonicalFile();
+		final String pathHash = ObjectId.fromRaw(
+				Constants.newMessageDigest().digest(
+						Constants.encode(canonicalRepository.getPath())))
+				.name().substring(0, PATH_HASH_LENGTH);
+		return new File(stateDirectory, canonicalRepository.getName() + "-"
+				+ pathHash + "." + analysis);
+	}
+
+	/**
+	 * Return true if the commit exists in the repository and is an ancestor
+	 * of (or the same as) head.
+	 */
+	public static boolean isAncestor(final Git git, final ObjectId commit,
+			final ObjectId head) throws IOException {
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			return walk.isMergedInto(walk.parseCommit(commit),
+					walk.parseCommit(head));
+		} catch (final MissingObjectException e) {
+			return false;
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Read the state in the given file.
+	 *
+	 * @return the HEAD that the state was computed at, or null if there is no
+	 *         usable state (the file does not exist, is of another version or
+	 *         cannot be read). If null is returned, anything read so far must
+	 *         be discarded.
+	 */
+	public static ObjectId readState(final File file, final int magic,
+			final int version, final IStateReader reader) {
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try {
+			final DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != magic || in.readInt() != version) {
+					LOGGER.info("Ignoring the state in " + file
+							+ " of another version");
+					return null;
+				}
+				final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+				in.readFully(rawHead);
+				reader.read(in);
+				return ObjectId.fromRaw(rawHead);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			LOGGER.warning("Ignoring the state in " + file + " because "
+					+ ExceptionUtils.getFullStackTrace(e));
+			return null;
+		}
+	}
+
+	/**
+	 * Walk all the commits reachable from head but not from since, with the
+	 * given filter. The filter should reject all commits, so that no commit
+	 * is retained.
+	 *
+	 * @param since
+	 *            the old HEAD or null to walk all the commits
+	 */
+	public static void walkNewCommits(final Git git, final ObjectId head,
+			final ObjectId since, final RevFilter filter) throws IOException {
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			walk.setRetainBody(false);
+			walk.setRevFilter(filter);
+			walk.markStart(walk.parseCommit(head));
+			if (since != null) {
+				walk.markUninteresting(walk.parseCommit(since));
+			}
+			while (walk.next() != null) {
+				// The filter rejects all commits.
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Write the state to the given file. The file is replaced only once the
+	 * whole state is written.
+	 */
+	public static void writeState(final File file, final int magic,
+			final int version, final ObjectId head, final IStateWriter writer)
+			throws IOException {
+		final File newFile = new File(file.getPath() + ".new");
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(newFile)));
+		try {
+			out.writeInt(magic);
+			out.writeInt(version);
+			head.copyRawTo(out);
+			writer.write(out);
+		} finally {
+			out.close();
+		}
+		Files.move(newFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private IncrementalHistory() {
+		// Cannot be constructed.
+	}
+}
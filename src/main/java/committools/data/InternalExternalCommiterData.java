@@ -7,22 +7,20 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.logging.Logger;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.NoHeadException;
 import org.eclipse.jgit.revwalk.RevCommit;
 
-import com.google.common.collect.HashMultiset;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multiset;
 import com.google.common.collect.Sets;
 
+import committools.data.CompositeCommitWalker.ICommitVisitor;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
 /**
  * Get the number of internal, external users in a repository and the commiter
  * retention statistics for the internal users.
@@ -34,33 +32,68 @@ public class InternalExternalCommiterData {
 
 	/**
 	 * @param args
+	 * @throws IOException
 	 */
-	public static void main(final String[] args) {
-		if (args.length != 1) {
-			System.err.println("Usage <directoryOfRepos>");
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 1 && args.length != 2) {
+			System.err
+					.println("Usage <directoryOfRepos> [<developerDictionaryFile>]");
 			System.exit(-1);
 		}
 		final File projectsDir = new File(args[0]);
 		checkArgument(projectsDir.isDirectory());
-		System.out.println("project,internal,external,internalRetention");
-		for (final File project : projectsDir.listFiles()) {
-			try {
-				final InternalExternalCommiterData iecd = new InternalExternalCommiterData();
-				iecd.buildData(project.getAbsolutePath());
-				System.out.println(project.getName() + ","
-						+ iecd.getNumInternal() + "," + iecd.getNumExternal()
-						+ ","
-						+ String.format("%.4f", iecd.getInternalRetention()));
-			} catch (final Throwable e) {
-				LOGGER.warning("Failed to extract information for " + project
-						+ " because " + ExceptionUtils.getFullStackTrace(e));
-			}
+		// Merge aliases across the corpus, if a dictionary is given
+		final DeveloperDictionary dictionary = args.length == 2 ? DeveloperDictionary
+				.open(new File(args[1])) : null;
+		final IResultSink sink = ResultSinks.open(newRepositorySchema());
+		try {
+			writeRepositories(projectsDir.listFiles(), dictionary, sink);
+		} finally {
+			sink.close();
+		}
+		if (dictionary != null) {
+			dictionary.flush();
 		}
+	}
 
+	/**
+	 * Return the schema of {@link #writeRow(String, IResultSink)}.
+	 */
+	static ResultSchema newRepositorySchema() {
+		return ResultSchema.create().addString("project").addLong("internal")
+				.addLong("external").addDouble("internalRetention", "%.4f");
 	}
 
-	private static final Logger LOGGER = Logger
-			.getLogger(InternalExternalCommiterData.class.getName());
+	/**
+	 * Write the row of each repository, in the order of their paths. If a
+	 * dictionary is given, the authors of all the repositories are added to it
+	 * before any repository is processed, so that the developers of each
+	 * repository are resolved with the whole corpus, whatever the order in
+	 * which the repositories are processed.
+	 *
+	 * @param dictionary
+	 *            the dictionary that resolves the authors or null to resolve
+	 *            them in each repository only
+	 */
+	static void writeRepositories(final File[] projects,
+			final DeveloperDictionary dictionary, final IResultSink sink)
+			throws IOException {
+		final File[] sortedProjects = DeveloperDictionary.sorted(projects);
+		if (dictionary != null) {
+			dictionary.addRepositories(sortedProjects);
+		}
+		RepositoryThreadPool.writeForEachRepository(sortedProjects,
+				new RepositoryThreadPool.IRepositoryTask() {
+
+					@Override
+					public void process(final File project,
+							final IResultSink projectSink) throws Exception {
+						final InternalExternalCommiterData iecd = new InternalExternalCommiterData();
+						iecd.buildData(project.getAbsolutePath(), dictionary);
+						iecd.writeRow(project.getName(), projectSink);
+					}
+				}, sink);
+	}
 
 	/**
 	 * The number of commits a user needs to have to be considered, internal.
@@ -72,69 +105,118 @@ public class InternalExternalCommiterData {
 	public final Set<GitCommiterIdentity> externalCommiters = Sets.newHashSet();
 	private double weightedInternalCommiterRetention = 0;
 
-	private void buildData(final String absolutePath) throws NoHeadException,
-			IOException, GitAPIException {
-		final SortedMap<Integer, RevCommit> commitsWithTime = GitCommitUtils
-				.getCommitsWithTime(GitCommitUtils
-						.getGitRepository(absolutePath));
-		final Multiset<GitCommiterIdentity> numCommits = HashMultiset.create();
-		final Map<GitCommiterIdentity, Integer> startTimestamp = Maps
-				.newHashMap();
-		final Map<GitCommiterIdentity, Integer> lastTimestamp = Maps
-				.newHashMap();
-
-		for (final Entry<Integer, RevCommit> commit : commitsWithTime
-				.entrySet()) {
-			if (commit.getValue().getParentCount() > 1) {
-				// Merge commit, ignore.
-				continue;
+	/**
+	 * Build the data from the commits of the walk of the given composite
+	 * walker, instead of walking the repository separately. The data is
+	 * available once the walk is complete.
+	 *
+	 * @param walker
+	 *            a walker of all the commits of the repository
+	 */
+	public void addTo(final CompositeCommitWalker walker) {
+		checkArgument(!walker.isFirstParentHistory(),
+				"The walker must visit all the commits");
+		final CommitTable.CommitCollector collector = new CommitTable.CommitCollector(
+				null);
+		walker.addCommitVisitor(new ICommitVisitor() {
+
+			@Override
+			public boolean visitCommit(final RevCommit commit) {
+				collector.visit(commit);
+				return true;
 			}
-			final GitCommiterIdentity commiter = new GitCommiterIdentity(commit
-					.getValue().getAuthorIdent());
-			numCommits.add(commiter);
-			final int currentCommitTime = commit.getValue().getCommitTime();
-			if (!startTimestamp.containsKey(commiter)) {
-				startTimestamp.put(commiter, currentCommitTime);
+
+			@Override
+			public void walkCompleted() {
+				buildData(collector.toTable());
 			}
-			checkArgument(lastTimestamp.containsKey(commiter) ? lastTimestamp
-					.get(commiter) < currentCommitTime : true);
-			lastTimestamp.put(commiter, currentCommitTime);
-		}
+		});
+	}
 
-		for (final Multiset.Entry<GitCommiterIdentity> commiter : numCommits
-				.entrySet()) {
-			if (commiter.getCount() >= INTERNAL_COMMITER_LIMIT) {
-				internalCommiters.add(commiter.getElement());
-			} else {
-				externalCommiters.add(commiter.getElement());
+	private void buildData(final CommitTable commits) {
+		final int[] numCommits = new int[commits.getNumAuthors()];
+		final int[] startTimestamp = new int[commits.getNumAuthors()];
+		final int[] lastTimestamp = new int[commits.getNumAuthors()];
+
+		for (int i = 0; i < commits.size(); i++) {
+			final int commiter = commits.getAuthorId(i);
+			if (commits.getParentCount(i) > 1 || commiter < 0) {
+				// Merge commit, ignore.
+				continue;
 			}
+			final int currentCommitTime = commits.getCommitTime(i);
+			if (numCommits[commiter] == 0) {
+				startTimestamp[commiter] = currentCommitTime;
+			}
+			lastTimestamp[commiter] = currentCommitTime;
+			numCommits[commiter]++;
 		}
 
 		double weightedTotalTime = 0;
 		long sumWeights = 0;
-		for (final GitCommiterIdentity internalCommiter : internalCommiters) {
-			final int timeDiff = lastTimestamp.get(internalCommiter)
-					- startTimestamp.get(internalCommiter);
-			checkArgument(timeDiff > 0);
-			final int nCommits = numCommits.count(internalCommiter);
+		for (int commiter = 0; commiter < numCommits.length; commiter++) {
+			if (numCommits[commiter] == 0) {
+				continue;
+			} else if (numCommits[commiter] < INTERNAL_COMMITER_LIMIT) {
+				externalCommiters.add(commits.getAuthor(commiter));
+				continue;
+			}
+			internalCommiters.add(commits.getAuthor(commiter));
+			final int timeDiff = lastTimestamp[commiter]
+					- startTimestamp[commiter];
+			checkArgument(timeDiff >= 0);
 			// Weight the number of days by number of commits.
-			weightedTotalTime += nCommits * ((double) timeDiff) / 60. / 60.
-					/ 24.;
-			sumWeights += nCommits;
+			weightedTotalTime += numCommits[commiter] * ((double) timeDiff)
+					/ 60. / 60. / 24.;
+			sumWeights += numCommits[commiter];
 		}
 		weightedInternalCommiterRetention = weightedTotalTime / sumWeights;
 	}
 
-	private double getInternalRetention() {
+	/**
+	 * Build the data from the commits of the repository.
+	 *
+	 * @param absolutePath
+	 * @param dictionary
+	 *            the dictionary that resolves the authors or null to resolve
+	 *            them in this repository only
+	 */
+	public void buildData(final String absolutePath,
+			final DeveloperDictionary dictionary) throws NoHeadException,
+			IOException, GitAPIException {
+		final Git git = GitCommitUtils.getGitRepository(absolutePath);
+		final CommitTable commits;
+		try {
+			commits = CommitTable.build(git, dictionary);
+		} finally {
+			git.getRepository().close();
+		}
+		buildData(commits);
+	}
+
+	public double getInternalRetention() {
 		return weightedInternalCommiterRetention;
 	}
 
-	private int getNumExternal() {
+	public int getNumExternal() {
 		return externalCommiters.size();
 	}
 
-	private int getNumInternal() {
+	public int getNumInternal() {
 		return internalCommiters.size();
 	}
 
+	/**
+	 * Write the row of a repository, in the schema of
+	 * {@link #newRepositorySchema()}.
+	 */
+	void writeRow(final String project, final IResultSink sink)
+			throws IOException {
+		sink.writeString(project);
+		sink.writeLong(getNumInternal());
+		sink.writeLong(getNumExternal());
+		sink.writeDouble(getInternalRetention());
+		sink.endRow();
+	}
+
 }
@@ -0,0 +1,285 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Match a set of keywords in a single pass over a byte sequence, using an
+ * Aho-Corasick automaton. The automaton is compiled to a full transition
+ * table, so that each byte costs a single lookup regardless of the number of
+ * keywords.
+ *
+ * Keywords are matched against their UTF-8 encoding. Case folding applies to
+ * ASCII letters only. When matching whole words, the bytes before and after a
+ * match must not be ASCII letters, digits, underscores or non-ASCII bytes.
+ */
+public final class KeywordMatcher {
+
+	/**
+	 * The number of texts that each keyword was found in.
+	 */
+	public static final class Counts {
+
+		private final KeywordMatcher matcher;
+
+		private final int[] counts;
+
+		/**
+		 * The last text that each accepting state matched. Avoids clearing
+		 * per-keyword state for each text.
+		 */
+		private final int[] lastMatch;
+
+		private int numTexts = 0;
+
+		private int anyCount = 0;
+
+		private boolean anyMatched;
+
+		private Counts(final KeywordMatcher matcher) {
+			this.matcher = matcher;
+			counts = new int[matcher.numAcceptingStates];
+			lastMatch = new int[matcher.numAcceptingStates];
+			Arrays.fill(lastMatch, -1);
+		}
+
+		/**
+		 * Return the number of texts that matched at least one keyword.
+		 */
+		public int getAnyCount() {
+			return anyCount;
+		}
+
+		/**
+		 * Return the number of texts that contain the i-th keyword.
+		 */
+		public int getCount(final int keyword) {
+			return counts[matcher.keywordAcceptingIds[keyword]];
+		}
+
+		/**
+		 * Return the number of texts seen.
+		 */
+		public int getNumTexts() {
+			return numTexts;
+		}
+
+		private void mark(final int acceptingId) {
+			if (lastMatch[acceptingId] == numTexts) {
+				return;
+			}
+			lastMatch[acceptingId] = numTexts;
+			counts[acceptingId]++;
+			if (!anyMatched) {
+				anyMatched = true;
+				anyCount++;
+			}
+		}
+	}
+
+	private static final int ALPHABET_SIZE = 256;
+
+	/**
+	 * Compile a matcher for the given keywords.
+	 *
+	 * @param keywords
+	 *            the (non-empty) keywords to match
+	 * @param ignoreCase
+	 *            fold the case of ASCII letters
+	 * @param wholeWords
+	 *            match only whole words
+	 * @return
+	 */
+	public static KeywordMatcher compile(final List<String> keywords,
+			final boolean ignoreCase, final boolean wholeWords) {
+		checkArgument(!keywords.isEmpty(), "No keywords given");
+		return new KeywordMatcher(keywords, ignoreCase, wholeWords);
+	}
+
+	/**
+	 * Return true if the given (unsigned) byte is part of a word.
+	 */
+	static boolean isWordByte(final int b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '_' || b >= 0x80;
+	}
+
+	private final List<String> keywords;
+
+	private final boolean wholeWords;
+
+	/**
+	 * The byte mapping applied before each transition.
+	 */
+	private final int[] fold = new int[ALPHABET_SIZE];
+
+	/**
+	 * The transition table, indexed by (state << 8 | byte).
+	 */
+	private final int[] transitions;
+
+	/**
+	 * The depth of each state, i.e. the length of the match that it accepts.
+	 */
+	private final int[] depth;
+
+	/**
+	 * The id of the keyword(s) accepted by each state, or -1.
+	 */
+	private final int[] acceptingIds;
+
+	/**
+	 * The nearest proper suffix state that is accepting, or -1.
+	 */
+	private final int[] outputLinks;
+
+	private final int[] keywordAcceptingIds;
+
+	private final int numAcceptingStates;
+
+	private KeywordMatcher(final List<String> keywords,
+			final boolean ignoreCase, final boolean wholeWords) {
+		this.keywords = keywords;
+		this.wholeWords = wholeWords;
+		for (int b = 0; b < ALPHABET_SIZE; b++) {
+			fold[b] = ignoreCase && b >= 'A' && b <= 'Z' ? b - 'A' + 'a' : b;
+		}
+
+		// Build the trie
+		final byte[][] encodedKeywords = new byte[keywords.size()][];
+		int maxStates = 1;
+		for (int i = 0; i < keywords.size(); i++) {
+			checkArgument(!keywords.get(i).isEmpty(), "Empty keyword");
+			encodedKeywords[i] = keywords.get(i).getBytes(Charsets.UTF_8);
+			maxStates += encodedKeywords[i].length;
+		}
+		final int[] trie = new int[maxStates * ALPHABET_SIZE];
+		Arrays.fill(trie, -1);
+		final int[] stateDepth = new int[maxStates];
+		final int[] stateAcceptingIds = new int[maxStates];
+		Arrays.fill(stateAcceptingIds, -1);
+		keywordAcceptingIds = new int[keywords.size()];
+		int nStates = 1;
+		int nAccepting = 0;
+		for (int i = 0; i < encodedKeywords.length; i++) {
+			int state = 0;
+			for (final byte b : encodedKeywords[i]) {
+				final int transition = (state << 8) | fold[b & 0xFF];
+				if (trie[transition] < 0) {
+					stateDepth[nStates] = stateDepth[state] + 1;
+					trie[transition] = nStates++;
+				}
+				state = trie[transition];
+			}
+			if (stateAcceptingIds[state] < 0) {
+				stateAcceptingIds[state] = nAccepting++;
+			}
+			keywordAcceptingIds[i] = stateAcceptingIds[state];
+		}
+		numAcceptingStates = nAccepting;
+
+		// Compute failure links breadth-first and turn the trie into a DFA
+		transitions = Arrays.copyOf(trie, nStates * ALPHABET_SIZE);
+		depth = Arrays.copyOf(stateDepth, nStates);
+		acceptingIds = Arrays.copyOf(stateAcceptingIds, nStates);
+		outputLinks = new int[nStates];
+		final int[] failureLinks = new int[nStates];
+		final int[] queue = new int[nStates];
+		int head = 0;
+		int tail = 0;
+		outputLinks[0] = -1;
+		for (int b = 0; b < ALPHABET_SIZE; b++) {
+			final int next = transitions[b];
+			if (next < 0) {
+				transitions[b] = 0;
+			} else {
+				failureLinks[next] = 0;
+				outputLinks[next] = -1;
+				queue[tail++] = next;
+			}
+		}
+		while (head < tail) {
+			final int state = queue[head++];
+			for (int b = 0; b < ALPHABET_SIZE; b++) {
+				final int transition = (state << 8) | b;
+				final int next = transitions[transition];
+				final int failureNext = transitions[(failureLinks[state] << 8)
+						| b];
+				if (next < 0) {
+					transitions[transition] = failureNext;
+				} else {
+					failureLinks[next] = failureNext;
+					outputLinks[next] = acceptingIds[failureNext] >= 0 ? failureNext
+							: outputLinks[failureNext];
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the keywords in text[from, to) and add the text to the counts of
+	 * the keywords found.
+	 *
+	 * @param text
+	 * @param from
+	 * @param to
+	 * @param counts
+	 * @return true if any keyword was found
+	 */
+	public boolean count(final byte[] text, final int from, final int to,
+			final Counts counts) {
+		checkArgument(counts.matcher == this);
+		counts.anyMatched = false;
+		int state = 0;
+		for (int i = from; i < to; i++) {
+			state = transitions[(state << 8) | fold[text[i] & 0xFF]];
+			int accepting = acceptingIds[state] >= 0 ? state
+					: outputLinks[state];
+			while (accepting >= 0) {
+				if (!wholeWords
+						|| isWordBoundary(text, from, to, i + 1
+								- depth[accepting], i + 1)) {
+					counts.mark(acceptingIds[accepting]);
+				}
+				accepting = outputLinks[accepting];
+			}
+		}
+		counts.numTexts++;
+		return counts.anyMatched;
+	}
+
+	/**
+	 * Return the i-th keyword.
+	 */
+	public String getKeyword(final int i) {
+		return keywords.get(i);
+	}
+
+	private boolean isWordBoundary(final byte[] text, final int from,
+			final int to, final int matchStart, final int matchEnd) {
+		return (matchStart == from || !isWordByte(text[matchStart - 1] & 0xFF))
+				&& (matchEnd == to || !isWordByte(text[matchEnd] & 0xFF));
+	}
+
+	/**
+	 * Return a new, empty, set of counts for this matcher.
+	 */
+	public Counts newCounts() {
+		return new Counts(this);
+	}
+
+	/**
+	 * Return the number of keywords.
+	 */
+	public int numKeywords() {
+		return keywords.size();
+	}
+}
@@ -20,6 +20,10 @@ import org.eclipse.jgit.api.errors.RefAlreadyExistsException;
 import org.eclipse.jgit.api.errors.RefNotFoundException;
 import org.eclipse.jgit.revwalk.RevCommit;
 
+import committools.metrics.Metrics;
+import committools.metrics.Timer;
+import committools.metrics.Tracing;
+
 /**
  * A special commit walker that visits the commits one-by-one, changing the
  * working tree (files) on the fly.
@@ -73,6 +77,15 @@ public abstract class RepositoryFileWalker extends AbstractCommitWalker {
 	private static final Logger LOGGER = Logger
 			.getLogger(RepositoryFileWalker.class.getName());
 
+	private static final Timer CHECKOUT_TIME = Metrics
+			.timer("fileWalker.checkout");
+
+	private static final Timer VISIT_FILES_TIME = Metrics
+			.timer("fileWalker.visitCommitFiles");
+
+	private static final Timer RESTORE_TIME = Metrics
+			.timer("fileWalker.restore");
+
 	final protected File repositoryDir;
 
 	final protected String mainBranchName;
@@ -184,14 +197,26 @@ public abstract class RepositoryFileWalker extends AbstractCommitWalker {
 
 		try {
 			if (isVisitableCommit(commit)) {
-				deleteTestBranchIfExists();
-				repository.checkout().setCreateBranch(true)
-						.setName(TEMPORARY_BRANCH_NAME).setStartPoint(commit)
-				.setForce(true).call();
+				final long checkoutStart = CHECKOUT_TIME.start();
+				final Object span = Tracing.TRACER.beginCheckout();
+				try {
+					deleteTestBranchIfExists();
+					repository.checkout().setCreateBranch(true)
+							.setName(TEMPORARY_BRANCH_NAME)
+							.setStartPoint(commit).setForce(true).call();
+				} finally {
+					Tracing.TRACER.endCheckout(span,
+							repository.getRepository(), commit);
+				}
+				CHECKOUT_TIME.stop(checkoutStart);
 				try {
+					final long visitStart = VISIT_FILES_TIME.start();
 					visitCommitFiles(commit);
+					VISIT_FILES_TIME.stop(visitStart);
 				} finally {
+					final long restoreStart = RESTORE_TIME.start();
 					switchToMainAndDeleteFrom(TEMPORARY_BRANCH_NAME);
+					RESTORE_TIME.stop(restoreStart);
 				}
 			}
 		} catch (final Throwable e) {
@@ -0,0 +1,470 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+import codemining.util.parallel.ParallelThreadPool;
+
+/**
+ * The size and number of lines of all the files of a single commit, read
+ * directly from the object database without checking out the tree.
+ *
+ * Each distinct blob is read only once, even if it appears in many paths.
+ * Blobs are read in parallel (unless the caller already runs many scans in
+ * parallel) and a blob is considered binary if its first
+ * bytes look binary (as in {@link RawText#isBinary(byte[], int)}), in which
+ * case its lines are not counted. Symbolic links and submodules are ignored.
+ * Files whose blob cannot be read are logged and left out of the statistics.
+ */
+public final class RepositorySnapshot {
+
+	/**
+	 * Read a range of the distinct blobs of the snapshot.
+	 */
+	private static final class BlobReaderRunnable implements Runnable {
+
+		final Git git;
+
+		final RepositorySnapshot snapshot;
+
+		final List<ObjectId> blobIds;
+
+		final int from;
+
+		final int to;
+
+		BlobReaderRunnable(final Git git, final RepositorySnapshot snapshot,
+				final List<ObjectId> blobIds, final int from, final int to) {
+			this.git = git;
+			this.snapshot = snapshot;
+			this.blobIds = blobIds;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public void run() {
+			final ObjectReader reader = git.getRepository().newObjectReader();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			try {
+				for (int i = from; i < to; i++) {
+					try {
+						readBlob(reader, blobIds.get(i), i, buffer);
+					} catch (final Throwable e) {
+						snapshot.blobLines[i] = UNREADABLE;
+						LOGGER.warning("Failed to read blob "
+								+ blobIds.get(i).name() + " because "
+								+ ExceptionUtils.getFullStackTrace(e));
+					}
+				}
+			} finally {
+				reader.release();
+			}
+		}
+
+		private void readBlob(final ObjectReader reader, final ObjectId blobId,
+				final int blob, final byte[] buffer) throws IOException {
+			final ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+			snapshot.blobSizes[blob] = loader.getSize();
+			final InputStream in = loader.openStream();
+			try {
+				int nLines = 0;
+				int lastByte = '\n';
+				// A read can return fewer bytes than are available, so fill
+				// the buffer before looking for binary content
+				int nRead = ByteStreams.read(in, buffer, 0, buffer.length);
+				if (RawText.isBinary(buffer, nRead)) {
+					snapshot.blobLines[blob] = -1;
+					return;
+				}
+				while (nRead > 0) {
+					for (int i = 0; i < nRead; i++) {
+						if (buffer[i] == '\n') {
+							nLines++;
+						}
+					}
+					lastByte = buffer[nRead - 1];
+					nRead = in.read(buffer);
+				}
+				// Count the last line, even if it does not end in a newline
+				snapshot.blobLines[blob] = lastByte == '\n' ? nLines
+						: nLines + 1;
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(RepositorySnapshot.class.getName());
+
+	/**
+	 * The number of lines of a file whose blob could not be read.
+	 */
+	public static final int UNREADABLE = -2;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The number of blobs that each reading task reads.
+	 */
+	private static final int BLOBS_PER_TASK = 256;
+
+	/**
+	 * Return the extension of the file name of the given path, in lowercase,
+	 * or the empty string if it has none.
+	 */
+	public static String getExtension(final String path) {
+		final int nameStart = path.lastIndexOf('/') + 1;
+		final int extensionStart = path.lastIndexOf('.');
+		if (extensionStart <= nameStart) {
+			return "";
+		}
+		return path.substring(extensionStart + 1).toLowerCase();
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage single|multiple <directory>");
+			System.exit(-1);
+		}
+		final File directory = new File(args[1]);
+		checkArgument(directory.isDirectory());
+		if (args[0].equals("single")) {
+			final RepositorySnapshot snapshot = scan(directory);
+			final IResultSink sink = ResultSinks.open(addStatisticsColumns(ResultSchema
+					.create()));
+			try {
+				writeStatistics(null, snapshot, sink);
+			} finally {
+				sink.close();
+			}
+			// The statistics may be written to the standard output
+			System.err.println("Largest files:");
+			for (final int file : snapshot.getLargestFiles(10)) {
+				System.err.println(snapshot.getPath(file) + ","
+						+ snapshot.getSize(file));
+			}
+		} else if (args[0].equals("multiple")) {
+			final IResultSink sink = ResultSinks
+					.open(addStatisticsColumns(ResultSchema.create().addString(
+							"project")));
+			try {
+				RepositoryThreadPool.writeForEachRepository(
+						directory.listFiles(),
+						new RepositoryThreadPool.IRepositoryTask() {
+
+							@Override
+							public void process(final File project,
+									final IResultSink projectSink)
+									throws IOException {
+								// The pool already scans many repositories
+								writeStatistics(project.getName(),
+										scan(project, false), projectSink);
+							}
+						}, sink);
+			} finally {
+				sink.close();
+			}
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[0]);
+		}
+	}
+
+	private static ResultSchema addStatisticsColumns(final ResultSchema schema) {
+		return schema.addString("extension").addLong("files")
+				.addLong("binaryFiles").addLong("lines").addLong("bytes");
+	}
+
+	/**
+	 * Write a row per extension with the statistics of the snapshot.
+	 *
+	 * @param project
+	 *            the name of the project of the snapshot, written in the
+	 *            first column, or null if the schema has no project column
+	 */
+	private static void writeStatistics(final String project,
+			final RepositorySnapshot snapshot, final IResultSink sink)
+			throws IOException {
+		if (snapshot.getNumUnreadableFiles() > 0) {
+			LOGGER.warning("Skipped " + snapshot.getNumUnreadableFiles()
+					+ " files that could not be read"
+					+ (project == null ? "" : " in " + project));
+		}
+		for (final Map.Entry<String, long[]> entry : snapshot
+				.getStatisticsPerExtension().entrySet()) {
+			final long[] statistics = entry.getValue();
+			if (project != null) {
+				sink.writeString(project);
+			}
+			sink.writeString(entry.getKey());
+			for (final long statistic : statistics) {
+				sink.writeLong(statistic);
+			}
+			sink.endRow();
+		}
+	}
+
+	/**
+	 * Scan the files of the given commit, reading the blobs in parallel.
+	 *
+	 * @param git
+	 * @param commitId
+	 * @return
+	 * @throws IOException
+	 */
+	public static RepositorySnapshot scan(final Git git,
+			final AnyObjectId commitId) throws IOException {
+		return scan(git, commitId, true);
+	}
+
+	/**
+	 * Scan the files of the given commit.
+	 *
+	 * @param git
+	 * @param commitId
+	 * @param parallelReads
+	 *            if true, the blobs are read by a pool of threads. Otherwise,
+	 *            they are read in the calling thread, e.g. when the caller is
+	 *            a task of a {@link RepositoryThreadPool} and the pool already
+	 *            scans many repositories at once.
+	 * @return
+	 * @throws IOException
+	 */
+	public static RepositorySnapshot scan(final Git git,
+			final AnyObjectId commitId, final boolean parallelReads)
+			throws IOException {
+		final List<String> paths = Lists.newArrayList();
+		final List<ObjectId> blobIds = Lists.newArrayList();
+		final Map<ObjectId, Integer> blobPositions = Maps.newHashMap();
+		int[] fileBlobs = new int[1024];
+
+		final RevWalk walk = new RevWalk(git.getRepository());
+		final TreeWalk treeWalk = new TreeWalk(git.getRepository());
+		try {
+			treeWalk.addTree(walk.parseCommit(commitId).getTree());
+			treeWalk.setRecursive(true);
+			while (treeWalk.next()) {
+				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+					continue;
+				}
+				final ObjectId blobId = treeWalk.getObjectId(0);
+				Integer blob = blobPositions.get(blobId);
+				if (blob == null) {
+					blob = blobIds.size();
+					blobIds.add(blobId);
+					blobPositions.put(blobId, blob);
+				}
+				if (paths.size() == fileBlobs.length) {
+					fileBlobs = Arrays.copyOf(fileBlobs, 2 * paths.size());
+				}
+				fileBlobs[paths.size()] = blob;
+				paths.add(treeWalk.getPathString());
+			}
+		} finally {
+			treeWalk.release();
+			walk.release();
+		}
+
+		final RepositorySnapshot snapshot = new RepositorySnapshot(paths,
+				Arrays.copyOf(fileBlobs, paths.size()), blobIds.size());
+		if (!parallelReads) {
+			new BlobReaderRunnable(git, snapshot, blobIds, 0, blobIds.size())
+					.run();
+			return snapshot;
+		}
+		final ParallelThreadPool readingPool = new ParallelThreadPool();
+		for (int from = 0; from < blobIds.size(); from += BLOBS_PER_TASK) {
+			readingPool.pushTask(new BlobReaderRunnable(git, snapshot,
+					blobIds, from, Math.min(from + BLOBS_PER_TASK,
+							blobIds.size())));
+		}
+		readingPool.waitForTermination();
+		return snapshot;
+	}
+
+	/**
+	 * Scan the files at the HEAD of the given repository, reading the blobs
+	 * in parallel.
+	 *
+	 * @param repositoryDirectory
+	 * @return
+	 * @throws IOException
+	 */
+	public static RepositorySnapshot scan(final File repositoryDirectory)
+			throws IOException {
+		return scan(repositoryDirectory, true);
+	}
+
+	/**
+	 * Scan the files at the HEAD of the given repository.
+	 *
+	 * @param repositoryDirectory
+	 * @param parallelReads
+	 *            see {@link #scan(Git, AnyObjectId, boolean)}
+	 * @return
+	 * @throws IOException
+	 */
+	public static RepositorySnapshot scan(final File repositoryDirectory,
+			final boolean parallelReads) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repositoryDirectory
+				.getAbsolutePath());
+		try {
+			return scan(git, GitCommitUtils.getHeadId(git), parallelReads);
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	private final List<String> paths;
+
+	/**
+	 * The (distinct) blob of each file.
+	 */
+	private final int[] fileBlobs;
+
+	private final long[] blobSizes;
+
+	/**
+	 * The number of lines of each blob, -1 if the blob is binary or
+	 * {@link #UNREADABLE}.
+	 */
+	private final int[] blobLines;
+
+	private RepositorySnapshot(final List<String> paths,
+			final int[] fileBlobs, final int nBlobs) {
+		this.paths = paths;
+		this.fileBlobs = fileBlobs;
+		blobSizes = new long[nBlobs];
+		blobLines = new int[nBlobs];
+	}
+
+	/**
+	 * Return the indexes of the n largest files, largest first.
+	 */
+	public int[] getLargestFiles(final int n) {
+		final long[] order = new long[paths.size()];
+		for (int i = 0; i < order.length; i++) {
+			// Pack (negated) size and index, so that ties keep path order
+			order[i] = (-Math.min(getSize(i), Integer.MAX_VALUE) << 32) | i;
+		}
+		Arrays.sort(order);
+		final int[] largest = new int[Math.min(n, order.length)];
+		for (int i = 0; i < largest.length; i++) {
+			largest[i] = (int) order[i];
+		}
+		return largest;
+	}
+
+	/**
+	 * Return the number of distinct blobs in the snapshot.
+	 */
+	public int getNumBlobs() {
+		return blobSizes.length;
+	}
+
+	/**
+	 * Return the number of files in the snapshot.
+	 */
+	public int getNumFiles() {
+		return paths.size();
+	}
+
+	/**
+	 * Return the number of lines of the i-th file, -1 if it is binary or
+	 * {@link #UNREADABLE} if its blob could not be read.
+	 */
+	public int getNumLines(final int i) {
+		return blobLines[fileBlobs[i]];
+	}
+
+	/**
+	 * Return the number of files whose blob could not be read.
+	 */
+	public int getNumUnreadableFiles() {
+		int nUnreadable = 0;
+		for (int i = 0; i < paths.size(); i++) {
+			if (getNumLines(i) == UNREADABLE) {
+				nUnreadable++;
+			}
+		}
+		return nUnreadable;
+	}
+
+	/**
+	 * Return the path of the i-th file.
+	 */
+	public String getPath(final int i) {
+		return paths.get(i);
+	}
+
+	/**
+	 * Return the size of the i-th file in bytes.
+	 */
+	public long getSize(final int i) {
+		return blobSizes[fileBlobs[i]];
+	}
+
+	/**
+	 * Return for each file extension the number of files, the number of
+	 * binary files, the number of lines (of non-binary files) and the number
+	 * of bytes. Files whose blob could not be read are not counted.
+	 */
+	public SortedMap<String, long[]> getStatisticsPerExtension() {
+		final SortedMap<String, long[]> statistics = Maps.newTreeMap();
+		for (int i = 0; i < paths.size(); i++) {
+			if (getNumLines(i) == UNREADABLE) {
+				continue;
+			}
+			final String extension = getExtension(paths.get(i));
+			long[] extensionStatistics = statistics.get(extension);
+			if (extensionStatistics == null) {
+				extensionStatistics = new long[4];
+				statistics.put(extension, extensionStatistics);
+			}
+			extensionStatistics[0]++;
+			if (getNumLines(i) < 0) {
+				extensionStatistics[1]++;
+			} else {
+				extensionStatistics[2] += getNumLines(i);
+			}
+			extensionStatistics[3] += getSize(i);
+		}
+		return statistics;
+	}
+}
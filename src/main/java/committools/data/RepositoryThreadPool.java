@@ -0,0 +1,234 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import committools.output.IResultSink;
+import committools.output.RowBuffer;
+
+/**
+ * A pool for tasks that each process a whole repository and spend most of
+ * their time waiting for the storage (e.g. reading pack files from network
+ * storage).
+ *
+ * On JVMs with virtual threads (Java 21+), each task runs in its own virtual
+ * thread and a semaphore bounds how many of them run at once, so that the
+ * number of outstanding reads is not capped by the number of cores. On older
+ * JVMs, the tasks run on a pool of as many platform threads as the bound.
+ * The bound defaults to four times the number of processors and can be set
+ * with the system property committools.maxConcurrentRepositories. Virtual
+ * threads can be disabled by setting committools.virtualThreads to false.
+ */
+public final class RepositoryThreadPool {
+
+	/**
+	 * A task that processes a single repository and writes its results.
+	 */
+	public interface IRepositoryTask {
+		/**
+		 * Process the repository and write its rows to the sink.
+		 */
+		void process(final File repository, final IResultSink sink)
+				throws Exception;
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(RepositoryThreadPool.class.getName());
+
+	public static final int DEFAULT_MAX_CONCURRENCY = Integer.getInteger(
+			"committools.maxConcurrentRepositories", 4 * Runtime.getRuntime()
+					.availableProcessors());
+
+	/**
+	 * Executors.newVirtualThreadPerTaskExecutor() or null if the JVM has no
+	 * virtual threads or they are disabled.
+	 */
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+	private static Method findVirtualThreadExecutor() {
+		if (!Boolean.parseBoolean(System.getProperty(
+				"committools.virtualThreads", "true"))) {
+			return null;
+		}
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (final NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Process all the repositories with the given task and write their rows
+	 * to the sink, in the order of the repositories, running at most
+	 * {@link #DEFAULT_MAX_CONCURRENCY} tasks at once.
+	 *
+	 * @see #writeForEachRepository(File[], IRepositoryTask, IResultSink, int)
+	 */
+	public static void writeForEachRepository(final File[] repositories,
+			final IRepositoryTask task, final IResultSink sink)
+			throws IOException {
+		writeForEachRepository(repositories, task, sink,
+				DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * Process all the repositories with the given task and write their rows
+	 * to the sink, in the order of the repositories. The rows of each
+	 * repository are buffered and written as soon as the rows of all the
+	 * preceding repositories are written. Failures are logged and write
+	 * nothing.
+	 *
+	 * At most twice maxConcurrency repositories are started and not yet
+	 * written, so that a slow repository does not keep the rows of all the
+	 * later ones in memory: no more repositories are started until its rows
+	 * are written.
+	 *
+	 * @param maxConcurrency
+	 *            the maximum number of tasks that run at the same time
+	 */
+	public static void writeForEachRepository(final File[] repositories,
+			final IRepositoryTask task, final IResultSink sink,
+			final int maxConcurrency) throws IOException {
+		final RowBuffer[] outputs = new RowBuffer[repositories.length];
+		final boolean[] completed = new boolean[repositories.length];
+		final int[] nextToWrite = { 0 };
+		final IOException[] writeFailure = { null };
+		// Not a monitor, which would pin virtual threads while writing
+		final ReentrantLock writeLock = new ReentrantLock();
+		final Semaphore pending = new Semaphore(2 * maxConcurrency);
+		final RepositoryThreadPool pool = new RepositoryThreadPool(
+				maxConcurrency);
+		for (int i = 0; i < repositories.length; i++) {
+			final int repository = i;
+			// Released when the rows of a repository are written
+			pending.acquireUninterruptibly();
+			pool.pushTask(new Runnable() {
+				@Override
+				public void run() {
+					RowBuffer output = new RowBuffer(sink.getSchema());
+					try {
+						task.process(repositories[repository], output);
+					} catch (final Throwable e) {
+						LOGGER.warning("Failed to process "
+								+ repositories[repository] + " because "
+								+ ExceptionUtils.getFullStackTrace(e));
+						output = null;
+					}
+					writeLock.lock();
+					try {
+						outputs[repository] = output;
+						completed[repository] = true;
+						while (nextToWrite[0] < repositories.length
+								&& completed[nextToWrite[0]]) {
+							if (outputs[nextToWrite[0]] != null
+									&& writeFailure[0] == null) {
+								try {
+									outputs[nextToWrite[0]].writeTo(sink);
+								} catch (final IOException e) {
+									writeFailure[0] = e;
+								}
+							}
+							outputs[nextToWrite[0]] = null;
+							nextToWrite[0]++;
+							pending.release();
+						}
+					} finally {
+						writeLock.unlock();
+					}
+				}
+			});
+		}
+		pool.waitForTermination();
+		if (writeFailure[0] != null) {
+			throw writeFailure[0];
+		}
+	}
+
+	private final ExecutorService executor;
+
+	private final Semaphore running;
+
+	private final boolean virtualThreads;
+
+	public RepositoryThreadPool() {
+		this(DEFAULT_MAX_CONCURRENCY);
+	}
+
+	/**
+	 * @param maxConcurrency
+	 *            the maximum number of tasks that run at the same time
+	 */
+	public RepositoryThreadPool(final int maxConcurrency) {
+		checkArgument(maxConcurrency > 0);
+		running = new Semaphore(maxConcurrency);
+		ExecutorService virtualThreadExecutor = null;
+		if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+			try {
+				virtualThreadExecutor = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR
+						.invoke(null);
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to create virtual threads, using platform threads. "
+						+ ExceptionUtils.getFullStackTrace(e));
+			}
+		}
+		virtualThreads = virtualThreadExecutor != null;
+		executor = virtualThreads ? virtualThreadExecutor : Executors
+				.newFixedThreadPool(maxConcurrency);
+	}
+
+	/**
+	 * Return true if the tasks run in virtual threads.
+	 */
+	public boolean isUsingVirtualThreads() {
+		return virtualThreads;
+	}
+
+	/**
+	 * Run the task, once fewer than the maximum number of tasks are running.
+	 */
+	public void pushTask(final Runnable task) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				running.acquireUninterruptibly();
+				try {
+					task.run();
+				} catch (final Throwable e) {
+					LOGGER.warning("Task failed because "
+							+ ExceptionUtils.getFullStackTrace(e));
+				} finally {
+					running.release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait for all the pushed tasks to complete. No more tasks can be pushed.
+	 */
+	public void waitForTermination() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// Keep waiting
+			}
+		} catch (final InterruptedException e) {
+			LOGGER.warning("Interrupted while waiting for the tasks to complete");
+			Thread.currentThread().interrupt();
+		}
+	}
+}
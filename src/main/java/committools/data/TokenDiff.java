@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package committools.data;
+
+import org.eclipse.jgit.diff.EditList;
+
+/**
+ * The line and token level diff of a file change. Each line edit is refined
+ * to the token edits between the tokens of the old and new lines it spans.
+ * Token edits index the tokens of the line edit's region, not the tokens of
+ * the whole file. Each region is lexed on its own (see {@link TokenSequence}),
+ * so the lines of a block comment or multi-line literal that the region
+ * starts inside of are tokenized as code.
+ */
+public final class TokenDiff {
+
+	private final EditList lineEdits;
+
+	private final TokenSequence[] oldTokens;
+
+	private final TokenSequence[] newTokens;
+
+	private final EditList[] tokenEdits;
+
+	TokenDiff(final EditList lineEdits, final TokenSequence[] oldTokens,
+			final TokenSequence[] newTokens, final EditList[] tokenEdits) {
+		this.lineEdits = lineEdits;
+		this.oldTokens = oldTokens;
+		this.newTokens = newTokens;
+		this.tokenEdits = tokenEdits;
+	}
+
+	public EditList getLineEdits() {
+		return lineEdits;
+	}
+
+	/**
+	 * Return the tokens of the new lines of the i-th line edit.
+	 */
+	public TokenSequence getNewTokens(final int lineEdit) {
+		return newTokens[lineEdit];
+	}
+
+	/**
+	 * Return the tokens of the old lines of the i-th line edit.
+	 */
+	public TokenSequence getOldTokens(final int lineEdit) {
+		return oldTokens[lineEdit];
+	}
+
+	/**
+	 * Return the token edits of the i-th line edit, where A indexes its old
+	 * tokens and B its new tokens.
+	 */
+	public EditList getTokenEdits(final int lineEdit) {
+		return tokenEdits[lineEdit];
+	}
+}
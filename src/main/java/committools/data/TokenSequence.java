@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.eclipse.jgit.diff.Sequence;
+
+/**
+ * The tokens of a region of a file, to be diffed with a
+ * {@link TokenSequenceComparator}. The region is lexed once on construction
+ * and the hash of each token is precomputed, so that no token is copied out
+ * of the file content.
+ *
+ * The lexer targets C-like languages: whitespace is skipped, identifiers,
+ * keywords and numbers are runs of letters, digits, '_', '$' and non-ASCII
+ * bytes, string and character literals end at the matching (unescaped) quote
+ * or the end of the line, line and block comments are single tokens and any
+ * other byte is a token of its own.
+ *
+ * The region is lexed on its own, from the default lexer state. A region
+ * that starts inside a block comment or a multi-line literal (e.g. a Java
+ * text block) is thus lexed as code up to the end of the comment or literal,
+ * and a comment or literal that is not closed within the region ends at the
+ * end of the region.
+ */
+public final class TokenSequence extends Sequence {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private static boolean isIdentifierPart(final byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+				|| (b >= '0' && b <= '9') || b == '_' || b == '$' || b < 0;
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	private final byte[] content;
+
+	private int[] starts = new int[INITIAL_CAPACITY];
+
+	private int[] ends = new int[INITIAL_CAPACITY];
+
+	private int[] hashes = new int[INITIAL_CAPACITY];
+
+	private int size = 0;
+
+	/**
+	 * Lex the bytes of the content in [start, end).
+	 */
+	public TokenSequence(final byte[] content, final int start, final int end) {
+		checkArgument(0 <= start && start <= end && end <= content.length);
+		this.content = content;
+		int position = start;
+		while (position < end) {
+			final byte b = content[position];
+			if (isWhitespace(b)) {
+				position++;
+				continue;
+			}
+			final int tokenStart = position;
+			if (b == '/' && position + 1 < end && content[position + 1] == '/') {
+				position = skipToEndOfLine(position, end);
+			} else if (b == '/' && position + 1 < end
+					&& content[position + 1] == '*') {
+				position = skipBlockComment(position + 2, end);
+			} else if (b == '"' || b == '\'') {
+				position = skipLiteral(b, position + 1, end);
+			} else if (isIdentifierPart(b)) {
+				position++;
+				while (position < end && isIdentifierPart(content[position])) {
+					position++;
+				}
+			} else {
+				position++;
+			}
+			addToken(tokenStart, position);
+		}
+	}
+
+	private void addToken(final int start, final int end) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, 2 * size);
+			ends = Arrays.copyOf(ends, 2 * size);
+			hashes = Arrays.copyOf(hashes, 2 * size);
+		}
+		int hash = 5381;
+		for (int i = start; i < end; i++) {
+			hash = (hash << 5) + hash + content[i];
+		}
+		starts[size] = start;
+		ends[size] = end;
+		hashes[size] = hash;
+		size++;
+	}
+
+	/**
+	 * Return the offset in the content after the last byte of the token.
+	 */
+	public int getEnd(final int token) {
+		return ends[token];
+	}
+
+	/**
+	 * Return the offset in the content of the first byte of the token.
+	 */
+	public int getStart(final int token) {
+		return starts[token];
+	}
+
+	public String getString(final int token) {
+		return new String(content, starts[token], ends[token] - starts[token],
+				StandardCharsets.UTF_8);
+	}
+
+	int hash(final int token) {
+		return hashes[token];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return true if the token is equal to the given token of the other
+	 * sequence.
+	 */
+	boolean tokenEquals(final int token, final TokenSequence other,
+			final int otherToken) {
+		if (hashes[token] != other.hashes[otherToken]) {
+			return false;
+		}
+		final int length = ends[token] - starts[token];
+		if (length != other.ends[otherToken] - other.starts[otherToken]) {
+			return false;
+		}
+		final int start = starts[token];
+		final int otherStart = other.starts[otherToken];
+		for (int i = 0; i < length; i++) {
+			if (content[start + i] != other.content[otherStart + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int skipBlockComment(final int from, final int end) {
+		for (int position = from; position + 1 < end; position++) {
+			if (content[position] == '*' && content[position + 1] == '/') {
+				return position + 2;
+			}
+		}
+		return end;
+	}
+
+	private int skipLiteral(final byte quote, final int from, final int end) {
+		int position = from;
+		while (position < end) {
+			final byte b = content[position];
+			if (b == '\\' && position + 1 < end) {
+				position += 2;
+			} else if (b == quote) {
+				return position + 1;
+			} else if (b == '\n') {
+				return position;
+			} else {
+				position++;
+			}
+		}
+		return end;
+	}
+
+	private int skipToEndOfLine(final int from, final int end) {
+		int position = from;
+		while (position < end && content[position] != '\n'
+				&& content[position] != '\r') {
+			position++;
+		}
+		return position;
+	}
+}
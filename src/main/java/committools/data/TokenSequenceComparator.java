@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package committools.data;
+
+import org.eclipse.jgit.diff.SequenceComparator;
+
+/**
+ * Compare the tokens of {@link TokenSequence}s by their bytes, using their
+ * precomputed hashes.
+ */
+public final class TokenSequenceComparator extends
+		SequenceComparator<TokenSequence> {
+
+	public static final TokenSequenceComparator INSTANCE = new TokenSequenceComparator();
+
+	private TokenSequenceComparator() {
+		// Use the instance
+	}
+
+	@Override
+	public boolean equals(final TokenSequence a, final int ai,
+			final TokenSequence b, final int bi) {
+		return a.tokenEquals(ai, b, bi);
+	}
+
+	@Override
+	public int hash(final TokenSequence seq, final int ptr) {
+		return seq.hash(ptr);
+	}
+}
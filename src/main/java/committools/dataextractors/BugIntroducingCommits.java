@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.MyersDiff;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import codemining.util.parallel.ParallelThreadPool;
+import committools.data.EditListRetriever;
+import committools.data.EditListRetriever.IEditListCallback;
+import committools.data.GitCommitUtils;
+import committools.data.KeywordMatcher;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+/**
+ * Find bug-introducing commits with the SZZ algorithm. Fix commits are
+ * identified by their message. The lines that each fix commit deletes or
+ * replaces are blamed on the fix's parent, and the commits that last changed
+ * them are considered to have introduced the bug.
+ *
+ * History is walked once and each fix is diffed against its parent with an
+ * {@link EditListRetriever}. Each (file, parent) pair is blamed once for all
+ * the changed lines of the file, and files are blamed in parallel. Merge
+ * commits are ignored. The repository is open until {@link #close()}.
+ */
+public class BugIntroducingCommits implements AutoCloseable {
+
+	/**
+	 * Blame the deleted lines of a single file of a fix commit.
+	 */
+	private class BlameRunnable implements Runnable {
+
+		final ObjectId fixId;
+
+		final ObjectId parentId;
+
+		final String path;
+
+		final List<Edit> edits;
+
+		BlameRunnable(final ObjectId fixId, final ObjectId parentId,
+				final String path, final List<Edit> edits) {
+			this.fixId = fixId;
+			this.parentId = parentId;
+			this.path = path;
+			this.edits = edits;
+		}
+
+		@Override
+		public void run() {
+			final BlameGenerator generator = new BlameGenerator(
+					repository.getRepository(), path);
+			try {
+				generator.setDiffAlgorithm(MyersDiff.INSTANCE);
+				generator.setTextComparator(RawTextComparator.WS_IGNORE_ALL);
+				generator.push(null, parentId);
+				final BlameResult blame = BlameResult.create(generator);
+				if (blame == null) {
+					return;
+				}
+				final Map<ObjectId, Integer> inducingLines = Maps.newHashMap();
+				for (final Edit edit : edits) {
+					blame.computeRange(edit.getBeginA(), edit.getEndA());
+					for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
+						final RevCommit source = blame.getSourceCommit(i);
+						if (source == null) {
+							continue;
+						}
+						final Integer nLines = inducingLines.get(source);
+						inducingLines.put(source.copy(), nLines == null ? 1
+								: nLines + 1);
+					}
+				}
+				for (final Map.Entry<ObjectId, Integer> entry : inducingLines
+						.entrySet()) {
+					results.add(new BugIntroduction(fixId, entry.getKey(),
+							path, entry.getValue()));
+				}
+			} catch (final Throwable e) {
+				LOGGER.warning("Failed to blame " + path + " at "
+						+ parentId.name() + " because "
+						+ ExceptionUtils.getFullStackTrace(e));
+			} finally {
+				generator.release();
+			}
+		}
+	}
+
+	/**
+	 * A commit that introduced lines that were later changed by a fix.
+	 */
+	public static final class BugIntroduction {
+
+		public final ObjectId fixCommit;
+
+		public final ObjectId inducingCommit;
+
+		public final String path;
+
+		/**
+		 * The number of lines of the file that the fix changed and the
+		 * inducing commit introduced.
+		 */
+		public final int nLines;
+
+		public BugIntroduction(final ObjectId fixCommit,
+				final ObjectId inducingCommit, final String path,
+				final int nLines) {
+			this.fixCommit = fixCommit;
+			this.inducingCommit = inducingCommit;
+			this.path = path;
+			this.nLines = nLines;
+		}
+	}
+
+	/**
+	 * The criterion for a commit to be a fix.
+	 */
+	public interface IFixCriterion {
+		boolean isFix(final RevCommit commit);
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(BugIntroducingCommits.class.getName());
+
+	/**
+	 * Return a criterion matching the commits whose message contains any of
+	 * the keywords of the matcher.
+	 */
+	public static IFixCriterion keywordCriterion(final KeywordMatcher matcher) {
+		final KeywordMatcher.Counts counts = matcher.newCounts();
+		return new IFixCriterion() {
+
+			@Override
+			public boolean isFix(final RevCommit commit) {
+				final byte[] raw = commit.getRawBuffer();
+				final int messageStart = RawParseUtils.commitMessage(raw, 0);
+				return messageStart >= 0
+						&& matcher.count(raw, messageStart, raw.length, counts);
+			}
+		};
+	}
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err
+					.println("Usage <repositoryDir> keywords|regex <keywords...>|<regex>");
+			System.exit(-1);
+		}
+		final IFixCriterion criterion;
+		if (args[1].equals("keywords")) {
+			criterion = keywordCriterion(KeywordMatcher.compile(
+					Arrays.asList(args).subList(2, args.length), true, true));
+		} else if (args[1].equals("regex")) {
+			criterion = regexCriterion(Pattern.compile(args[2]));
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[1]);
+		}
+
+		final BugIntroducingCommits szz = new BugIntroducingCommits(args[0],
+				criterion, TrueFileFilter.TRUE);
+		final SortedMap<String, SortedMap<String, Integer>> fixes;
+		try {
+			fixes = szz.findBugIntroducingCommits();
+		} finally {
+			szz.close();
+		}
+		final IResultSink sink = ResultSinks.open(ResultSchema.create()
+				.addString("fix").addString("inducing").addLong("lines")
+				.withoutHeader());
+		try {
+			for (final Map.Entry<String, SortedMap<String, Integer>> fix : fixes
+					.entrySet()) {
+				for (final Map.Entry<String, Integer> inducing : fix
+						.getValue().entrySet()) {
+					sink.writeString(fix.getKey());
+					sink.writeString(inducing.getKey());
+					sink.writeLong(inducing.getValue());
+					sink.endRow();
+				}
+			}
+		} finally {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Return a criterion matching the commits whose full message contains the
+	 * pattern.
+	 */
+	public static IFixCriterion regexCriterion(final Pattern pattern) {
+		return new IFixCriterion() {
+
+			@Override
+			public boolean isFix(final RevCommit commit) {
+				return pattern.matcher(commit.getFullMessage()).find();
+			}
+		};
+	}
+
+	private final Git repository;
+
+	private final IFixCriterion fixCriterion;
+
+	private final IOFileFilter fileFilter;
+
+	private final ConcurrentLinkedQueue<BugIntroduction> results = new ConcurrentLinkedQueue<BugIntroduction>();
+
+	public BugIntroducingCommits(final String repositoryDirectory,
+			final IFixCriterion fixCriterion, final IOFileFilter fileFilter)
+			throws IOException {
+		repository = GitCommitUtils.getGitRepository(repositoryDirectory);
+		this.fixCriterion = fixCriterion;
+		this.fileFilter = fileFilter;
+	}
+
+	/**
+	 * Close the repository.
+	 */
+	@Override
+	public void close() {
+		repository.getRepository().close();
+	}
+
+	/**
+	 * Return the bug-introducing commits of each fix, along with the number
+	 * of lines of the fix they introduced.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public SortedMap<String, SortedMap<String, Integer>> findBugIntroducingCommits()
+			throws IOException {
+		final SortedMap<String, SortedMap<String, Integer>> fixes = Maps
+				.newTreeMap();
+		for (final BugIntroduction introduction : findBugIntroductions()) {
+			final String fix = introduction.fixCommit.name();
+			SortedMap<String, Integer> inducingCommits = fixes.get(fix);
+			if (inducingCommits == null) {
+				inducingCommits = Maps.newTreeMap();
+				fixes.put(fix, inducingCommits);
+			}
+			final String inducing = introduction.inducingCommit.name();
+			final Integer nLines = inducingCommits.get(inducing);
+			inducingCommits.put(inducing, (nLines == null ? 0 : nLines)
+					+ introduction.nLines);
+		}
+		return fixes;
+	}
+
+	/**
+	 * Return the bug-introducing commits of each file of each fix.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public List<BugIntroduction> findBugIntroductions() throws IOException {
+		results.clear();
+		final ParallelThreadPool blamePool = new ParallelThreadPool();
+		final EditListRetriever editListRetriever = new EditListRetriever(
+				repository, fileFilter);
+		final RevWalk walk = new RevWalk(repository.getRepository());
+		try {
+			walk.markStart(walk.parseCommit(GitCommitUtils
+					.getHeadId(repository)));
+			for (final RevCommit commit : walk) {
+				if (commit.getParentCount() != 1
+						|| !fixCriterion.isFix(commit)) {
+					continue;
+				}
+				final ObjectId fixId = commit.copy();
+				final ObjectId parentId = commit.getParent(0).copy();
+				try {
+					editListRetriever.retrieveEditListBetweenAndCallback(
+							commit, commit.getParent(0),
+							new IEditListCallback() {
+
+								@Override
+								public void visitDiffEntry(
+										final DiffEntry entry,
+										final EditList editList,
+										final RevCommit fix) {
+									if (entry.getChangeType() == DiffEntry.ChangeType.ADD) {
+										return;
+									}
+									final List<Edit> deletions = Lists
+											.newArrayList();
+									for (final Edit edit : editList) {
+										if (edit.getType() == Edit.Type.DELETE
+												|| edit.getType() == Edit.Type.REPLACE) {
+											deletions.add(edit);
+										}
+									}
+									if (!deletions.isEmpty()) {
+										blamePool.pushTask(new BlameRunnable(
+												fixId, parentId, entry
+														.getOldPath(),
+												deletions));
+									}
+								}
+							});
+				} catch (final Exception e) {
+					LOGGER.warning("Failed to retrieve the edits of "
+							+ commit.name() + " because "
+							+ ExceptionUtils.getFullStackTrace(e));
+				}
+			}
+		} finally {
+			walk.release();
+			blamePool.waitForTermination();
+		}
+		return Lists.newArrayList(results);
+	}
+}
@@ -0,0 +1,426 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+/**
+ * Random access to an edit history archive written by
+ * {@link EditHistoryExporter}. The archive is memory-mapped and read without
+ * JGit or the repository. A whole history is replayed with
+ *
+ * <pre>
+ * for (int c = 0; c &lt; archive.getNumCommits(); c++) {
+ * 	for (long ch = archive.getFirstChange(c); ch &lt; archive.getFirstChange(c + 1); ch++) {
+ * 		for (long e = archive.getFirstEdit(ch); e &lt; archive.getFirstEdit(ch + 1); e++) {
+ * 			archive.getBeginA(e) ...
+ * 		}
+ * 	}
+ * }
+ * </pre>
+ *
+ * The archive (all integers big endian) consists of
+ * <ul>
+ * <li>a header: magic, version, number of commits and paths (ints), number
+ * of changes and edits (longs), the 20 byte id of the HEAD that the history
+ * was exported at, the offsets of the five sections (longs), whether the
+ * first-parent history was exported (int, 1 if so) and the length (int)
+ * and UTF-8 bytes of the file suffixes that were exported, separated by
+ * '\0' (empty if all files were exported),</li>
+ * <li>the commit table: for each commit, in the order they were walked, its
+ * 20 byte id, commit time (int) and index of its first change (long),
+ * followed by a sentinel record whose first change is the number of
+ * changes,</li>
+ * <li>the path index: the offset (int) of each interned path in the path
+ * data, followed by the length of the path data,</li>
+ * <li>the path data: the UTF-8 bytes of all the paths,</li>
+ * <li>the change table: for each file change, its old and new path (ints,
+ * -1 for none) and its change type (top byte) with the index of its first
+ * edit (long), followed by a sentinel record whose first edit is the number
+ * of edits,</li>
+ * <li>the edits: the beginA, endA, beginB and endB (ints) of each edit.</li>
+ * </ul>
+ */
+public final class EditHistoryArchive implements Closeable {
+
+	/**
+	 * The type of a file change, in the order of JGit's
+	 * DiffEntry.ChangeType.
+	 */
+	public enum ChangeType {
+		ADD, MODIFY, DELETE, RENAME, COPY
+	}
+
+	/**
+	 * A memory-mapped section of fixed-size records. Sections larger than a
+	 * single mapping are mapped in chunks, each holding whole records.
+	 */
+	private static final class MappedSection {
+		private static final int CHUNK_BITS = 30;
+
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+		private final ByteBuffer[] chunks;
+
+		MappedSection(final FileChannel channel, final long offset,
+				final long size) throws IOException {
+			chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for (int i = 0; i < chunks.length; i++) {
+				final long chunkStart = ((long) i) << CHUNK_BITS;
+				chunks[i] = channel.map(MapMode.READ_ONLY, offset + chunkStart,
+						Math.min(size - chunkStart, CHUNK_MASK + 1));
+			}
+		}
+
+		int getInt(final long position) {
+			return chunks[(int) (position >>> CHUNK_BITS)]
+					.getInt((int) (position & CHUNK_MASK));
+		}
+
+		long getLong(final long position) {
+			return chunks[(int) (position >>> CHUNK_BITS)]
+					.getLong((int) (position & CHUNK_MASK));
+		}
+	}
+
+	public static final int MAGIC = 0x43544548;
+
+	public static final int VERSION = 1;
+
+	/**
+	 * The size of the header, without the file suffixes.
+	 */
+	static final int HEADER_SIZE = 4 * 4 + 2 * 8 + 20 + 5 * 8 + 2 * 4;
+
+	static final char SUFFIX_SEPARATOR = '\0';
+
+	static final int COMMIT_RECORD_SIZE = 20 + 4 + 8;
+
+	static final int CHANGE_RECORD_SIZE = 4 + 4 + 8;
+
+	static final int EDIT_RECORD_SIZE = 4 * 4;
+
+	static final int CHANGE_TYPE_SHIFT = 56;
+
+	private static final long FIRST_EDIT_MASK = (1L << CHANGE_TYPE_SHIFT) - 1;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+	/**
+	 * Print a row per file change of the archive.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage <archiveFile>");
+			System.exit(-1);
+		}
+		final EditHistoryArchive archive = open(new File(args[0]));
+		try {
+			final IResultSink sink = ResultSinks.open(ResultSchema.create()
+					.addString("commit").addLong("time").addString("type")
+					.addString("oldPath").addString("newPath")
+					.addLong("edits").addLong("linesRemoved")
+					.addLong("linesAdded"));
+			try {
+				for (int commit = 0; commit < archive.getNumCommits(); commit++) {
+					final String name = archive.getCommitName(commit);
+					for (long change = archive.getFirstChange(commit); change < archive
+							.getFirstChange(commit + 1); change++) {
+						long linesRemoved = 0;
+						long linesAdded = 0;
+						for (long edit = archive.getFirstEdit(change); edit < archive
+								.getFirstEdit(change + 1); edit++) {
+							linesRemoved += archive.getEndA(edit)
+									- archive.getBeginA(edit);
+							linesAdded += archive.getEndB(edit)
+									- archive.getBeginB(edit);
+						}
+						final int oldPath = archive.getOldPath(change);
+						final int newPath = archive.getNewPath(change);
+						sink.writeString(name);
+						sink.writeLong(archive.getCommitTime(commit));
+						sink.writeString(archive.getChangeType(change).name());
+						sink.writeString(oldPath < 0 ? "" : archive
+								.getPath(oldPath));
+						sink.writeString(newPath < 0 ? "" : archive
+								.getPath(newPath));
+						sink.writeLong(archive.getFirstEdit(change + 1)
+								- archive.getFirstEdit(change));
+						sink.writeLong(linesRemoved);
+						sink.writeLong(linesAdded);
+						sink.endRow();
+					}
+				}
+			} finally {
+				sink.close();
+			}
+		} finally {
+			archive.close();
+		}
+	}
+
+	/**
+	 * Map the archive in the given file.
+	 */
+	public static EditHistoryArchive open(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return new EditHistoryArchive(raf.getChannel());
+		} finally {
+			raf.close();
+		}
+	}
+
+	private final int nCommits;
+
+	private final int nPaths;
+
+	private final long nChanges;
+
+	private final long nEdits;
+
+	private final byte[] head = new byte[20];
+
+	private final boolean firstParentHistory;
+
+	private final List<String> fileSuffixes;
+
+	private final long changesOffset;
+
+	private final long editsOffset;
+
+	private ByteBuffer commits;
+
+	private ByteBuffer pathIndex;
+
+	private ByteBuffer pathData;
+
+	private MappedSection changes;
+
+	private MappedSection edits;
+
+	private EditHistoryArchive(final FileChannel channel) throws IOException {
+		checkArgument(channel.size() >= HEADER_SIZE, "Not an edit archive");
+		final ByteBuffer header = channel.map(MapMode.READ_ONLY, 0,
+				HEADER_SIZE);
+		checkArgument(header.getInt() == MAGIC, "Not an edit archive");
+		final int version = header.getInt();
+		checkArgument(version == VERSION, "Unsupported version %s", version);
+		nCommits = header.getInt();
+		nPaths = header.getInt();
+		nChanges = header.getLong();
+		nEdits = header.getLong();
+		header.get(head);
+		final long commitsOffset = header.getLong();
+		final long pathIndexOffset = header.getLong();
+		final long pathDataOffset = header.getLong();
+		changesOffset = header.getLong();
+		editsOffset = header.getLong();
+		firstParentHistory = header.getInt() == 1;
+		final int suffixesLength = header.getInt();
+		checkArgument(suffixesLength >= 0
+				&& HEADER_SIZE + suffixesLength <= commitsOffset,
+				"Corrupt edit archive");
+		final ByteBuffer suffixes = channel.map(MapMode.READ_ONLY,
+				HEADER_SIZE, suffixesLength);
+		final byte[] suffixBytes = new byte[suffixesLength];
+		suffixes.get(suffixBytes);
+		fileSuffixes = suffixesLength == 0 ? Collections.<String> emptyList()
+				: Arrays.asList(new String(suffixBytes,
+						StandardCharsets.UTF_8).split(String
+						.valueOf(SUFFIX_SEPARATOR)));
+
+		commits = channel.map(MapMode.READ_ONLY, commitsOffset,
+				(nCommits + 1L) * COMMIT_RECORD_SIZE);
+		pathIndex = channel.map(MapMode.READ_ONLY, pathIndexOffset,
+				(nPaths + 1L) * 4);
+		pathData = channel.map(MapMode.READ_ONLY, pathDataOffset,
+				pathIndex.getInt(nPaths * 4));
+		changes = new MappedSection(channel, changesOffset, (nChanges + 1)
+				* CHANGE_RECORD_SIZE);
+		edits = new MappedSection(channel, editsOffset, nEdits
+				* EDIT_RECORD_SIZE);
+	}
+
+	/**
+	 * Release the mappings. The memory is unmapped when they are garbage
+	 * collected.
+	 */
+	@Override
+	public void close() {
+		commits = null;
+		pathIndex = null;
+		pathData = null;
+		changes = null;
+		edits = null;
+	}
+
+	public int getBeginA(final long edit) {
+		return edits.getInt(edit * EDIT_RECORD_SIZE);
+	}
+
+	public int getBeginB(final long edit) {
+		return edits.getInt(edit * EDIT_RECORD_SIZE + 8);
+	}
+
+	public ChangeType getChangeType(final long change) {
+		return CHANGE_TYPES[(int) (changes.getLong(change * CHANGE_RECORD_SIZE
+				+ 8) >>> CHANGE_TYPE_SHIFT)];
+	}
+
+	/**
+	 * Return the offset of the change table in the file.
+	 */
+	long getChangesOffset() {
+		return changesOffset;
+	}
+
+	/**
+	 * Copy the 20 byte id of the commit to the given array.
+	 */
+	public void getCommitId(final int commit, final byte[] id,
+			final int offset) {
+		for (int i = 0; i < 20; i++) {
+			id[offset + i] = commits.get(commit * COMMIT_RECORD_SIZE + i);
+		}
+	}
+
+	/**
+	 * Return the id of the commit as a hex string.
+	 */
+	public String getCommitName(final int commit) {
+		final char[] name = new char[40];
+		for (int i = 0; i < 20; i++) {
+			final int b = commits.get(commit * COMMIT_RECORD_SIZE + i);
+			name[2 * i] = HEX[(b >>> 4) & 0xF];
+			name[2 * i + 1] = HEX[b & 0xF];
+		}
+		return new String(name);
+	}
+
+	public int getCommitTime(final int commit) {
+		return commits.getInt(commit * COMMIT_RECORD_SIZE + 20);
+	}
+
+	/**
+	 * Return the suffixes of the files whose changes were exported or an
+	 * empty list if the changes of all files were exported.
+	 */
+	public List<String> getFileSuffixes() {
+		return fileSuffixes;
+	}
+
+	/**
+	 * Return the offset of the edits in the file.
+	 */
+	long getEditsOffset() {
+		return editsOffset;
+	}
+
+	public int getEndA(final long edit) {
+		return edits.getInt(edit * EDIT_RECORD_SIZE + 4);
+	}
+
+	public int getEndB(final long edit) {
+		return edits.getInt(edit * EDIT_RECORD_SIZE + 12);
+	}
+
+	/**
+	 * Return the index of the first change of the commit. The changes of the
+	 * commit end at the first change of the next commit, which is the number
+	 * of changes for commit == getNumCommits().
+	 */
+	public long getFirstChange(final int commit) {
+		return commits.getLong(commit * COMMIT_RECORD_SIZE + 24);
+	}
+
+	/**
+	 * Return the index of the first edit of the change. The edits of the
+	 * change end at the first edit of the next change, which is the number
+	 * of edits for change == getNumChanges().
+	 */
+	public long getFirstEdit(final long change) {
+		return changes.getLong(change * CHANGE_RECORD_SIZE + 8)
+				& FIRST_EDIT_MASK;
+	}
+
+	/**
+	 * Return the id of the HEAD that the history was exported at, as a hex
+	 * string.
+	 */
+	public String getHeadName() {
+		final char[] name = new char[40];
+		for (int i = 0; i < 20; i++) {
+			name[2 * i] = HEX[(head[i] >>> 4) & 0xF];
+			name[2 * i + 1] = HEX[head[i] & 0xF];
+		}
+		return new String(name);
+	}
+
+	/**
+	 * Return the path after the change or -1 for deleted files.
+	 */
+	public int getNewPath(final long change) {
+		return changes.getInt(change * CHANGE_RECORD_SIZE + 4);
+	}
+
+	public long getNumChanges() {
+		return nChanges;
+	}
+
+	public int getNumCommits() {
+		return nCommits;
+	}
+
+	public long getNumEdits() {
+		return nEdits;
+	}
+
+	public int getNumPaths() {
+		return nPaths;
+	}
+
+	/**
+	 * Return the path before the change or -1 for added files.
+	 */
+	public int getOldPath(final long change) {
+		return changes.getInt(change * CHANGE_RECORD_SIZE);
+	}
+
+	public String getPath(final int path) {
+		final int start = pathIndex.getInt(path * 4);
+		final int end = pathIndex.getInt(path * 4 + 4);
+		final byte[] bytes = new byte[end - start];
+		final ByteBuffer data = pathData.duplicate();
+		data.position(start);
+		data.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Return true if the first-parent history was exported, false if all the
+	 * commits were.
+	 */
+	public boolean isFirstParentHistory() {
+		return firstParentHistory;
+	}
+}
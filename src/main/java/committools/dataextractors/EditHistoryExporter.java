@@ -0,0 +1,561 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.IOFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import committools.data.GitCommitUtils;
+
+/**
+ * Export the edit history of a repository to an archive that can be read
+ * back with {@link EditHistoryArchive}, without diffing the repository
+ * again. Each commit with at least one file change (accepted by the file
+ * filter) is stored in walk order, along with its file changes and their
+ * edits. Paths are interned.
+ *
+ * Changes and edits are streamed to temporary files next to the archive
+ * during the walk, so that only the commit and path tables are kept in
+ * memory. The temporary files are created by the first change and deleted
+ * when the export or update ends, even if it fails.
+ *
+ * An existing archive can be updated with the commits that are new since the
+ * HEAD it was exported at. Only the new commits are diffed, but the archive
+ * is rewritten in full: the tables are rebuilt and the changes and edits of
+ * the old archive are copied to a new file, which then replaces it. An
+ * update thus costs a diff of the new commits and a sequential copy of the
+ * archive. If the history of HEAD does not extend the exported one (e.g.
+ * after a force-push) or the archive was exported with another history mode
+ * or other file suffixes, the whole history is exported again.
+ */
+public class EditHistoryExporter extends EditListWalker {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final Logger LOGGER = Logger
+			.getLogger(EditHistoryExporter.class.getName());
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err
+					.println("Usage export|update <repositoryDir> <archiveFile> all|firstParent [<suffix>...]");
+			System.exit(-1);
+		}
+		final boolean firstParentHistory;
+		if (args[3].equals("firstParent")) {
+			firstParentHistory = true;
+		} else if (args[3].equals("all")) {
+			firstParentHistory = false;
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[3]);
+		}
+		final EditHistoryExporter exporter = new EditHistoryExporter(args[1],
+				Arrays.asList(Arrays.copyOfRange(args, 4, args.length)),
+				firstParentHistory, new File(args[2]));
+		if (args[0].equals("export")) {
+			exporter.export();
+		} else if (args[0].equals("update")) {
+			exporter.update();
+		} else {
+			throw new IllegalArgumentException("Unrecognized " + args[0]);
+		}
+	}
+
+	/**
+	 * Return the filter of the files with the given suffixes or of all the
+	 * files if there are none.
+	 */
+	private static IOFileFilter getFileFilter(final List<String> fileSuffixes) {
+		return fileSuffixes.isEmpty() ? TrueFileFilter.TRUE
+				: new SuffixFileFilter(fileSuffixes);
+	}
+
+	private final File archiveFile;
+
+	private final boolean firstParentHistory;
+
+	private final List<String> fileSuffixes;
+
+	private final File changesFile;
+
+	private final File editsFile;
+
+	/**
+	 * The streams of the temporary files or null if they are not created.
+	 */
+	private DataOutputStream changesOut = null;
+
+	private DataOutputStream editsOut = null;
+
+	private final Map<String, Integer> pathIds = Maps.newHashMap();
+
+	private final ByteArrayOutputStream pathData = new ByteArrayOutputStream();
+
+	private int[] pathOffsets = new int[INITIAL_CAPACITY];
+
+	private int nCommits = 0;
+
+	private byte[] commitIds = new byte[20 * INITIAL_CAPACITY];
+
+	private int[] commitTimes = new int[INITIAL_CAPACITY];
+
+	private long[] firstChanges = new long[INITIAL_CAPACITY];
+
+	private RevCommit lastCommit = null;
+
+	/**
+	 * The HEAD that the history is exported at.
+	 */
+	private ObjectId head;
+
+	private long nChanges = 0;
+
+	private long nEdits = 0;
+
+	/**
+	 * The first failure to write the temporary files, if any.
+	 */
+	private IOException writeFailure = null;
+
+	/**
+	 * @param repositoryDirectory
+	 * @param fileSuffixes
+	 *            the suffixes of the files whose changes are exported or an
+	 *            empty list to export the changes of all the files
+	 * @param firstParentHistory
+	 *            as in
+	 *            {@link EditListWalker#EditListWalker(String, IOFileFilter, boolean)}
+	 * @param archiveFile
+	 *            where the archive is written
+	 * @throws IOException
+	 */
+	public EditHistoryExporter(final String repositoryDirectory,
+			final List<String> fileSuffixes, final boolean firstParentHistory,
+			final File archiveFile) throws IOException {
+		super(repositoryDirectory, getFileFilter(fileSuffixes),
+				firstParentHistory);
+		for (final String suffix : fileSuffixes) {
+			checkArgument(!suffix.isEmpty()
+					&& suffix.indexOf(EditHistoryArchive.SUFFIX_SEPARATOR) < 0,
+					"Invalid file suffix %s", suffix);
+		}
+		this.firstParentHistory = firstParentHistory;
+		this.fileSuffixes = Lists.newArrayList(fileSuffixes);
+		this.archiveFile = archiveFile;
+		changesFile = new File(archiveFile.getPath() + ".changes");
+		editsFile = new File(archiveFile.getPath() + ".edits");
+	}
+
+	private void addCommit(final RevCommit commit) {
+		if (nCommits == commitTimes.length) {
+			commitIds = Arrays.copyOf(commitIds, 2 * commitIds.length);
+			commitTimes = Arrays.copyOf(commitTimes, 2 * nCommits);
+			firstChanges = Arrays.copyOf(firstChanges, 2 * nCommits);
+		}
+		commit.copyRawTo(commitIds, 20 * nCommits);
+		commitTimes[nCommits] = commit.getCommitTime();
+		firstChanges[nCommits] = nChanges;
+		nCommits++;
+		lastCommit = commit;
+	}
+
+	/**
+	 * Close and delete the temporary files, if they are created.
+	 */
+	private void deleteTemporaryFiles() {
+		IOUtils.closeQuietly(changesOut);
+		IOUtils.closeQuietly(editsOut);
+		changesOut = null;
+		editsOut = null;
+		changesFile.delete();
+		editsFile.delete();
+	}
+
+	/**
+	 * Walk the repository and write the archive.
+	 */
+	public void export() throws IOException {
+		try {
+			exportHistory();
+		} finally {
+			deleteTemporaryFiles();
+		}
+	}
+
+	private void exportHistory() throws IOException {
+		head = GitCommitUtils.getHeadId(repository);
+		if (firstParentHistory) {
+			doWalk();
+		} else {
+			// The topological walk lists HEAD first and again last
+			final List<RevCommit> commits;
+			try {
+				commits = GitCommitUtils.getAllCommitsTopological(repository);
+			} catch (final GitAPIException e) {
+				throw new IOException(e);
+			}
+			doWalk(commits.isEmpty() ? commits : commits.subList(1,
+					commits.size()));
+		}
+		writeArchive(null);
+	}
+
+	/**
+	 * Return the id of the path, interning it if it is new.
+	 */
+	private int getPathId(final String path) {
+		final Integer id = pathIds.get(path);
+		if (id != null) {
+			return id;
+		}
+		final int newId = pathIds.size();
+		pathIds.put(path, newId);
+		if (newId == pathOffsets.length) {
+			pathOffsets = Arrays.copyOf(pathOffsets, 2 * newId);
+		}
+		pathOffsets[newId] = pathData.size();
+		final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+		pathData.write(bytes, 0, bytes.length);
+		return newId;
+	}
+
+	/**
+	 * Create the temporary files of the changes and edits.
+	 */
+	private void openTemporaryFiles() throws IOException {
+		changesOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(changesFile), 1 << 16));
+		editsOut = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(editsFile), 1 << 16));
+	}
+
+	/**
+	 * Append count bytes of the file, starting at the given position.
+	 */
+	private void transfer(final File from, final long position,
+			final long count, final FileChannel to) throws IOException {
+		final FileInputStream in = new FileInputStream(from);
+		try {
+			final FileChannel channel = in.getChannel();
+			long transferred = 0;
+			while (transferred < count) {
+				transferred += channel.transferTo(position + transferred, count
+						- transferred, to);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Update the archive with the commits that are new since it was exported
+	 * or export the whole history if there is no archive, its history is not
+	 * extended by HEAD or it was exported with another history mode or other
+	 * file suffixes. The archive is rewritten in full.
+	 */
+	public void update() throws IOException {
+		try {
+			updateHistory();
+		} finally {
+			deleteTemporaryFiles();
+		}
+	}
+
+	private void updateHistory() throws IOException {
+		if (!archiveFile.exists()) {
+			exportHistory();
+			return;
+		}
+		final EditHistoryArchive base;
+		try {
+			base = EditHistoryArchive.open(archiveFile);
+		} catch (final IllegalArgumentException e) {
+			LOGGER.info("Exporting " + archiveFile + " again: "
+					+ e.getMessage());
+			exportHistory();
+			return;
+		}
+		try {
+			if (base.isFirstParentHistory() != firstParentHistory
+					|| !base.getFileSuffixes().equals(fileSuffixes)) {
+				LOGGER.info(archiveFile
+						+ " was exported with another history mode or file suffixes, exporting it again");
+			} else {
+				head = GitCommitUtils.getHeadId(repository);
+				if (doWalkSince(ObjectId.fromString(base.getHeadName()))) {
+					writeArchive(base);
+					return;
+				}
+				LOGGER.info("HEAD does not extend the history of "
+						+ archiveFile + ", exporting it again");
+			}
+		} finally {
+			base.close();
+		}
+		exportHistory();
+	}
+
+	@Override
+	public void visitDiffEntry(final DiffEntry entry, final EditList el,
+			final RevCommit commit) throws IOException {
+		if (writeFailure != null) {
+			return;
+		}
+		if (commit != lastCommit) {
+			addCommit(commit);
+		}
+		final ChangeType type = entry.getChangeType();
+		try {
+			if (changesOut == null) {
+				openTemporaryFiles();
+			}
+			changesOut.writeInt(type == ChangeType.ADD ? -1 : getPathId(entry
+					.getOldPath()));
+			changesOut.writeInt(type == ChangeType.DELETE ? -1
+					: getPathId(entry.getNewPath()));
+			changesOut.writeLong(((long) EditHistoryArchive.ChangeType
+					.valueOf(type.name()).ordinal()) << EditHistoryArchive.CHANGE_TYPE_SHIFT
+					| nEdits);
+			for (final Edit edit : el) {
+				editsOut.writeInt(edit.getBeginA());
+				editsOut.writeInt(edit.getEndA());
+				editsOut.writeInt(edit.getBeginB());
+				editsOut.writeInt(edit.getEndB());
+			}
+		} catch (final IOException e) {
+			writeFailure = e;
+			throw e;
+		}
+		nChanges++;
+		nEdits += el.size();
+	}
+
+	private void write(final ByteBuffer buffer, final FileChannel to)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			to.write(buffer);
+		}
+	}
+
+	/**
+	 * Write the archive from the commits and changes seen so far, appended to
+	 * those of the given archive (if not null). The archive file is replaced
+	 * only once the whole archive is written.
+	 */
+	private void writeArchive(final EditHistoryArchive base)
+			throws IOException {
+		final File newArchiveFile = new File(archiveFile.getPath() + ".new");
+		try {
+			if (changesOut != null) {
+				changesOut.close();
+				editsOut.close();
+			}
+			if (writeFailure != null) {
+				throw writeFailure;
+			}
+
+			final int baseCommits = base == null ? 0 : base.getNumCommits();
+			final int basePaths = base == null ? 0 : base.getNumPaths();
+			final long baseChanges = base == null ? 0 : base.getNumChanges();
+			final long baseEdits = base == null ? 0 : base.getNumEdits();
+
+			// Intern the new paths after the paths of the base archive
+			final ByteArrayOutputStream allPathData = new ByteArrayOutputStream();
+			final Map<String, Integer> basePathIds = Maps.newHashMap();
+			final int[] allPathOffsets = new int[basePaths + pathIds.size()
+					+ 1];
+			for (int i = 0; i < basePaths; i++) {
+				final String path = base.getPath(i);
+				basePathIds.put(path, i);
+				allPathOffsets[i] = allPathData.size();
+				final byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+				allPathData.write(bytes, 0, bytes.length);
+			}
+			final byte[] newPathData = pathData.toByteArray();
+			final int[] pathMap = new int[pathIds.size()];
+			final int[] addedPaths = new int[pathIds.size()];
+			int nAddedPaths = 0;
+			for (final Map.Entry<String, Integer> entry : pathIds.entrySet()) {
+				final Integer baseId = basePathIds.get(entry.getKey());
+				pathMap[entry.getValue()] = baseId == null ? -1 : baseId;
+			}
+			for (int i = 0; i < pathMap.length; i++) {
+				if (pathMap[i] == -1) {
+					pathMap[i] = basePaths + nAddedPaths;
+					addedPaths[nAddedPaths++] = i;
+				}
+			}
+			final int nPaths = basePaths + nAddedPaths;
+			for (int i = 0; i < nAddedPaths; i++) {
+				final int path = addedPaths[i];
+				final int start = pathOffsets[path];
+				final int end = path + 1 < pathIds.size() ? pathOffsets[path + 1]
+						: newPathData.length;
+				allPathOffsets[basePaths + i] = allPathData.size();
+				allPathData.write(newPathData, start, end - start);
+			}
+			allPathOffsets[nPaths] = allPathData.size();
+
+			final int allCommits = baseCommits + nCommits;
+			final long allChanges = baseChanges + nChanges;
+			final long allEdits = baseEdits + nEdits;
+			final byte[] suffixBytes = Joiner
+					.on(EditHistoryArchive.SUFFIX_SEPARATOR).join(fileSuffixes)
+					.getBytes(StandardCharsets.UTF_8);
+			final long commitsOffset = EditHistoryArchive.HEADER_SIZE
+					+ suffixBytes.length;
+			final long pathIndexOffset = commitsOffset + (allCommits + 1L)
+					* EditHistoryArchive.COMMIT_RECORD_SIZE;
+			final long pathDataOffset = pathIndexOffset + (nPaths + 1L) * 4;
+			final long changesOffset = pathDataOffset + allPathData.size();
+			final long editsOffset = changesOffset + (allChanges + 1)
+					* EditHistoryArchive.CHANGE_RECORD_SIZE;
+
+			final ByteBuffer tables = ByteBuffer.allocate((int) changesOffset);
+			tables.putInt(EditHistoryArchive.MAGIC);
+			tables.putInt(EditHistoryArchive.VERSION);
+			tables.putInt(allCommits);
+			tables.putInt(nPaths);
+			tables.putLong(allChanges);
+			tables.putLong(allEdits);
+			final byte[] rawHead = new byte[20];
+			head.copyRawTo(rawHead, 0);
+			tables.put(rawHead);
+			tables.putLong(commitsOffset);
+			tables.putLong(pathIndexOffset);
+			tables.putLong(pathDataOffset);
+			tables.putLong(changesOffset);
+			tables.putLong(editsOffset);
+			tables.putInt(firstParentHistory ? 1 : 0);
+			tables.putInt(suffixBytes.length);
+			tables.put(suffixBytes);
+			final byte[] commitId = new byte[20];
+			for (int i = 0; i < baseCommits; i++) {
+				base.getCommitId(i, commitId, 0);
+				tables.put(commitId);
+				tables.putInt(base.getCommitTime(i));
+				tables.putLong(base.getFirstChange(i));
+			}
+			for (int i = 0; i < nCommits; i++) {
+				tables.put(commitIds, 20 * i, 20);
+				tables.putInt(commitTimes[i]);
+				tables.putLong(baseChanges + firstChanges[i]);
+			}
+			// Sentinel commit
+			tables.put(new byte[20]);
+			tables.putInt(0);
+			tables.putLong(allChanges);
+			for (int i = 0; i <= nPaths; i++) {
+				tables.putInt(allPathOffsets[i]);
+			}
+			tables.put(allPathData.toByteArray());
+			tables.flip();
+
+			final FileOutputStream out = new FileOutputStream(newArchiveFile);
+			try {
+				final FileChannel channel = out.getChannel();
+				write(tables, channel);
+				if (base != null) {
+					transfer(archiveFile, base.getChangesOffset(), baseChanges
+							* EditHistoryArchive.CHANGE_RECORD_SIZE, channel);
+				}
+				writeChanges(pathMap, baseEdits, channel);
+				// Sentinel change
+				final ByteBuffer sentinel = ByteBuffer
+						.allocate(EditHistoryArchive.CHANGE_RECORD_SIZE);
+				sentinel.putInt(-1);
+				sentinel.putInt(-1);
+				sentinel.putLong(allEdits);
+				sentinel.flip();
+				write(sentinel, channel);
+				if (base != null) {
+					transfer(archiveFile, base.getEditsOffset(), baseEdits
+							* EditHistoryArchive.EDIT_RECORD_SIZE, channel);
+				}
+				if (changesOut != null) {
+					transfer(editsFile, 0, editsFile.length(), channel);
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(newArchiveFile.toPath(), archiveFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			newArchiveFile.delete();
+		}
+	}
+
+	/**
+	 * Append the changes of the temporary file, with their paths mapped to
+	 * those of the archive and their edits after the given number of edits.
+	 */
+	private void writeChanges(final int[] pathMap, final long baseEdits,
+			final FileChannel to) throws IOException {
+		if (changesOut == null) {
+			return; // No changes
+		}
+		final FileInputStream in = new FileInputStream(changesFile);
+		try {
+			final FileChannel channel = in.getChannel();
+			final ByteBuffer buffer = ByteBuffer
+					.allocate(EditHistoryArchive.CHANGE_RECORD_SIZE << 12);
+			int read = 0;
+			while (read >= 0) {
+				read = channel.read(buffer);
+				if (read >= 0 && buffer.hasRemaining()) {
+					continue;
+				}
+				buffer.flip();
+				for (int i = 0; i < buffer.limit(); i += EditHistoryArchive.CHANGE_RECORD_SIZE) {
+					final int oldPath = buffer.getInt(i);
+					final int newPath = buffer.getInt(i + 4);
+					buffer.putInt(i, oldPath < 0 ? oldPath : pathMap[oldPath]);
+					buffer.putInt(i + 4, newPath < 0 ? newPath
+							: pathMap[newPath]);
+					buffer.putLong(i + 8, buffer.getLong(i + 8) + baseEdits);
+				}
+				write(buffer, to);
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
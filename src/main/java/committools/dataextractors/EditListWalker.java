@@ -3,17 +3,24 @@
  */
 package committools.dataextractors;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.revwalk.RevCommit;
 
 import committools.data.AbstractCommitWalker;
+import committools.data.CompositeCommitWalker;
 import committools.data.EditListRetriever;
 import committools.data.EditListRetriever.IEditListCallback;
+import committools.data.GitCommitUtils;
 
 /**
  * Walk through the EditLists of a repository. Merge renamings if possible.
@@ -29,17 +36,142 @@ public abstract class EditListWalker extends AbstractCommitWalker implements
 
 	private final EditListRetriever diffRetriver;
 
+	private final IOFileFilter fileFilter;
+
+	/**
+	 * True if the root commit and merges are also diffed (against the empty
+	 * tree and their first parent respectively).
+	 */
+	private final boolean firstParentHistory;
+
+	/**
+	 * True if a failure to retrieve an edit list stops the walk, see
+	 * {@link #setFailOnError(boolean)}.
+	 */
+	private boolean failOnError = false;
+
+	/**
+	 * True if a binary side of an entry is diffed as an empty file, see
+	 * {@link #setBinaryAsEmpty(boolean)}.
+	 */
+	private boolean binaryAsEmpty = false;
+
+	/**
+	 * The failure that stopped the last walk or null.
+	 */
+	private Exception failure = null;
+
 	@Deprecated
 	public EditListWalker(final String repositoryDirectory) throws IOException {
 		super(repositoryDirectory, AbstractCommitWalker.TOPOLOGICAL_WALK);
-		diffRetriver = new EditListRetriever(repository, new SuffixFileFilter(
-				".java"));
+		fileFilter = new SuffixFileFilter(".java");
+		diffRetriver = new EditListRetriever(repository, fileFilter);
+		firstParentHistory = false;
 	}
 
 	public EditListWalker(final String repositoryDirectory,
 			final IOFileFilter fileFilter) throws IOException {
-		super(repositoryDirectory, AbstractCommitWalker.TOPOLOGICAL_WALK);
+		this(repositoryDirectory, fileFilter, false);
+	}
+
+	/**
+	 * @param repositoryDirectory
+	 * @param fileFilter
+	 * @param firstParentHistory
+	 *            if true, walk only the first-parent history from the root
+	 *            commit to HEAD and diff every commit, including the root
+	 *            (against the empty tree) and merges (against their first
+	 *            parent). The edit lists then add up to the content of each
+	 *            file at HEAD. Otherwise, walk all commits topologically and
+	 *            skip merges and root commits.
+	 * @throws IOException
+	 */
+	public EditListWalker(final String repositoryDirectory,
+			final IOFileFilter fileFilter, final boolean firstParentHistory)
+			throws IOException {
+		super(repositoryDirectory,
+				firstParentHistory ? AbstractCommitWalker.BASE_WALK
+						: AbstractCommitWalker.TOPOLOGICAL_WALK);
 		diffRetriver = new EditListRetriever(repository, fileFilter);
+		this.fileFilter = fileFilter;
+		this.firstParentHistory = firstParentHistory;
+	}
+
+	/**
+	 * Visit the edit lists of the walk of the given composite walker, instead
+	 * of walking the repository separately. The composite walker must follow
+	 * the same history as this walker and notifies it when its walk is
+	 * complete.
+	 *
+	 * @param walker
+	 */
+	public void addTo(final CompositeCommitWalker walker) {
+		checkArgument(walker.isFirstParentHistory() == firstParentHistory,
+				"The composite walker must follow the same history");
+		walker.addEditListVisitor(fileFilter, this);
+		if (failOnError) {
+			walker.setFailOnError(true);
+		}
+		if (binaryAsEmpty) {
+			walker.setBinaryAsEmpty(true);
+		}
+	}
+
+	/**
+	 * Throw the failure that stopped the last walk, if any.
+	 */
+	private void checkNoFailure() {
+		if (failure != null) {
+			throw new IllegalStateException(
+					"The walk stopped because an edit list could not be retrieved",
+					failure);
+		}
+	}
+
+	@Override
+	public void doWalk(final int startFrom, final int nCommits) {
+		failure = null;
+		super.doWalk(startFrom, nCommits);
+		checkNoFailure();
+	}
+
+	/**
+	 * Walk only the commits that are new since the given (previously walked)
+	 * HEAD: the commits reachable from HEAD but not from lastHead or, for
+	 * first-parent history, the first-parent commits after lastHead.
+	 *
+	 * @param lastHead
+	 * @return false, without walking, if the history of HEAD does not extend
+	 *         the history of lastHead (e.g. after a force-push), in which
+	 *         case the whole history needs to be walked with
+	 *         {@link #doWalk()}.
+	 * @throws IOException
+	 */
+	public boolean doWalkSince(final ObjectId lastHead) throws IOException {
+		final List<RevCommit> newCommits = firstParentHistory ? GitCommitUtils
+				.getNewBaseCommits(repository, lastHead) : GitCommitUtils
+				.getNewCommitsTopological(repository, lastHead);
+		if (newCommits == null) {
+			return false;
+		}
+		doWalk(newCommits);
+		return true;
+	}
+
+	/**
+	 * Walk the given commits, in order, instead of the walk of the walker.
+	 *
+	 * @param commits
+	 */
+	protected void doWalk(final List<RevCommit> commits) {
+		failure = null;
+		doWalk(new ICommitWalkingStrategy() {
+			@Override
+			public List<RevCommit> getWalk(final Git git) {
+				return commits;
+			}
+		});
+		checkNoFailure();
 	}
 
 	/**
@@ -60,14 +192,48 @@ public abstract class EditListWalker extends AbstractCommitWalker implements
 				final RevCommit parent = parents[0];
 				diffRetriver.retrieveEditListBetweenAndCallback(commit, parent,
 						this);
+			} else if (firstParentHistory) {
+				diffRetriver.retrieveEditListBetweenAndCallback(commit,
+						parents.length > 0 ? parents[0] : null, this);
 			}
 
 		} catch (final Exception e) {
+			if (failOnError) {
+				failure = e;
+				return false;
+			}
 			System.err.println(e);
 		}
 		return true;
 	}
 
+	/**
+	 * Diff binary files as empty files, see
+	 * {@link EditListRetriever#setBinaryAsEmpty(boolean)}. Subclasses that add
+	 * up all the edits should set it, so that the lines of a text file that
+	 * becomes binary are removed.
+	 *
+	 * @param binaryAsEmpty
+	 */
+	public void setBinaryAsEmpty(final boolean binaryAsEmpty) {
+		this.binaryAsEmpty = binaryAsEmpty;
+		diffRetriver.setBinaryAsEmpty(binaryAsEmpty);
+	}
+
+	/**
+	 * By default, the edit lists that cannot be retrieved are skipped. If
+	 * failOnError is true, the walk stops at the first such edit list and
+	 * doWalk() throws an IllegalStateException, once
+	 * {@link #walkCompleted()} is called. Subclasses that add up all the
+	 * edits should set it, since their results would be wrong otherwise.
+	 *
+	 * @param failOnError
+	 */
+	public void setFailOnError(final boolean failOnError) {
+		this.failOnError = failOnError;
+		diffRetriver.setFailOnError(failOnError);
+	}
+
 	@Override
 	public void walkCompleted() {
 		// Nothing here. May be overriden.
@@ -3,11 +3,11 @@
  */
 package committools.dataextractors;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
+import org.apache.commons.io.filefilter.SuffixFileFilter;
 import org.eclipse.jgit.blame.BlameGenerator;
 import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.DiffEntry;
@@ -15,112 +15,70 @@ import org.eclipse.jgit.diff.Edit;
 import org.eclipse.jgit.diff.EditList;
 import org.eclipse.jgit.diff.MyersDiff;
 import org.eclipse.jgit.diff.RawTextComparator;
-import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 
-import com.google.common.collect.Maps;
-import committools.data.AbstractCommitWalker;
-import committools.data.RepositoryFileWalker;
+import committools.data.CompositeCommitWalker;
+import committools.data.EditListRetriever.IEditListCallback;
+import committools.data.GitCommitUtils;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
 
 /**
+ * For the lines that each commit deletes or replaces, write the time since
+ * they were last changed, as blamed from the parent of the commit. The rows
+ * are written as the commits are walked, so neither the commits nor their
+ * edit lists are kept.
+ *
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  * 
  */
 public class LineLifecycle {
 
-	private class BlameRetriever extends RepositoryFileWalker {
-		public BlameRetriever(final String repositoryDirectory)
-				throws IOException {
-			super(repositoryDirectory, AbstractCommitWalker.TOPOLOGICAL_WALK);
-		}
-
-		public void getBlameForLines(final String file, final int lineFrom,
-				final int lineTo, final int changedTs) throws IOException {
-			final BlameGenerator bg = new BlameGenerator(
-					repository.getRepository(), file);
-			bg.setDiffAlgorithm(MyersDiff.INSTANCE);
-			bg.setTextComparator(RawTextComparator.WS_IGNORE_ALL);
-
-			bg.push(null, repository.getRepository().resolve(Constants.HEAD));
-			final BlameResult br = bg.computeBlameResult();
-			br.computeRange(lineFrom, lineTo);
-
-			for (int i = lineFrom; i < lineTo; i++) {
-				final int timeDiff = changedTs
-						- br.getSourceCommit(i).getCommitTime();
-				System.out.println(timeDiff);
-			}
-
-			// Now store the stuff in before/after and num lines(?).
-			// Maybe we need to normalize over a) all the lines b) all the lines
-			// that ever changed? c) something else
-			// God help us
-		}
-
-		@Override
-		public void visitCommitFiles(final RevCommit commit) {
-			if (!diffs.containsKey(commit.name())) {
-				return;
-			}
-
-			final List<DiffEdits> edits = diffs.get(commit.name());
-			for (final DiffEdits entry : edits) {
-				final EditList el = entry.edits;
-				for (final Edit edit : el) {
-					try {
-						if (edit.getType() == Edit.Type.DELETE
-								|| edit.getType() == Edit.Type.REPLACE) {
-							/*
-							 * System.out.println("Trying for " + edit + " at "
-							 * + entry.entry.getOldPath() + " at commit " +
-							 * commit.name());
-							 */
-							getBlameForLines(entry.entry.getOldPath(),
-									edit.getBeginA(), edit.getEndA(),
-									entry.timestamp);
-						}
-					} catch (final IOException e) {
-						System.err.println(e.getMessage());
-					}
-				}
-			}
-		}
-	}
-
-	public static class DiffEdits {
-
-		public final DiffEntry entry;
-
-		public final EditList edits;
-		public final int timestamp;
+	/**
+	 * Blame the lines deleted or replaced by each edit list and write their
+	 * rows.
+	 */
+	private final class BlameWriter implements IEditListCallback {
 
-		public DiffEdits(final DiffEntry ent, final EditList ed, final int ts) {
-			entry = ent;
-			edits = ed;
-			timestamp = ts;
-		}
-	}
+		final IResultSink sink;
 
-	private class EditListRetriever extends EditListWalker {
-		public EditListRetriever(final String repositoryDirectory)
-				throws IOException {
-			super(repositoryDirectory);
+		BlameWriter(final IResultSink sink) {
+			this.sink = sink;
 		}
 
 		@Override
 		public void visitDiffEntry(final DiffEntry entry, final EditList el,
 				final RevCommit commit) throws IOException {
-
-			final String commitId = commit.getParent(0).name(); // Assign edit
-																// to the
-																// previous
-																// commit.
-			if (!diffs.containsKey(commitId)) {
-				diffs.put(commitId, new ArrayList<DiffEdits>());
+			BlameResult blame = null;
+			for (final Edit edit : el) {
+				if (edit.getType() != Edit.Type.DELETE
+						&& edit.getType() != Edit.Type.REPLACE) {
+					continue;
+				}
+				if (blame == null) {
+					// Blame the file in the parent the edits are relative to
+					final BlameGenerator bg = new BlameGenerator(repository,
+							entry.getOldPath());
+					bg.setDiffAlgorithm(MyersDiff.INSTANCE);
+					bg.setTextComparator(RawTextComparator.WS_IGNORE_ALL);
+					bg.push(null, commit.getParent(0));
+					blame = bg.computeBlameResult();
+					if (blame == null) {
+						return;
+					}
+				}
+				blame.computeRange(edit.getBeginA(), edit.getEndA());
+				for (int i = edit.getBeginA(); i < edit.getEndA(); i++) {
+					sink.writeString(commit.name());
+					sink.writeString(entry.getOldPath());
+					sink.writeLong(i);
+					sink.writeLong(commit.getCommitTime()
+							- blame.getSourceCommit(i).getCommitTime());
+					sink.endRow();
+				}
 			}
-
-			final List<DiffEdits> edits = diffs.get(commitId);
-			edits.add(new DiffEdits(entry, el, commit.getCommitTime()));
 		}
 	}
 
@@ -134,30 +92,78 @@ public class LineLifecycle {
 			System.exit(-1);
 		}
 		final LineLifecycle lc = new LineLifecycle(args[0]);
-		lc.calculateLifecycle();
+		try {
+			final IResultSink sink = ResultSinks.open(newSchema());
+			try {
+				lc.calculateLifecycle(sink);
+			} finally {
+				sink.close();
+			}
+		} finally {
+			lc.close();
+		}
+	}
+
+	/**
+	 * Return the schema of the rows of the lifecycle: the commit that deletes
+	 * or replaces a line, the file and the line in the parent of the commit,
+	 * and the time in seconds since the line was last changed.
+	 */
+	public static ResultSchema newSchema() {
+		return ResultSchema.create().addString("commit").addString("file")
+				.addLong("line").addLong("timeSinceLastChange");
 	}
 
 	private final String repositoryDir;
 
-	private final Map<String, List<DiffEdits>> diffs = Maps.newTreeMap();
+	/**
+	 * The repository that blames are computed in.
+	 */
+	private final Repository repository;
 
 	public LineLifecycle(final String repositoryDirectory) throws IOException {
 		repositoryDir = repositoryDirectory;
+		repository = GitCommitUtils.getGitRepository(repositoryDirectory)
+				.getRepository();
 	}
 
-	public void calculateLifecycle() throws IOException {
-		final EditListRetriever el = new EditListRetriever(repositoryDir);
-		el.doWalk();
-		// System.out.println(diffs);
-		final BlameRetriever br = new BlameRetriever(repositoryDir);
-		br.doWalk();
+	/**
+	 * Compute the lifecycle from the walk of the given composite walker,
+	 * instead of walking the repository separately. The rows of each commit
+	 * are written to the sink as it is walked.
+	 *
+	 * @param walker
+	 *            a walker of all the commits of the repository
+	 * @param sink
+	 *            the sink of the rows, in the schema of {@link #newSchema()}
+	 */
+	public void addTo(final CompositeCommitWalker walker,
+			final IResultSink sink) {
+		checkArgument(!walker.isFirstParentHistory(),
+				"The walker must visit all the commits");
+		walker.addEditListVisitor(new SuffixFileFilter(".java"),
+				new BlameWriter(sink));
 	}
 
-	public void calculateLifecycle(final int commitN) throws IOException {
-		final EditListRetriever el = new EditListRetriever(repositoryDir);
-		el.doWalk(commitN);
-		// System.out.println(diffs);
-		final BlameRetriever br = new BlameRetriever(repositoryDir);
-		br.doWalk(commitN);
+	public void calculateLifecycle(final IResultSink sink) throws IOException {
+		final CompositeCommitWalker walker = new CompositeCommitWalker(
+				repositoryDir, false);
+		addTo(walker, sink);
+		walker.doWalk();
+	}
+
+	public void calculateLifecycle(final int commitN, final IResultSink sink)
+			throws IOException {
+		final CompositeCommitWalker walker = new CompositeCommitWalker(
+				repositoryDir, false);
+		addTo(walker, sink);
+		walker.doWalk(commitN);
+	}
+
+	/**
+	 * Close the repository.
+	 */
+	public void close() {
+		repository.close();
 	}
 }
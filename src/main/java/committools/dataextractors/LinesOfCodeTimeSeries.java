@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import committools.data.CommitTimeUtils;
+import committools.data.RepositorySnapshot;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+import committools.output.ResultSinks;
+
+/**
+ * Compute the number of lines of code per file extension through time, from
+ * the edit lists of the first-parent history of a repository. Starting from
+ * the root commit, the lines of each file are updated with the lines added
+ * and removed by each commit, following renames, copies and deletions. No
+ * commit is checked out. The walk fails if any edit list cannot be
+ * retrieved, since the counts would be wrong from then on.
+ *
+ * Time is split into buckets of fixed size, starting from the time of the
+ * root commit. The value of each bucket is the number of lines after the last
+ * commit of the bucket. As in {@link RepositorySnapshot}, only regular files
+ * are counted (not symbolic links or submodules) and binary files have no
+ * lines.
+ */
+public class LinesOfCodeTimeSeries extends EditListWalker {
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage <repositoryDir> [<bucketDays>]");
+			System.exit(-1);
+		}
+		final int bucketDays = args.length > 1 ? Integer.parseInt(args[1])
+				: 30;
+		final LinesOfCodeTimeSeries series = new LinesOfCodeTimeSeries(
+				args[0], bucketDays * CommitTimeUtils.SECONDS_PER_DAY);
+		series.doWalk();
+		final IResultSink sink = ResultSinks.open(series
+				.getTimeSeriesSchema());
+		try {
+			series.writeTimeSeries(sink);
+		} finally {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Return true if the lines of files of the given mode are counted.
+	 */
+	private static boolean isCounted(final FileMode mode) {
+		return (mode.getBits() & FileMode.TYPE_MASK) == FileMode.TYPE_FILE;
+	}
+
+	private final int bucketSize;
+
+	/**
+	 * The number of lines of each path currently in the repository, including
+	 * the paths that are not counted (e.g. symbolic links), so that the lines
+	 * of a path are known if it becomes a regular file.
+	 */
+	private final Map<String, Integer> fileLines = Maps.newHashMap();
+
+	/**
+	 * The current number of lines per extension.
+	 */
+	private final SortedMap<String, Long> extensionLines = Maps.newTreeMap();
+
+	/**
+	 * The (exclusive) end time of the current bucket or null if no commit has
+	 * been seen yet.
+	 */
+	private Long bucketEnd = null;
+
+	private final List<Integer> bucketStartTimes = Lists.newArrayList();
+
+	private final List<SortedMap<String, Long>> bucketLines = Lists
+			.newArrayList();
+
+	/**
+	 * @param repositoryDirectory
+	 * @param bucketSize
+	 *            the size of each time bucket in seconds
+	 * @throws IOException
+	 */
+	public LinesOfCodeTimeSeries(final String repositoryDirectory,
+			final int bucketSize) throws IOException {
+		super(repositoryDirectory, TrueFileFilter.TRUE, true);
+		checkArgument(bucketSize > 0);
+		this.bucketSize = bucketSize;
+		setFailOnError(true);
+		setBinaryAsEmpty(true);
+	}
+
+	private void addLines(final String path, final long nLines) {
+		final String extension = RepositorySnapshot.getExtension(path);
+		final Long lines = extensionLines.get(extension);
+		extensionLines.put(extension, (lines == null ? 0 : lines) + nLines);
+	}
+
+	/**
+	 * Close all the buckets that end at or before the given commit time.
+	 */
+	private void advanceTo(final int commitTime) {
+		if (bucketEnd == null) {
+			bucketEnd = ((long) commitTime) + bucketSize;
+		}
+		while (commitTime >= bucketEnd) {
+			closeBucket();
+		}
+	}
+
+	private void closeBucket() {
+		bucketStartTimes.add((int) (bucketEnd - bucketSize));
+		bucketLines.add(Maps.newTreeMap(extensionLines));
+		bucketEnd += bucketSize;
+	}
+
+	/**
+	 * Return the start time of each bucket.
+	 */
+	public List<Integer> getBucketStartTimes() {
+		return bucketStartTimes;
+	}
+
+	/**
+	 * Return the number of lines per extension at the end of each bucket.
+	 */
+	public List<SortedMap<String, Long>> getTimeSeries() {
+		return bucketLines;
+	}
+
+	/**
+	 * Return the extensions that appear in the time series, in order.
+	 */
+	private SortedSet<String> getExtensions() {
+		final SortedSet<String> extensions = Sets.newTreeSet();
+		for (final SortedMap<String, Long> lines : bucketLines) {
+			extensions.addAll(lines.keySet());
+		}
+		return extensions;
+	}
+
+	/**
+	 * Return the schema of {@link #writeTimeSeries(IResultSink)}: the start
+	 * time of the bucket, the total lines and the lines of each extension.
+	 */
+	public ResultSchema getTimeSeriesSchema() {
+		final ResultSchema schema = ResultSchema.create().addLong("time")
+				.addLong("total");
+		for (final String extension : getExtensions()) {
+			schema.addLong(extension);
+		}
+		return schema;
+	}
+
+	public void printTimeSeries() throws IOException {
+		final IResultSink sink = ResultSinks
+				.openStandardOutput(getTimeSeriesSchema());
+		try {
+			writeTimeSeries(sink);
+		} finally {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Write a row per bucket, in the schema of {@link #getTimeSeriesSchema()}.
+	 */
+	public void writeTimeSeries(final IResultSink sink) throws IOException {
+		final SortedSet<String> extensions = getExtensions();
+		for (int i = 0; i < bucketLines.size(); i++) {
+			long total = 0;
+			for (final Long lines : bucketLines.get(i).values()) {
+				total += lines;
+			}
+			sink.writeLong(bucketStartTimes.get(i));
+			sink.writeLong(total);
+			for (final String extension : extensions) {
+				final Long lines = bucketLines.get(i).get(extension);
+				sink.writeLong(lines == null ? 0 : lines);
+			}
+			sink.endRow();
+		}
+	}
+
+	@Override
+	public void visitDiffEntry(final DiffEntry entry, final EditList el,
+			final RevCommit commit) throws IOException {
+		advanceTo(commit.getCommitTime());
+
+		int nAdded = 0;
+		int nRemoved = 0;
+		for (final Edit edit : el) {
+			nAdded += edit.getEndB() - edit.getBeginB();
+			nRemoved += edit.getEndA() - edit.getBeginA();
+		}
+
+		final ChangeType type = entry.getChangeType();
+		int oldLines = 0;
+		if (type != ChangeType.ADD) {
+			final Integer lines = fileLines.get(entry.getOldPath());
+			oldLines = lines == null ? 0 : lines;
+		}
+		if (type != ChangeType.ADD && type != ChangeType.COPY) {
+			fileLines.remove(entry.getOldPath());
+			if (isCounted(entry.getOldMode())) {
+				addLines(entry.getOldPath(), -oldLines);
+			}
+		}
+		if (type != ChangeType.DELETE) {
+			final int newLines = oldLines + nAdded - nRemoved;
+			fileLines.put(entry.getNewPath(), newLines);
+			if (isCounted(entry.getNewMode())) {
+				addLines(entry.getNewPath(), newLines);
+			}
+		}
+	}
+
+	@Override
+	public void walkCompleted() {
+		if (bucketEnd != null) {
+			closeBucket();
+		}
+	}
+}
@@ -0,0 +1,385 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An immutable, compact set of commit ids. The ids are stored sorted, as the
+ * 64-bit prefix of each id and the remaining 12 bytes in a separate array for
+ * resolving prefix collisions, i.e. 20 bytes per commit. Intersections are
+ * computed with a linear merge or, when the sizes of the sets are very
+ * different, with a galloping search.
+ */
+public final class CommitIdSet {
+
+	/**
+	 * Use galloping search when one set is that many times larger than the
+	 * other.
+	 */
+	private static final int GALLOP_RATIO = 16;
+
+	private static final int FILE_MAGIC = 0x43494453; // "CIDS"
+
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The number of ints needed to store the id remaining after the prefix.
+	 */
+	private static final int SUFFIX_INTS = 3;
+
+	public static final CommitIdSet EMPTY = new CommitIdSet(new long[0],
+			new int[0]);
+
+	/**
+	 * Read a set that was previously written using {@link #write(File)}. The
+	 * whole file is read with a single bulk read and copied into the set.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static CommitIdSet read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			final long length = channel.size();
+			checkArgument(length >= HEADER_SIZE
+					&& length <= Integer.MAX_VALUE, "%s is not a "
+					+ "commit id set file", file);
+			final ByteBuffer buffer = ByteBuffer.allocate((int) length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Truncated " + file);
+				}
+			}
+			buffer.flip();
+			checkArgument(buffer.getInt() == FILE_MAGIC, "%s is not a "
+					+ "commit id set file", file);
+			final int size = buffer.getInt();
+			checkArgument(length == HEADER_SIZE + (8L + 4 * SUFFIX_INTS)
+					* size, "%s has the wrong size", file);
+			final long[] prefixes = new long[size];
+			buffer.asLongBuffer().get(prefixes);
+			buffer.position(HEADER_SIZE + 8 * size);
+			final int[] suffixes = new int[SUFFIX_INTS * size];
+			buffer.asIntBuffer().get(suffixes);
+			return new CommitIdSet(prefixes, suffixes);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Return the given 4-byte word of the id.
+	 */
+	private static int getWord(final AnyObjectId id, final int word) {
+		final int offset = 4 * word;
+		return (id.getByte(offset) << 24) | (id.getByte(offset + 1) << 16)
+				| (id.getByte(offset + 2) << 8) | id.getByte(offset + 3);
+	}
+
+	/**
+	 * Create a set from the given commits. Duplicate commits are ignored.
+	 *
+	 * @param commits
+	 * @return
+	 */
+	public static CommitIdSet of(final Collection<? extends AnyObjectId> commits) {
+		final List<ObjectId> sortedCommits = Lists
+				.newArrayListWithCapacity(commits.size());
+		for (final AnyObjectId commit : commits) {
+			sortedCommits.add(commit.toObjectId());
+		}
+		Collections.sort(sortedCommits);
+
+		final long[] prefixes = new long[sortedCommits.size()];
+		final int[] suffixes = new int[SUFFIX_INTS * sortedCommits.size()];
+		final int[] words = new int[2 + SUFFIX_INTS];
+		int size = 0;
+		for (int i = 0; i < sortedCommits.size(); i++) {
+			if (i > 0 && sortedCommits.get(i).equals(sortedCommits.get(i - 1))) {
+				continue;
+			}
+			sortedCommits.get(i).copyRawTo(words, 0);
+			// Flip the sign bit so that signed comparison follows id order
+			prefixes[size] = ((((long) words[0]) << 32) | (words[1] & 0xFFFFFFFFL))
+					^ Long.MIN_VALUE;
+			System.arraycopy(words, 2, suffixes, SUFFIX_INTS * size,
+					SUFFIX_INTS);
+			size++;
+		}
+		if (size == prefixes.length) {
+			return new CommitIdSet(prefixes, suffixes);
+		}
+		final long[] uniquePrefixes = new long[size];
+		System.arraycopy(prefixes, 0, uniquePrefixes, 0, size);
+		final int[] uniqueSuffixes = new int[SUFFIX_INTS * size];
+		System.arraycopy(suffixes, 0, uniqueSuffixes, 0, SUFFIX_INTS * size);
+		return new CommitIdSet(uniquePrefixes, uniqueSuffixes);
+	}
+
+	private final long[] prefixes;
+
+	private final int[] suffixes;
+
+	private CommitIdSet(final long[] prefixes, final int[] suffixes) {
+		this.prefixes = prefixes;
+		this.suffixes = suffixes;
+	}
+
+	/**
+	 * Compare the id at position i of this set with the id at position j of
+	 * the other set.
+	 */
+	private int compare(final int i, final CommitIdSet other, final int j) {
+		if (prefixes[i] != other.prefixes[j]) {
+			return prefixes[i] < other.prefixes[j] ? -1 : 1;
+		}
+		for (int k = 0; k < SUFFIX_INTS; k++) {
+			final int a = suffixes[SUFFIX_INTS * i + k];
+			final int b = other.suffixes[SUFFIX_INTS * j + k];
+			if (a != b) {
+				return (a ^ Integer.MIN_VALUE) < (b ^ Integer.MIN_VALUE) ? -1
+						: 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Return true if the set contains the given commit.
+	 *
+	 * @param commit
+	 * @return
+	 */
+	public boolean contains(final AnyObjectId commit) {
+		final long prefix = ((((long) getWord(commit, 0)) << 32) | (getWord(
+				commit, 1) & 0xFFFFFFFFL))
+				^ Long.MIN_VALUE;
+		int from = 0;
+		int to = prefixes.length;
+		while (from < to) {
+			final int mid = (from + to) >>> 1;
+			int cmp = prefixes[mid] < prefix ? -1 : prefixes[mid] > prefix ? 1
+					: 0;
+			for (int k = 0; cmp == 0 && k < SUFFIX_INTS; k++) {
+				final int a = suffixes[SUFFIX_INTS * mid + k];
+				final int b = getWord(commit, 2 + k);
+				if (a != b) {
+					cmp = (a ^ Integer.MIN_VALUE) < (b ^ Integer.MIN_VALUE) ? -1
+							: 1;
+				}
+			}
+			if (cmp < 0) {
+				from = mid + 1;
+			} else if (cmp > 0) {
+				to = mid;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Count the commits that are common in this and the other set.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public int countCommon(final CommitIdSet other) {
+		return countCommon(other, Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Count the common commits, stopping when the limit is reached.
+	 *
+	 * @param pruneUnreachable
+	 *            if true, also stop when the limit can no longer be reached.
+	 *            The returned count is then smaller than the actual one.
+	 */
+	private int countCommon(final CommitIdSet other, final int limit,
+			final boolean pruneUnreachable) {
+		if (size() > other.size()) {
+			return other.countCommon(this, limit, pruneUnreachable);
+		}
+		if (size() * GALLOP_RATIO < other.size()) {
+			return countCommonGalloping(other, limit, pruneUnreachable);
+		}
+		return countCommonMerge(other, limit, pruneUnreachable);
+	}
+
+	/**
+	 * Count the common commits, when this set is much smaller than the other.
+	 */
+	private int countCommonGalloping(final CommitIdSet other, final int limit,
+			final boolean pruneUnreachable) {
+		int count = 0;
+		int from = 0;
+		for (int i = 0; i < prefixes.length; i++) {
+			if (pruneUnreachable && count + prefixes.length - i < limit) {
+				break;
+			}
+			// Exponential search for an upper bound, then binary search
+			int bound = from;
+			int step = 1;
+			while (bound < other.prefixes.length && compare(i, other, bound) > 0) {
+				from = bound + 1;
+				bound = from + step;
+				step <<= 1;
+			}
+			final int position = find(i, other, from,
+					Math.min(bound + 1, other.prefixes.length));
+			if (position >= 0) {
+				if (++count >= limit) {
+					return limit;
+				}
+				from = position + 1;
+			} else {
+				from = -(position + 1);
+			}
+			if (from >= other.prefixes.length) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Count the common commits, by merging the two sets.
+	 */
+	private int countCommonMerge(final CommitIdSet other, final int limit,
+			final boolean pruneUnreachable) {
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		final long[] otherPrefixes = other.prefixes;
+		while (i < prefixes.length && j < otherPrefixes.length) {
+			if (pruneUnreachable
+					&& count
+							+ Math.min(prefixes.length - i,
+									otherPrefixes.length - j) < limit) {
+				break;
+			}
+			final long a = prefixes[i];
+			final long b = otherPrefixes[j];
+			if (a < b) {
+				i++;
+			} else if (a > b) {
+				j++;
+			} else {
+				final int cmp = compare(i, other, j);
+				if (cmp == 0) {
+					if (++count >= limit) {
+						return limit;
+					}
+					i++;
+					j++;
+				} else if (cmp < 0) {
+					i++;
+				} else {
+					j++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copy the id at the given position, in increasing id order, as five
+	 * 4-byte words.
+	 */
+	void getWords(final int position, final int[] words) {
+		final long prefix = prefixes[position] ^ Long.MIN_VALUE;
+		words[0] = (int) (prefix >>> 32);
+		words[1] = (int) prefix;
+		System.arraycopy(suffixes, SUFFIX_INTS * position, words, 2,
+				SUFFIX_INTS);
+	}
+
+	/**
+	 * Binary search for the id at position i of this set in the positions
+	 * [from, to) of the other set.
+	 *
+	 * @return the position of the id in the other set, or (-(insertion
+	 *         point) - 1) if not found.
+	 */
+	private int find(final int i, final CommitIdSet other, int from, int to) {
+		while (from < to) {
+			final int mid = (from + to) >>> 1;
+			final int cmp = compare(i, other, mid);
+			if (cmp > 0) {
+				from = mid + 1;
+			} else if (cmp < 0) {
+				to = mid;
+			} else {
+				return mid;
+			}
+		}
+		return -(from + 1);
+	}
+
+	/**
+	 * Return true if the two sets have more than threshold common commits.
+	 * The intersection stops as soon as the answer is known.
+	 *
+	 * @param other
+	 * @param threshold
+	 * @return
+	 */
+	public boolean sharesMoreThan(final CommitIdSet other, final int threshold) {
+		if (threshold < 0) {
+			return true;
+		}
+		checkArgument(threshold < Integer.MAX_VALUE);
+		return countCommon(other, threshold + 1, true) > threshold;
+	}
+
+	public int size() {
+		return prefixes.length;
+	}
+
+	/**
+	 * Write the set to the given file, so that it can later be read with
+	 * {@link #read(File)}.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(final File file) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(prefixes.length);
+			for (final long prefix : prefixes) {
+				out.writeLong(prefix);
+			}
+			for (final int suffix : suffixes) {
+				out.writeInt(suffix);
+			}
+		} finally {
+			out.close();
+		}
+	}
+}
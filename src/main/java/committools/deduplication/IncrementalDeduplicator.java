@@ -0,0 +1,789 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import committools.data.GitCommitUtils;
+import committools.deduplication.InvertedIndexDeduplicator.PostingKey;
+import committools.metrics.Tracing;
+
+/**
+ * A deduplicator that keeps a persistent index of the corpus: the HEAD of
+ * each repository, an inverted index from commit ids to the repositories
+ * that contain them and the duplicate pairs found so far. When updating the
+ * index only the repositories that are new or whose HEAD has changed are
+ * read, and their common commits with the rest of the corpus are counted by
+ * looking up their commits in the inverted index (as in
+ * {@link InvertedIndexDeduplicator}). No other repository is read, so the
+ * cost of an update is proportional to the changes in the corpus.
+ *
+ * The inverted index is stored in segments of (commit id, repository id)
+ * records, sorted by commit id, that are memory-mapped and binary-searched.
+ * Each update appends a segment with the commits of the changed
+ * repositories, which get a new repository id, so that the records of
+ * removed and changed repositories become dead. Segments are merged, without
+ * the dead records, when there are too many of them or when most of their
+ * records are dead.
+ *
+ * The index directory contains an index file, with the repositories, the
+ * segments and the duplicate pairs, and the segment files. The index file is
+ * replaced atomically, so an interrupted update leaves the previous index
+ * intact.
+ */
+public class IncrementalDeduplicator {
+
+	/**
+	 * A (commit id, repository id) record of some source of records, in
+	 * increasing order.
+	 */
+	private abstract static class Cursor {
+		final int[] words = new int[WORDS_PER_ID];
+
+		int repositoryId;
+
+		/**
+		 * Move to the next record.
+		 *
+		 * @return false if there are no more records
+		 */
+		abstract boolean next();
+	}
+
+	/**
+	 * The records of the commits of a changed repository.
+	 */
+	private static final class CommitSetCursor extends Cursor {
+		private final CommitIdSet commits;
+
+		private int position = -1;
+
+		CommitSetCursor(final CommitIdSet commits, final int repositoryId) {
+			this.commits = commits;
+			this.repositoryId = repositoryId;
+		}
+
+		@Override
+		boolean next() {
+			if (++position >= commits.size()) {
+				return false;
+			}
+			commits.getWords(position, words);
+			return true;
+		}
+	}
+
+	/**
+	 * The state of a repository in the index.
+	 */
+	private static final class IndexedRepository {
+		final ObjectId head;
+
+		/**
+		 * The id of the repository in the inverted index. It changes every
+		 * time the repository is indexed again.
+		 */
+		final int id;
+
+		final int nCommits;
+
+		IndexedRepository(final ObjectId head, final int id,
+				final int nCommits) {
+			this.head = head;
+			this.id = id;
+			this.nCommits = nCommits;
+		}
+	}
+
+	/**
+	 * Visit the records of the inverted index in increasing order.
+	 */
+	private interface IRecordVisitor {
+		void visit(final int[] words, final int repositoryId)
+				throws IOException;
+	}
+
+	/**
+	 * A memory-mapped segment of the inverted index. Each record consists of
+	 * the five 4-byte words of a commit id and a repository id. Segments
+	 * larger than a single mapping are mapped in chunks.
+	 */
+	private static final class Segment {
+		private static final int CHUNK_BITS = 25;
+
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+		private final ByteBuffer[] chunks;
+
+		final long nRecords;
+
+		Segment(final File file) throws IOException {
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				final long length = raf.length();
+				checkArgument(length % RECORD_SIZE == 0,
+						"%s is not an index segment", file);
+				nRecords = length / RECORD_SIZE;
+				chunks = new ByteBuffer[(int) ((nRecords + CHUNK_MASK) >>> CHUNK_BITS)];
+				for (int i = 0; i < chunks.length; i++) {
+					final long firstRecord = ((long) i) << CHUNK_BITS;
+					chunks[i] = raf.getChannel().map(
+							MapMode.READ_ONLY,
+							firstRecord * RECORD_SIZE,
+							Math.min(nRecords - firstRecord, CHUNK_MASK + 1)
+									* RECORD_SIZE);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		/**
+		 * Compare the commit id of the record with the given id.
+		 */
+		int compare(final long record, final int[] words) {
+			for (int i = 0; i < WORDS_PER_ID; i++) {
+				final int word = getInt(record, i);
+				if (word != words[i]) {
+					return (word ^ Integer.MIN_VALUE) < (words[i] ^ Integer.MIN_VALUE) ? -1
+							: 1;
+				}
+			}
+			return 0;
+		}
+
+		private int getInt(final long record, final int field) {
+			return chunks[(int) (record >>> CHUNK_BITS)]
+					.getInt((int) (record & CHUNK_MASK) * RECORD_SIZE + 4
+							* field);
+		}
+
+		int getRepositoryId(final long record) {
+			return getInt(record, WORDS_PER_ID);
+		}
+
+		void getWords(final long record, final int[] words) {
+			for (int i = 0; i < WORDS_PER_ID; i++) {
+				words[i] = getInt(record, i);
+			}
+		}
+
+		/**
+		 * Return the first record in [from, nRecords) whose commit id is not
+		 * smaller than the given id.
+		 */
+		long lowerBound(final int[] words, long from) {
+			long to = nRecords;
+			while (from < to) {
+				final long mid = (from + to) >>> 1;
+				if (compare(mid, words) < 0) {
+					from = mid + 1;
+				} else {
+					to = mid;
+				}
+			}
+			return from;
+		}
+	}
+
+	/**
+	 * The live records of a segment.
+	 */
+	private static final class SegmentCursor extends Cursor {
+		private final Segment segment;
+
+		private final Set<Integer> liveRepositories;
+
+		private long record = -1;
+
+		SegmentCursor(final Segment segment,
+				final Set<Integer> liveRepositories) {
+			this.segment = segment;
+			this.liveRepositories = liveRepositories;
+		}
+
+		@Override
+		boolean next() {
+			while (++record < segment.nRecords) {
+				final int id = segment.getRepositoryId(record);
+				if (liveRepositories.contains(id)) {
+					repositoryId = id;
+					segment.getWords(record, words);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(IncrementalDeduplicator.class.getName());
+
+	private static final int INDEX_VERSION = 1;
+
+	private static final String INDEX_FILE = "index";
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final int WORDS_PER_ID = Constants.OBJECT_ID_LENGTH / 4;
+
+	private static final int RECORD_SIZE = 4 * (WORDS_PER_ID + 1);
+
+	/**
+	 * Merge the segments when there are more than that many.
+	 */
+	private static final int MAX_SEGMENTS = 8;
+
+	private static final Comparator<Cursor> CURSOR_ORDER = new Comparator<Cursor>() {
+		@Override
+		public int compare(final Cursor cursor1, final Cursor cursor2) {
+			final int cmp = compareWords(cursor1.words, cursor2.words);
+			if (cmp != 0) {
+				return cmp;
+			}
+			return Integer.compare(cursor1.repositoryId,
+					cursor2.repositoryId);
+		}
+	};
+
+	private static int compareWords(final int[] words1, final int[] words2) {
+		for (int i = 0; i < WORDS_PER_ID; i++) {
+			if (words1[i] != words2[i]) {
+				return (words1[i] ^ Integer.MIN_VALUE) < (words2[i] ^ Integer.MIN_VALUE) ? -1
+						: 1;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err
+					.println("Usage <threshold> <directory> <indexDirectory>");
+			return;
+		}
+
+		final IncrementalDeduplicator d = new IncrementalDeduplicator(
+				new File(args[2]), Integer.parseInt(args[0]));
+		d.update(args[1]);
+		for (final Map.Entry<String, SortedSet<String>> entry : d
+				.getDuplicates().entrySet()) {
+			for (final String otherRepository : entry.getValue()) {
+				System.out.println(entry.getKey() + " " + otherRepository);
+			}
+		}
+	}
+
+	/**
+	 * Merge the records of the cursors and visit them in increasing order.
+	 */
+	private static void merge(final List<? extends Cursor> cursors,
+			final IRecordVisitor visitor) throws IOException {
+		final PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(
+				Math.max(1, cursors.size()), CURSOR_ORDER);
+		for (final Cursor cursor : cursors) {
+			if (cursor.next()) {
+				queue.add(cursor);
+			}
+		}
+		while (!queue.isEmpty()) {
+			final Cursor cursor = queue.poll();
+			visitor.visit(cursor.words, cursor.repositoryId);
+			if (cursor.next()) {
+				queue.add(cursor);
+			}
+		}
+	}
+
+	private final File indexDirectory;
+
+	private final int threshold;
+
+	/**
+	 * The indexed repositories.
+	 */
+	private final SortedMap<String, IndexedRepository> repositories = Maps
+			.newTreeMap();
+
+	/**
+	 * The numbers of the segments of the inverted index.
+	 */
+	private final List<Integer> segments = Lists.newArrayList();
+
+	private int nextSegment = 0;
+
+	private int nextRepositoryId = 0;
+
+	/**
+	 * The duplicates of each indexed repository, keyed by the
+	 * lexicographically smaller repository.
+	 */
+	private final SortedMap<String, SortedSet<String>> duplicates = Maps
+			.newTreeMap();
+
+	/**
+	 * True if the stored duplicates were computed with a different threshold
+	 * and thus all repositories need to be compared again.
+	 */
+	private boolean thresholdChanged = false;
+
+	/**
+	 * @param indexDirectory
+	 *            the directory of the index. It is created if it does not
+	 *            exist.
+	 * @param threshold
+	 *            the number of common commits above which two repositories
+	 *            are duplicates
+	 * @throws IOException
+	 */
+	public IncrementalDeduplicator(final File indexDirectory,
+			final int threshold) throws IOException {
+		this.indexDirectory = indexDirectory;
+		this.threshold = threshold;
+		if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+			throw new IOException("Failed to create index directory "
+					+ indexDirectory);
+		}
+		if (new File(indexDirectory, INDEX_FILE).exists()) {
+			loadIndex();
+		}
+	}
+
+	private void addDuplicate(final String repository1,
+			final String repository2) {
+		final String smaller;
+		final String larger;
+		if (repository1.compareTo(repository2) < 0) {
+			smaller = repository1;
+			larger = repository2;
+		} else {
+			smaller = repository2;
+			larger = repository1;
+		}
+		SortedSet<String> duplicatesOfRepository = duplicates.get(smaller);
+		if (duplicatesOfRepository == null) {
+			duplicatesOfRepository = Sets.newTreeSet();
+			duplicates.put(smaller, duplicatesOfRepository);
+		}
+		duplicatesOfRepository.add(larger);
+	}
+
+	/**
+	 * Merge all the segments into one, without the dead records.
+	 */
+	private void compact(final List<Segment> openSegments) throws IOException {
+		final List<SegmentCursor> cursors = Lists.newArrayList();
+		for (final Segment segment : openSegments) {
+			cursors.add(new SegmentCursor(segment, getLiveRepositoryIds()));
+		}
+		final int segment = writeSegment(cursors);
+		segments.clear();
+		segments.add(segment);
+	}
+
+	/**
+	 * Find the duplicates of all the indexed repositories by scanning the
+	 * whole inverted index.
+	 */
+	private void findAllDuplicates(final List<Segment> openSegments)
+			throws IOException {
+		final Object span = Tracing.TRACER.beginIndexComparison();
+		final Set<Integer> liveRepositoryIds = getLiveRepositoryIds();
+		final List<SegmentCursor> cursors = Lists.newArrayList();
+		for (final Segment segment : openSegments) {
+			cursors.add(new SegmentCursor(segment, liveRepositoryIds));
+		}
+		// Group the commits that are shared by the same repositories.
+		final Multiset<PostingKey> sharedCommits = HashMultiset.create();
+		final int[] currentId = new int[WORDS_PER_ID];
+		final int[][] posting = new int[][] { new int[2] };
+		final int[] postingSize = new int[] { 0 };
+		merge(cursors, new IRecordVisitor() {
+			@Override
+			public void visit(final int[] words, final int repositoryId) {
+				if (postingSize[0] > 0 && compareWords(words, currentId) != 0) {
+					if (postingSize[0] > 1) {
+						sharedCommits.add(new PostingKey(posting[0],
+								postingSize[0]));
+					}
+					postingSize[0] = 0;
+				}
+				System.arraycopy(words, 0, currentId, 0, WORDS_PER_ID);
+				if (postingSize[0] == posting[0].length) {
+					posting[0] = Arrays.copyOf(posting[0],
+							2 * postingSize[0]);
+				}
+				posting[0][postingSize[0]++] = repositoryId;
+			}
+		});
+		if (postingSize[0] > 1) {
+			sharedCommits.add(new PostingKey(posting[0], postingSize[0]));
+		}
+
+		final Map<Integer, String> names = getRepositoryNames();
+		duplicates.clear();
+		final Multiset<Long> commonCommits = InvertedIndexDeduplicator
+				.countCommonCommits(sharedCommits);
+		int nDuplicatePairs = 0;
+		for (final Multiset.Entry<Long> pair : commonCommits.entrySet()) {
+			if (pair.getCount() > threshold) {
+				addDuplicate(names.get((int) (pair.getElement() >>> 32)),
+						names.get((int) (pair.getElement() & 0xFFFFFFFFL)));
+				nDuplicatePairs++;
+			}
+		}
+		Tracing.TRACER.endIndexComparison(span, "incremental", names.size(),
+				sharedCommits.elementSet().size(), commonCommits.elementSet()
+						.size(), nDuplicatePairs);
+	}
+
+	/**
+	 * Find the duplicates of a changed repository by looking up its commits
+	 * in the inverted index.
+	 */
+	private void findDuplicatesOf(final String repository,
+			final CommitIdSet commits, final List<Segment> openSegments,
+			final Map<Integer, String> names) {
+		final int repositoryId = repositories.get(repository).id;
+		final Multiset<Integer> commonCommits = HashMultiset.create();
+		final int[] words = new int[WORDS_PER_ID];
+		for (final Segment segment : openSegments) {
+			long from = 0;
+			for (int i = 0; i < commits.size() && from < segment.nRecords; i++) {
+				commits.getWords(i, words);
+				from = segment.lowerBound(words, from);
+				for (long record = from; record < segment.nRecords
+						&& segment.compare(record, words) == 0; record++) {
+					final int otherId = segment.getRepositoryId(record);
+					if (otherId != repositoryId && names.containsKey(otherId)) {
+						commonCommits.add(otherId);
+					}
+				}
+			}
+		}
+		for (final Multiset.Entry<Integer> other : commonCommits.entrySet()) {
+			if (other.getCount() > threshold) {
+				addDuplicate(repository, names.get(other.getElement()));
+			}
+		}
+	}
+
+	/**
+	 * Return the duplicates of the indexed repositories, keyed by the
+	 * lexicographically smaller repository.
+	 *
+	 * @return
+	 */
+	public SortedMap<String, SortedSet<String>> getDuplicates() {
+		return duplicates;
+	}
+
+	private Set<Integer> getLiveRepositoryIds() {
+		final Set<Integer> ids = Sets.newHashSet();
+		for (final IndexedRepository repository : repositories.values()) {
+			ids.add(repository.id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Return the name of each live repository id.
+	 */
+	private Map<Integer, String> getRepositoryNames() {
+		final Map<Integer, String> names = Maps.newHashMap();
+		for (final Map.Entry<String, IndexedRepository> entry : repositories
+				.entrySet()) {
+			names.put(entry.getValue().id, entry.getKey());
+		}
+		return names;
+	}
+
+	private File getSegmentFile(final int segment) {
+		return new File(indexDirectory, SEGMENT_PREFIX + segment);
+	}
+
+	private void loadIndex() throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(indexDirectory, INDEX_FILE))));
+		try {
+			checkArgument(in.readInt() == INDEX_VERSION,
+					"Unknown index version");
+			final int indexThreshold = in.readInt();
+			nextRepositoryId = in.readInt();
+			nextSegment = in.readInt();
+			final int nSegments = in.readInt();
+			for (int i = 0; i < nSegments; i++) {
+				segments.add(in.readInt());
+			}
+			final int nRepositories = in.readInt();
+			final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+			for (int i = 0; i < nRepositories; i++) {
+				final String repository = in.readUTF();
+				in.readFully(rawHead);
+				repositories.put(repository,
+						new IndexedRepository(ObjectId.fromRaw(rawHead), in
+								.readInt(), in.readInt()));
+			}
+			final int nPairs = in.readInt();
+			for (int i = 0; i < nPairs; i++) {
+				addDuplicate(in.readUTF(), in.readUTF());
+			}
+			if (indexThreshold != threshold) {
+				// The duplicates need to be recomputed, but the index is valid.
+				duplicates.clear();
+				thresholdChanged = true;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private List<Segment> openSegments() throws IOException {
+		final List<Segment> openSegments = Lists.newArrayList();
+		for (final int segment : segments) {
+			openSegments.add(new Segment(getSegmentFile(segment)));
+		}
+		return openSegments;
+	}
+
+	/**
+	 * Remove all the duplicate pairs that contain any of the given
+	 * repositories.
+	 */
+	private void removeDuplicatesOf(final Set<String> repositories) {
+		final Iterator<Map.Entry<String, SortedSet<String>>> it = duplicates
+				.entrySet().iterator();
+		while (it.hasNext()) {
+			final Map.Entry<String, SortedSet<String>> entry = it.next();
+			if (repositories.contains(entry.getKey())) {
+				it.remove();
+				continue;
+			}
+			entry.getValue().removeAll(repositories);
+			if (entry.getValue().isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Atomically replace the index file and then remove the files that are
+	 * no longer used.
+	 */
+	private void saveIndex() throws IOException {
+		final File indexFile = new File(indexDirectory, INDEX_FILE);
+		final File newIndexFile = new File(indexDirectory, INDEX_FILE + ".new");
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(newIndexFile)));
+		try {
+			out.writeInt(INDEX_VERSION);
+			out.writeInt(threshold);
+			out.writeInt(nextRepositoryId);
+			out.writeInt(nextSegment);
+			out.writeInt(segments.size());
+			for (final int segment : segments) {
+				out.writeInt(segment);
+			}
+			out.writeInt(repositories.size());
+			final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+			for (final Map.Entry<String, IndexedRepository> entry : repositories
+					.entrySet()) {
+				out.writeUTF(entry.getKey());
+				entry.getValue().head.copyRawTo(rawHead, 0);
+				out.write(rawHead);
+				out.writeInt(entry.getValue().id);
+				out.writeInt(entry.getValue().nCommits);
+			}
+			int nPairs = 0;
+			for (final SortedSet<String> duplicatesOfRepository : duplicates
+					.values()) {
+				nPairs += duplicatesOfRepository.size();
+			}
+			out.writeInt(nPairs);
+			for (final Map.Entry<String, SortedSet<String>> entry : duplicates
+					.entrySet()) {
+				for (final String otherRepository : entry.getValue()) {
+					out.writeUTF(entry.getKey());
+					out.writeUTF(otherRepository);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(newIndexFile.toPath(), indexFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		// Remove the segments that were merged
+		final Set<String> usedSegments = Sets.newHashSet();
+		for (final int segment : segments) {
+			usedSegments.add(getSegmentFile(segment).getName());
+		}
+		for (final File file : indexDirectory.listFiles()) {
+			final String name = file.getName();
+			if (name.startsWith(SEGMENT_PREFIX)
+					&& !usedSegments.contains(name) && !file.delete()) {
+				LOGGER.warning("Failed to delete unused index file " + file);
+			}
+		}
+	}
+
+	/**
+	 * Update the index with the repositories currently in the given folder.
+	 * New repositories and repositories whose HEAD has changed are read and
+	 * looked up in the index. Repositories that no longer exist are removed
+	 * from the index.
+	 *
+	 * @param directory
+	 * @throws Exception
+	 */
+	public void update(final String directory) throws Exception {
+		final List<String> folders = RepositoryDeduplicator
+				.getAllFoldersIn(directory);
+
+		// Find and read the new and updated repositories
+		final SortedMap<String, CommitIdSet> changedRepositories = Maps
+				.newTreeMap();
+		final SortedMap<String, IndexedRepository> currentRepositories = Maps
+				.newTreeMap();
+		for (final String repository : folders) {
+			try {
+				final Git git = GitCommitUtils.getGitRepository(repository);
+				try {
+					final ObjectId head = GitCommitUtils.getHeadId(git);
+					final IndexedRepository indexed = repositories
+							.get(repository);
+					if (indexed != null && indexed.head.equals(head)) {
+						currentRepositories.put(repository, indexed);
+						continue;
+					}
+					final CommitIdSet commits = CommitIdSet.of(GitCommitUtils
+							.getCommits(git));
+					changedRepositories.put(repository, commits);
+					currentRepositories.put(repository, new IndexedRepository(
+							head, nextRepositoryId++, commits.size()));
+				} finally {
+					git.getRepository().close();
+				}
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to get commits at " + repository
+						+ ". Error: " + e.getMessage());
+			}
+		}
+
+		final Set<String> removedRepositories = Sets.newTreeSet(repositories
+				.keySet());
+		removedRepositories.removeAll(currentRepositories.keySet());
+		removeDuplicatesOf(removedRepositories);
+		removeDuplicatesOf(changedRepositories.keySet());
+		repositories.clear();
+		repositories.putAll(currentRepositories);
+
+		// Append the commits of the changed repositories to the index
+		if (!changedRepositories.isEmpty()) {
+			final List<CommitSetCursor> cursors = Lists.newArrayList();
+			for (final Map.Entry<String, CommitIdSet> entry : changedRepositories
+					.entrySet()) {
+				cursors.add(new CommitSetCursor(entry.getValue(), repositories
+						.get(entry.getKey()).id));
+			}
+			segments.add(writeSegment(cursors));
+		}
+
+		long nLiveRecords = 0;
+		for (final IndexedRepository repository : repositories.values()) {
+			nLiveRecords += repository.nCommits;
+		}
+		List<Segment> openSegments = openSegments();
+		long nRecords = 0;
+		for (final Segment segment : openSegments) {
+			nRecords += segment.nRecords;
+		}
+		if (segments.size() > MAX_SEGMENTS || nRecords > 2 * nLiveRecords) {
+			compact(openSegments);
+			openSegments = openSegments();
+		}
+
+		if (thresholdChanged
+				|| changedRepositories.size() == repositories.size()) {
+			// Comparing everything: a single scan of the index is cheaper
+			findAllDuplicates(openSegments);
+		} else {
+			final Map<Integer, String> names = getRepositoryNames();
+			for (final Map.Entry<String, CommitIdSet> entry : changedRepositories
+					.entrySet()) {
+				findDuplicatesOf(entry.getKey(), entry.getValue(),
+						openSegments, names);
+			}
+		}
+
+		thresholdChanged = false;
+		saveIndex();
+	}
+
+	/**
+	 * Write the merged records of the cursors to a new segment.
+	 *
+	 * @return the number of the segment
+	 */
+	private int writeSegment(final List<? extends Cursor> cursors)
+			throws IOException {
+		final int segment = nextSegment++;
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(
+						getSegmentFile(segment)), 1 << 16));
+		try {
+			merge(cursors, new IRecordVisitor() {
+				@Override
+				public void visit(final int[] words, final int repositoryId)
+						throws IOException {
+					for (final int word : words) {
+						out.writeInt(word);
+					}
+					out.writeInt(repositoryId);
+				}
+			});
+		} finally {
+			out.close();
+		}
+		return segment;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import committools.data.GitCommitUtils;
+import committools.metrics.Tracing;
+
+/**
+ * Deduplicate repositories using an inverted index from commit ids to the
+ * repositories that contain them. Instead of intersecting the commit sets of
+ * all pairs of repositories, shared-commit counts are only accumulated for the
+ * pairs that actually share at least one commit.
+ *
+ * Commits that are contained in exactly the same set of repositories (e.g. the
+ * common history of a fork family) are grouped together, so each such group
+ * costs a single update per repository pair.
+ *
+ * Two repositories are considered duplicates when they share more than
+ * threshold commits, as in {@link RepositoryDeduplicator}.
+ */
+public class InvertedIndexDeduplicator {
+
+	/**
+	 * The list of repositories containing a single commit.
+	 */
+	private static final class Posting extends ObjectIdOwnerMap.Entry {
+		int[] repositories = new int[2];
+		int size = 0;
+
+		Posting(final AnyObjectId id) {
+			super(id);
+		}
+
+		void add(final int repositoryId) {
+			if (size > 0 && repositories[size - 1] == repositoryId) {
+				return; // Commit seen twice in the same repository
+			}
+			if (size == repositories.length) {
+				repositories = Arrays.copyOf(repositories, size * 2);
+			}
+			repositories[size++] = repositoryId;
+		}
+	}
+
+	/**
+	 * A hashable view of the repositories in a posting list.
+	 */
+	static final class PostingKey {
+		final int[] repositories;
+		final int hash;
+
+		PostingKey(final Posting posting) {
+			this(posting.repositories, posting.size);
+		}
+
+		/**
+		 * @param repositories
+		 *            the ids of the repositories containing a commit, in
+		 *            increasing order
+		 */
+		PostingKey(final int[] repositories, final int size) {
+			this.repositories = Arrays.copyOf(repositories, size);
+			hash = Arrays.hashCode(this.repositories);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof PostingKey)) {
+				return false;
+			}
+			return Arrays.equals(repositories,
+					((PostingKey) obj).repositories);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static final Logger LOGGER = Logger
+			.getLogger(InvertedIndexDeduplicator.class.getName());
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage <threshold> <directory>");
+			return;
+		}
+
+		final InvertedIndexDeduplicator d = new InvertedIndexDeduplicator(
+				Integer.parseInt(args[0]));
+		d.findAndPrintDuplicatesIn(args[1]);
+	}
+
+	private final ObjectIdOwnerMap<Posting> postings = new ObjectIdOwnerMap<Posting>();
+
+	private final List<String> repositories = Lists.newArrayList();
+
+	private final int threshold;
+
+	public InvertedIndexDeduplicator(final int threshold) {
+		this.threshold = threshold;
+	}
+
+	private void addCommit(final AnyObjectId commit, final int repositoryId) {
+		Posting posting = postings.get(commit);
+		if (posting == null) {
+			posting = new Posting(commit);
+			postings.add(posting);
+		}
+		posting.add(repositoryId);
+	}
+
+	/**
+	 * Add a repository and its commits to the index.
+	 *
+	 * @param repository
+	 *            the name of the repository
+	 * @param commits
+	 *            the commits of the repository
+	 */
+	public void addRepository(final String repository,
+			final Collection<? extends AnyObjectId> commits) {
+		final int repositoryId = repositories.size();
+		repositories.add(repository);
+		for (final AnyObjectId commit : commits) {
+			addCommit(commit, repositoryId);
+		}
+	}
+
+	/**
+	 * Add a repository and its commit id set to the index. The ids are read
+	 * from the set without creating an ObjectId for each commit.
+	 *
+	 * @param repository
+	 *            the name of the repository
+	 * @param commits
+	 *            the commits of the repository
+	 */
+	public void addRepository(final String repository,
+			final CommitIdSet commits) {
+		final int repositoryId = repositories.size();
+		repositories.add(repository);
+		final int[] words = new int[Constants.OBJECT_ID_LENGTH / 4];
+		final MutableObjectId commit = new MutableObjectId();
+		for (int i = 0; i < commits.size(); i++) {
+			commits.getWords(i, words);
+			commit.fromRaw(words);
+			addCommit(commit, repositoryId);
+		}
+	}
+
+	/**
+	 * Index all the repositories in the given folder and print the pairs of
+	 * duplicate repositories.
+	 *
+	 * @param directory
+	 * @throws Exception
+	 */
+	public void findAndPrintDuplicatesIn(final String directory)
+			throws Exception {
+		for (final String repository : RepositoryDeduplicator
+				.getAllFoldersIn(directory)) {
+			try {
+				addRepository(repository,
+						GitCommitUtils.getCommits(repository));
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to get commits at " + repository
+						+ ". Error: " + e.getMessage());
+			}
+		}
+
+		for (final Map.Entry<String, List<String>> entry : findDuplicates()
+				.entrySet()) {
+			for (final String otherRepository : entry.getValue()) {
+				System.out.println(entry.getKey() + " " + otherRepository);
+			}
+		}
+	}
+
+	/**
+	 * Return the duplicate repositories. Each pair is returned once, keyed by
+	 * the lexicographically smaller repository name.
+	 *
+	 * @return
+	 */
+	public SortedMap<String, List<String>> findDuplicates() {
+		final Object span = Tracing.TRACER.beginIndexComparison();
+		// Group the commits that are shared by the same repositories.
+		final Multiset<PostingKey> sharedCommits = HashMultiset.create();
+		for (final Posting posting : postings) {
+			if (posting.size > 1) {
+				sharedCommits.add(new PostingKey(posting));
+			}
+		}
+
+		final SortedMap<String, List<String>> duplicates = Maps.newTreeMap();
+		final Multiset<Long> commonCommits = countCommonCommits(sharedCommits);
+		int nDuplicatePairs = 0;
+		for (final Multiset.Entry<Long> pair : commonCommits.entrySet()) {
+			if (pair.getCount() <= threshold) {
+				continue;
+			}
+			nDuplicatePairs++;
+			final String repository1 = repositories.get((int) (pair
+					.getElement() >>> 32));
+			final String repository2 = repositories.get((int) (pair
+					.getElement() & 0xFFFFFFFFL));
+			if (repository1.compareTo(repository2) < 0) {
+				addDuplicate(duplicates, repository1, repository2);
+			} else {
+				addDuplicate(duplicates, repository2, repository1);
+			}
+		}
+		Tracing.TRACER.endIndexComparison(span, "invertedIndex",
+				repositories.size(), sharedCommits.elementSet().size(),
+				commonCommits.elementSet().size(), nDuplicatePairs);
+		for (final List<String> duplicatesOfRepository : duplicates.values()) {
+			Collections.sort(duplicatesOfRepository);
+		}
+		return duplicates;
+	}
+
+	private static void addDuplicate(
+			final Map<String, List<String>> duplicates,
+			final String repository, final String otherRepository) {
+		List<String> duplicatesOfRepository = duplicates.get(repository);
+		if (duplicatesOfRepository == null) {
+			duplicatesOfRepository = Lists.newArrayList();
+			duplicates.put(repository, duplicatesOfRepository);
+		}
+		duplicatesOfRepository.add(otherRepository);
+	}
+
+	/**
+	 * Accumulate the common commits of the pairs that share commits, given
+	 * the groups of commits that are shared by the same repositories.
+	 *
+	 * @return the number of common commits of each pair, keyed by
+	 *         {@link #pairKey(int, int)}
+	 */
+	static Multiset<Long> countCommonCommits(
+			final Multiset<PostingKey> sharedCommits) {
+		final Multiset<Long> commonCommits = HashMultiset.create();
+		for (final Multiset.Entry<PostingKey> group : sharedCommits
+				.entrySet()) {
+			final int[] repositoryIds = group.getElement().repositories;
+			for (int i = 0; i < repositoryIds.length; i++) {
+				for (int j = i + 1; j < repositoryIds.length; j++) {
+					commonCommits.add(
+							pairKey(repositoryIds[i], repositoryIds[j]),
+							group.getCount());
+				}
+			}
+		}
+		return commonCommits;
+	}
+
+	static long pairKey(final int repositoryId1,
+			final int repositoryId2) {
+		return (((long) repositoryId1) << 32) | (repositoryId2 & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Return the number of repositories in the index.
+	 */
+	public int numRepositories() {
+		return repositories.size();
+	}
+
+}
@@ -0,0 +1,549 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
+import committools.data.GitCommitUtils;
+import committools.metrics.Tracing;
+
+/**
+ * Approximate deduplication for very large corpora. A {@link MinHashSketch} of
+ * the commit set of each repository is computed once and persisted in a
+ * sketch file. Locality sensitive hashing (banding) over the sketches proposes
+ * candidate pairs and only these pairs are verified exactly. Repositories whose
+ * HEAD has not changed since the sketch file was written are not read again.
+ *
+ * The results of the verified pairs are stored in the sketch file too, and
+ * are reused as long as the HEADs of both repositories and the threshold are
+ * the same. The commits of a repository are only kept in memory until its
+ * last candidate pair is verified.
+ *
+ * Since candidates are proposed by Jaccard similarity, pairs that share more
+ * than threshold commits but have very different history sizes (e.g. a
+ * short-lived fork of a large project) may be missed. So may pairs in LSH
+ * buckets with more than maxBucketSize repositories, since each repository
+ * of such a bucket is only paired with the maxBucketSize - 1 repositories
+ * that follow it (by name) in the bucket.
+ */
+public class MinHashDeduplicator {
+
+	private static final Logger LOGGER = Logger
+			.getLogger(MinHashDeduplicator.class.getName());
+
+	private static final int SKETCH_FILE_VERSION = 1;
+
+	public static final int DEFAULT_NUM_BANDS = 32;
+
+	public static final int DEFAULT_ROWS_PER_BAND = 4;
+
+	public static final int DEFAULT_MAX_BUCKET_SIZE = 100;
+
+	/**
+	 * Return the commits of the repository, reading them from git if they
+	 * are not already read.
+	 *
+	 * @param commitIds
+	 *            the commits read so far, null for repositories that could
+	 *            not be read
+	 * @return the commits or null if they cannot be read
+	 */
+	private static CommitIdSet getCommitIds(final String repository,
+			final Map<String, CommitIdSet> commitIds) {
+		if (commitIds.containsKey(repository)) {
+			return commitIds.get(repository);
+		}
+		CommitIdSet commits;
+		try {
+			commits = CommitIdSet.of(GitCommitUtils.getCommits(repository));
+		} catch (final Exception e) {
+			LOGGER.warning("Failed to get commits at " + repository
+					+ ". Error: " + e.getMessage());
+			commits = null;
+		}
+		commitIds.put(repository, commits);
+		return commits;
+	}
+
+	/**
+	 * Load the sketches stored in the given file.
+	 *
+	 * @param sketchFile
+	 * @return a map from repository to its sketch
+	 * @throws IOException
+	 */
+	public static SortedMap<String, MinHashSketch> loadSketches(
+			final File sketchFile) throws IOException {
+		final SortedMap<String, MinHashSketch> sketches = Maps.newTreeMap();
+		loadSketchFile(sketchFile, sketches, null, 0);
+		return sketches;
+	}
+
+	/**
+	 * Load the sketches and the verified pairs stored in the given file.
+	 *
+	 * @param verifiedPairs
+	 *            if not null, the verified pairs are added to it, if they were
+	 *            verified with the given threshold
+	 */
+	private static void loadSketchFile(final File sketchFile,
+			final Map<String, MinHashSketch> sketches,
+			final Table<String, String, Boolean> verifiedPairs,
+			final int threshold) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(sketchFile)));
+		try {
+			checkArgument(in.readInt() == SKETCH_FILE_VERSION,
+					"Unknown sketch file version");
+			final int nSketches = in.readInt();
+			for (int i = 0; i < nSketches; i++) {
+				final String repository = in.readUTF();
+				sketches.put(repository, MinHashSketch.read(in));
+			}
+			if (verifiedPairs == null || in.readInt() != threshold) {
+				return;
+			}
+			final int nPairs = in.readInt();
+			for (int i = 0; i < nPairs; i++) {
+				final String repository = in.readUTF();
+				final String otherRepository = in.readUTF();
+				verifiedPairs.put(repository, otherRepository,
+						in.readBoolean());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load the results of the candidate pairs that were verified with the
+	 * given threshold and stored in the given sketch file.
+	 *
+	 * @param sketchFile
+	 * @param threshold
+	 * @return whether each pair is a duplicate, keyed by the
+	 *         lexicographically smaller repository
+	 * @throws IOException
+	 */
+	public static Table<String, String, Boolean> loadVerifiedPairs(
+			final File sketchFile, final int threshold) throws IOException {
+		final Table<String, String, Boolean> verifiedPairs = TreeBasedTable
+				.create();
+		loadSketchFile(sketchFile, Maps.<String, MinHashSketch> newHashMap(),
+				verifiedPairs, threshold);
+		return verifiedPairs;
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length != 3) {
+			System.err.println("Usage <threshold> <directory> <sketchFile>");
+			return;
+		}
+
+		final MinHashDeduplicator d = new MinHashDeduplicator(
+				Integer.parseInt(args[0]), DEFAULT_NUM_BANDS,
+				DEFAULT_ROWS_PER_BAND);
+		d.findAndPrintDuplicatesIn(args[1], new File(args[2]));
+	}
+
+	/**
+	 * Save the sketches and the verified pairs to the given file.
+	 *
+	 * @param sketches
+	 * @param verifiedPairs
+	 *            whether each verified pair is a duplicate
+	 * @param threshold
+	 *            the threshold the pairs were verified with
+	 * @param sketchFile
+	 * @throws IOException
+	 */
+	public static void saveSketches(final Map<String, MinHashSketch> sketches,
+			final Table<String, String, Boolean> verifiedPairs,
+			final int threshold, final File sketchFile) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(sketchFile)));
+		try {
+			out.writeInt(SKETCH_FILE_VERSION);
+			out.writeInt(sketches.size());
+			for (final Map.Entry<String, MinHashSketch> sketch : sketches
+					.entrySet()) {
+				out.writeUTF(sketch.getKey());
+				sketch.getValue().write(out);
+			}
+			out.writeInt(threshold);
+			out.writeInt(verifiedPairs.size());
+			for (final Table.Cell<String, String, Boolean> pair : verifiedPairs
+					.cellSet()) {
+				out.writeUTF(pair.getRowKey());
+				out.writeUTF(pair.getColumnKey());
+				out.writeBoolean(pair.getValue());
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private final int threshold;
+
+	private final int numBands;
+
+	private final int rowsPerBand;
+
+	private final int maxBucketSize;
+
+	/**
+	 * @param threshold
+	 *            the number of common commits above which two repositories
+	 *            are duplicates
+	 * @param numBands
+	 *            the number of LSH bands
+	 * @param rowsPerBand
+	 *            the number of signature rows in each band. More rows per band
+	 *            propose fewer, more similar, candidates.
+	 */
+	public MinHashDeduplicator(final int threshold, final int numBands,
+			final int rowsPerBand) {
+		this(threshold, numBands, rowsPerBand, DEFAULT_MAX_BUCKET_SIZE);
+	}
+
+	/**
+	 * @param threshold
+	 *            the number of common commits above which two repositories
+	 *            are duplicates
+	 * @param numBands
+	 *            the number of LSH bands
+	 * @param rowsPerBand
+	 *            the number of signature rows in each band. More rows per band
+	 *            propose fewer, more similar, candidates.
+	 * @param maxBucketSize
+	 *            the size of the LSH buckets above which not all the pairs of
+	 *            the bucket are proposed
+	 */
+	public MinHashDeduplicator(final int threshold, final int numBands,
+			final int rowsPerBand, final int maxBucketSize) {
+		checkArgument(numBands > 0 && rowsPerBand > 0 && maxBucketSize > 1);
+		this.threshold = threshold;
+		this.numBands = numBands;
+		this.rowsPerBand = rowsPerBand;
+		this.maxBucketSize = maxBucketSize;
+	}
+
+	/**
+	 * Compare the commits of the two repositories.
+	 *
+	 * @param commitIds
+	 *            the commits read so far
+	 * @return whether the repositories are duplicates or null if the commits
+	 *         of either cannot be read
+	 */
+	private Boolean compare(final String repository,
+			final String otherRepository,
+			final Map<String, CommitIdSet> commitIds) {
+		final CommitIdSet commits = getCommitIds(repository, commitIds);
+		if (commits == null) {
+			return null;
+		}
+		final CommitIdSet otherCommits = getCommitIds(otherRepository,
+				commitIds);
+		if (otherCommits == null) {
+			return null;
+		}
+		// Only the comparison is traced, not loading the commits
+		final Object span = Tracing.TRACER.beginComparison();
+		final boolean duplicate = commits.sharesMoreThan(otherCommits,
+				threshold);
+		Tracing.TRACER.endComparison(span, repository, otherRepository,
+				commits.size(), otherCommits.size(), duplicate);
+		return duplicate;
+	}
+
+	/**
+	 * Find and print the duplicate repositories in the given folder, using
+	 * and updating the sketches in the given sketch file.
+	 *
+	 * @param directory
+	 * @param sketchFile
+	 * @throws Exception
+	 */
+	public void findAndPrintDuplicatesIn(final String directory,
+			final File sketchFile) throws Exception {
+		for (final Map.Entry<String, List<String>> entry : findDuplicatesIn(
+				directory, sketchFile).entrySet()) {
+			for (final String otherRepository : entry.getValue()) {
+				System.out.println(entry.getKey() + " " + otherRepository);
+			}
+		}
+	}
+
+	/**
+	 * Find the duplicate repositories in the given folder, using and
+	 * updating the sketches and verified pairs in the given sketch file.
+	 *
+	 * @param directory
+	 * @param sketchFile
+	 * @return the duplicates, keyed by the lexicographically smaller
+	 *         repository.
+	 * @throws Exception
+	 */
+	public SortedMap<String, List<String>> findDuplicatesIn(
+			final String directory, final File sketchFile) throws Exception {
+		final SortedMap<String, MinHashSketch> storedSketches = Maps
+				.newTreeMap();
+		final Table<String, String, Boolean> verifiedPairs = TreeBasedTable
+				.create();
+		if (sketchFile.exists()) {
+			loadSketchFile(sketchFile, storedSketches, verifiedPairs,
+					threshold);
+		}
+		final SortedMap<String, MinHashSketch> sketches = updateSketches(
+				RepositoryDeduplicator.getAllFoldersIn(directory),
+				storedSketches);
+
+		// Only keep the pairs of repositories whose sketch is reused
+		final Table<String, String, Boolean> validPairs = TreeBasedTable
+				.create();
+		for (final Table.Cell<String, String, Boolean> pair : verifiedPairs
+				.cellSet()) {
+			if (sketches.containsKey(pair.getRowKey())
+					&& sketches.containsKey(pair.getColumnKey())
+					&& sketches.get(pair.getRowKey()) == storedSketches
+							.get(pair.getRowKey())
+					&& sketches.get(pair.getColumnKey()) == storedSketches
+							.get(pair.getColumnKey())) {
+				validPairs.put(pair.getRowKey(), pair.getColumnKey(),
+						pair.getValue());
+			}
+		}
+
+		final SortedMap<String, SortedSet<String>> candidates = getCandidatePairs(sketches);
+		final SortedMap<String, List<String>> duplicates = verify(candidates,
+				validPairs);
+
+		// Store the results of the current candidates only
+		final Table<String, String, Boolean> candidatePairs = TreeBasedTable
+				.create();
+		for (final Map.Entry<String, SortedSet<String>> candidate : candidates
+				.entrySet()) {
+			for (final String otherRepository : candidate.getValue()) {
+				final Boolean duplicate = validPairs.get(candidate.getKey(),
+						otherRepository);
+				if (duplicate != null) {
+					candidatePairs.put(candidate.getKey(), otherRepository,
+							duplicate);
+				}
+			}
+		}
+		saveSketches(sketches, candidatePairs, threshold, sketchFile);
+		return duplicates;
+	}
+
+	/**
+	 * Return the candidate duplicate pairs, i.e. the pairs of repositories
+	 * whose sketches agree in at least one LSH band. In buckets with more
+	 * than maxBucketSize repositories, each repository is only paired with
+	 * the next maxBucketSize - 1 repositories, so that the number of pairs
+	 * is linear in the size of the bucket.
+	 *
+	 * @param sketches
+	 * @return a map from each repository to the lexicographically larger
+	 *         repositories that are candidate duplicates.
+	 */
+	public SortedMap<String, SortedSet<String>> getCandidatePairs(
+			final SortedMap<String, MinHashSketch> sketches) {
+		final SortedMap<String, SortedSet<String>> candidates = Maps
+				.newTreeMap();
+		for (int band = 0; band < numBands; band++) {
+			final ListMultimap<Long, String> buckets = ArrayListMultimap.create();
+			for (final Map.Entry<String, MinHashSketch> sketch : sketches
+					.entrySet()) {
+				if (sketch.getValue().isEmpty()) {
+					continue;
+				}
+				checkArgument(sketch.getValue().size() == getNumHashes(),
+						"Sketch of %s has a different size", sketch.getKey());
+				buckets.put(sketch.getValue().getBandHash(band, rowsPerBand),
+						sketch.getKey());
+			}
+
+			for (final Long bucket : buckets.keySet()) {
+				// Repositories are sorted, since sketches is a sorted map
+				final List<String> repositories = buckets.get(bucket);
+				if (repositories.size() > maxBucketSize) {
+					LOGGER.info("Only pairing neighbors in an LSH bucket of "
+							+ repositories.size() + " repositories in band "
+							+ band);
+				}
+				for (int i = 0; i < repositories.size(); i++) {
+					final int end = Math.min(repositories.size(), i
+							+ maxBucketSize);
+					for (int j = i + 1; j < end; j++) {
+						SortedSet<String> others = candidates.get(repositories
+								.get(i));
+						if (others == null) {
+							others = Sets.newTreeSet();
+							candidates.put(repositories.get(i), others);
+						}
+						others.add(repositories.get(j));
+					}
+				}
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Return the size of the sketches used.
+	 */
+	public int getNumHashes() {
+		return numBands * rowsPerBand;
+	}
+
+	/**
+	 * Compute the sketches of the given repositories, reusing the stored
+	 * sketches of the repositories whose HEAD has not changed.
+	 *
+	 * @param repositories
+	 * @param storedSketches
+	 * @return the sketches of the given repositories.
+	 */
+	public SortedMap<String, MinHashSketch> updateSketches(
+			final List<String> repositories,
+			final Map<String, MinHashSketch> storedSketches) {
+		final SortedMap<String, MinHashSketch> sketches = Maps.newTreeMap();
+		for (final String repository : repositories) {
+			try {
+				final Git git = GitCommitUtils.getGitRepository(repository);
+				try {
+					final ObjectId head = GitCommitUtils.getHeadId(git);
+					final MinHashSketch stored = storedSketches.get(repository);
+					if (stored != null && stored.head.equals(head)
+							&& stored.size() == getNumHashes()) {
+						sketches.put(repository, stored);
+					} else {
+						sketches.put(repository, MinHashSketch.compute(head,
+								GitCommitUtils.getCommits(git), getNumHashes()));
+					}
+				} finally {
+					git.getRepository().close();
+				}
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to get commits at " + repository
+						+ ". Error: " + e.getMessage());
+			}
+		}
+		return sketches;
+	}
+
+	/**
+	 * Verify the candidate pairs by counting their exact common commits.
+	 *
+	 * @param candidates
+	 * @return the verified duplicates, keyed by the lexicographically smaller
+	 *         repository.
+	 */
+	public SortedMap<String, List<String>> verify(
+			final SortedMap<String, SortedSet<String>> candidates) {
+		return verify(candidates,
+				TreeBasedTable.<String, String, Boolean> create());
+	}
+
+	/**
+	 * Verify the candidate pairs by counting their exact common commits,
+	 * unless they are already verified. The commits of each repository are
+	 * read from git only once and are dropped after the last pair that needs
+	 * them is verified.
+	 *
+	 * @param candidates
+	 * @param verifiedPairs
+	 *            whether each already verified pair is a duplicate, keyed by
+	 *            the lexicographically smaller repository. The results of
+	 *            the newly verified pairs are added to it.
+	 * @return the verified duplicates, keyed by the lexicographically smaller
+	 *         repository.
+	 */
+	public SortedMap<String, List<String>> verify(
+			final SortedMap<String, SortedSet<String>> candidates,
+			final Table<String, String, Boolean> verifiedPairs) {
+		// The repositories whose commits are last needed by each candidate
+		final ListMultimap<String, String> lastNeededBy = ArrayListMultimap
+				.create();
+		final Map<String, String> lastCandidate = Maps.newHashMap();
+		for (final Map.Entry<String, SortedSet<String>> candidate : candidates
+				.entrySet()) {
+			for (final String otherRepository : candidate.getValue()) {
+				if (!verifiedPairs.contains(candidate.getKey(),
+						otherRepository)) {
+					lastCandidate.put(candidate.getKey(), candidate.getKey());
+					lastCandidate.put(otherRepository, candidate.getKey());
+				}
+			}
+		}
+		for (final Map.Entry<String, String> entry : lastCandidate.entrySet()) {
+			lastNeededBy.put(entry.getValue(), entry.getKey());
+		}
+
+		final SortedMap<String, List<String>> duplicates = Maps.newTreeMap();
+		final Map<String, CommitIdSet> commitIds = Maps.newHashMap();
+		for (final Map.Entry<String, SortedSet<String>> candidate : candidates
+				.entrySet()) {
+			for (final String otherRepository : candidate.getValue()) {
+				Boolean duplicate = verifiedPairs.get(candidate.getKey(),
+						otherRepository);
+				if (duplicate == null) {
+					duplicate = compare(candidate.getKey(), otherRepository,
+							commitIds);
+					if (duplicate == null) {
+						continue;
+					}
+					verifiedPairs.put(candidate.getKey(), otherRepository,
+							duplicate);
+				}
+				if (duplicate) {
+					List<String> duplicatesOfRepository = duplicates
+							.get(candidate.getKey());
+					if (duplicatesOfRepository == null) {
+						duplicatesOfRepository = Lists.newArrayList();
+						duplicates.put(candidate.getKey(),
+								duplicatesOfRepository);
+					}
+					duplicatesOfRepository.add(otherRepository);
+				}
+			}
+			for (final String repository : lastNeededBy.get(candidate
+					.getKey())) {
+				commitIds.remove(repository);
+			}
+		}
+		return duplicates;
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A fixed-size MinHash signature of the commit set of a repository, along with
+ * the HEAD it was computed at. The Jaccard similarity of two commit sets can be
+ * estimated by the fraction of signature positions that agree.
+ *
+ * Since commit ids are already uniformly distributed, each hash function is a
+ * cheap seeded mix of the first 64 bits of the id.
+ */
+public final class MinHashSketch {
+
+	/**
+	 * Compute the sketch of the given commits.
+	 *
+	 * @param head
+	 *            the HEAD of the repository when the commits were retrieved
+	 * @param commits
+	 * @param numHashes
+	 *            the size of the signature
+	 * @return
+	 */
+	public static MinHashSketch compute(final ObjectId head,
+			final Iterable<? extends AnyObjectId> commits, final int numHashes) {
+		checkArgument(numHashes > 0);
+		final long[] signature = new long[numHashes];
+		Arrays.fill(signature, Long.MAX_VALUE);
+
+		final int[] words = new int[5];
+		for (final AnyObjectId commit : commits) {
+			commit.copyRawTo(words, 0);
+			final long id = (((long) words[0]) << 32)
+					| (words[1] & 0xFFFFFFFFL);
+			for (int i = 0; i < numHashes; i++) {
+				final long hash = mix(id + i * SEED_INCREMENT);
+				if (hash < signature[i]) {
+					signature[i] = hash;
+				}
+			}
+		}
+		return new MinHashSketch(head, signature);
+	}
+
+	/**
+	 * The splitmix64 finalizer.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Read a sketch written by {@link #write(DataOutput)}.
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static MinHashSketch read(final DataInput in) throws IOException {
+		final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+		in.readFully(rawHead);
+		final long[] signature = new long[in.readInt()];
+		for (int i = 0; i < signature.length; i++) {
+			signature[i] = in.readLong();
+		}
+		return new MinHashSketch(ObjectId.fromRaw(rawHead), signature);
+	}
+
+	private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+	public final ObjectId head;
+
+	private final long[] signature;
+
+	private MinHashSketch(final ObjectId head, final long[] signature) {
+		this.head = head;
+		this.signature = signature;
+	}
+
+	/**
+	 * Estimate the Jaccard similarity of the commit sets of the two sketches.
+	 *
+	 * @param other
+	 * @return
+	 */
+	public double estimateJaccard(final MinHashSketch other) {
+		checkArgument(other.signature.length == signature.length);
+		int agreeing = 0;
+		for (int i = 0; i < signature.length; i++) {
+			if (signature[i] == other.signature[i]) {
+				agreeing++;
+			}
+		}
+		return ((double) agreeing) / signature.length;
+	}
+
+	/**
+	 * Return a hash of the rows of the given LSH band.
+	 *
+	 * @param band
+	 * @param rowsPerBand
+	 * @return
+	 */
+	public long getBandHash(final int band, final int rowsPerBand) {
+		long hash = band;
+		for (int i = band * rowsPerBand; i < (band + 1) * rowsPerBand; i++) {
+			hash = mix(hash ^ signature[i]);
+		}
+		return hash;
+	}
+
+	/**
+	 * Return true if the repository has no commits.
+	 */
+	public boolean isEmpty() {
+		return signature.length == 0 || signature[0] == Long.MAX_VALUE;
+	}
+
+	public int size() {
+		return signature.length;
+	}
+
+	public void write(final DataOutput out) throws IOException {
+		final byte[] rawHead = new byte[Constants.OBJECT_ID_LENGTH];
+		head.copyRawTo(rawHead, 0);
+		out.write(rawHead);
+		out.writeInt(signature.length);
+		for (final long minHash : signature) {
+			out.writeLong(minHash);
+		}
+	}
+}
@@ -4,77 +4,106 @@
 package committools.deduplication;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
 import java.util.TreeMap;
-
-import org.eclipse.jgit.lib.ObjectId;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Logger;
 
 import codemining.util.parallel.ParallelThreadPool;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import committools.data.GitCommitUtils;
+import committools.metrics.Tracing;
 
 /**
- * A parallel deduplicator.
+ * A parallel deduplicator. Deduplication happens in two phases: first the
+ * commits of each repository are loaded exactly once, in parallel. Then the
+ * (upper triangle of the) comparison matrix is split into equally sized tiles
+ * that are compared in parallel.
  * 
  * @author Miltos Allamanis <m.allamanis@ed.ac.uk>
  * 
  */
 public class ParallelDeduplicator {
 
-	public class DuplicatesCheckerRunnable implements Runnable {
+	/**
+	 * Load the commits of a single project. Projects that fail to load are
+	 * left null.
+	 */
+	public class CommitLoaderRunnable implements Runnable {
 
-		final String baseProject;
-		final List<String> remainingProjects;
+		final int projectId;
 
-		public DuplicatesCheckerRunnable(String base, List<String> remaining) {
-			baseProject = base;
-			remainingProjects = remaining;
+		public CommitLoaderRunnable(final int projectId) {
+			this.projectId = projectId;
 		}
 
 		@Override
 		public void run() {
 			try {
-				final List<ObjectId> baseCommits = GitCommitUtils
-						.getCommits(baseProject);
-
-				for (final String project : remainingProjects) {
-					Set<ObjectId> commonCommits = Sets.newTreeSet();
-					commonCommits.addAll(baseCommits);
-					try {
-						commonCommits.retainAll(GitCommitUtils
-								.getCommits(project));
-						if (commonCommits.size() > threshold) {
-							synchronized (duplicateProjects) {
-								if (duplicateProjects.containsKey(baseProject)) {
-									duplicateProjects.get(baseProject).add(
-											project);
-								} else {
-									List<String> dProjects = Lists
-											.newArrayList();
-									dProjects.add(project);
-									duplicateProjects.put(baseProject,
-											dProjects);
-								}
-							}
-						}
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+				projectCommits.set(projectId, CommitIdSet.of(GitCommitUtils
+						.getCommits(projects.get(projectId))));
+			} catch (final Exception e) {
+				LOGGER.warning("Failed to get commits at "
+						+ projects.get(projectId) + ", skipping it. Error: "
+						+ e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Compare all the projects in a row block with the projects in a column
+	 * block of the comparison matrix.
+	 */
+	public class TileComparisonRunnable implements Runnable {
+
+		final int rowFrom;
+		final int rowTo;
+		final int columnFrom;
+		final int columnTo;
+
+		public TileComparisonRunnable(final int rowFrom, final int rowTo,
+				final int columnFrom, final int columnTo) {
+			this.rowFrom = rowFrom;
+			this.rowTo = rowTo;
+			this.columnFrom = columnFrom;
+			this.columnTo = columnTo;
+		}
 
+		@Override
+		public void run() {
+			for (int i = rowFrom; i < rowTo; i++) {
+				final CommitIdSet baseCommits = projectCommits.get(i);
+				for (int j = Math.max(i + 1, columnFrom); j < columnTo; j++) {
+					final Object span = Tracing.TRACER.beginComparison();
+					final CommitIdSet otherCommits = projectCommits.get(j);
+					final boolean duplicate = baseCommits.sharesMoreThan(
+							otherCommits, threshold);
+					Tracing.TRACER.endComparison(span, projects.get(i),
+							projects.get(j), baseCommits.size(),
+							otherCommits.size(), duplicate);
+					if (duplicate) {
+						duplicatePairs.add(new int[] { i, j });
+					}
 				}
-			} catch (Exception e) {
-				return;
 			}
 		}
-
 	}
 
+	/**
+	 * The number of tiles per thread that the comparison matrix is split in.
+	 * More tiles allow better load balancing.
+	 */
+	private static final int TILES_PER_THREAD = 8;
+
+	private static final Logger LOGGER = Logger
+			.getLogger(ParallelDeduplicator.class.getName());
+
 	/**
 	 * Returns all the folders in the given directory.
 	 * 
@@ -119,28 +148,54 @@ public class ParallelDeduplicator {
 
 	protected final int threshold;
 
+	private List<String> projects;
+
+	private AtomicReferenceArray<CommitIdSet> projectCommits;
+
+	private final ConcurrentLinkedQueue<int[]> duplicatePairs = new ConcurrentLinkedQueue<int[]>();
+
 	ParallelDeduplicator(int cThreshold) {
 		threshold = cThreshold;
 	}
 
 	public void findAndPrintDuplicatesIn(String directory) throws Exception {
-		List<String> projects = getAllFoldersIn(directory);
-		Map<String, List<String>> compares = getAllProjectsToCompare(projects);
-
-		final ParallelThreadPool threadPool = new ParallelThreadPool();
-		// Add to executor pool
-
-		for (final Entry<String, List<String>> entry : compares.entrySet()) {
-			threadPool.pushTask(new DuplicatesCheckerRunnable(entry.getKey(),
-					entry.getValue()));
+		projects = getAllFoldersIn(directory);
+		Collections.sort(projects);
+
+		// Phase 1: Load the commits of each project once
+		projectCommits = new AtomicReferenceArray<CommitIdSet>(projects.size());
+		final ParallelThreadPool loadingPool = new ParallelThreadPool();
+		for (int i = 0; i < projects.size(); i++) {
+			loadingPool.pushTask(new CommitLoaderRunnable(i));
+		}
+		loadingPool.waitForTermination();
+		skipFailedProjects();
+
+		// Phase 2: Compare the tiles of the comparison matrix
+		final ParallelThreadPool comparisonPool = new ParallelThreadPool();
+		final int tileSize = getTileSize(projects.size());
+		for (int rowFrom = 0; rowFrom < projects.size(); rowFrom += tileSize) {
+			final int rowTo = Math.min(rowFrom + tileSize, projects.size());
+			for (int columnFrom = rowFrom; columnFrom < projects.size(); columnFrom += tileSize) {
+				comparisonPool.pushTask(new TileComparisonRunnable(rowFrom,
+						rowTo, columnFrom, Math.min(columnFrom + tileSize,
+								projects.size())));
+			}
 		}
+		comparisonPool.waitForTermination();
 
-		// wait
-		threadPool.waitForTermination();
+		for (final int[] pair : duplicatePairs) {
+			final String baseProject = projects.get(pair[0]);
+			if (!duplicateProjects.containsKey(baseProject)) {
+				duplicateProjects.put(baseProject, Lists.<String> newArrayList());
+			}
+			duplicateProjects.get(baseProject).add(projects.get(pair[1]));
+		}
 
 		// print
 		for (final Entry<String, List<String>> entry : duplicateProjects
 				.entrySet()) {
+			Collections.sort(entry.getValue());
 			for (final String otherProject : entry.getValue()) {
 				System.out.println(entry.getKey() + " " + otherProject);
 			}
@@ -150,21 +205,50 @@ public class ParallelDeduplicator {
 	public Map<String, List<String>> getAllProjectsToCompare(
 			List<String> projects) {
 		final Map<String, List<String>> combinations = new TreeMap<String, List<String>>();
-
 		final List<String> projectsNotSeen = Lists.newArrayList();
 		projectsNotSeen.addAll(projects);
 		final long projectCount = projectsNotSeen.size();
-
 		for (int i = 0; i < projectCount; i++) {
 			final String currentProject = projectsNotSeen.get(0);
 			projectsNotSeen.remove(currentProject);
-
 			List<String> remainingProjects = Lists.newArrayList();
 			remainingProjects.addAll(projectsNotSeen);
 			combinations.put(currentProject, remainingProjects);
 		}
-
 		return combinations;
 	}
 
+	/**
+	 * Return the side of the square tiles, so that there are about
+	 * TILES_PER_THREAD tiles for each available processor.
+	 * 
+	 * @param nProjects
+	 * @return
+	 */
+	private int getTileSize(final int nProjects) {
+		final int nTiles = TILES_PER_THREAD
+				* Runtime.getRuntime().availableProcessors();
+		// The upper triangle of a k x k tile grid has about k^2 / 2 tiles
+		final int tilesPerSide = (int) Math.ceil(Math.sqrt(2. * nTiles));
+		return Math.max(1, (int) Math.ceil(((double) nProjects) / tilesPerSide));
+	}
+
+	/**
+	 * Remove the projects whose commits failed to load, so that they are not
+	 * compared at all.
+	 */
+	private void skipFailedProjects() {
+		final List<String> loadedProjects = Lists.newArrayList();
+		final List<CommitIdSet> loadedCommits = Lists.newArrayList();
+		for (int i = 0; i < projects.size(); i++) {
+			if (projectCommits.get(i) != null) {
+				loadedProjects.add(projects.get(i));
+				loadedCommits.add(projectCommits.get(i));
+			}
+		}
+		projects = loadedProjects;
+		projectCommits = new AtomicReferenceArray<CommitIdSet>(
+				loadedCommits.toArray(new CommitIdSet[loadedCommits.size()]));
+	}
+
 }
@@ -4,17 +4,14 @@
 package committools.deduplication;
 
 import java.io.File;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-
-import org.eclipse.jgit.lib.ObjectId;
+import java.util.Map.Entry;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import committools.data.GitCommitUtils;
+import committools.data.RepositoryThreadPool;
 
 /**
  * Deduplciate a folder of git repositories.
@@ -25,32 +22,27 @@ import committools.data.GitCommitUtils;
 public class RepositoryDeduplicator {
 
 	/**
-	 * Find duplicate projects and print them out. Since we need to compare all
-	 * vs. all we need O(n^2) comparisons...
+	 * Find duplicate projects and print them out. Only the pairs of projects
+	 * that share at least one commit are compared, using an
+	 * {@link InvertedIndexDeduplicator}.
 	 * 
 	 * @param project_commits
 	 * @param threshold
 	 */
 	public static void findDuplicates(
-			Map<String, Set<ObjectId>> projectCommits, int threshold) {
-		Set<String> projects = Sets.newTreeSet();
-		projects.addAll(projectCommits.keySet());
+			Map<String, CommitIdSet> projectCommits, int threshold) {
+		final InvertedIndexDeduplicator deduplicator = new InvertedIndexDeduplicator(
+				threshold);
+		for (final Entry<String, CommitIdSet> project : projectCommits
+				.entrySet()) {
+			deduplicator.addRepository(project.getKey(), project.getValue());
+		}
 
-		for (final String project1 : projectCommits.keySet()) {
-			// Remove since we don't want to see it again
-			projects.remove(project1);
-			for (final String project2 : projects) {
-				if (project1.equals(project2))
-					continue;
-				Set<ObjectId> project1Commits = projectCommits.get(project1);
-				Set<ObjectId> project2Commits = projectCommits.get(project2);
-				Set<ObjectId> commonCommits = Sets.newTreeSet();
-				commonCommits.addAll(project1Commits);
-				commonCommits.retainAll(project2Commits);
-				if (commonCommits.size() > threshold) {
-					System.out.println("Duplicate " + project1 + " with "
-							+ project2);
-				}
+		for (final Entry<String, List<String>> duplicates : deduplicator
+				.findDuplicates().entrySet()) {
+			for (final String project2 : duplicates.getValue()) {
+				System.out.println("Duplicate " + duplicates.getKey()
+						+ " with " + project2);
 			}
 		}
 	}
@@ -89,20 +81,29 @@ public class RepositoryDeduplicator {
 	 * @throws Exception
 	 *             when the directory is not found.
 	 */
-	public static Map<String, Set<ObjectId>> getCommitsForAllProjects(
+	public static Map<String, CommitIdSet> getCommitsForAllProjects(
 			String directory) throws Exception {
-		Map<String, Set<ObjectId>> commitsDB = Maps.newTreeMap();
+		final Map<String, CommitIdSet> commitsDB = Maps.newTreeMap();
 		List<String> repositories = getAllFoldersIn(directory);
+		final RepositoryThreadPool pool = new RepositoryThreadPool();
 		for (final String repository : repositories) {
-			try {
-				List<ObjectId> commitSet = GitCommitUtils
-						.getCommits(repository);
-				commitsDB.put(repository, new HashSet<ObjectId>(commitSet));
-			} catch (Exception e) {
-				System.err.println("Failed to get commits at " + repository
-						+ ". Error: " + e.getMessage());
-			}
+			pool.pushTask(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						final CommitIdSet commitSet = CommitIdSet
+								.of(GitCommitUtils.getCommits(repository));
+						synchronized (commitsDB) {
+							commitsDB.put(repository, commitSet);
+						}
+					} catch (Exception e) {
+						System.err.println("Failed to get commits at "
+								+ repository + ". Error: " + e.getMessage());
+					}
+				}
+			});
 		}
+		pool.waitForTermination();
 		return commitsDB;
 	}
 
@@ -128,7 +129,7 @@ public class RepositoryDeduplicator {
 		System.out.println("Searching for duplicates in folder "
 				+ pathToProject + " having at least " + threshold
 				+ " common commits.");
-		Map<String, Set<ObjectId>> cmts = getCommitsForAllProjects(pathToProject);
+		Map<String, CommitIdSet> cmts = getCommitsForAllProjects(pathToProject);
 		findDuplicates(cmts, threshold);
 	}
 }
\ No newline at end of file
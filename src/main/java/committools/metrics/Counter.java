@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count. Increments are ignored when metrics are
+ * disabled.
+ */
+public final class Counter implements CounterMXBean {
+
+	private final LongAdder count = new LongAdder();
+
+	Counter() {
+	}
+
+	public void add(final long n) {
+		if (Metrics.ENABLED) {
+			count.add(n);
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	public void increment() {
+		if (Metrics.ENABLED) {
+			count.increment();
+		}
+	}
+}
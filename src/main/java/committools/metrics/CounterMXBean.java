@@ -0,0 +1,12 @@
+/**
+ *
+ */
+package committools.metrics;
+
+/**
+ * The JMX view of a {@link Counter}.
+ */
+public interface CounterMXBean {
+
+	long getCount();
+}
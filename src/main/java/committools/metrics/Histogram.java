@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The distribution of a non-negative quantity. Values are counted in
+ * power-of-two buckets, so percentiles are approximate (within a factor of
+ * two) but recording is cheap and lock-free. Values are ignored when metrics
+ * are disabled.
+ */
+public final class Histogram implements HistogramMXBean {
+
+	/**
+	 * The number of values in [2^(i-1), 2^i) for i > 0, or of zero values
+	 * for i = 0.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(65);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram() {
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getMax() {
+		return max.get();
+	}
+
+	@Override
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? 0 : ((double) getSum()) / n;
+	}
+
+	@Override
+	public long getMedian() {
+		return getPercentile(.5);
+	}
+
+	/**
+	 * Return an upper bound of the given percentile, i.e. a value at most
+	 * twice the true percentile.
+	 */
+	public long getPercentile(final double percentile) {
+		final long n = getCount();
+		if (n == 0) {
+			return 0;
+		}
+		final long rank = (long) Math.ceil(percentile * n);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				final long upperBound = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE
+						: (1L << i) - 1;
+				return Math.min(upperBound, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public long getPercentile99() {
+		return getPercentile(.99);
+	}
+
+	@Override
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public void record(final long value) {
+		if (Metrics.ENABLED) {
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0,
+					value)));
+			count.increment();
+			sum.add(value);
+			long currentMax;
+			while ((currentMax = max.get()) < value
+					&& !max.compareAndSet(currentMax, value)) {
+				// Retry
+			}
+		}
+	}
+}
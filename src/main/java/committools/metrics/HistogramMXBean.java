@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package committools.metrics;
+
+/**
+ * The JMX view of a {@link Histogram}.
+ */
+public interface HistogramMXBean {
+
+	long getCount();
+
+	long getMax();
+
+	double getMean();
+
+	long getMedian();
+
+	long getPercentile99();
+
+	long getSum();
+}
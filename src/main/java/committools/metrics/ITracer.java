@@ -0,0 +1,84 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Trace the individual operations of the tools (e.g. as Java Flight Recorder
+ * events), along with the inputs they ran on. Each begin method returns a
+ * span (or null if the operation is not traced) that is passed to the
+ * respective end method.
+ */
+public interface ITracer {
+
+	Object beginCheckout();
+
+	Object beginCommitVisit();
+
+	Object beginComparison();
+
+	Object beginDiffEntry();
+
+	Object beginIndexComparison();
+
+	void endCheckout(final Object span, final Repository repository,
+			final AnyObjectId commit);
+
+	void endCommitVisit(final Object span, final Repository repository,
+			final AnyObjectId commit);
+
+	/**
+	 * @param repository
+	 * @param otherRepository
+	 * @param nCommits
+	 *            the number of commits of the repository
+	 * @param nOtherCommits
+	 *            the number of commits of the other repository
+	 * @param duplicate
+	 *            whether the repositories were found to be duplicates
+	 */
+	void endComparison(final Object span, final String repository,
+			final String otherRepository, final int nCommits,
+			final int nOtherCommits, final boolean duplicate);
+
+	/**
+	 * @param commit
+	 *            the new commit of the diff
+	 * @param oldSize
+	 *            the size of the old blob in bytes
+	 * @param newSize
+	 *            the size of the new blob in bytes
+	 * @param nEdits
+	 *            the number of edits of the entry
+	 * @param diffNanos
+	 *            the time spent in the diff algorithm
+	 */
+	void endDiffEntry(final Object span, final Repository repository,
+			final AnyObjectId commit, final DiffEntry entry,
+			final long oldSize, final long newSize, final int nEdits,
+			final long diffNanos);
+
+	/**
+	 * End the comparison of all the repositories of an inverted index of
+	 * their commits, as a whole.
+	 *
+	 * @param deduplicator
+	 *            the name of the deduplicator
+	 * @param nRepositories
+	 *            the number of repositories in the index
+	 * @param nSharedCommitGroups
+	 *            the number of groups of commits shared by the same
+	 *            repositories
+	 * @param nSharingPairs
+	 *            the number of pairs of repositories that share commits
+	 * @param nDuplicatePairs
+	 *            the number of pairs found to be duplicates
+	 */
+	void endIndexComparison(final Object span, final String deduplicator,
+			final int nRepositories, final int nSharedCommitGroups,
+			final int nSharingPairs, final int nDuplicatePairs);
+}
@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The registry of the metrics of the tools.
+ *
+ * Metrics are disabled unless the system property committools.metrics is
+ * true, in which case recording is a few atomic operations and disabled
+ * metrics cost a (constant-folded) branch. When enabled, each metric is
+ * registered as an MXBean named committools:type=&lt;type&gt;,name=&lt;name&gt;
+ * and all metrics are logged as a single line of key=value pairs every
+ * committools.metrics.logInterval seconds (60 by default, 0 to disable) and
+ * when the JVM exits.
+ *
+ * Metrics are usually held in static final fields of the class they measure,
+ * e.g.
+ *
+ * <pre>
+ * private static final Timer CHECKOUT_TIME = Metrics.timer(&quot;fileWalker.checkout&quot;);
+ * </pre>
+ */
+public final class Metrics {
+
+	public static final boolean ENABLED = Boolean
+			.getBoolean("committools.metrics");
+
+	private static final long LOG_INTERVAL = Long.getLong(
+			"committools.metrics.logInterval", 60);
+
+	private static final Logger LOGGER = Logger.getLogger(Metrics.class
+			.getName());
+
+	private static final SortedMap<String, Object> METRICS = Maps.newTreeMap();
+
+	private static ScheduledExecutorService reporter = null;
+
+	public static Counter counter(final String name) {
+		return register(name, Counter.class, new Counter());
+	}
+
+	/**
+	 * Return the current value of all the metrics as a single line of
+	 * key=value pairs. Times are in milliseconds.
+	 */
+	public static synchronized String getSnapshot() {
+		final StringBuilder sb = new StringBuilder("metrics");
+		for (final Map.Entry<String, Object> entry : METRICS.entrySet()) {
+			final String name = entry.getKey();
+			final Object metric = entry.getValue();
+			if (metric instanceof Counter) {
+				sb.append(' ').append(name).append('=')
+						.append(((Counter) metric).getCount());
+			} else if (metric instanceof Timer) {
+				final Timer timer = (Timer) metric;
+				sb.append(String.format(Locale.ROOT,
+						" %s.count=%d %s.totalMs=%.1f %s.meanMs=%.3f"
+								+ " %s.p99Ms=%.3f %s.maxMs=%.3f", name,
+						timer.getCount(), name, timer.getTotalMillis(), name,
+						timer.getMeanMillis(), name,
+						timer.getPercentile99Millis(), name,
+						timer.getMaxMillis()));
+			} else if (metric instanceof Histogram) {
+				final Histogram histogram = (Histogram) metric;
+				sb.append(String.format(Locale.ROOT,
+						" %s.count=%d %s.sum=%d %s.mean=%.1f %s.p99=%d"
+								+ " %s.max=%d", name, histogram.getCount(),
+						name, histogram.getSum(), name, histogram.getMean(),
+						name, histogram.getPercentile99(), name,
+						histogram.getMax()));
+			}
+		}
+		return sb.toString();
+	}
+
+	public static Histogram histogram(final String name) {
+		return register(name, Histogram.class, new Histogram());
+	}
+
+	/**
+	 * Return the metric with the given name, registering the given one if
+	 * there is none.
+	 */
+	private static synchronized <T> T register(final String name,
+			final Class<T> type, final T metric) {
+		final Object existing = METRICS.get(name);
+		if (existing != null) {
+			if (!type.isInstance(existing)) {
+				throw new IllegalArgumentException(name + " is not a "
+						+ type.getSimpleName());
+			}
+			return type.cast(existing);
+		}
+		METRICS.put(name, metric);
+		if (ENABLED) {
+			registerMBean(name, type, metric);
+			startReporter();
+		}
+		return metric;
+	}
+
+	private static void registerMBean(final String name, final Class<?> type,
+			final Object metric) {
+		try {
+			final MBeanServer server = ManagementFactory
+					.getPlatformMBeanServer();
+			server.registerMBean(metric, new ObjectName("committools:type="
+					+ type.getSimpleName() + ",name=" + ObjectName.quote(name)));
+		} catch (final Exception e) {
+			LOGGER.warning("Failed to register " + name + " because "
+					+ ExceptionUtils.getFullStackTrace(e));
+		}
+	}
+
+	private static void startReporter() {
+		if (reporter != null) {
+			return;
+		}
+		reporter = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						final Thread thread = new Thread(runnable,
+								"metrics-reporter");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final Runnable report = new Runnable() {
+			@Override
+			public void run() {
+				LOGGER.info(getSnapshot());
+			}
+		};
+		if (LOG_INTERVAL > 0) {
+			reporter.scheduleAtFixedRate(report, LOG_INTERVAL, LOG_INTERVAL,
+					TimeUnit.SECONDS);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(report));
+	}
+
+	public static Timer timer(final String name) {
+		return register(name, Timer.class, new Timer());
+	}
+
+	private Metrics() {
+		// Cannot be constructed.
+	}
+}
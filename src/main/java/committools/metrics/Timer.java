@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package committools.metrics;
+
+/**
+ * The distribution of the duration of an operation. Typical use:
+ *
+ * <pre>
+ * final long start = TIMER.start();
+ * try {
+ * 	...
+ * } finally {
+ * 	TIMER.stop(start);
+ * }
+ * </pre>
+ *
+ * When metrics are disabled, the clock is not read.
+ */
+public final class Timer implements TimerMXBean {
+
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private final Histogram nanos = new Histogram();
+
+	Timer() {
+	}
+
+	@Override
+	public long getCount() {
+		return nanos.getCount();
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return nanos.getMax() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getMeanMillis() {
+		return nanos.getMean() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getMedianMillis() {
+		return nanos.getMedian() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getPercentile99Millis() {
+		return nanos.getPercentile99() / NANOS_PER_MILLI;
+	}
+
+	@Override
+	public double getTotalMillis() {
+		return nanos.getSum() / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Return the start time of an operation, to be passed to
+	 * {@link #stop(long)}.
+	 */
+	public long start() {
+		return Metrics.ENABLED ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the duration of an operation that started at the given time.
+	 */
+	public void stop(final long start) {
+		if (Metrics.ENABLED) {
+			nanos.record(System.nanoTime() - start);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+/**
+ *
+ */
+package committools.metrics;
+
+/**
+ * The JMX view of a {@link Timer}. Times are in milliseconds.
+ */
+public interface TimerMXBean {
+
+	long getCount();
+
+	double getMaxMillis();
+
+	double getMeanMillis();
+
+	double getMedianMillis();
+
+	double getPercentile99Millis();
+
+	double getTotalMillis();
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import java.util.logging.Logger;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Holds the tracer of the tools. When the Java Flight Recorder events (built
+ * from src/jfr/java with the jfr profile) are on the classpath and the JVM
+ * supports them, operations are traced as JFR events. Otherwise, or if the
+ * system property committools.jfr is false, nothing is traced and tracing
+ * costs a call to an empty method.
+ */
+public final class Tracing {
+
+	/**
+	 * A tracer that traces nothing.
+	 */
+	public static final ITracer NO_OP = new ITracer() {
+
+		@Override
+		public Object beginCheckout() {
+			return null;
+		}
+
+		@Override
+		public Object beginCommitVisit() {
+			return null;
+		}
+
+		@Override
+		public Object beginComparison() {
+			return null;
+		}
+
+		@Override
+		public Object beginDiffEntry() {
+			return null;
+		}
+
+		@Override
+		public Object beginIndexComparison() {
+			return null;
+		}
+
+		@Override
+		public void endCheckout(final Object span, final Repository repository,
+				final AnyObjectId commit) {
+		}
+
+		@Override
+		public void endCommitVisit(final Object span,
+				final Repository repository, final AnyObjectId commit) {
+		}
+
+		@Override
+		public void endComparison(final Object span, final String repository,
+				final String otherRepository, final int nCommits,
+				final int nOtherCommits, final boolean duplicate) {
+		}
+
+		@Override
+		public void endDiffEntry(final Object span,
+				final Repository repository, final AnyObjectId commit,
+				final DiffEntry entry, final long oldSize, final long newSize,
+				final int nEdits, final long diffNanos) {
+		}
+
+		@Override
+		public void endIndexComparison(final Object span,
+				final String deduplicator, final int nRepositories,
+				final int nSharedCommitGroups, final int nSharingPairs,
+				final int nDuplicatePairs) {
+		}
+	};
+
+	private static final String JFR_TRACER = "committools.metrics.jfr.JfrTracer";
+
+	private static final Logger LOGGER = Logger.getLogger(Tracing.class
+			.getName());
+
+	public static final ITracer TRACER = loadTracer();
+
+	private static ITracer loadTracer() {
+		if (!Boolean.parseBoolean(System.getProperty("committools.jfr", "true"))) {
+			return NO_OP;
+		}
+		try {
+			return (ITracer) Class.forName(JFR_TRACER)
+					.getDeclaredConstructor().newInstance();
+		} catch (final ClassNotFoundException e) {
+			// Not built with the jfr profile
+		} catch (final LinkageError e) {
+			LOGGER.info("JFR events are not supported by this JVM: " + e);
+		} catch (final Exception e) {
+			LOGGER.warning("Failed to create the JFR tracer: " + e);
+		}
+		return NO_OP;
+	}
+
+	private Tracing() {
+		// Cannot be constructed.
+	}
+}
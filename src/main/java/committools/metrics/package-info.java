@@ -0,0 +1,5 @@
+/**
+ * Counters, timers and histograms of the hot paths of the tools, exposed over
+ * JMX and as periodic log lines.
+ */
+package committools.metrics;
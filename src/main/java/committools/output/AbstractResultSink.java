@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package committools.output;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+
+import committools.output.ResultSchema.ColumnType;
+
+/**
+ * Checks that the values are written in the order and with the types of the
+ * columns of the schema.
+ */
+abstract class AbstractResultSink implements IResultSink {
+
+	protected final ResultSchema schema;
+
+	/**
+	 * The column of the next value of the current row.
+	 */
+	private int column = 0;
+
+	protected AbstractResultSink(final ResultSchema schema) {
+		this.schema = checkNotNull(schema);
+	}
+
+	@Override
+	public final void endRow() throws IOException {
+		checkState(column == schema.getNumColumns(),
+				"Row ended after %s of %s columns", column,
+				schema.getNumColumns());
+		column = 0;
+		rowEnded();
+	}
+
+	@Override
+	public final ResultSchema getSchema() {
+		return schema;
+	}
+
+	/**
+	 * Check that the next value is of the given type and return its column.
+	 */
+	private int nextColumn(final ColumnType type) {
+		checkState(column < schema.getNumColumns(),
+				"More values than columns in row");
+		checkState(schema.getType(column) == type,
+				"Column %s is of type %s, not %s", schema.getName(column),
+				schema.getType(column), type);
+		return column++;
+	}
+
+	/**
+	 * Called when all the values of a row are written.
+	 */
+	protected abstract void rowEnded() throws IOException;
+
+	@Override
+	public final void writeDouble(final double value) throws IOException {
+		writeDouble(nextColumn(ColumnType.DOUBLE), value);
+	}
+
+	protected abstract void writeDouble(final int column, final double value)
+			throws IOException;
+
+	@Override
+	public final void writeLong(final long value) throws IOException {
+		writeLong(nextColumn(ColumnType.LONG), value);
+	}
+
+	protected abstract void writeLong(final int column, final long value)
+			throws IOException;
+
+	@Override
+	public final void writeString(final String value) throws IOException {
+		checkNotNull(value);
+		writeString(nextColumn(ColumnType.STRING), value);
+	}
+
+	protected abstract void writeString(final int column, final String value)
+			throws IOException;
+}
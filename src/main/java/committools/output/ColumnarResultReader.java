@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package committools.output;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+import committools.output.ResultSchema.ColumnType;
+
+/**
+ * Read results written by {@link ColumnarResultSink}, one block of rows at a
+ * time.
+ */
+public class ColumnarResultReader implements Closeable {
+
+	/**
+	 * Print a columnar results file as CSV.
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage <columnarFile>");
+			System.exit(-1);
+		}
+		final ColumnarResultReader reader = new ColumnarResultReader(new File(
+				args[0]));
+		try {
+			final IResultSink sink = ResultSinks.openStandardOutput(reader
+					.getSchema());
+			try {
+				reader.copyTo(sink);
+			} finally {
+				sink.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static long readVarLong(final ByteBuffer buffer) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private final DataInputStream in;
+
+	private final ResultSchema schema;
+
+	private final long[][] longs;
+
+	private final double[][] doubles;
+
+	private final String[][] strings;
+
+	private int nRows = 0;
+
+	private boolean ended = false;
+
+	public ColumnarResultReader(final File file) throws IOException {
+		this(new FileInputStream(file));
+	}
+
+	public ColumnarResultReader(final InputStream input) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+		checkArgument(in.readInt() == ColumnarResultSink.MAGIC,
+				"Not a columnar results file");
+		final int version = in.readInt();
+		checkArgument(version == ColumnarResultSink.VERSION,
+				"Unsupported version %s", version);
+		schema = ResultSchema.create();
+		final int nColumns = in.readInt();
+		for (int i = 0; i < nColumns; i++) {
+			final String name = in.readUTF();
+			final ColumnType type = ColumnType.values()[in.readByte()];
+			final String format = in.readUTF();
+			if (type == ColumnType.STRING) {
+				schema.addString(name);
+			} else if (type == ColumnType.LONG) {
+				schema.addLong(name);
+			} else {
+				schema.addDouble(name, format.isEmpty() ? null : format);
+			}
+		}
+		longs = new long[nColumns][];
+		doubles = new double[nColumns][];
+		strings = new String[nColumns][];
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Write all the remaining rows to the sink.
+	 */
+	public void copyTo(final IResultSink sink) throws IOException {
+		while (nextBlock()) {
+			for (int row = 0; row < nRows; row++) {
+				for (int column = 0; column < schema.getNumColumns(); column++) {
+					switch (schema.getType(column)) {
+					case STRING:
+						sink.writeString(strings[column][row]);
+						break;
+					case LONG:
+						sink.writeLong(longs[column][row]);
+						break;
+					case DOUBLE:
+						sink.writeDouble(doubles[column][row]);
+						break;
+					}
+				}
+				sink.endRow();
+			}
+		}
+	}
+
+	private void decodeDoubles(final int column, final ByteBuffer values) {
+		if (doubles[column] == null || doubles[column].length < nRows) {
+			doubles[column] = new double[nRows];
+		}
+		for (int row = 0; row < nRows; row++) {
+			doubles[column][row] = Double.longBitsToDouble(values.getLong());
+		}
+	}
+
+	private void decodeLongs(final int column, final ByteBuffer values) {
+		if (longs[column] == null || longs[column].length < nRows) {
+			longs[column] = new long[nRows];
+		}
+		long previous = 0;
+		for (int row = 0; row < nRows; row++) {
+			final long zigzag = readVarLong(values);
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			longs[column][row] = previous;
+		}
+	}
+
+	private void decodeStrings(final int column, final ByteBuffer values) {
+		if (strings[column] == null || strings[column].length < nRows) {
+			strings[column] = new String[nRows];
+		}
+		final List<String> dictionary = Lists.newArrayList();
+		for (int row = 0; row < nRows; row++) {
+			final int index = (int) readVarLong(values);
+			if (index > 0) {
+				strings[column][row] = dictionary.get(index - 1);
+				continue;
+			}
+			final int length = (int) readVarLong(values);
+			final String value = new String(values.array(), values.position(),
+					length, StandardCharsets.UTF_8);
+			values.position(values.position() + length);
+			dictionary.add(value);
+			strings[column][row] = value;
+		}
+	}
+
+	public double getDouble(final int column, final int row) {
+		checkArgument(row < nRows);
+		return doubles[column][row];
+	}
+
+	public long getLong(final int column, final int row) {
+		checkArgument(row < nRows);
+		return longs[column][row];
+	}
+
+	/**
+	 * Return the number of rows in the current block.
+	 */
+	public int getNumRows() {
+		return nRows;
+	}
+
+	public ResultSchema getSchema() {
+		return schema;
+	}
+
+	public String getString(final int column, final int row) {
+		checkArgument(row < nRows);
+		return strings[column][row];
+	}
+
+	/**
+	 * Read the next block of rows.
+	 *
+	 * @return false if there are no more rows
+	 */
+	public boolean nextBlock() throws IOException {
+		if (ended) {
+			return false;
+		}
+		nRows = in.readInt();
+		if (nRows == 0) {
+			ended = true;
+			return false;
+		}
+		for (int column = 0; column < schema.getNumColumns(); column++) {
+			final byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			final ByteBuffer values = ByteBuffer.wrap(bytes);
+			switch (schema.getType(column)) {
+			case STRING:
+				decodeStrings(column, values);
+				break;
+			case LONG:
+				decodeLongs(column, values);
+				break;
+			case DOUBLE:
+				decodeDoubles(column, values);
+				break;
+			}
+		}
+		return true;
+	}
+}
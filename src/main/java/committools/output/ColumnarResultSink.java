@@ -0,0 +1,220 @@
+/**
+ *
+ */
+package committools.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Write results in a compact, self-describing binary columnar format, that
+ * can be read back with {@link ColumnarResultReader}.
+ *
+ * The file starts with the magic number, the format version and the schema
+ * (number of columns and, for each column, its name, type and text format).
+ * The rows follow in blocks of up to {@link #ROWS_PER_BLOCK} rows. Each
+ * block starts with its number of rows, followed by the values of each
+ * column, prefixed by their length in bytes:
+ * <ul>
+ * <li>longs are written as the zigzag varint of their difference from the
+ * previous value of the column,</li>
+ * <li>doubles are written as their 8 bytes,</li>
+ * <li>strings are written as the varint of 1 + the index of the string in
+ * the block if it appeared before, otherwise as a 0 varint, followed by the
+ * varint length and UTF-8 bytes of the string.</li>
+ * </ul>
+ * The file ends with a block of zero rows. All fixed-size integers are big
+ * endian.
+ */
+public class ColumnarResultSink extends AbstractResultSink {
+
+	/**
+	 * A growable array of the encoded values of a column in a block.
+	 */
+	private static final class ColumnBuffer {
+		private byte[] data = new byte[1024];
+
+		private int size = 0;
+
+		private long previousLong = 0;
+
+		private final Map<String, Integer> strings = Maps.newHashMap();
+
+		private void ensureCapacity(final int extra) {
+			if (size + extra > data.length) {
+				data = Arrays.copyOf(data,
+						Math.max(2 * data.length, size + extra));
+			}
+		}
+
+		void put(final byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, data, size, bytes.length);
+			size += bytes.length;
+		}
+
+		void putLong(final long value) {
+			ensureCapacity(8);
+			for (int i = 56; i >= 0; i -= 8) {
+				data[size++] = (byte) (value >>> i);
+			}
+		}
+
+		void putVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				data[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[size++] = (byte) value;
+		}
+
+		void reset() {
+			size = 0;
+			previousLong = 0;
+			strings.clear();
+		}
+	}
+
+	public static final int MAGIC = 0x43544346;
+
+	public static final int VERSION = 1;
+
+	public static final int ROWS_PER_BLOCK = 1 << 16;
+
+	private final WritableByteChannel channel;
+
+	private final boolean closeChannel;
+
+	private final ColumnBuffer[] columns;
+
+	private int nRows = 0;
+
+	private boolean closed = false;
+
+	/**
+	 * @param schema
+	 * @param channel
+	 *            where the results are written
+	 * @param closeChannel
+	 *            whether to close the channel when the sink is closed
+	 */
+	public ColumnarResultSink(final ResultSchema schema,
+			final WritableByteChannel channel, final boolean closeChannel)
+			throws IOException {
+		super(schema);
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		columns = new ColumnBuffer[schema.getNumColumns()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new ColumnBuffer();
+		}
+
+		final ByteArrayOutputStream header = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(schema.getNumColumns());
+		for (int i = 0; i < schema.getNumColumns(); i++) {
+			out.writeUTF(schema.getName(i));
+			out.writeByte(schema.getType(i).ordinal());
+			final String format = schema.getFormat(i);
+			out.writeUTF(format == null ? "" : format);
+		}
+		out.flush();
+		write(ByteBuffer.wrap(header.toByteArray()));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			flush();
+			final ByteBuffer end = ByteBuffer.allocate(4);
+			end.putInt(0);
+			end.flip();
+			write(end);
+		} finally {
+			if (closeChannel) {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Write the rows so far as a block. Flushing often makes the file larger.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (nRows == 0) {
+			return;
+		}
+		int blockSize = 4;
+		for (final ColumnBuffer column : columns) {
+			blockSize += 4 + column.size;
+		}
+		final ByteBuffer block = ByteBuffer.allocate(blockSize);
+		block.putInt(nRows);
+		for (final ColumnBuffer column : columns) {
+			block.putInt(column.size);
+			block.put(column.data, 0, column.size);
+			column.reset();
+		}
+		block.flip();
+		write(block);
+		nRows = 0;
+	}
+
+	@Override
+	protected void rowEnded() throws IOException {
+		nRows++;
+		if (nRows == ROWS_PER_BLOCK) {
+			flush();
+		}
+	}
+
+	private void write(final ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	@Override
+	protected void writeDouble(final int column, final double value) {
+		columns[column].putLong(Double.doubleToRawLongBits(value));
+	}
+
+	@Override
+	protected void writeLong(final int column, final long value) {
+		final ColumnBuffer buffer = columns[column];
+		final long delta = value - buffer.previousLong;
+		buffer.putVarLong((delta << 1) ^ (delta >> 63));
+		buffer.previousLong = value;
+	}
+
+	@Override
+	protected void writeString(final int column, final String value) {
+		final ColumnBuffer buffer = columns[column];
+		final Integer index = buffer.strings.get(value);
+		if (index != null) {
+			buffer.putVarLong(index + 1);
+			return;
+		}
+		buffer.strings.put(value, buffer.strings.size());
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putVarLong(0);
+		buffer.putVarLong(bytes.length);
+		buffer.put(bytes);
+	}
+}
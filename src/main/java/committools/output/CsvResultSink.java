@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package committools.output;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write results as CSV through a large buffer. Strings are quoted only when
+ * they contain a comma, a quote or a line break, so that the output is the
+ * same as printing the values separated by commas. Longs are encoded
+ * directly to the buffer and doubles are formatted with the format of their
+ * column.
+ */
+public class CsvResultSink extends AbstractResultSink {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private static final int MAX_LONG_LENGTH = 20;
+
+	private final WritableByteChannel channel;
+
+	private final boolean closeChannel;
+
+	private final ByteBuffer buffer;
+
+	private final byte[] digits = new byte[MAX_LONG_LENGTH];
+
+	/**
+	 * @param schema
+	 * @param channel
+	 *            where the CSV is written
+	 * @param closeChannel
+	 *            whether to close the channel when the sink is closed
+	 */
+	public CsvResultSink(final ResultSchema schema,
+			final WritableByteChannel channel, final boolean closeChannel)
+			throws IOException {
+		this(schema, channel, closeChannel, DEFAULT_BUFFER_SIZE);
+	}
+
+	public CsvResultSink(final ResultSchema schema,
+			final WritableByteChannel channel, final boolean closeChannel,
+			final int bufferSize) throws IOException {
+		super(schema);
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		buffer = ByteBuffer.allocate(bufferSize);
+		if (schema.hasHeader()) {
+			for (int i = 0; i < schema.getNumColumns(); i++) {
+				if (i > 0) {
+					put((byte) ',');
+				}
+				putEscaped(schema.getName(i));
+			}
+			put((byte) '\n');
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (closeChannel) {
+				channel.close();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void put(final byte value) throws IOException {
+		if (!buffer.hasRemaining()) {
+			flush();
+		}
+		buffer.put(value);
+	}
+
+	private void put(final byte[] bytes, final int offset, final int length)
+			throws IOException {
+		int written = 0;
+		while (written < length) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			final int toWrite = Math.min(length - written, buffer.remaining());
+			buffer.put(bytes, offset + written, toWrite);
+			written += toWrite;
+		}
+	}
+
+	/**
+	 * Put a string, encoding ASCII characters directly to the buffer.
+	 */
+	private void putChars(final String value) throws IOException {
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) >= 0x80) {
+				final byte[] bytes = value.substring(i).getBytes(
+						StandardCharsets.UTF_8);
+				put(bytes, 0, bytes.length);
+				return;
+			}
+			put((byte) value.charAt(i));
+		}
+	}
+
+	private void putEscaped(final String value) throws IOException {
+		boolean needsQuotes = false;
+		for (int i = 0; i < value.length() && !needsQuotes; i++) {
+			final char c = value.charAt(i);
+			needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!needsQuotes) {
+			putChars(value);
+			return;
+		}
+		put((byte) '"');
+		putChars(value.replace("\"", "\"\""));
+		put((byte) '"');
+	}
+
+	@Override
+	protected void rowEnded() throws IOException {
+		put((byte) '\n');
+	}
+
+	private void separate(final int column) throws IOException {
+		if (column > 0) {
+			put((byte) ',');
+		}
+	}
+
+	@Override
+	protected void writeDouble(final int column, final double value)
+			throws IOException {
+		separate(column);
+		final String format = schema.getFormat(column);
+		putChars(format == null ? Double.toString(value) : String.format(
+				format, value));
+	}
+
+	@Override
+	protected void writeLong(final int column, final long value)
+			throws IOException {
+		separate(column);
+		if (value == Long.MIN_VALUE) {
+			putChars(Long.toString(value));
+			return;
+		}
+		long remaining = Math.abs(value);
+		int position = MAX_LONG_LENGTH;
+		do {
+			digits[--position] = (byte) ('0' + remaining % 10);
+			remaining /= 10;
+		} while (remaining > 0);
+		if (value < 0) {
+			digits[--position] = '-';
+		}
+		put(digits, position, MAX_LONG_LENGTH - position);
+	}
+
+	@Override
+	protected void writeString(final int column, final String value)
+			throws IOException {
+		separate(column);
+		putEscaped(value);
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ *
+ */
+package committools.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for rows of results. The values of each row are written in
+ * the order of the columns of the schema, followed by {@link #endRow()}.
+ */
+public interface IResultSink extends Closeable {
+
+	/**
+	 * End the current row. All the columns must have been written.
+	 */
+	void endRow() throws IOException;
+
+	/**
+	 * Write any buffered rows.
+	 */
+	void flush() throws IOException;
+
+	ResultSchema getSchema();
+
+	void writeDouble(final double value) throws IOException;
+
+	void writeLong(final long value) throws IOException;
+
+	void writeString(final String value) throws IOException;
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package committools.output;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * The names and types of the columns of a table of results, e.g.
+ *
+ * <pre>
+ * ResultSchema.create().addString(&quot;project&quot;).addLong(&quot;commits&quot;)
+ * 		.addDouble(&quot;ratio&quot;, &quot;%.4f&quot;);
+ * </pre>
+ */
+public final class ResultSchema {
+
+	public enum ColumnType {
+		STRING, LONG, DOUBLE
+	}
+
+	public static ResultSchema create() {
+		return new ResultSchema();
+	}
+
+	private final List<String> names = Lists.newArrayList();
+
+	private final List<ColumnType> types = Lists.newArrayList();
+
+	/**
+	 * The format of each column in text or null for the default.
+	 */
+	private final List<String> formats = Lists.newArrayList();
+
+	private boolean header = true;
+
+	private ResultSchema() {
+	}
+
+	private ResultSchema addColumn(final String name, final ColumnType type,
+			final String format) {
+		checkNotNull(name);
+		names.add(name);
+		types.add(type);
+		formats.add(format);
+		return this;
+	}
+
+	public ResultSchema addDouble(final String name) {
+		return addColumn(name, ColumnType.DOUBLE, null);
+	}
+
+	/**
+	 * Add a column of doubles, written in text with the given format (as in
+	 * {@link String#format(String, Object...)}).
+	 */
+	public ResultSchema addDouble(final String name, final String format) {
+		return addColumn(name, ColumnType.DOUBLE, format);
+	}
+
+	public ResultSchema addLong(final String name) {
+		return addColumn(name, ColumnType.LONG, null);
+	}
+
+	public ResultSchema addString(final String name) {
+		return addColumn(name, ColumnType.STRING, null);
+	}
+
+	/**
+	 * Return the text format of the column or null for the default.
+	 */
+	public String getFormat(final int column) {
+		return formats.get(column);
+	}
+
+	public String getName(final int column) {
+		return names.get(column);
+	}
+
+	public int getNumColumns() {
+		return names.size();
+	}
+
+	public ColumnType getType(final int column) {
+		return types.get(column);
+	}
+
+	/**
+	 * Return true if text output starts with a line of the column names.
+	 */
+	public boolean hasHeader() {
+		return header;
+	}
+
+	/**
+	 * Do not start text output with a line of the column names.
+	 */
+	public ResultSchema withoutHeader() {
+		header = false;
+		return this;
+	}
+}
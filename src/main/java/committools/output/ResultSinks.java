@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package committools.output;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+/**
+ * Open the sink where the tools write their results. By default, results are
+ * written as CSV to the standard output. If the system property
+ * committools.output is set to a file name, results are written to that
+ * file: as CSV if its name ends with .csv, otherwise in the binary columnar
+ * format of {@link ColumnarResultSink}.
+ */
+public final class ResultSinks {
+
+	public static final String OUTPUT_PROPERTY = "committools.output";
+
+	/**
+	 * Return true if the committools.output system property names a file.
+	 * Tools that print free-form text to the standard output only write
+	 * tables of results when it does.
+	 */
+	public static boolean isOutputFileSet() {
+		final String output = System.getProperty(OUTPUT_PROPERTY);
+		return output != null && !output.isEmpty() && !output.equals("-");
+	}
+
+	/**
+	 * Open the sink given by the committools.output system property.
+	 */
+	public static IResultSink open(final ResultSchema schema)
+			throws IOException {
+		if (!isOutputFileSet()) {
+			return openStandardOutput(schema);
+		}
+		return open(new File(System.getProperty(OUTPUT_PROPERTY)), schema);
+	}
+
+	/**
+	 * Open a sink that writes to the given file, as CSV if the file name ends
+	 * with .csv, otherwise in the columnar format.
+	 */
+	public static IResultSink open(final File file, final ResultSchema schema)
+			throws IOException {
+		final FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			if (file.getName().endsWith(".csv")) {
+				return new CsvResultSink(schema, channel, true);
+			}
+			return new ColumnarResultSink(schema, channel, true);
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Open a sink that writes CSV to the standard output. Closing the sink
+	 * does not close the standard output.
+	 */
+	public static IResultSink openStandardOutput(final ResultSchema schema)
+			throws IOException {
+		System.out.flush();
+		return new CsvResultSink(schema, Channels.newChannel(System.out),
+				false);
+	}
+
+	private ResultSinks() {
+		// Cannot be constructed.
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package committools.output;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * A sink that keeps the rows in memory, so that they can be written to
+ * another sink later (e.g. to write the results of parallel tasks in a fixed
+ * order).
+ */
+public class RowBuffer extends AbstractResultSink {
+
+	private final List<Object> values = Lists.newArrayList();
+
+	public RowBuffer(final ResultSchema schema) {
+		super(schema);
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	protected void rowEnded() {
+	}
+
+	@Override
+	protected void writeDouble(final int column, final double value) {
+		values.add(value);
+	}
+
+	@Override
+	protected void writeLong(final int column, final long value) {
+		values.add(value);
+	}
+
+	@Override
+	protected void writeString(final int column, final String value) {
+		values.add(value);
+	}
+
+	/**
+	 * Write the buffered complete rows to the sink and clear the buffer.
+	 */
+	public void writeTo(final IResultSink sink) throws IOException {
+		final int nColumns = schema.getNumColumns();
+		final int nValues = values.size() - values.size() % nColumns;
+		for (int i = 0; i < nValues; i++) {
+			final Object value = values.get(i);
+			switch (schema.getType(i % nColumns)) {
+			case STRING:
+				sink.writeString((String) value);
+				break;
+			case LONG:
+				sink.writeLong((Long) value);
+				break;
+			case DOUBLE:
+				sink.writeDouble((Double) value);
+				break;
+			}
+			if (i % nColumns == nColumns - 1) {
+				sink.endRow();
+			}
+		}
+		values.subList(0, nValues).clear();
+	}
+}
@@ -0,0 +1,5 @@
+/**
+ * Write the tabular results of the tools as CSV or in a compact binary
+ * columnar format.
+ */
+package committools.output;
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+/**
+ * Check the sweep of {@link ActiveCommiterTimeSeries} against counting, for
+ * each window, the activity periods that are connected to it.
+ */
+public class ActiveCommiterTimeSeriesTest {
+
+	/**
+	 * Count the active commiters of each window, as ActiveCommiterData did
+	 * before the sweep.
+	 */
+	private static int[] countConnected(final int[] starts, final int[] ends,
+			final int startTime, final int endTime, final int windowSize,
+			final int gracePeriod) {
+		final int nWindows = (int) Math.ceil(((double) endTime - startTime)
+				/ windowSize);
+		final int[] numActive = new int[nWindows];
+		for (int i = 0; i < nWindows; i++) {
+			final Range<Long> window = Range.closedOpen(((long) startTime)
+					+ ((long) i) * windowSize, ((long) startTime) + (i + 1L)
+					* windowSize);
+			for (int j = 0; j < starts.length; j++) {
+				final Range<Long> activity = Range.closed((long) starts[j],
+						ends[j] > ((long) endTime) - gracePeriod ? Long.MAX_VALUE
+								: ends[j]);
+				if (activity.isConnected(window)) {
+					numActive[i]++;
+				}
+			}
+		}
+		return numActive;
+	}
+
+	@Test
+	public void testSameAsConnectedPeriods() {
+		final Random random = new Random(9);
+		for (int round = 0; round < 100; round++) {
+			final int startTime = random.nextInt(1000);
+			final int endTime = startTime + random.nextInt(5000);
+			final int[] starts = new int[random.nextInt(50)];
+			final int[] ends = new int[starts.length];
+			for (int i = 0; i < starts.length; i++) {
+				starts[i] = startTime
+						+ random.nextInt(endTime - startTime + 1);
+				ends[i] = starts[i] + random.nextInt(endTime - starts[i] + 1);
+			}
+			final int windowSize = 1 + random.nextInt(1000);
+			final int gracePeriod = random.nextInt(2000);
+			final ActiveCommiterTimeSeries series = new ActiveCommiterTimeSeries(
+					starts, ends, startTime, endTime);
+			assertEquals(starts.length, series.getNumCommiters());
+			assertArrayEquals(
+					countConnected(starts, ends, startTime, endTime,
+							windowSize, gracePeriod),
+					series.getNumActiveCommiters(windowSize, gracePeriod));
+		}
+	}
+
+	@Test
+	public void testWindowBoundaries() {
+		// Active in [0, 10], [10, 10], [20, 29] and [25, 40]. A period that
+		// ends (starts) at the start (end) of a window is active in it.
+		final ActiveCommiterTimeSeries series = new ActiveCommiterTimeSeries(
+				new int[] { 0, 10, 20, 25 }, new int[] { 10, 10, 29, 40 }, 0,
+				40);
+		assertArrayEquals(new int[] { 2, 3, 2, 1 },
+				series.getNumActiveCommiters(10, 0));
+		// All the last commits are within the grace period
+		assertArrayEquals(new int[] { 2, 3, 4, 4 },
+				series.getNumActiveCommiters(10, 31));
+		assertArrayEquals(new int[] { 4 }, series.getNumActiveCommiters(40, 0));
+	}
+
+	@Test
+	public void testTimesNearTheIntegerLimit() {
+		final int endTime = Integer.MAX_VALUE - 5;
+		final int startTime = endTime - 100;
+		final int[] starts = { startTime, startTime + 50, endTime };
+		final int[] ends = { startTime + 10, endTime - 1, endTime };
+		final ActiveCommiterTimeSeries series = new ActiveCommiterTimeSeries(
+				starts, ends, startTime, endTime);
+		assertArrayEquals(
+				countConnected(starts, ends, startTime, endTime, 30, 20),
+				series.getNumActiveCommiters(30, 20));
+		assertArrayEquals(
+				countConnected(starts, ends, startTime, endTime, 1000,
+						Integer.MAX_VALUE),
+				series.getNumActiveCommiters(1000, Integer.MAX_VALUE));
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+/**
+ * Check the counts of {@link CommitMessageIndex} against matching the
+ * messages of all the commits, after indexing from scratch and after
+ * incremental updates.
+ */
+public class CommitMessageIndexTest {
+
+	private static final String[] WORDS = { "fix", "Bug", "add", "test",
+			"refactor", "NPE", "typo", "docs" };
+
+	private static final List<String> KEYWORDS = Arrays.asList("fix", "bug",
+			"fix bug", "npe", "docs", "missing");
+
+	/**
+	 * Commit messages of random words to the given repository.
+	 */
+	private static void commitMessages(final FixtureRepository repository,
+			final Random random, final int nCommits, final int time)
+			throws IOException {
+		for (int i = 0; i < nCommits; i++) {
+			final StringBuilder message = new StringBuilder();
+			final int nWords = 1 + random.nextInt(4);
+			for (int j = 0; j < nWords; j++) {
+				message.append(WORDS[random.nextInt(WORDS.length)]).append(
+						j % 2 == 0 ? " " : ", ");
+			}
+			repository.setFile("Main.java", "int x = " + i + ";\n");
+			repository.commit(message.append('\n').toString(), "Author",
+					"author@example.org", time + 3600 * i);
+		}
+	}
+
+	/**
+	 * Count the commits of each repository in the directory whose message
+	 * contains the words of each keyword, by reading all the commits.
+	 */
+	private static SortedMap<String, int[]> countAll(final File directory,
+			final int fromTime, final int toTime) throws IOException {
+		final SortedMap<String, int[]> counts = Maps.newTreeMap();
+		for (final File project : directory.listFiles()) {
+			final Git git = GitCommitUtils.getGitRepository(project
+					.getAbsolutePath());
+			final RevWalk walk = new RevWalk(git.getRepository());
+			final int[] repositoryCounts = new int[KEYWORDS.size() + 1];
+			try {
+				walk.markStart(walk.parseCommit(GitCommitUtils.getHeadId(git)));
+				for (final RevCommit commit : walk) {
+					if (commit.getCommitTime() < fromTime
+							|| commit.getCommitTime() >= toTime) {
+						continue;
+					}
+					final byte[] message = commit.getFullMessage().getBytes(
+							Charsets.UTF_8);
+					final Set<String> tokens = Sets
+							.newHashSet(CommitMessageIndex.tokenize(message, 0,
+									message.length));
+					boolean any = false;
+					for (int i = 0; i < KEYWORDS.size(); i++) {
+						final byte[] keyword = KEYWORDS.get(i).getBytes(
+								Charsets.UTF_8);
+						if (tokens.containsAll(CommitMessageIndex.tokenize(
+								keyword, 0, keyword.length))) {
+							repositoryCounts[i + 1]++;
+							any = true;
+						}
+					}
+					if (any) {
+						repositoryCounts[0]++;
+					}
+				}
+			} finally {
+				walk.release();
+				git.getRepository().close();
+			}
+			counts.put(project.getName(), repositoryCounts);
+		}
+		return counts;
+	}
+
+	private File directory;
+
+	private void assertSameCounts(final File repositories,
+			final CommitMessageIndex index) throws IOException {
+		for (final int[] range : new int[][] {
+				{ Integer.MIN_VALUE, Integer.MAX_VALUE },
+				{ 1000000 + 3600 * 5, 1000000 + 3600 * 20 } }) {
+			final SortedMap<String, int[]> expected = countAll(repositories,
+					range[0], range[1]);
+			final SortedMap<String, int[]> counts = index.count(KEYWORDS,
+					range[0], range[1]);
+			assertEquals(expected.keySet(), counts.keySet());
+			for (final Map.Entry<String, int[]> entry : expected.entrySet()) {
+				assertArrayEquals(entry.getValue(), counts.get(entry.getKey()));
+			}
+		}
+	}
+
+	@Before
+	public void createDirectory() {
+		directory = Files.createTempDir();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testSameAsReadingAllCommits() throws IOException {
+		final File repositories = new File(directory, "repositories");
+		final Random random = new Random(3);
+		for (int i = 0; i < 3; i++) {
+			final FixtureRepository repository = FixtureRepository
+					.create(new File(repositories, "repository" + i));
+			try {
+				commitMessages(repository, random, 20 + 10 * i, 1000000);
+			} finally {
+				repository.close();
+			}
+		}
+		final File indexDirectory = new File(directory, "index");
+		CommitMessageIndex.open(indexDirectory).update(repositories);
+		assertSameCounts(repositories, CommitMessageIndex.open(indexDirectory));
+
+		// Add commits to one repository, rewrite another and remove the last
+		final FixtureRepository updated = FixtureRepository.open(new File(
+				repositories, "repository0"));
+		try {
+			commitMessages(updated, random, 10, 2000000);
+		} finally {
+			updated.close();
+		}
+		FileUtils.deleteDirectory(new File(repositories, "repository1"));
+		final FixtureRepository rewritten = FixtureRepository.create(new File(
+				repositories, "repository1"));
+		try {
+			commitMessages(rewritten, random, 15, 1000000);
+		} finally {
+			rewritten.close();
+		}
+		FileUtils.deleteDirectory(new File(repositories, "repository2"));
+
+		final CommitMessageIndex index = CommitMessageIndex
+				.open(indexDirectory);
+		index.update(repositories);
+		assertEquals(Sets.newTreeSet(Arrays.asList("repository0",
+				"repository1")), index.getRepositories());
+		assertSameCounts(repositories, index);
+		assertSameCounts(repositories, CommitMessageIndex.open(indexDirectory));
+		for (final String name : indexDirectory.list()) {
+			assertFalse(name.endsWith(".new"));
+		}
+	}
+}
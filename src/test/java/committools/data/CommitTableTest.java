@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+/**
+ * Check the columns of {@link CommitTable} against the commits of a
+ * {@link RevWalk}.
+ */
+public class CommitTableTest {
+
+	private File directory;
+
+	private CommitTable build() throws Exception {
+		final Git git = GitCommitUtils.getGitRepository(directory
+				.getAbsolutePath());
+		try {
+			return CommitTable.build(git);
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	@Before
+	public void createDirectory() {
+		directory = Files.createTempDir();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testMergesAuthorAliases() throws Exception {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		final String[][] authors = { { "Ann", "ann@example.org" },
+				{ "Bob", "bob@example.org" },
+				{ "Ann", "ann.smith@example.com" },
+				{ "Robert", "bob@example.com" },
+				{ "Carl", "carl@example.org" } };
+		try {
+			for (int i = 0; i < authors.length; i++) {
+				repository.setFile("Main.java", "int x = " + i + ";\n");
+				repository.commit("Change " + i + "\n", authors[i][0],
+						authors[i][1], 1000000 + 100 * i);
+			}
+		} finally {
+			repository.close();
+		}
+
+		final CommitTable table = build();
+		assertEquals(authors.length, table.size());
+		assertEquals(3, table.getNumAuthors());
+		// Ann by name, Bob by email username
+		assertEquals(table.getAuthorId(0), table.getAuthorId(2));
+		assertEquals(table.getAuthorId(1), table.getAuthorId(3));
+		assertNotEquals(table.getAuthorId(0), table.getAuthorId(1));
+		assertNotEquals(table.getAuthorId(0), table.getAuthorId(4));
+		assertNotEquals(table.getAuthorId(1), table.getAuthorId(4));
+		// Each author is the identity seen first, walking back from HEAD
+		assertEquals(new GitCommiterIdentity("Robert", "bob"),
+				table.getAuthor(table.getAuthorId(3)));
+	}
+
+	@Test
+	public void testSameAsRevWalk() throws Exception {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		try {
+			repository.commitRandomHistory(new Random(2), 200, 10, 0,
+					1000000);
+			// Commits that share their commit time are all kept
+			repository.setFile("Same.java", "same\n");
+			repository.commit("Same time\n", "Author", "author@example.org",
+					2000000000);
+			repository.setFile("Same.java", "same again\n");
+			repository.commit("Same time again\n", "Author",
+					"author@example.org", 2000000000);
+		} finally {
+			repository.close();
+		}
+
+		final Map<ObjectId, RevCommit> commits = Maps.newHashMap();
+		final Git git = GitCommitUtils.getGitRepository(directory
+				.getAbsolutePath());
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			walk.markStart(walk.parseCommit(GitCommitUtils.getHeadId(git)));
+			for (final RevCommit commit : walk) {
+				commits.put(commit.copy(), commit);
+			}
+		} finally {
+			walk.release();
+			git.getRepository().close();
+		}
+
+		final CommitTable table = build();
+		assertEquals(commits.size(), table.size());
+		final Map<GitCommiterIdentity, Integer> authorIds = Maps.newHashMap();
+		int nMerges = 0;
+		for (int i = 0; i < table.size(); i++) {
+			final RevCommit commit = commits.remove(table.getCommitId(i));
+			assertEquals(commit.getCommitTime(), table.getCommitTime(i));
+			assertEquals(commit.getParentCount(), table.getParentCount(i));
+			if (i > 0) {
+				assertTrue(table.getCommitTime(i - 1) <= table
+						.getCommitTime(i));
+			}
+			if (commit.getParentCount() > 1) {
+				nMerges++;
+			}
+			// The same identity always has the same author
+			final GitCommiterIdentity identity = new GitCommiterIdentity(
+					commit.getAuthorIdent());
+			final Integer authorId = authorIds.get(identity);
+			if (authorId == null) {
+				authorIds.put(identity, table.getAuthorId(i));
+			} else {
+				assertEquals(authorId.intValue(), table.getAuthorId(i));
+			}
+		}
+		assertTrue(commits.isEmpty());
+		assertTrue(nMerges > 0);
+		assertEquals(1000000, table.getFirstCommitTime());
+		assertEquals(2000000000, table.getLastCommitTime());
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Check the developers of {@link CommiterIdentityResolver} against the
+ * transitive closure of sharing a name or an email username.
+ */
+public class CommiterIdentityResolverTest {
+
+	private static boolean shareKey(final GitCommiterIdentity a,
+			final GitCommiterIdentity b) {
+		return (!a.name.isEmpty() && a.name.equals(b.name))
+				|| (!a.emailUsername.isEmpty() && a.emailUsername
+						.equals(b.emailUsername));
+	}
+
+	/**
+	 * Return the developer of each identity, merging identities that share a
+	 * key until nothing changes.
+	 */
+	private static int[] naiveResolve(final List<GitCommiterIdentity> identities) {
+		final int n = identities.size();
+		final int[] group = new int[n];
+		for (int i = 0; i < n; i++) {
+			group[i] = i;
+		}
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					if (group[j] < group[i]
+							&& shareKey(identities.get(i), identities.get(j))) {
+						final int old = group[i];
+						for (int k = 0; k < n; k++) {
+							if (group[k] == old) {
+								group[k] = group[j];
+							}
+						}
+						changed = true;
+					}
+				}
+			}
+		}
+		// Number the groups by their first identity
+		final int[] developerIds = new int[n];
+		final int[] groupDeveloperIds = new int[n];
+		int nDevelopers = 0;
+		for (int i = 0; i < n; i++) {
+			if (group[i] == i) {
+				groupDeveloperIds[i] = nDevelopers++;
+			}
+			developerIds[i] = groupDeveloperIds[group[i]];
+		}
+		return developerIds;
+	}
+
+	@Test
+	public void testMergesTransitively() {
+		final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+		assertEquals(0, resolver.addIdentity(new GitCommiterIdentity("Ann",
+				"ann")));
+		assertEquals(1, resolver.addIdentity(new GitCommiterIdentity("Bob",
+				"bob")));
+		assertEquals(2, resolver.addIdentity(new GitCommiterIdentity("", "")));
+		// Empty names and email usernames are not shared
+		assertEquals(3, resolver.addIdentity(new GitCommiterIdentity("Carl",
+				"")));
+		assertEquals(0, resolver.addIdentity(new GitCommiterIdentity("Ann",
+				"ann")));
+		assertEquals(2, resolver.addIdentity(new GitCommiterIdentity("", "")));
+		assertArrayEquals(new int[] { 0, 1, 2, 3 }, resolver.resolve());
+		assertEquals(1, resolver.getFirstIdentityId(1));
+
+		// Bob's email with Ann's name merges Ann and Bob
+		assertEquals(4, resolver.addIdentity(new GitCommiterIdentity("Ann",
+				"bob")));
+		assertArrayEquals(new int[] { 0, 0, 1, 2, 0 }, resolver.resolve());
+		assertEquals(0, resolver.getFirstIdentityId(1));
+		assertEquals(0, resolver.getFirstIdentityId(4));
+		assertEquals(3, resolver.getFirstIdentityId(3));
+		assertEquals(5, resolver.numIdentities());
+		assertEquals("bob", resolver.getIdentity(4).emailUsername);
+	}
+
+	@Test
+	public void testSameAsNaiveClosure() {
+		final Random random = new Random(6);
+		for (int round = 0; round < 50; round++) {
+			final CommiterIdentityResolver resolver = new CommiterIdentityResolver();
+			final List<GitCommiterIdentity> identities = Lists.newArrayList();
+			final int nIdentities = random.nextInt(60);
+			for (int i = 0; i < nIdentities; i++) {
+				final int name = random.nextInt(40);
+				final int email = random.nextInt(40);
+				final GitCommiterIdentity identity = new GitCommiterIdentity(
+						name == 0 ? "" : "name" + name, email == 0 ? ""
+								: "email" + email);
+				final int id = resolver.addIdentity(identity);
+				if (id == identities.size()) {
+					identities.add(identity);
+				} else {
+					assertEquals(identities.get(id), identity);
+				}
+			}
+			final int[] expected = naiveResolve(identities);
+			assertArrayEquals(expected, resolver.resolve());
+			for (int i = 0; i < identities.size(); i++) {
+				int first = 0;
+				while (expected[first] != expected[i]) {
+					first++;
+				}
+				assertEquals(first, resolver.getFirstIdentityId(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+import committools.dataextractors.LinesOfCodeTimeSeries;
+import committools.output.CsvResultSink;
+import committools.output.IResultSink;
+
+/**
+ * Check that the analyses that share a composite walk give the same results
+ * as their own walks.
+ */
+public class CompositeCommitWalkerTest {
+
+	private static final int BUCKET_SIZE = CommitTimeUtils.SECONDS_PER_DAY * 7;
+
+	private File directory;
+
+	private String repository;
+
+	@Before
+	public void generateRepository() throws IOException {
+		directory = Files.createTempDirectory("composite").toFile();
+		final File repositoryDirectory = new File(directory, "repository");
+		final FixtureRepository fixture = FixtureRepository
+				.create(repositoryDirectory);
+		try {
+			fixture.commitRandomHistory(new Random(5), 300, 30, .1, 1000000);
+		} finally {
+			fixture.close();
+		}
+		repository = repositoryDirectory.getAbsolutePath();
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testSameAsSeparateWalks() throws Exception {
+		final CompositeCommitWalker walker = new CompositeCommitWalker(
+				repository, false);
+		final ActiveCommiterData activeCommiters = new ActiveCommiterData();
+		activeCommiters.addTo(walker);
+		final InternalExternalCommiterData internalExternal = new InternalExternalCommiterData();
+		internalExternal.addTo(walker);
+		final KeywordMatcher matcher = KeywordMatcher.compile(
+				Arrays.asList("Merge", "Initial"), false, false);
+		final KeywordMatcher.Counts counts = CommitLogMatches.addTo(walker,
+				matcher);
+		walker.doWalk();
+
+		final ActiveCommiterData separateActiveCommiters = new ActiveCommiterData();
+		separateActiveCommiters.buildData(repository);
+		assertArrayEquals(separateActiveCommiters.getTimeSeries(),
+				activeCommiters.getTimeSeries());
+		assertEquals(separateActiveCommiters.getLastActivityRatio(),
+				activeCommiters.getLastActivityRatio(), 0);
+
+		final InternalExternalCommiterData separateInternalExternal = new InternalExternalCommiterData();
+		separateInternalExternal.buildData(repository, null);
+		assertEquals(toCsv(separateInternalExternal),
+				toCsv(internalExternal));
+		assertTrue(internalExternal.getNumInternal() > 0);
+
+		final KeywordMatcher.Counts separateCounts = CommitLogMatches
+				.countMatches(new File(repository), matcher);
+		assertTrue(counts.getAnyCount() > 0);
+		assertEquals(separateCounts.getAnyCount(), counts.getAnyCount());
+		assertEquals(separateCounts.getNumTexts(), counts.getNumTexts());
+		for (int i = 0; i < matcher.numKeywords(); i++) {
+			assertEquals(separateCounts.getCount(i), counts.getCount(i));
+		}
+	}
+
+	@Test
+	public void testSameEditListsAsSeparateWalk() throws Exception {
+		final CompositeCommitWalker walker = new CompositeCommitWalker(
+				repository, true);
+		final LinesOfCodeTimeSeries composite = new LinesOfCodeTimeSeries(
+				repository, BUCKET_SIZE);
+		composite.addTo(walker);
+		walker.doWalk();
+
+		final LinesOfCodeTimeSeries separate = new LinesOfCodeTimeSeries(
+				repository, BUCKET_SIZE);
+		separate.doWalk();
+
+		assertTrue(separate.getTimeSeries().size() > 1);
+		assertEquals(separate.getBucketStartTimes(),
+				composite.getBucketStartTimes());
+		assertEquals(separate.getTimeSeries(), composite.getTimeSeries());
+	}
+
+	@Test
+	public void testVisitsEachCommitOnce() throws Exception {
+		final CompositeCommitWalker walker = new CompositeCommitWalker(
+				repository, false);
+		final int[] nCommits = { 0 };
+		walker.addCommitVisitor(new CompositeCommitWalker.ICommitVisitor() {
+
+			@Override
+			public boolean visitCommit(final RevCommit commit) {
+				nCommits[0]++;
+				return true;
+			}
+
+			@Override
+			public void walkCompleted() {
+			}
+		});
+		walker.doWalk();
+		assertEquals(
+				CommitTable.build(GitCommitUtils.getGitRepository(repository))
+						.size(), nCommits[0]);
+	}
+
+	private static String toCsv(final InternalExternalCommiterData data)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(
+				InternalExternalCommiterData.newRepositorySchema(),
+				Channels.newChannel(out), true);
+		data.writeRow("repository", sink);
+		sink.close();
+		return new String(out.toByteArray(), Charsets.UTF_8);
+	}
+}
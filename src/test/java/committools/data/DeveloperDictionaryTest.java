@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import committools.output.CsvResultSink;
+import committools.output.IResultSink;
+
+/**
+ * Check that {@link DeveloperDictionary} persists its identities, merges
+ * aliases across reloads and resolves a corpus independently of the order of
+ * its repositories.
+ */
+public class DeveloperDictionaryTest {
+
+	private File directory;
+
+	/**
+	 * Create a repository in which each of the given authors (name and email
+	 * pairs) makes the given number of commits.
+	 */
+	private static File createRepository(final File directory,
+			final int time, final String[] authors, final int[] nCommits)
+			throws IOException {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		try {
+			int commit = 0;
+			for (int i = 0; i < nCommits.length; i++) {
+				for (int j = 0; j < nCommits[i]; j++, commit++) {
+					repository.setFile("Main.java", "int x = " + commit + ";\n");
+					repository.commit("Change " + commit + "\n",
+							authors[2 * i], authors[2 * i + 1], time + 24 * 60
+									* 60 * commit);
+				}
+			}
+		} finally {
+			repository.close();
+		}
+		return directory;
+	}
+
+	private static PersonIdent ident(final String name, final String email) {
+		return new PersonIdent(name, email);
+	}
+
+	/**
+	 * Write the rows of the repositories, in the given order, with a new
+	 * dictionary in the given file.
+	 */
+	private static String writeRepositories(final File[] projects,
+			final File dictionaryFile) throws IOException {
+		final DeveloperDictionary dictionary = DeveloperDictionary
+				.open(dictionaryFile);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(
+				InternalExternalCommiterData.newRepositorySchema(),
+				Channels.newChannel(out), true);
+		InternalExternalCommiterData.writeRepositories(projects, dictionary,
+				sink);
+		sink.close();
+		dictionary.flush();
+		return new String(out.toByteArray(), Charsets.UTF_8);
+	}
+
+	@Before
+	public void createDirectory() {
+		directory = Files.createTempDir();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testMergesAliasesAcrossReloads() throws IOException {
+		final File file = new File(directory, "developers");
+		DeveloperDictionary dictionary = DeveloperDictionary.open(file);
+		final int ann = dictionary.getDeveloperId(ident("Ann",
+				"ann@example.org"));
+		final int bob = dictionary.getDeveloperId(ident("Bob",
+				"bob@example.org"));
+		assertNotEquals(ann, bob);
+		dictionary.flush();
+
+		// Ann's name with Bob's email username merges Ann and Bob
+		dictionary = DeveloperDictionary.open(file);
+		assertEquals(2, dictionary.getNumDevelopers());
+		assertEquals(ann, dictionary.getDeveloperId(ident("Ann",
+				"bob@example.com")));
+		assertEquals(ann, dictionary.getDeveloperId(ident("Bob",
+				"bob@example.org")));
+		dictionary.flush();
+
+		dictionary = DeveloperDictionary.open(file);
+		assertEquals(3, dictionary.getNumIdentities());
+		assertEquals(1, dictionary.getNumDevelopers());
+		assertEquals(ann, dictionary.getDeveloperId(ident("Bob",
+				"bob@example.org")));
+		assertEquals("Ann", dictionary.getDeveloper(ann).name);
+	}
+
+	@Test
+	public void testPersistsRepositoryAuthors() throws IOException {
+		final File repository = createRepository(new File(directory, "repo"),
+				1000000, new String[] { "Ann", "ann@example.org", "Bob",
+						"bob@example.org", "Bob Smith", "bob@example.com",
+						"Carl", "carl@example.org" }, new int[] { 2, 3, 1, 2 });
+		final File file = new File(directory, "developers");
+		final DeveloperDictionary dictionary = DeveloperDictionary.open(file);
+		final int[] developers = dictionary.addRepository(repository);
+		assertEquals(3, developers.length);
+		assertEquals(4, dictionary.getNumIdentities());
+		dictionary.flush();
+		final long length = file.length();
+
+		final DeveloperDictionary reloaded = DeveloperDictionary.open(file);
+		assertEquals(4, reloaded.getNumIdentities());
+		assertEquals(3, reloaded.getNumDevelopers());
+		assertArrayEquals(developers, reloaded.addRepository(repository));
+		for (final String[] author : new String[][] {
+				{ "Ann", "ann@example.org" }, { "Bob Smith", "bob@example.com" },
+				{ "Carl", "carl@example.org" } }) {
+			assertEquals(
+					dictionary.getDeveloperId(ident(author[0], author[1])),
+					reloaded.getDeveloperId(ident(author[0], author[1])));
+		}
+		// The known identities add no records
+		reloaded.flush();
+		assertEquals(length, file.length());
+	}
+
+	@Test
+	public void testSameForAnyRepositoryOrder() throws IOException {
+		// The two aliases of Ann in "b" are only merged by her identity in "a"
+		final File[] projects = new File[] {
+				createRepository(new File(directory, "a"), 1000000,
+						new String[] { "Ann Smith", "ann2@example.org", "Dan",
+								"dan@example.org" }, new int[] { 1, 25 }),
+				createRepository(new File(directory, "b"), 2000000,
+						new String[] { "Ann", "ann2@example.com", "Ann Smith",
+								"asmith@example.com" }, new int[] { 10, 12 }),
+				createRepository(new File(directory, "c"), 3000000,
+						new String[] { "Eve", "eve@example.org" },
+						new int[] { 3 }) };
+		final String expected = writeRepositories(projects, new File(
+				directory, "developers"));
+		assertTrue(expected.contains("\nb,1,0,"));
+		final byte[] expectedDictionary = Files.toByteArray(new File(
+				directory, "developers"));
+
+		final File[][] orders = new File[][] {
+				{ projects[1], projects[0], projects[2] },
+				{ projects[2], projects[1], projects[0] },
+				{ projects[1], projects[2], projects[0] } };
+		for (int i = 0; i < orders.length; i++) {
+			final File file = new File(directory, "developers" + i);
+			assertEquals(expected, writeRepositories(orders[i], file));
+			assertArrayEquals(expectedDictionary, Files.toByteArray(file));
+		}
+	}
+}
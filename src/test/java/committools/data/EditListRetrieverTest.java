@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Check the edit lists of {@link EditListRetriever} for entries between text
+ * and binary files.
+ */
+public class EditListRetrieverTest {
+
+	private File directory;
+
+	private Git git;
+
+	private final List<ObjectId> commits = Lists.newArrayList();
+
+	@Before
+	public void createRepository() throws Exception {
+		directory = Files.createTempDir();
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		try {
+			// Text, then binary, then text again
+			repository.setFile("a.txt", "a\nb\nc\n");
+			commits.add(repository.commit("Text\n", "Author",
+					"author@example.org", 1000000));
+			repository.setFile("a.txt", new byte[] { 'a', 0, 'b', '\n' });
+			commits.add(repository.commit("Binary\n", "Author",
+					"author@example.org", 1000100));
+			repository.setFile("a.txt", "x\ny\n");
+			commits.add(repository.commit("Text again\n", "Author",
+					"author@example.org", 1000200));
+		} finally {
+			repository.close();
+		}
+		git = GitCommitUtils.getGitRepository(directory.getAbsolutePath());
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.getRepository().close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	/**
+	 * Check that the line edits of the token diff of the single entry of each
+	 * commit are its edit list.
+	 */
+	private void assertTokenDiffsSameAsEditLists(
+			final EditListRetriever retriever) throws Exception {
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			for (int i = 1; i < commits.size(); i++) {
+				final EditList editList = getEditList(retriever, i);
+				final List<TokenDiff> tokenDiffs = Lists.newArrayList();
+				retriever.retrieveTokenDiffBetweenAndCallback(
+						walk.parseCommit(commits.get(i)),
+						walk.parseCommit(commits.get(i - 1)),
+						new EditListRetriever.ITokenDiffCallback() {
+
+							@Override
+							public void visitDiffEntry(final DiffEntry entry,
+									final TokenDiff tokenDiff,
+									final RevCommit commit) {
+								tokenDiffs.add(tokenDiff);
+							}
+						});
+				assertEquals(1, tokenDiffs.size());
+				assertEquals(editList, tokenDiffs.get(0).getLineEdits());
+			}
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Return the edit list of the single entry of the i-th commit.
+	 */
+	private EditList getEditList(final EditListRetriever retriever,
+			final int i) throws Exception {
+		final RevWalk walk = new RevWalk(git.getRepository());
+		try {
+			final List<EditList> editLists = retriever.retrieveEditListBetween(
+					walk.parseCommit(commits.get(i)),
+					walk.parseCommit(commits.get(i - 1)));
+			assertEquals(1, editLists.size());
+			return editLists.get(0);
+		} finally {
+			walk.release();
+		}
+	}
+
+	@Test
+	public void testBinaryAsEmpty() throws Exception {
+		final EditListRetriever retriever = new EditListRetriever(git,
+				TrueFileFilter.TRUE);
+		retriever.setBinaryAsEmpty(true);
+		final EditList toBinary = getEditList(retriever, 1);
+		assertEquals(1, toBinary.size());
+		assertEquals(new Edit(0, 3, 0, 0), toBinary.get(0));
+		final EditList toText = getEditList(retriever, 2);
+		assertEquals(1, toText.size());
+		assertEquals(new Edit(0, 0, 0, 2), toText.get(0));
+		assertTokenDiffsSameAsEditLists(retriever);
+	}
+
+	@Test
+	public void testBinaryHasNoEditsByDefault() throws Exception {
+		final EditListRetriever retriever = new EditListRetriever(git,
+				TrueFileFilter.TRUE);
+		assertEquals(0, getEditList(retriever, 1).size());
+		assertEquals(0, getEditList(retriever, 2).size());
+		assertTokenDiffsSameAsEditLists(retriever);
+	}
+}
@@ -0,0 +1,336 @@
+/**
+ *
+ */
+package committools.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Build small repositories with a known history for the tests. The files of
+ * the next commit are edited in memory and each commit is written directly
+ * to the object database and becomes the master branch, so the same calls
+ * always create the same commit ids. Side branches are made by checking out
+ * an earlier commit, committing on it and merging it back.
+ */
+public final class FixtureRepository {
+
+	/**
+	 * Create a new repository, with a .git directory in the given directory.
+	 */
+	public static FixtureRepository create(final File directory)
+			throws IOException {
+		final Repository repository = FileRepositoryBuilder.create(new File(
+				directory, Constants.DOT_GIT));
+		repository.create();
+		return new FixtureRepository(repository);
+	}
+
+	/**
+	 * Open an existing repository (e.g. a copy of a fixture) to add more
+	 * commits to its master branch.
+	 */
+	public static FixtureRepository open(final File directory)
+			throws IOException {
+		final FixtureRepository fixture = new FixtureRepository(
+				FileRepositoryBuilder.create(new File(directory,
+						Constants.DOT_GIT)));
+		fixture.checkout(fixture.repository.resolve(Constants.HEAD));
+		return fixture;
+	}
+
+	private static String randomLine(final Random random) {
+		return "\tint x" + random.nextInt(100) + " = " + random.nextInt(1000)
+				+ ";";
+	}
+
+	private final Repository repository;
+
+	private final ObjectInserter inserter;
+
+	/**
+	 * The files of the next commit, from their path to their blob.
+	 */
+	private final SortedMap<String, ObjectId> files = Maps.newTreeMap();
+
+	private ObjectId head = null;
+
+	private FixtureRepository(final Repository repository) {
+		this.repository = repository;
+		inserter = repository.newObjectInserter();
+	}
+
+	/**
+	 * Continue from the given commit, with its files.
+	 */
+	public void checkout(final AnyObjectId commit) throws IOException {
+		inserter.flush();
+		files.clear();
+		final RevWalk walk = new RevWalk(repository);
+		final TreeWalk treeWalk = new TreeWalk(repository);
+		try {
+			treeWalk.addTree(walk.parseCommit(commit).getTree());
+			treeWalk.setRecursive(true);
+			while (treeWalk.next()) {
+				files.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+			}
+		} finally {
+			treeWalk.release();
+			walk.release();
+		}
+		head = commit.toObjectId();
+	}
+
+	public void close() {
+		inserter.release();
+		repository.close();
+	}
+
+	/**
+	 * Commit the current files on top of the current commit.
+	 *
+	 * @param time
+	 *            the author and commit time, in seconds
+	 * @return the id of the commit
+	 */
+	public ObjectId commit(final String message, final String name,
+			final String email, final int time) throws IOException {
+		if (head == null) {
+			return commit(new ObjectId[0], message, name, email, time);
+		}
+		return commit(new ObjectId[] { head }, message, name, email, time);
+	}
+
+	private ObjectId commit(final ObjectId[] parents, final String message,
+			final String name, final String email, final int time)
+			throws IOException {
+		final CommitBuilder builder = new CommitBuilder();
+		builder.setTreeId(insertTree(files));
+		builder.setParentIds(parents);
+		final PersonIdent ident = new PersonIdent(name, email, time * 1000L,
+				0);
+		builder.setAuthor(ident);
+		builder.setCommitter(ident);
+		builder.setMessage(message);
+		head = inserter.insert(builder);
+		inserter.flush();
+
+		final RefUpdate update = repository.updateRef(Constants.R_HEADS
+				+ Constants.MASTER);
+		update.setNewObjectId(head);
+		final RefUpdate.Result result = update.forceUpdate();
+		if (result != RefUpdate.Result.NEW
+				&& result != RefUpdate.Result.FORCED
+				&& result != RefUpdate.Result.NO_CHANGE) {
+			throw new IOException("Failed to update master: " + result);
+		}
+		return head;
+	}
+
+	/**
+	 * Commit a random history of text files and, if binaryFraction is
+	 * positive, binary files. Commits edit a few lines of a few files,
+	 * sometimes renaming them, and some are made on short side branches that
+	 * are merged back.
+	 *
+	 * @param time
+	 *            the time of the first commit, in seconds. The commits are a
+	 *            day apart.
+	 * @return the time after the last commit
+	 */
+	public int commitRandomHistory(final Random random, final int nCommits,
+			final int nFiles, final double binaryFraction, int time)
+			throws IOException {
+		final List<String> paths = Lists.newArrayList();
+		final Map<String, List<String>> lines = Maps.newHashMap();
+		for (int i = 0; i < nFiles; i++) {
+			final boolean binary = random.nextDouble() < binaryFraction;
+			paths.add("dir" + (i % 4) + "/File" + i
+					+ (binary ? ".bin" : ".java"));
+		}
+		ObjectId sideBranchBase = null;
+		for (int i = 0; i < nCommits; i++, time += 24 * 60 * 60) {
+			final String author = "Author " + random.nextInt(4);
+			final String email = "author" + random.nextInt(5)
+					+ "@example.org";
+			if (i > 0 && sideBranchBase == null && random.nextInt(8) == 0) {
+				sideBranchBase = head;
+			} else if (sideBranchBase != null && random.nextInt(3) == 0) {
+				// Commit a change of a file on a side branch, then change it
+				// again in the merge
+				final ObjectId mainHead = head;
+				final SortedMap<String, ObjectId> mainFiles = Maps
+						.newTreeMap(files);
+				final String path = paths.get(random.nextInt(nFiles));
+				checkout(sideBranchBase);
+				if (files.containsKey(path)) {
+					setRandomContent(path, lines, random);
+					final ObjectId sideHead = commit("Side change " + i
+							+ "\n", author, email, time);
+					files.clear();
+					files.putAll(mainFiles);
+					head = mainHead;
+					setRandomContent(path, lines, random);
+					merge(sideHead, "Merge " + i + "\n", author, email, time);
+					sideBranchBase = null;
+					continue;
+				}
+				files.clear();
+				files.putAll(mainFiles);
+				head = mainHead;
+				sideBranchBase = null;
+			}
+			final int nChanged = i == 0 ? nFiles : 1 + random.nextInt(3);
+			for (int j = 0; j < nChanged; j++) {
+				final int file = i == 0 ? j : random.nextInt(nFiles);
+				final String path = paths.get(file);
+				if (i > 0 && random.nextInt(10) == 0) {
+					final String newPath = path.replace("File", "Renamed"
+							+ i + "_");
+					removeFile(path);
+					lines.put(newPath, lines.remove(path));
+					paths.set(file, newPath);
+					setRandomContent(newPath, lines, random);
+				} else {
+					setRandomContent(path, lines, random);
+				}
+			}
+			commit((i == 0 ? "Initial commit " : "Change ") + i + "\n",
+					author, email, time);
+		}
+		return time;
+	}
+
+	public File getDirectory() {
+		return repository.getDirectory().getParentFile();
+	}
+
+	public ObjectId getHead() {
+		return head;
+	}
+
+	private ObjectId insertTree(final SortedMap<String, ObjectId> directory)
+			throws IOException {
+		// Subdirectories are sorted as if their names ended with a slash
+		final SortedMap<String, Object> entries = Maps.newTreeMap();
+		for (final Map.Entry<String, ObjectId> file : directory.entrySet()) {
+			final int slash = file.getKey().indexOf('/');
+			if (slash < 0) {
+				entries.put(file.getKey(), file.getValue());
+				continue;
+			}
+			final String name = file.getKey().substring(0, slash + 1);
+			@SuppressWarnings("unchecked")
+			SortedMap<String, ObjectId> subdirectory = (SortedMap<String, ObjectId>) entries
+					.get(name);
+			if (subdirectory == null) {
+				subdirectory = Maps.newTreeMap();
+				entries.put(name, subdirectory);
+			}
+			subdirectory.put(file.getKey().substring(slash + 1),
+					file.getValue());
+		}
+		final TreeFormatter tree = new TreeFormatter();
+		for (final Map.Entry<String, Object> entry : entries.entrySet()) {
+			final String name = entry.getKey();
+			if (entry.getValue() instanceof ObjectId) {
+				tree.append(name, FileMode.REGULAR_FILE,
+						(ObjectId) entry.getValue());
+			} else {
+				@SuppressWarnings("unchecked")
+				final SortedMap<String, ObjectId> subdirectory = (SortedMap<String, ObjectId>) entry
+						.getValue();
+				tree.append(name.substring(0, name.length() - 1),
+						FileMode.TREE, insertTree(subdirectory));
+			}
+		}
+		return inserter.insert(tree);
+	}
+
+	/**
+	 * Commit the current files as the merge of the current commit and the
+	 * other commit.
+	 */
+	public ObjectId merge(final AnyObjectId other, final String message,
+			final String name, final String email, final int time)
+			throws IOException {
+		return commit(new ObjectId[] { head, other.toObjectId() }, message,
+				name, email, time);
+	}
+
+	public FixtureRepository removeFile(final String path) {
+		files.remove(path);
+		return this;
+	}
+
+	public FixtureRepository setFile(final String path, final byte[] content)
+			throws IOException {
+		files.put(path, inserter.insert(Constants.OBJ_BLOB, content));
+		return this;
+	}
+
+	public FixtureRepository setFile(final String path, final String content)
+			throws IOException {
+		return setFile(path, content.getBytes(Charsets.UTF_8));
+	}
+
+	/**
+	 * Set random content to a binary file, or insert, delete or replace a
+	 * few lines of a text file.
+	 */
+	private void setRandomContent(final String path,
+			final Map<String, List<String>> lines, final Random random)
+			throws IOException {
+		if (path.endsWith(".bin")) {
+			final byte[] content = new byte[64 + random.nextInt(256)];
+			random.nextBytes(content);
+			content[0] = 0; // Make sure the file looks binary
+			setFile(path, content);
+			return;
+		}
+		final List<String> fileLines = lines.containsKey(path) ? Lists
+				.newArrayList(lines.get(path)) : Lists.<String> newArrayList();
+		final int nEdits = fileLines.isEmpty() ? 5 + random.nextInt(20) : 1
+				+ random.nextInt(3);
+		for (int i = 0; i < nEdits; i++) {
+			final int operation = random.nextInt(3);
+			if (operation == 0 && !fileLines.isEmpty()) {
+				fileLines.set(random.nextInt(fileLines.size()),
+						randomLine(random));
+			} else if (operation == 1 || fileLines.size() <= 1) {
+				fileLines.add(random.nextInt(fileLines.size() + 1),
+						randomLine(random));
+			} else {
+				fileLines.remove(random.nextInt(fileLines.size()));
+			}
+		}
+		lines.put(path, fileLines);
+		final StringBuilder content = new StringBuilder();
+		for (final String line : fileLines) {
+			content.append(line).append('\n');
+		}
+		setFile(path, content.toString());
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check where {@link IncrementalHistory} keeps the state of each repository
+ * and that the analyses that keep it give the same results as when they are
+ * computed from scratch.
+ */
+public class IncrementalHistoryTest {
+
+	private static final int NEW_COMMITS = 100;
+
+	/**
+	 * Move HEAD to the given commit and return the commit it was at.
+	 */
+	private static ObjectId moveHead(final File repository,
+			final ObjectId commit) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repository
+				.getAbsolutePath());
+		try {
+			final ObjectId previous = GitCommitUtils.getHeadId(git);
+			final RefUpdate update = git.getRepository().updateRef(
+					Constants.HEAD);
+			update.setNewObjectId(commit);
+			update.forceUpdate();
+			return previous;
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Move HEAD back along its first parents and return the commit it was at.
+	 */
+	private static ObjectId moveHeadBack(final File repository,
+			final int nCommits) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repository
+				.getAbsolutePath());
+		final RevWalk walk = new RevWalk(git.getRepository());
+		RevCommit commit;
+		try {
+			commit = walk.parseCommit(GitCommitUtils.getHeadId(git));
+			for (int i = 0; i < nCommits; i++) {
+				commit = walk.parseCommit(commit.getParent(0));
+			}
+		} finally {
+			walk.release();
+			git.getRepository().close();
+		}
+		return moveHead(repository, commit);
+	}
+
+	private static void assertSameActiveCommiters(final File repository,
+			final File stateFile) throws Exception {
+		final ActiveCommiterData incremental = new ActiveCommiterData();
+		incremental.buildData(repository.getAbsolutePath(), stateFile);
+		final ActiveCommiterData scratch = new ActiveCommiterData();
+		scratch.buildData(repository.getAbsolutePath());
+		assertArrayEquals(scratch.getTimeSeries(), incremental.getTimeSeries());
+		assertEquals(scratch.getLastActivityRatio(),
+				incremental.getLastActivityRatio(), 0);
+	}
+
+	private File directory;
+
+	private File generateRepository() throws IOException {
+		final File repository = new File(directory, "repository");
+		new SyntheticRepositoryGenerator().setNumCommits(300).setNumFiles(10)
+				.setNumAuthors(12).setBranchProbability(.2).setSeed(13)
+				.generate(repository);
+		return repository;
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		System.clearProperty(IncrementalHistory.STATE_DIRECTORY_PROPERTY);
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Before
+	public void setStateDirectory() throws IOException {
+		directory = Files.createTempDirectory("incremental").toFile();
+		System.setProperty(IncrementalHistory.STATE_DIRECTORY_PROPERTY,
+				new File(directory, "state").getPath());
+	}
+
+	@Test
+	public void testActiveCommitersSameAsFromScratch() throws Exception {
+		final File repository = generateRepository();
+		final File stateFile = IncrementalHistory.getStateFile(repository,
+				"activeCommiters");
+		final ObjectId head = moveHeadBack(repository, NEW_COMMITS);
+		assertSameActiveCommiters(repository, stateFile);
+		assertTrue(stateFile.exists());
+
+		// HEAD descends from the state's HEAD
+		moveHead(repository, head);
+		assertSameActiveCommiters(repository, stateFile);
+		assertSameActiveCommiters(repository, stateFile);
+
+		// HEAD does not descend from the state's HEAD
+		moveHeadBack(repository, NEW_COMMITS / 2);
+		assertSameActiveCommiters(repository, stateFile);
+	}
+
+	@Test
+	public void testCommitLogMatchesSameAsFromScratch() throws IOException {
+		final File repository = generateRepository();
+		final File stateFile = IncrementalHistory.getStateFile(repository,
+				"commitLogMatches");
+		final KeywordMatcher matcher = KeywordMatcher.compile(
+				Arrays.asList("Merge", "Initial", "branch"), false, false);
+		final KeywordMatcher otherMatcher = KeywordMatcher.compile(
+				Arrays.asList("Merge"), false, false);
+		final ObjectId head = moveHeadBack(repository, NEW_COMMITS);
+		final int[] oldCounts = CommitLogMatches.countMatches(repository,
+				matcher, "Merge,Initial,branch", stateFile);
+		assertArrayEquals(
+				CommitLogMatches.countMatches(repository, matcher, "", null),
+				oldCounts);
+
+		// HEAD descends from the state's HEAD
+		moveHead(repository, head);
+		final int[] counts = CommitLogMatches.countMatches(repository,
+				matcher, "Merge,Initial,branch", stateFile);
+		assertArrayEquals(
+				CommitLogMatches.countMatches(repository, matcher, "", null),
+				counts);
+		assertTrue(counts[0] > oldCounts[0]);
+		assertArrayEquals(counts, CommitLogMatches.countMatches(repository,
+				matcher, "Merge,Initial,branch", stateFile));
+
+		// The state was counted with other keywords
+		assertArrayEquals(CommitLogMatches.countMatches(repository,
+				otherMatcher, "", null), CommitLogMatches.countMatches(
+				repository, otherMatcher, "Merge", stateFile));
+
+		// HEAD does not descend from the state's HEAD
+		moveHeadBack(repository, NEW_COMMITS / 2);
+		assertArrayEquals(CommitLogMatches.countMatches(repository,
+				otherMatcher, "", null), CommitLogMatches.countMatches(
+				repository, otherMatcher, "Merge", stateFile));
+	}
+
+	@Test
+	public void testNoStateDirectory() throws IOException {
+		System.clearProperty(IncrementalHistory.STATE_DIRECTORY_PROPERTY);
+		assertNull(IncrementalHistory.getStateFile(new File(directory,
+				"project"), "analysis"));
+	}
+
+	@Test
+	public void testStateFileIsKeyedOnThePath() throws IOException {
+		final File first = new File(directory, "a/project");
+		final File second = new File(directory, "b/project");
+		final File state = IncrementalHistory.getStateFile(first, "analysis");
+
+		assertTrue(state.getName().startsWith("project-"));
+		assertTrue(state.getName().endsWith(".analysis"));
+		assertFalse(state.equals(IncrementalHistory.getStateFile(second,
+				"analysis")));
+		assertFalse(state.equals(IncrementalHistory.getStateFile(first,
+				"other")));
+		assertEquals(state, IncrementalHistory.getStateFile(new File(
+				directory, "b/../a/./project"), "analysis"));
+	}
+}
@@ -0,0 +1,177 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Check the keyword counts of {@link KeywordMatcher} against a naive search.
+ */
+public class KeywordMatcherTest {
+
+	private static byte fold(final byte b, final boolean ignoreCase) {
+		return ignoreCase && b >= 'A' && b <= 'Z' ? (byte) (b - 'A' + 'a') : b;
+	}
+
+	/**
+	 * Return true if the keyword is found in text[from, to), searching every
+	 * position.
+	 */
+	private static boolean naiveContains(final byte[] text, final int from,
+			final int to, final byte[] keyword, final boolean ignoreCase,
+			final boolean wholeWords) {
+		for (int start = from; start + keyword.length <= to; start++) {
+			boolean matches = true;
+			for (int i = 0; matches && i < keyword.length; i++) {
+				matches = fold(text[start + i], ignoreCase) == fold(
+						keyword[i], ignoreCase);
+			}
+			final int end = start + keyword.length;
+			if (matches
+					&& (!wholeWords || ((start == from || !KeywordMatcher
+							.isWordByte(text[start - 1] & 0xFF)) && (end == to || !KeywordMatcher
+							.isWordByte(text[end] & 0xFF))))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] utf8(final String text) {
+		return text.getBytes(Charsets.UTF_8);
+	}
+
+	private static KeywordMatcher.Counts count(final KeywordMatcher matcher,
+			final String... texts) {
+		final KeywordMatcher.Counts counts = matcher.newCounts();
+		for (final String text : texts) {
+			final byte[] bytes = utf8(text);
+			matcher.count(bytes, 0, bytes.length, counts);
+		}
+		return counts;
+	}
+
+	@Test
+	public void testCaseAndWholeWords() {
+		final List<String> keywords = Arrays.asList("Fix", "bug");
+		final String[] texts = { "fix the Bug", "FIXED", "prefix", "bug_fix",
+				"debug: fix", "fix\u00e9" };
+
+		KeywordMatcher.Counts counts = count(
+				KeywordMatcher.compile(keywords, false, false), texts);
+		assertEquals(0, counts.getCount(0));
+		assertEquals(2, counts.getCount(1));
+
+		counts = count(KeywordMatcher.compile(keywords, true, false), texts);
+		assertEquals(6, counts.getCount(0));
+		assertEquals(3, counts.getCount(1));
+
+		counts = count(KeywordMatcher.compile(keywords, true, true), texts);
+		assertEquals(2, counts.getCount(0));
+		assertEquals(1, counts.getCount(1));
+		assertEquals(2, counts.getAnyCount());
+		assertEquals(texts.length, counts.getNumTexts());
+	}
+
+	@Test
+	public void testCountsEachTextOnce() {
+		final KeywordMatcher matcher = KeywordMatcher.compile(
+				Arrays.asList("a", "a", "ab"), false, false);
+		final KeywordMatcher.Counts counts = count(matcher, "aaa ab", "b",
+				"ba");
+		assertEquals(2, counts.getCount(0));
+		assertEquals(2, counts.getCount(1));
+		assertEquals(1, counts.getCount(2));
+		assertEquals(2, counts.getAnyCount());
+		assertEquals(3, counts.getNumTexts());
+	}
+
+	@Test
+	public void testMatchesOnlyWithinTheRange() {
+		final KeywordMatcher matcher = KeywordMatcher.compile(
+				Arrays.asList("fix"), false, true);
+		final byte[] text = utf8("prefix fixes");
+		final KeywordMatcher.Counts counts = matcher.newCounts();
+		// The ends of the range are word boundaries
+		assertTrue(matcher.count(text, 3, 6, counts));
+		assertTrue(matcher.count(text, 7, 10, counts));
+		assertFalse(matcher.count(text, 0, 5, counts));
+		assertFalse(matcher.count(text, 7, 11, counts));
+		assertEquals(2, counts.getCount(0));
+	}
+
+	@Test
+	public void testOverlappingKeywords() {
+		final List<String> keywords = Arrays.asList("he", "she", "his",
+				"hers");
+		final KeywordMatcher matcher = KeywordMatcher.compile(keywords, false,
+				false);
+		final String[] texts = { "ushers", "this", "hishe", "h", "" };
+		final KeywordMatcher.Counts counts = count(matcher, texts);
+		assertEquals(2, counts.getCount(0));
+		assertEquals(2, counts.getCount(1));
+		assertEquals(2, counts.getCount(2));
+		assertEquals(1, counts.getCount(3));
+		assertEquals(3, counts.getAnyCount());
+	}
+
+	@Test
+	public void testSameAsNaiveSearch() {
+		final Random random = new Random(42);
+		final byte[] alphabet = utf8("abAB _.");
+		for (int round = 0; round < 50; round++) {
+			final String[] keywords = new String[1 + random.nextInt(5)];
+			for (int i = 0; i < keywords.length; i++) {
+				final StringBuilder keyword = new StringBuilder();
+				final int length = 1 + random.nextInt(3);
+				for (int j = 0; j < length; j++) {
+					keyword.append((char) alphabet[random.nextInt(4)]);
+				}
+				keywords[i] = keyword.toString();
+			}
+			final boolean ignoreCase = random.nextBoolean();
+			final boolean wholeWords = random.nextBoolean();
+			final KeywordMatcher matcher = KeywordMatcher.compile(
+					Arrays.asList(keywords), ignoreCase, wholeWords);
+			final KeywordMatcher.Counts counts = matcher.newCounts();
+			final int[] expected = new int[keywords.length];
+			int expectedAny = 0;
+			for (int t = 0; t < 20; t++) {
+				final byte[] text = new byte[random.nextInt(30)];
+				for (int i = 0; i < text.length; i++) {
+					text[i] = alphabet[random.nextInt(alphabet.length)];
+				}
+				final int from = text.length == 0 ? 0 : random
+						.nextInt(text.length);
+				final int to = from + random.nextInt(text.length - from + 1);
+				boolean any = false;
+				for (int i = 0; i < keywords.length; i++) {
+					if (naiveContains(text, from, to, utf8(keywords[i]),
+							ignoreCase, wholeWords)) {
+						expected[i]++;
+						any = true;
+					}
+				}
+				if (any) {
+					expectedAny++;
+				}
+				assertEquals(any, matcher.count(text, from, to, counts));
+			}
+			for (int i = 0; i < keywords.length; i++) {
+				assertEquals(expected[i], counts.getCount(i));
+			}
+			assertEquals(expectedAny, counts.getAnyCount());
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package committools.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSubclassMap;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * An object inserter that writes the objects into a single pack file instead
+ * of one loose file per object. Objects are appended (without deltas) to a
+ * temporary file and, on {@link #flush()}, the pack is indexed and moved into
+ * the object database of the repository. Inserted objects are not visible to
+ * readers before they are flushed. Objects that are already in the
+ * repository (e.g. flushed with an earlier pack) are not written again.
+ */
+final class PackFileInserter extends ObjectInserter {
+
+	private final Repository repository;
+
+	/**
+	 * The inserter of the object database, that indexes and stores the packs.
+	 */
+	private final ObjectInserter objectInserter;
+
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	/**
+	 * The objects written to the current pack.
+	 */
+	private final ObjectIdSubclassMap<ObjectId> packedObjects = new ObjectIdSubclassMap<ObjectId>();
+
+	private File packBody;
+
+	private OutputStream packOut;
+
+	PackFileInserter(final Repository repository) {
+		this.repository = repository;
+		objectInserter = repository.newObjectInserter();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (packOut == null) {
+			return;
+		}
+		packOut.close();
+		packOut = null;
+		try {
+			final InputStream in = newPackStream();
+			try {
+				final PackParser parser = objectInserter.newPackParser(in);
+				parser.parse(NullProgressMonitor.INSTANCE);
+				objectInserter.flush();
+			} finally {
+				in.close();
+			}
+		} finally {
+			packedObjects.clear();
+			deletePackBody();
+		}
+	}
+
+	@Override
+	public ObjectId insert(final int type, final long length,
+			final InputStream in) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Object too large: " + length + " bytes");
+		}
+		final byte[] data = new byte[(int) length];
+		IO.readFully(in, data, 0, data.length);
+		final ObjectId id = idFor(type, data);
+		if (packedObjects.contains(id) || repository.hasObject(id)) {
+			return id;
+		}
+		if (packOut == null) {
+			packBody = File.createTempFile("insert", ".pack",
+					repository.getDirectory());
+			packOut = new BufferedOutputStream(new FileOutputStream(packBody));
+		}
+		writeObjectHeader(type, length);
+		deflater.reset();
+		final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(
+				packOut, deflater);
+		deflaterOut.write(data);
+		deflaterOut.finish();
+		packedObjects.add(id);
+		return id;
+	}
+
+	private void deletePackBody() throws IOException {
+		if (packBody != null && !packBody.delete() && packBody.exists()) {
+			throw new IOException("Could not delete " + packBody);
+		}
+		packBody = null;
+	}
+
+	/**
+	 * Return the complete pack: the header, the objects and the checksum of
+	 * both.
+	 */
+	private InputStream newPackStream() throws IOException {
+		final byte[] header = new byte[12];
+		System.arraycopy(Constants.PACK_SIGNATURE, 0, header, 0, 4);
+		writeInt(header, 4, 2);
+		writeInt(header, 8, packedObjects.size());
+		final MessageDigest digest = Constants.newMessageDigest();
+		final InputStream content = new DigestInputStream(
+				new SequenceInputStream(new ByteArrayInputStream(header),
+						new BufferedInputStream(new FileInputStream(packBody))),
+				digest);
+		return new SequenceInputStream(new Enumeration<InputStream>() {
+			int next = 0;
+
+			@Override
+			public boolean hasMoreElements() {
+				return next < 2;
+			}
+
+			@Override
+			public InputStream nextElement() {
+				// The checksum is computed once the content has been read
+				return next++ == 0 ? content : new ByteArrayInputStream(digest
+						.digest());
+			}
+		});
+	}
+
+	@Override
+	public PackParser newPackParser(final InputStream in) throws IOException {
+		return objectInserter.newPackParser(in);
+	}
+
+	@Override
+	public ObjectReader newReader() {
+		return repository.newObjectReader();
+	}
+
+	@Override
+	public void release() {
+		deflater.end();
+		objectInserter.release();
+		try {
+			if (packOut != null) {
+				packOut.close();
+				packOut = null;
+			}
+			deletePackBody();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeInt(final byte[] buffer, final int offset,
+			final int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+
+	private void writeObjectHeader(final int type, final long length)
+			throws IOException {
+		long remaining = length >>> 4;
+		int b = (type << 4) | (int) (length & 0x0f);
+		while (remaining > 0) {
+			packOut.write(b | 0x80);
+			b = (int) (remaining & 0x7f);
+			remaining >>>= 7;
+		}
+		packOut.write(b);
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Check the statistics of {@link RepositorySnapshot} on small handmade trees.
+ */
+public class RepositorySnapshotTest {
+
+	private File directory;
+
+	private Git git;
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.getRepository().close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Before
+	public void initRepository() throws Exception {
+		directory = Files.createTempDirectory("snapshot").toFile();
+		git = Git.init().setBare(true)
+				.setDirectory(new File(directory, "handmade")).call();
+	}
+
+	private ObjectId insertCommit(final TreeFormatter tree) throws IOException {
+		final ObjectInserter inserter = git.getRepository().newObjectInserter();
+		try {
+			final CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(inserter.insert(tree));
+			final PersonIdent author = new PersonIdent("Author",
+					"author@example.com", 1000000000000L, 0);
+			commit.setAuthor(author);
+			commit.setCommitter(author);
+			commit.setMessage("Commit\n");
+			final ObjectId commitId = inserter.insert(commit);
+			inserter.flush();
+			return commitId;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	private ObjectId insertBlob(final String content) throws IOException {
+		final ObjectInserter inserter = git.getRepository().newObjectInserter();
+		try {
+			final ObjectId blobId = inserter.insert(Constants.OBJ_BLOB,
+					content.getBytes(Charsets.UTF_8));
+			inserter.flush();
+			return blobId;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	@Test
+	public void testCountsLinesAndBinaryFiles() throws IOException {
+		final TreeFormatter tree = new TreeFormatter();
+		tree.append("A.java", FileMode.REGULAR_FILE, insertBlob("a\nb\nc"));
+		tree.append("B.java", FileMode.REGULAR_FILE, insertBlob("a\n"));
+		tree.append("c.bin", FileMode.REGULAR_FILE, insertBlob("a\0b\n"));
+		tree.append("link", FileMode.SYMLINK, insertBlob("A.java"));
+		final RepositorySnapshot snapshot = RepositorySnapshot.scan(git,
+				insertCommit(tree));
+
+		assertEquals(3, snapshot.getNumFiles());
+		assertEquals(3, snapshot.getNumLines(0));
+		assertEquals(1, snapshot.getNumLines(1));
+		assertEquals(-1, snapshot.getNumLines(2));
+		final SortedMap<String, long[]> statistics = snapshot
+				.getStatisticsPerExtension();
+		assertArrayEquals(new long[] { 2, 0, 4, 7 }, statistics.get("java"));
+		assertArrayEquals(new long[] { 1, 1, 0, 4 }, statistics.get("bin"));
+	}
+
+	@Test
+	public void testSequentialReadsMatchParallelReads() throws IOException {
+		final File repository = new File(directory, "generated");
+		final FixtureRepository fixture = FixtureRepository.create(repository);
+		try {
+			fixture.commitRandomHistory(new Random(3), 50, 600, .1, 1000000);
+		} finally {
+			fixture.close();
+		}
+		final RepositorySnapshot parallel = RepositorySnapshot.scan(
+				repository, true);
+		final RepositorySnapshot sequential = RepositorySnapshot.scan(
+				repository, false);
+
+		assertTrue(parallel.getNumBlobs() > 256);
+		assertEquals(parallel.getNumFiles(), sequential.getNumFiles());
+		for (int i = 0; i < parallel.getNumFiles(); i++) {
+			assertEquals(parallel.getPath(i), sequential.getPath(i));
+			assertEquals(parallel.getSize(i), sequential.getSize(i));
+			assertEquals(parallel.getNumLines(i), sequential.getNumLines(i));
+		}
+	}
+
+	@Test
+	public void testSkipsUnreadableBlobs() throws IOException {
+		final TreeFormatter tree = new TreeFormatter();
+		tree.append("A.java", FileMode.REGULAR_FILE, insertBlob("a\nb\n"));
+		tree.append("Missing.java", FileMode.REGULAR_FILE,
+				ObjectId.fromString("0123456789012345678901234567890123456789"));
+		final RepositorySnapshot snapshot = RepositorySnapshot.scan(git,
+				insertCommit(tree));
+
+		assertEquals(2, snapshot.getNumFiles());
+		assertEquals(RepositorySnapshot.UNREADABLE, snapshot.getNumLines(1));
+		assertEquals(1, snapshot.getNumUnreadableFiles());
+		assertArrayEquals(new long[] { 1, 0, 2, 4 }, snapshot
+				.getStatisticsPerExtension().get("java"));
+	}
+}
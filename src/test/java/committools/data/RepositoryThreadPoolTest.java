@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import committools.data.RepositoryThreadPool.IRepositoryTask;
+import committools.output.CsvResultSink;
+import committools.output.IResultSink;
+import committools.output.ResultSchema;
+
+/**
+ * Check the order, the concurrency and the pending outputs of
+ * {@link RepositoryThreadPool#writeForEachRepository}.
+ */
+public class RepositoryThreadPoolTest {
+
+	private static final ResultSchema SCHEMA = ResultSchema.create()
+			.addString("repository").addLong("row");
+
+	private static File[] getRepositories(final int nRepositories) {
+		final File[] repositories = new File[nRepositories];
+		for (int i = 0; i < nRepositories; i++) {
+			repositories[i] = new File("repository" + i);
+		}
+		return repositories;
+	}
+
+	private static void sleep(final long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Run the task on the repositories and return the lines that it writes.
+	 */
+	private static List<String> writeForEachRepository(
+			final File[] repositories, final IRepositoryTask task,
+			final int maxConcurrency) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(SCHEMA,
+				Channels.newChannel(out), true);
+		RepositoryThreadPool.writeForEachRepository(repositories, task, sink,
+				maxConcurrency);
+		sink.close();
+		final List<String> lines = Lists.newArrayList(new String(out
+				.toByteArray(), Charsets.UTF_8).split("\n"));
+		assertEquals("repository,row", lines.remove(0));
+		return lines;
+	}
+
+	@Test
+	public void testBoundsPendingOutputs() throws IOException {
+		final int maxConcurrency = 2;
+		final AtomicInteger nStarted = new AtomicInteger();
+		final int[] nStartedBeforeFirst = { 0 };
+		final List<String> lines = writeForEachRepository(getRepositories(30),
+				new IRepositoryTask() {
+					@Override
+					public void process(final File repository,
+							final IResultSink sink) throws Exception {
+						nStarted.incrementAndGet();
+						if (repository.getName().equals("repository0")) {
+							// Hold back the output of all the others
+							final long deadline = System.nanoTime()
+									+ TimeUnit.SECONDS.toNanos(5);
+							while (nStarted.get() < 2 * maxConcurrency
+									&& System.nanoTime() < deadline) {
+								sleep(1);
+							}
+							sleep(200);
+							nStartedBeforeFirst[0] = nStarted.get();
+						}
+						sink.writeString(repository.getName());
+						sink.writeLong(0);
+						sink.endRow();
+					}
+				}, maxConcurrency);
+		assertEquals(2 * maxConcurrency, nStartedBeforeFirst[0]);
+		assertEquals(30, nStarted.get());
+		assertEquals(30, lines.size());
+	}
+
+	@Test
+	public void testLimitsConcurrency() throws IOException {
+		final int maxConcurrency = 3;
+		final AtomicInteger nRunning = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		writeForEachRepository(getRepositories(30), new IRepositoryTask() {
+			@Override
+			public void process(final File repository, final IResultSink sink)
+					throws Exception {
+				final int running = nRunning.incrementAndGet();
+				int max;
+				while ((max = maxRunning.get()) < running
+						&& !maxRunning.compareAndSet(max, running)) {
+					// Retry
+				}
+				sleep(20);
+				nRunning.decrementAndGet();
+			}
+		}, maxConcurrency);
+		assertTrue(maxRunning.get() <= maxConcurrency);
+		assertTrue(maxRunning.get() > 1);
+	}
+
+	@Test
+	public void testWritesInOrder() throws IOException {
+		final List<String> lines = writeForEachRepository(getRepositories(40),
+				new IRepositoryTask() {
+					@Override
+					public void process(final File repository,
+							final IResultSink sink) throws Exception {
+						final int i = Integer.parseInt(repository.getName()
+								.substring("repository".length()));
+						// Later repositories tend to complete first
+						sleep((40 - i) % 7);
+						for (int row = 0; row < i % 3; row++) {
+							sink.writeString(repository.getName());
+							sink.writeLong(row);
+							sink.endRow();
+						}
+						if (i % 5 == 4) {
+							throw new IOException("Failed " + repository);
+						}
+					}
+				}, 4);
+
+		final List<String> expected = Lists.newArrayList();
+		for (int i = 0; i < 40; i++) {
+			// Failed repositories write nothing
+			for (int row = 0; i % 5 != 4 && row < i % 3; row++) {
+				expected.add("repository" + i + "," + row);
+			}
+		}
+		assertEquals(expected, lines);
+	}
+}
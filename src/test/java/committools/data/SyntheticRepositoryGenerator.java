@@ -0,0 +1,617 @@
+/**
+ *
+ */
+package committools.data;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Generate synthetic Git repositories with a controlled shape, for testing
+ * the tools at scale. Objects are written directly to the object database,
+ * so no working tree or network access is needed. The same configuration
+ * and seed always generate the same repository (with the same commit ids).
+ *
+ * The history consists of a main branch and short-lived side branches that
+ * fork from it and are later merged back. Each commit edits a few files;
+ * some edits also rename the file. Files are spread over directories and a
+ * fraction of them is binary. Fork families are repositories that share the
+ * same initial history and then diverge.
+ *
+ * Objects are written into pack files without deltas, a new pack every
+ * {@value #COMMITS_PER_PACK} commits, so that memory stays bounded for
+ * large histories. Enable repacking to get a single, delta-compressed pack.
+ */
+public final class SyntheticRepositoryGenerator {
+
+	/**
+	 * The immutable state of a file at some version.
+	 */
+	private static final class FileState {
+		final int directory;
+		final String name;
+		final List<String> lines;
+		final byte[] binaryContent;
+		final ObjectId blobId;
+
+		FileState(final int directory, final String name,
+				final List<String> lines, final byte[] binaryContent,
+				final ObjectId blobId) {
+			this.directory = directory;
+			this.name = name;
+			this.lines = lines;
+			this.binaryContent = binaryContent;
+			this.blobId = blobId;
+		}
+	}
+
+	/**
+	 * The state of the files at the head of a branch. Tree ids are cached per
+	 * directory, so that only the directories changed by a commit are
+	 * written.
+	 */
+	private static final class Branch {
+		final String name;
+		ObjectId head;
+		final FileState[] files;
+		final List<SortedMap<String, ObjectId>> directoryEntries;
+		final ObjectId[] directoryTrees;
+
+		/**
+		 * The files changed since the branch forked from the main branch.
+		 */
+		final Set<Integer> changedFiles = Sets.newHashSet();
+
+		Branch(final String name, final int nFiles, final int nDirectories) {
+			this.name = name;
+			files = new FileState[nFiles];
+			directoryEntries = Lists.newArrayList();
+			for (int i = 0; i < nDirectories; i++) {
+				final SortedMap<String, ObjectId> entries = Maps.newTreeMap();
+				directoryEntries.add(entries);
+			}
+			directoryTrees = new ObjectId[nDirectories];
+		}
+
+		/**
+		 * Create a new branch with the same files as the given one.
+		 */
+		Branch(final String name, final Branch from) {
+			this.name = name;
+			head = from.head;
+			files = from.files.clone();
+			directoryEntries = Lists.newArrayList();
+			for (final SortedMap<String, ObjectId> entries : from.directoryEntries) {
+				directoryEntries.add(Maps.newTreeMap(entries));
+			}
+			directoryTrees = from.directoryTrees.clone();
+		}
+
+		void setFile(final int fileId, final FileState file) {
+			final FileState oldFile = files[fileId];
+			if (oldFile != null) {
+				directoryEntries.get(oldFile.directory).remove(oldFile.name);
+				directoryTrees[oldFile.directory] = null;
+			}
+			files[fileId] = file;
+			directoryEntries.get(file.directory).put(file.name, file.blobId);
+			directoryTrees[file.directory] = null;
+			changedFiles.add(fileId);
+		}
+	}
+
+	/**
+	 * The number of commits after which the pending objects are flushed
+	 * into a new pack.
+	 */
+	private static final int COMMITS_PER_PACK = 100000;
+
+	private static final int START_TIME = 1262304000; // 2010-01-01
+
+	private static final int SECONDS_BETWEEN_COMMITS = 3600;
+
+	private static final int BYTES_PER_BINARY_LINE = 40;
+
+	/**
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err
+					.println("Usage <outputDirectory> <nCommits> [<option>=<value>...]\n"
+							+ "Options: files, authors, branchProbability, mergeProbability,"
+							+ " meanLines, lineSigma, filesPerCommit, editsPerFile,"
+							+ " renameProbability, binaryFraction, seed, repack,"
+							+ " forks, forkCommits");
+			System.exit(-1);
+		}
+		final SyntheticRepositoryGenerator generator = new SyntheticRepositoryGenerator()
+				.setNumCommits(Integer.parseInt(args[1]));
+		int nForks = 0;
+		int forkCommits = 100;
+		for (int i = 2; i < args.length; i++) {
+			final String[] option = args[i].split("=");
+			checkArgument(option.length == 2, "Expected <option>=<value>: %s",
+					args[i]);
+			final String value = option[1];
+			if (option[0].equals("files")) {
+				generator.setNumFiles(Integer.parseInt(value));
+			} else if (option[0].equals("authors")) {
+				generator.setNumAuthors(Integer.parseInt(value));
+			} else if (option[0].equals("branchProbability")) {
+				generator.setBranchProbability(Double.parseDouble(value));
+			} else if (option[0].equals("mergeProbability")) {
+				generator.setMergeProbability(Double.parseDouble(value));
+			} else if (option[0].equals("meanLines")) {
+				generator.setFileSize(Integer.parseInt(value),
+						generator.lineSigma);
+			} else if (option[0].equals("lineSigma")) {
+				generator.setFileSize(generator.meanLines,
+						Double.parseDouble(value));
+			} else if (option[0].equals("filesPerCommit")) {
+				generator.setChurn(Integer.parseInt(value),
+						generator.editsPerFile);
+			} else if (option[0].equals("editsPerFile")) {
+				generator.setChurn(generator.filesPerCommit,
+						Integer.parseInt(value));
+			} else if (option[0].equals("renameProbability")) {
+				generator.setRenameProbability(Double.parseDouble(value));
+			} else if (option[0].equals("binaryFraction")) {
+				generator.setBinaryFraction(Double.parseDouble(value));
+			} else if (option[0].equals("seed")) {
+				generator.setSeed(Long.parseLong(value));
+			} else if (option[0].equals("repack")) {
+				generator.setRepack(Boolean.parseBoolean(value));
+			} else if (option[0].equals("forks")) {
+				nForks = Integer.parseInt(value);
+			} else if (option[0].equals("forkCommits")) {
+				forkCommits = Integer.parseInt(value);
+			} else {
+				throw new IllegalArgumentException("Unrecognized option "
+						+ option[0]);
+			}
+		}
+
+		final File outputDirectory = new File(args[0]);
+		if (nForks == 0) {
+			System.out.println(generator.generate(outputDirectory).name());
+		} else {
+			generator.generateFamily(outputDirectory.getParentFile(),
+					outputDirectory.getName(), nForks, forkCommits);
+		}
+	}
+
+	private int nCommits = 1000;
+
+	private int nFiles = 100;
+
+	private int nAuthors = 10;
+
+	private double branchProbability = .05;
+
+	private double mergeProbability = .05;
+
+	private int meanLines = 200;
+
+	private double lineSigma = 1;
+
+	private int filesPerCommit = 3;
+
+	private int editsPerFile = 3;
+
+	private double renameProbability = .01;
+
+	private double binaryFraction = 0;
+
+	private long seed = 0;
+
+	private boolean repack = false;
+
+	private void commit(final ObjectInserter inserter, final Branch branch,
+			final ObjectId[] parents, final String message, final int time,
+			final PersonIdent author) throws IOException {
+		for (int i = 0; i < branch.directoryTrees.length; i++) {
+			if (branch.directoryTrees[i] != null) {
+				continue;
+			}
+			final TreeFormatter tree = new TreeFormatter();
+			for (final Map.Entry<String, ObjectId> entry : branch.directoryEntries
+					.get(i).entrySet()) {
+				tree.append(entry.getKey(), FileMode.REGULAR_FILE,
+						entry.getValue());
+			}
+			branch.directoryTrees[i] = inserter.insert(tree);
+		}
+
+		// Directories are sorted as if their names ended with a slash
+		final SortedMap<String, ObjectId> directories = Maps.newTreeMap();
+		for (int i = 0; i < branch.directoryTrees.length; i++) {
+			if (!branch.directoryEntries.get(i).isEmpty()) {
+				directories.put(getDirectoryName(i) + "/",
+						branch.directoryTrees[i]);
+			}
+		}
+		final TreeFormatter root = new TreeFormatter();
+		for (final Map.Entry<String, ObjectId> entry : directories.entrySet()) {
+			final String name = entry.getKey();
+			root.append(name.substring(0, name.length() - 1), FileMode.TREE,
+					entry.getValue());
+		}
+
+		final CommitBuilder builder = new CommitBuilder();
+		builder.setTreeId(inserter.insert(root));
+		builder.setParentIds(parents);
+		final PersonIdent ident = new PersonIdent(author.getName(),
+				author.getEmailAddress(), time * 1000L, 0);
+		builder.setAuthor(ident);
+		builder.setCommitter(ident);
+		builder.setMessage(message);
+		branch.head = inserter.insert(builder);
+	}
+
+	private FileState createFile(final ObjectInserter inserter,
+			final int fileId, final Random random) throws IOException {
+		final int nLines = Math.max(1, (int) Math.round(Math.exp(Math
+				.log(meanLines) + lineSigma * random.nextGaussian())));
+		final int directory = fileId % getNumDirectories();
+		if (random.nextDouble() < binaryFraction) {
+			final byte[] content = new byte[nLines * BYTES_PER_BINARY_LINE];
+			random.nextBytes(content);
+			content[0] = 0; // Make sure the file looks binary
+			return new FileState(directory, "File" + fileId + ".bin", null,
+					content, inserter.insert(Constants.OBJ_BLOB, content));
+		}
+		final List<String> lines = Lists.newArrayList();
+		for (int i = 0; i < nLines; i++) {
+			lines.add(randomLine(random));
+		}
+		return new FileState(directory, "File" + fileId + ".java", lines,
+				null, insertLines(inserter, lines));
+	}
+
+	private FileState editFile(final ObjectInserter inserter,
+			final FileState file, final String name, final Random random)
+			throws IOException {
+		if (file.binaryContent != null) {
+			final byte[] content = file.binaryContent.clone();
+			final int from = random.nextInt(content.length);
+			final byte[] replacement = new byte[Math.min(content.length
+					- from, editsPerFile * BYTES_PER_BINARY_LINE)];
+			random.nextBytes(replacement);
+			System.arraycopy(replacement, 0, content, from,
+					replacement.length);
+			content[0] = 0;
+			return new FileState(file.directory, name, null, content,
+					inserter.insert(Constants.OBJ_BLOB, content));
+		}
+
+		final List<String> lines = Lists.newArrayList(file.lines);
+		for (int i = 0; i < editsPerFile; i++) {
+			final int operation = random.nextInt(3);
+			if (operation == 0 && !lines.isEmpty()) {
+				lines.set(random.nextInt(lines.size()), randomLine(random));
+			} else if (operation == 1 || lines.size() <= 1) {
+				lines.add(random.nextInt(lines.size() + 1), randomLine(random));
+			} else {
+				lines.remove(random.nextInt(lines.size()));
+			}
+		}
+		return new FileState(file.directory, name, lines, null, insertLines(
+				inserter, lines));
+	}
+
+	/**
+	 * Generate a repository in the given directory.
+	 *
+	 * @param directory
+	 * @return the id of the HEAD commit
+	 * @throws IOException
+	 */
+	public ObjectId generate(final File directory) throws IOException {
+		return generate(directory, 0, 0);
+	}
+
+	/**
+	 * Generate a repository, whose first nCommits are always the same and
+	 * the rest depend on the extraSeed.
+	 */
+	private ObjectId generate(final File directory, final int nExtraCommits,
+			final long extraSeed) throws IOException {
+		final Repository repository = FileRepositoryBuilder.create(new File(
+				directory, Constants.DOT_GIT));
+		repository.create();
+		final ObjectInserter inserter = new PackFileInserter(repository);
+		final Branch main = new Branch(Constants.MASTER, nFiles,
+				getNumDirectories());
+		final List<Branch> sideBranches = Lists.newArrayList();
+		try {
+			Random random = new Random(seed);
+			for (int i = 0; i < nFiles; i++) {
+				main.setFile(i, createFile(inserter, i, random));
+			}
+			main.changedFiles.clear();
+
+			int nBranches = 0;
+			for (int i = 0; i < nCommits + nExtraCommits; i++) {
+				if (i == nCommits) {
+					random = new Random(extraSeed);
+				}
+				if (i > 0 && i % COMMITS_PER_PACK == 0) {
+					inserter.flush();
+				}
+				final int time = START_TIME + i * SECONDS_BETWEEN_COMMITS;
+				final PersonIdent author = getAuthor(random);
+				if (i == 0) {
+					commit(inserter, main, new ObjectId[0], "Initial commit\n",
+							time, author);
+					continue;
+				}
+
+				if (!sideBranches.isEmpty()
+						&& random.nextDouble() < mergeProbability) {
+					final Branch side = sideBranches.remove(random
+							.nextInt(sideBranches.size()));
+					for (final int fileId : side.changedFiles) {
+						main.setFile(fileId, side.files[fileId]);
+					}
+					commit(inserter, main,
+							new ObjectId[] { main.head, side.head },
+							"Merge branch '" + side.name + "'\n", time, author);
+					continue;
+				}
+				if (random.nextDouble() < branchProbability) {
+					sideBranches.add(new Branch("branch" + nBranches++, main));
+				}
+
+				final Branch branch = sideBranches.isEmpty()
+						|| random.nextBoolean() ? main : sideBranches
+						.get(random.nextInt(sideBranches.size()));
+				final int nChangedFiles = 1 + random
+						.nextInt(2 * filesPerCommit - 1);
+				for (int j = 0; j < nChangedFiles; j++) {
+					final int fileId = random.nextInt(nFiles);
+					final FileState file = branch.files[fileId];
+					final String name = random.nextDouble() < renameProbability ? "File"
+							+ fileId
+							+ "_"
+							+ i
+							+ (file.binaryContent == null ? ".java" : ".bin")
+							: file.name;
+					branch.setFile(fileId,
+							editFile(inserter, file, name, random));
+				}
+				commit(inserter, branch, new ObjectId[] { branch.head },
+						"Change " + i + "\n", time, author);
+			}
+			inserter.flush();
+
+			updateRef(repository, Constants.R_HEADS + main.name, main.head);
+			for (final Branch side : sideBranches) {
+				updateRef(repository, Constants.R_HEADS + side.name, side.head);
+			}
+		} finally {
+			inserter.release();
+		}
+
+		try {
+			if (repack) {
+				Git.wrap(repository).gc().call();
+			}
+		} catch (final GitAPIException e) {
+			throw new IOException(e);
+		} finally {
+			repository.close();
+		}
+		return main.head;
+	}
+
+	/**
+	 * Generate a family of repositories sharing the same initial history. The
+	 * original repository has nCommits commits and each fork has
+	 * commitsPerFork more commits of its own.
+	 *
+	 * @param parentDirectory
+	 *            the directory to create the repositories in
+	 * @param name
+	 *            the name of the original repository. Forks are named
+	 *            name_fork0, name_fork1 etc.
+	 * @param nForks
+	 * @param commitsPerFork
+	 * @throws IOException
+	 */
+	public void generateFamily(final File parentDirectory, final String name,
+			final int nForks, final int commitsPerFork) throws IOException {
+		generate(new File(parentDirectory, name));
+		for (int i = 0; i < nForks; i++) {
+			generate(new File(parentDirectory, name + "_fork" + i),
+					commitsPerFork, seed + i + 1);
+		}
+	}
+
+	private PersonIdent getAuthor(final Random random) {
+		// Skew the number of commits per author
+		final double r = random.nextDouble();
+		final int author = (int) (r * r * nAuthors);
+		// Every other author also commits from a second address
+		final String email = "author" + author
+				+ (author % 2 == 0 && random.nextBoolean() ? "@home.org"
+						: "@example.org");
+		return new PersonIdent("Author " + author, email);
+	}
+
+	private static String getDirectoryName(final int directory) {
+		return "dir" + directory;
+	}
+
+	private int getNumDirectories() {
+		return Math.max(1, (int) Math.sqrt(nFiles));
+	}
+
+	private static ObjectId insertLines(final ObjectInserter inserter,
+			final List<String> lines) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (final String line : lines) {
+			sb.append(line).append('\n');
+		}
+		return inserter.insert(Constants.OBJ_BLOB,
+				sb.toString().getBytes(Charsets.UTF_8));
+	}
+
+	private static String randomLine(final Random random) {
+		return "\tint x" + random.nextInt(1000) + " = " + random.nextInt()
+				+ ";";
+	}
+
+	/**
+	 * @param binaryFraction
+	 *            the fraction of the files that are binary
+	 */
+	public SyntheticRepositoryGenerator setBinaryFraction(
+			final double binaryFraction) {
+		checkArgument(binaryFraction >= 0 && binaryFraction <= 1);
+		this.binaryFraction = binaryFraction;
+		return this;
+	}
+
+	/**
+	 * @param branchProbability
+	 *            the probability that a new side branch is created at each
+	 *            commit
+	 */
+	public SyntheticRepositoryGenerator setBranchProbability(
+			final double branchProbability) {
+		checkArgument(branchProbability >= 0 && branchProbability <= 1);
+		this.branchProbability = branchProbability;
+		return this;
+	}
+
+	/**
+	 * @param filesPerCommit
+	 *            the average number of files changed by each commit
+	 * @param editsPerFile
+	 *            the number of lines inserted, deleted or replaced in each
+	 *            changed file
+	 */
+	public SyntheticRepositoryGenerator setChurn(final int filesPerCommit,
+			final int editsPerFile) {
+		checkArgument(filesPerCommit > 0 && editsPerFile > 0);
+		this.filesPerCommit = filesPerCommit;
+		this.editsPerFile = editsPerFile;
+		return this;
+	}
+
+	/**
+	 * The number of lines of each file follows a log-normal distribution.
+	 *
+	 * @param meanLines
+	 *            the median number of lines of each file
+	 * @param lineSigma
+	 *            the standard deviation of the logarithm of the number of
+	 *            lines
+	 */
+	public SyntheticRepositoryGenerator setFileSize(final int meanLines,
+			final double lineSigma) {
+		checkArgument(meanLines > 0 && lineSigma >= 0);
+		this.meanLines = meanLines;
+		this.lineSigma = lineSigma;
+		return this;
+	}
+
+	/**
+	 * @param mergeProbability
+	 *            the probability that a side branch is merged back at each
+	 *            commit
+	 */
+	public SyntheticRepositoryGenerator setMergeProbability(
+			final double mergeProbability) {
+		checkArgument(mergeProbability >= 0 && mergeProbability <= 1);
+		this.mergeProbability = mergeProbability;
+		return this;
+	}
+
+	public SyntheticRepositoryGenerator setNumAuthors(final int nAuthors) {
+		checkArgument(nAuthors > 0);
+		this.nAuthors = nAuthors;
+		return this;
+	}
+
+	/**
+	 * @param nCommits
+	 *            the number of commits, including merges
+	 */
+	public SyntheticRepositoryGenerator setNumCommits(final int nCommits) {
+		checkArgument(nCommits > 0);
+		this.nCommits = nCommits;
+		return this;
+	}
+
+	public SyntheticRepositoryGenerator setNumFiles(final int nFiles) {
+		checkArgument(nFiles > 0);
+		this.nFiles = nFiles;
+		return this;
+	}
+
+	/**
+	 * @param renameProbability
+	 *            the probability that a changed file is also renamed
+	 */
+	public SyntheticRepositoryGenerator setRenameProbability(
+			final double renameProbability) {
+		checkArgument(renameProbability >= 0 && renameProbability <= 1);
+		this.renameProbability = renameProbability;
+		return this;
+	}
+
+	/**
+	 * @param repack
+	 *            pack the objects of the repository after generating it
+	 */
+	public SyntheticRepositoryGenerator setRepack(final boolean repack) {
+		this.repack = repack;
+		return this;
+	}
+
+	public SyntheticRepositoryGenerator setSeed(final long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	private static void updateRef(final Repository repository,
+			final String refName, final ObjectId id) throws IOException {
+		final RefUpdate update = repository.updateRef(refName);
+		update.setNewObjectId(id);
+		final RefUpdate.Result result = update.forceUpdate();
+		if (result != RefUpdate.Result.NEW
+				&& result != RefUpdate.Result.FORCED
+				&& result != RefUpdate.Result.NO_CHANGE) {
+			throw new IOException("Failed to update " + refName + ": "
+					+ result);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+/**
+ * Check the token edits of the {@link TokenDiff} of a known change.
+ */
+public class TokenDiffTest {
+
+	private static final String OLD = "class A {\n" + "\tint x = foo(1);\n"
+			+ "\t/* a\n" + "\t b */\n" + "\tint y;\n" + "}\n";
+
+	private static final String NEW = "class A {\n" + "\tint x = bar(1, 2);\n"
+			+ "\t/* a\n" + "\t c */\n" + "\tint y;\n" + "}\n";
+
+	private static List<String> getTokens(final TokenSequence sequence) {
+		final List<String> tokens = Lists.newArrayList();
+		for (int i = 0; i < sequence.size(); i++) {
+			tokens.add(sequence.getString(i));
+		}
+		return tokens;
+	}
+
+	private File directory;
+
+	private final List<ObjectId> commits = Lists.newArrayList();
+
+	@Before
+	public void createRepository() throws IOException {
+		directory = Files.createTempDir();
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		try {
+			repository.setFile("A.java", OLD);
+			commits.add(repository.commit("Add A\n", "Author",
+					"author@example.org", 1000000));
+			repository.setFile("A.java", NEW);
+			commits.add(repository.commit("Change A\n", "Author",
+					"author@example.org", 1000100));
+		} finally {
+			repository.close();
+		}
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private TokenDiff getTokenDiff() throws Exception {
+		final Git git = GitCommitUtils.getGitRepository(directory
+				.getAbsolutePath());
+		final RevWalk walk = new RevWalk(git.getRepository());
+		final List<TokenDiff> tokenDiffs = Lists.newArrayList();
+		try {
+			new EditListRetriever(git, TrueFileFilter.TRUE)
+					.retrieveTokenDiffBetweenAndCallback(
+							walk.parseCommit(commits.get(1)),
+							walk.parseCommit(commits.get(0)),
+							new EditListRetriever.ITokenDiffCallback() {
+
+								@Override
+								public void visitDiffEntry(
+										final DiffEntry entry,
+										final TokenDiff tokenDiff,
+										final RevCommit commit) {
+									tokenDiffs.add(tokenDiff);
+								}
+							});
+		} finally {
+			walk.release();
+			git.getRepository().close();
+		}
+		assertEquals(1, tokenDiffs.size());
+		return tokenDiffs.get(0);
+	}
+
+	@Test
+	public void testTokenEditsOfKnownChange() throws Exception {
+		final TokenDiff diff = getTokenDiff();
+		final EditList lineEdits = diff.getLineEdits();
+		assertEquals(2, lineEdits.size());
+		assertEquals(new Edit(1, 2, 1, 2), lineEdits.get(0));
+		assertEquals(new Edit(3, 4, 3, 4), lineEdits.get(1));
+
+		// foo is replaced by bar and ", 2" is inserted after 1
+		assertEquals(
+				Arrays.asList("int", "x", "=", "foo", "(", "1", ")", ";"),
+				getTokens(diff.getOldTokens(0)));
+		assertEquals(Arrays.asList("int", "x", "=", "bar", "(", "1", ",",
+				"2", ")", ";"), getTokens(diff.getNewTokens(0)));
+		final EditList tokenEdits = diff.getTokenEdits(0);
+		assertEquals(2, tokenEdits.size());
+		assertEquals(new Edit(3, 4, 3, 4), tokenEdits.get(0));
+		assertEquals(new Edit(6, 6, 6, 8), tokenEdits.get(1));
+	}
+
+	@Test
+	public void testRegionsAreLocal() throws Exception {
+		final TokenDiff diff = getTokenDiff();
+		// The tokens of each line edit are those of its lines only, at their
+		// offsets in the file
+		final TokenSequence oldTokens = diff.getOldTokens(0);
+		assertEquals(OLD.indexOf("int x"), oldTokens.getStart(0));
+		assertEquals(OLD.indexOf(";\n\t/*") + 1,
+				oldTokens.getEnd(oldTokens.size() - 1));
+
+		// The second line edit is inside a block comment, but its lines are
+		// lexed as code
+		assertEquals(Arrays.asList("b", "*", "/"),
+				getTokens(diff.getOldTokens(1)));
+		assertEquals(Arrays.asList("c", "*", "/"),
+				getTokens(diff.getNewTokens(1)));
+		assertEquals(NEW.indexOf("c */"), diff.getNewTokens(1).getStart(0));
+		final EditList tokenEdits = diff.getTokenEdits(1);
+		assertEquals(1, tokenEdits.size());
+		assertEquals(new Edit(0, 1, 0, 1), tokenEdits.get(0));
+	}
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ */
+package committools.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+/**
+ * Check the tokens that {@link TokenSequence} lexes and their comparison by
+ * {@link TokenSequenceComparator}.
+ */
+public class TokenSequenceTest {
+
+	private static List<String> getTokens(final String code) {
+		final byte[] content = code.getBytes(Charsets.UTF_8);
+		return getTokens(new TokenSequence(content, 0, content.length));
+	}
+
+	private static List<String> getTokens(final TokenSequence sequence) {
+		final List<String> tokens = Lists.newArrayList();
+		for (int i = 0; i < sequence.size(); i++) {
+			tokens.add(sequence.getString(i));
+		}
+		return tokens;
+	}
+
+	@Test
+	public void testComments() {
+		assertEquals(Arrays.asList("a", "// line comment", "b"),
+				getTokens("a // line comment\nb"));
+		assertEquals(Arrays.asList("a", "/* block\n * comment */", "b"),
+				getTokens("a /* block\n * comment */ b"));
+		assertEquals(Arrays.asList("a", "/**/", "b"), getTokens("a/**/b"));
+		// Comments that are not closed end at the end of the region
+		assertEquals(Arrays.asList("a", "/* open"), getTokens("a /* open"));
+		assertEquals(Arrays.asList("a", "/", "b"), getTokens("a / b"));
+	}
+
+	@Test
+	public void testComparator() {
+		final byte[] content = "foo(bar); foo(baz);".getBytes(Charsets.UTF_8);
+		final TokenSequence first = new TokenSequence(content, 0, 9);
+		final TokenSequence second = new TokenSequence(content, 10,
+				content.length);
+		final TokenSequenceComparator comparator = TokenSequenceComparator.INSTANCE;
+		assertTrue(comparator.equals(first, 0, second, 0));
+		assertEquals(comparator.hash(first, 0), comparator.hash(second, 0));
+		assertTrue(comparator.equals(first, 1, second, 1));
+		assertFalse(comparator.equals(first, 2, second, 2));
+		assertFalse(comparator.equals(first, 0, second, 1));
+	}
+
+	@Test
+	public void testIdentifiersAndOperators() {
+		assertEquals(Arrays.asList("int", "x_1", "=", "$y", "+", "0x1F", "*",
+				"b", ";", "a", "-", "-", ">", "c"),
+				getTokens("int x_1 = $y+0x1F * b;\r\n\ta-->c"));
+		// Non-ASCII letters are part of identifiers
+		assertEquals(Arrays.asList("caf\u00e9", "(", ")"),
+				getTokens("caf\u00e9()"));
+		assertEquals(Arrays.<String> asList(), getTokens(" \t\r\n\f"));
+	}
+
+	@Test
+	public void testLiterals() {
+		assertEquals(Arrays.asList("s", "=", "\"a \\\"quoted\\\" // b\"", ";"),
+				getTokens("s = \"a \\\"quoted\\\" // b\";"));
+		assertEquals(Arrays.asList("'\\''", ",", "'x'"),
+				getTokens("'\\'','x'"));
+		// Literals that are not closed end at the end of the line
+		assertEquals(Arrays.asList("\"open", "x"), getTokens("\"open\nx"));
+		assertEquals(Arrays.asList("\"/* not a comment */\""),
+				getTokens("\"/* not a comment */\""));
+	}
+
+	@Test
+	public void testRegionIsLexedOnItsOwn() {
+		final byte[] content = "/* a\nb c */ d\ne".getBytes(Charsets.UTF_8);
+		// The second line starts inside the comment, but is lexed as code
+		final TokenSequence region = new TokenSequence(content, 5, 13);
+		assertEquals(Arrays.asList("b", "c", "*", "/", "d"), getTokens(region));
+		assertEquals(5, region.getStart(0));
+		assertEquals(6, region.getEnd(0));
+		assertEquals(12, region.getStart(4));
+		assertEquals(13, region.getEnd(4));
+		assertEquals(0, new TokenSequence(content, 5, 5).size());
+	}
+}
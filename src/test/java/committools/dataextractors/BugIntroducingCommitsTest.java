@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.TrueFileFilter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+import committools.data.FixtureRepository;
+
+/**
+ * Check the bug-introducing commits that {@link BugIntroducingCommits} blames
+ * for a history with a known fix.
+ */
+public class BugIntroducingCommitsTest {
+
+	private File directory;
+
+	@Before
+	public void createDirectory() {
+		directory = Files.createTempDir();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testBlamesKnownFix() throws IOException {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		final ObjectId bug;
+		final ObjectId other;
+		final ObjectId fix;
+		try {
+			repository.setFile("Main.java", "a\nb\nc\n");
+			repository.commit("Initial commit\n", "Ann", "ann@example.org",
+					1000000);
+			repository.setFile("Main.java", "a\nbug\nc\n");
+			bug = repository.commit("Add a feature\n", "Bob",
+					"bob@example.org", 1000100);
+			repository.setFile("Main.java", "a\nbug\nc\nd\n");
+			other = repository.commit("Add another feature\n", "Ann",
+					"ann@example.org", 1000200);
+			// Adding a file blames nothing
+			repository.setFile("Main.java", "a\nb\nc\n");
+			repository.setFile("Test.java", "test\n");
+			fix = repository.commit("Fix the feature\n", "Ann",
+					"ann@example.org", 1000300);
+			// A merge is not a fix
+			final ObjectId base = repository.getHead();
+			repository.setFile("Main.java", "a\nb\nx\n");
+			final ObjectId side = repository.commit("Side change\n", "Bob",
+					"bob@example.org", 1000400);
+			repository.checkout(base);
+			repository.setFile("Main.java", "a\nb\nx\n");
+			repository.merge(side, "Fix merge\n", "Bob", "bob@example.org",
+					1000500);
+		} finally {
+			repository.close();
+		}
+
+		final BugIntroducingCommits szz = new BugIntroducingCommits(
+				directory.getAbsolutePath(),
+				BugIntroducingCommits.regexCriterion(Pattern.compile("Fix")),
+				TrueFileFilter.TRUE);
+		final SortedMap<String, SortedMap<String, Integer>> fixes;
+		try {
+			fixes = szz.findBugIntroducingCommits();
+		} finally {
+			szz.close();
+		}
+
+		// The fix replaces the line of the bug and deletes the line of the
+		// other commit
+		final SortedMap<String, Integer> inducingCommits = Maps.newTreeMap();
+		inducingCommits.put(bug.name(), 1);
+		inducingCommits.put(other.name(), 1);
+		final SortedMap<String, SortedMap<String, Integer>> expected = Maps
+				.newTreeMap();
+		expected.put(fix.name(), inducingCommits);
+		assertEquals(expected, fixes);
+	}
+}
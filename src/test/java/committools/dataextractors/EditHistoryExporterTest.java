@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import committools.data.GitCommitUtils;
+import committools.data.SyntheticRepositoryGenerator;
+
+/**
+ * Check that updating an edit history archive gives the same history as
+ * exporting it again.
+ */
+public class EditHistoryExporterTest {
+
+	private static final int NEW_COMMITS = 100;
+
+	/**
+	 * Return the changes and edits of each commit of the archive, by commit
+	 * name.
+	 */
+	private static Map<String, List<String>> readHistory(final File file)
+			throws IOException {
+		final Map<String, List<String>> history = Maps.newTreeMap();
+		final EditHistoryArchive archive = EditHistoryArchive.open(file);
+		try {
+			for (int c = 0; c < archive.getNumCommits(); c++) {
+				final List<String> changes = Lists.newArrayList();
+				changes.add(Integer.toString(archive.getCommitTime(c)));
+				for (long ch = archive.getFirstChange(c); ch < archive
+						.getFirstChange(c + 1); ch++) {
+					final StringBuilder change = new StringBuilder();
+					change.append(archive.getChangeType(ch)).append(' ')
+							.append(getPath(archive, archive.getOldPath(ch)))
+							.append(' ')
+							.append(getPath(archive, archive.getNewPath(ch)));
+					for (long e = archive.getFirstEdit(ch); e < archive
+							.getFirstEdit(ch + 1); e++) {
+						change.append(' ').append(archive.getBeginA(e))
+								.append(',').append(archive.getEndA(e))
+								.append(',').append(archive.getBeginB(e))
+								.append(',').append(archive.getEndB(e));
+					}
+					changes.add(change.toString());
+				}
+				assertTrue(history.put(archive.getCommitName(c), changes) == null);
+			}
+		} finally {
+			archive.close();
+		}
+		return history;
+	}
+
+	private static String getPath(final EditHistoryArchive archive,
+			final int path) {
+		return path < 0 ? "-" : archive.getPath(path);
+	}
+
+	private File directory;
+
+	private File repositoryDirectory;
+
+	private String repository;
+
+	@After
+	public void deleteRepository() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Before
+	public void generateRepository() throws IOException {
+		directory = Files.createTempDirectory("editHistory").toFile();
+		repositoryDirectory = new File(directory, "repository");
+		new SyntheticRepositoryGenerator().setNumCommits(300).setNumFiles(30)
+				.setBranchProbability(.2).setRenameProbability(.1)
+				.setBinaryFraction(.1).setSeed(11)
+				.generate(repositoryDirectory);
+		repository = repositoryDirectory.getAbsolutePath();
+	}
+
+	/**
+	 * Move HEAD to the given commit and return the commit it was at.
+	 */
+	private ObjectId moveHead(final ObjectId commit) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repository);
+		try {
+			final ObjectId previous = GitCommitUtils.getHeadId(git);
+			final RefUpdate update = git.getRepository().updateRef(
+					Constants.HEAD);
+			update.setNewObjectId(commit);
+			update.forceUpdate();
+			return previous;
+		} finally {
+			git.getRepository().close();
+		}
+	}
+
+	/**
+	 * Move HEAD back along its first parents and return the commit it was at.
+	 */
+	private ObjectId moveHeadBack(final int nCommits) throws IOException {
+		final Git git = GitCommitUtils.getGitRepository(repository);
+		final RevWalk walk = new RevWalk(git.getRepository());
+		RevCommit commit;
+		try {
+			commit = walk.parseCommit(GitCommitUtils.getHeadId(git));
+			for (int i = 0; i < nCommits; i++) {
+				commit = walk.parseCommit(commit.getParent(0));
+			}
+		} finally {
+			walk.release();
+			git.getRepository().close();
+		}
+		return moveHead(commit);
+	}
+
+	@Test
+	public void testExportsEachCommitOnce() throws IOException {
+		final File file = new File(directory, "history.edits");
+		new EditHistoryExporter(repository,
+				Collections.<String> emptyList(), false, file).export();
+		final EditHistoryArchive archive = EditHistoryArchive.open(file);
+		try {
+			assertTrue(archive.getNumCommits() > 0);
+			assertEquals(archive.getNumCommits(), readHistory(file).size());
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testFailedExportDeletesTemporaryFiles() throws IOException {
+		final File file = new File(directory, "history.edits");
+		// The new archive cannot be written over a directory
+		assertTrue(new File(directory, "history.edits.new").mkdir());
+		try {
+			new EditHistoryExporter(repository,
+					Collections.<String> emptyList(), false, file).export();
+			fail();
+		} catch (final IOException e) {
+			// Expected
+		}
+		assertEquals(Arrays.asList("repository"), Arrays.asList(directory
+				.list()));
+	}
+
+	@Test
+	public void testLeavesNoTemporaryFiles() throws IOException {
+		final File file = new File(directory, "history.edits");
+		final EditHistoryExporter exporter = new EditHistoryExporter(
+				repository, Arrays.asList(".none"), false, file);
+		assertEquals(Arrays.asList("repository"), Arrays.asList(directory
+				.list()));
+		// No changes, so no temporary files are created
+		exporter.export();
+		final EditHistoryArchive archive = EditHistoryArchive.open(file);
+		try {
+			assertEquals(0, archive.getNumCommits());
+			assertEquals(0, archive.getNumChanges());
+		} finally {
+			archive.close();
+		}
+
+		final ObjectId head = moveHeadBack(NEW_COMMITS);
+		new EditHistoryExporter(repository, Arrays.asList(".java"), false,
+				file).export();
+		moveHead(head);
+		new EditHistoryExporter(repository, Arrays.asList(".java"), false,
+				file).update();
+		final List<String> files = Arrays.asList(directory.list());
+		Collections.sort(files);
+		assertEquals(Arrays.asList("history.edits", "repository"), files);
+	}
+
+	@Test
+	public void testUpdateSameAsExport() throws IOException {
+		final List<String> suffixes = Arrays.asList(".java");
+		final File updated = new File(directory, "updated.edits");
+		final ObjectId head = moveHeadBack(NEW_COMMITS);
+		new EditHistoryExporter(repository, suffixes, true, updated).export();
+		final int baseCommits = readHistory(updated).size();
+		moveHead(head);
+		new EditHistoryExporter(repository, suffixes, true, updated).update();
+
+		final File exported = new File(directory, "exported.edits");
+		new EditHistoryExporter(repository, suffixes, true, exported).export();
+		final Map<String, List<String>> history = readHistory(exported);
+		assertTrue(history.size() > baseCommits);
+		assertEquals(history, readHistory(updated));
+
+		final EditHistoryArchive archive = EditHistoryArchive.open(updated);
+		try {
+			assertTrue(archive.isFirstParentHistory());
+			assertEquals(suffixes, archive.getFileSuffixes());
+			assertEquals(head.name(), archive.getHeadName());
+		} finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void testUpdateExportsAgainWithOtherSettings() throws IOException {
+		final File file = new File(directory, "history.edits");
+		final ObjectId head = moveHeadBack(NEW_COMMITS);
+		new EditHistoryExporter(repository, Arrays.asList(".java"), true, file)
+				.export();
+		moveHead(head);
+
+		final List<String> noSuffixes = Collections.emptyList();
+		new EditHistoryExporter(repository, noSuffixes, true, file).update();
+		final File exported = new File(directory, "exported.edits");
+		new EditHistoryExporter(repository, noSuffixes, true, exported)
+				.export();
+		assertEquals(readHistory(exported), readHistory(file));
+
+		new EditHistoryExporter(repository, noSuffixes, false, file).update();
+		new EditHistoryExporter(repository, noSuffixes, false, exported)
+				.export();
+		assertEquals(readHistory(exported), readHistory(file));
+
+		final EditHistoryArchive archive = EditHistoryArchive.open(file);
+		try {
+			assertFalse(archive.isFirstParentHistory());
+			assertTrue(archive.getFileSuffixes().isEmpty());
+		} finally {
+			archive.close();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+
+import committools.data.FixtureRepository;
+import committools.output.CsvResultSink;
+import committools.output.IResultSink;
+
+/**
+ * Check the age of the lines that {@link LineLifecycle} writes for a history
+ * with known changes.
+ */
+public class LineLifecycleTest {
+
+	private static final int TIME = 1000000;
+
+	private File directory;
+
+	private ObjectId commit(final FixtureRepository repository,
+			final String content, final int time) throws IOException {
+		repository.setFile("Main.java", content);
+		repository.setFile("README", "Changed at " + time + "\n");
+		return repository.commit("Change at " + time + "\n", "Author",
+				"author@example.org", time);
+	}
+
+	@Before
+	public void createDirectory() {
+		directory = Files.createTempDir();
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testLineAges() throws IOException {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		final List<ObjectId> commits;
+		try {
+			commits = Arrays.asList(
+					commit(repository, "a\nb\nc\n", TIME),
+					commit(repository, "a\nb\nc\nd\n", TIME + 100),
+					commit(repository, "a\nB\nc\nd\n", TIME + 300),
+					commit(repository, "a\nB\nd\n", TIME + 1000),
+					commit(repository, "a\nB\n", TIME + 1500));
+		} finally {
+			repository.close();
+		}
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(LineLifecycle.newSchema(),
+				Channels.newChannel(out), true);
+		final LineLifecycle lifecycle = new LineLifecycle(
+				directory.getAbsolutePath());
+		try {
+			lifecycle.calculateLifecycle(sink);
+		} finally {
+			lifecycle.close();
+		}
+		sink.close();
+
+		final String[] lines = new String(out.toByteArray(), Charsets.UTF_8)
+				.split("\n");
+		assertEquals("commit,file,line,timeSinceLastChange", lines[0]);
+		// The replaced line b, the deleted line c and the deleted line d
+		final SortedSet<String> expected = Sets.newTreeSet(Arrays.asList(
+				commits.get(2).name() + ",Main.java,1,300", commits.get(3)
+						.name() + ",Main.java,2,1000", commits.get(4).name()
+						+ ",Main.java,2,1400"));
+		assertEquals(expected, Sets.newTreeSet(Arrays.asList(lines).subList(
+				1, lines.length)));
+	}
+}
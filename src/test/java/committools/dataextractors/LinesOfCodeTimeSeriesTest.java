@@ -0,0 +1,204 @@
+/**
+ *
+ */
+package committools.dataextractors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import committools.data.FixtureRepository;
+import committools.data.RepositorySnapshot;
+
+/**
+ * Check the lines of code computed from the edit lists against the lines
+ * counted by {@link RepositorySnapshot} on the snapshot of each commit.
+ */
+public class LinesOfCodeTimeSeriesTest {
+
+	private static final long START_TIME = 1000000000L;
+
+	private static final int COMMIT_INTERVAL = 1000;
+
+	/**
+	 * Check that the lines of the time series match the lines of the
+	 * snapshot.
+	 */
+	private static void assertSameLines(
+			final SortedMap<String, long[]> snapshotStatistics,
+			final SortedMap<String, Long> lines) {
+		final Map<String, Long> expected = Maps.newTreeMap();
+		for (final Map.Entry<String, long[]> entry : snapshotStatistics
+				.entrySet()) {
+			if (entry.getValue()[2] != 0) {
+				expected.put(entry.getKey(), entry.getValue()[2]);
+			}
+		}
+		final Map<String, Long> actual = Maps.newTreeMap();
+		for (final Map.Entry<String, Long> entry : lines.entrySet()) {
+			if (entry.getValue() != 0) {
+				actual.put(entry.getKey(), entry.getValue());
+			}
+		}
+		assertEquals(expected, actual);
+	}
+
+	private File directory;
+
+	private Git git;
+
+	private final List<ObjectId> commits = Lists.newArrayList();
+
+	private ObjectId blob(final String content) throws IOException {
+		final ObjectInserter inserter = git.getRepository().newObjectInserter();
+		try {
+			final ObjectId blobId = inserter.insert(Constants.OBJ_BLOB,
+					content.getBytes(Charsets.UTF_8));
+			inserter.flush();
+			return blobId;
+		} finally {
+			inserter.release();
+		}
+	}
+
+	/**
+	 * Commit the tree on top of the last commit and move HEAD to it.
+	 */
+	private void commit(final TreeFormatter tree) throws IOException {
+		final ObjectInserter inserter = git.getRepository().newObjectInserter();
+		final ObjectId commitId;
+		try {
+			final CommitBuilder commit = new CommitBuilder();
+			commit.setTreeId(inserter.insert(tree));
+			if (!commits.isEmpty()) {
+				commit.setParentId(commits.get(commits.size() - 1));
+			}
+			final PersonIdent author = new PersonIdent("Author",
+					"author@example.com", (START_TIME + commits.size()
+							* COMMIT_INTERVAL) * 1000, 0);
+			commit.setAuthor(author);
+			commit.setCommitter(author);
+			commit.setMessage("Commit " + commits.size() + "\n");
+			commitId = inserter.insert(commit);
+			inserter.flush();
+		} finally {
+			inserter.release();
+		}
+		final RefUpdate update = git.getRepository().updateRef(Constants.HEAD);
+		update.setNewObjectId(commitId);
+		update.forceUpdate();
+		commits.add(commitId);
+	}
+
+	@After
+	public void deleteRepository() throws IOException {
+		git.getRepository().close();
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Before
+	public void initRepository() throws Exception {
+		directory = Files.createTempDirectory("linesOfCode").toFile();
+		git = Git.init().setDirectory(new File(directory, "handmade")).call();
+	}
+
+	@Test
+	public void testFileModeAndBinaryChanges() throws IOException {
+		TreeFormatter tree = new TreeFormatter();
+		tree.append("a.txt", FileMode.REGULAR_FILE, blob("a\0b\n"));
+		tree.append("b.txt", FileMode.REGULAR_FILE, blob("x\ny\n"));
+		tree.append("link", FileMode.SYMLINK, blob("b.txt"));
+		tree.append("run.sh", FileMode.EXECUTABLE_FILE, blob("#!/bin/sh\n"));
+		commit(tree);
+
+		// Binary to text, text to binary, symbolic link to file
+		tree = new TreeFormatter();
+		tree.append("a.txt", FileMode.REGULAR_FILE, blob("1\n2\n3\n"));
+		tree.append("b.txt", FileMode.REGULAR_FILE, blob("x\0y\n"));
+		tree.append("link", FileMode.REGULAR_FILE, blob("p\nq\n"));
+		tree.append("run.sh", FileMode.EXECUTABLE_FILE, blob("#!/bin/sh\n"));
+		commit(tree);
+
+		// A submodule, a file to symbolic link and a text edit
+		tree = new TreeFormatter();
+		tree.append("a.txt", FileMode.REGULAR_FILE, blob("1\n3\n4\n5\n"));
+		tree.append("b.txt", FileMode.REGULAR_FILE, blob("x\0y\n"));
+		tree.append("link", FileMode.SYMLINK, blob("a.txt"));
+		tree.append("run.sh", FileMode.EXECUTABLE_FILE, blob("#!/bin/sh\n"));
+		tree.append("sub", FileMode.GITLINK,
+				ObjectId.fromString("0123456789012345678901234567890123456789"));
+		commit(tree);
+
+		final LinesOfCodeTimeSeries series = new LinesOfCodeTimeSeries(git
+				.getRepository().getWorkTree().getAbsolutePath(),
+				COMMIT_INTERVAL);
+		series.doWalk();
+		assertEquals(commits.size(), series.getTimeSeries().size());
+		for (int i = 0; i < commits.size(); i++) {
+			assertSameLines(RepositorySnapshot.scan(git, commits.get(i))
+					.getStatisticsPerExtension(), series.getTimeSeries()
+					.get(i));
+		}
+		assertEquals(Long.valueOf(4), series.getTimeSeries().get(2).get("txt"));
+	}
+
+	@Test
+	public void testSameAsSnapshotOnRandomHistory() throws IOException {
+		final File repository = new File(directory, "generated");
+		final FixtureRepository fixture = FixtureRepository.create(repository);
+		try {
+			fixture.commitRandomHistory(new Random(7), 300, 40, .1,
+					(int) START_TIME);
+		} finally {
+			fixture.close();
+		}
+		final LinesOfCodeTimeSeries series = new LinesOfCodeTimeSeries(
+				repository.getAbsolutePath(), COMMIT_INTERVAL * 1000);
+		series.doWalk();
+
+		final List<SortedMap<String, Long>> timeSeries = series
+				.getTimeSeries();
+		assertTrue(timeSeries.size() > 1);
+		final RepositorySnapshot snapshot = RepositorySnapshot
+				.scan(repository);
+		assertTrue(snapshot.getStatisticsPerExtension().get("bin")[1] > 0);
+		assertSameLines(snapshot.getStatisticsPerExtension(),
+				timeSeries.get(timeSeries.size() - 1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFailsOnMissingBlob() throws IOException {
+		final TreeFormatter tree = new TreeFormatter();
+		tree.append("a.txt", FileMode.REGULAR_FILE,
+				ObjectId.fromString("0123456789012345678901234567890123456789"));
+		commit(tree);
+
+		new LinesOfCodeTimeSeries(git.getRepository().getWorkTree()
+				.getAbsolutePath(), COMMIT_INTERVAL).doWalk();
+	}
+}
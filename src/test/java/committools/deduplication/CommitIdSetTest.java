@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Check {@link CommitIdSet} against the intersections of hash sets.
+ */
+public class CommitIdSetTest {
+
+	/**
+	 * Return random ids, some sharing their first 8 bytes with an earlier id
+	 * so that prefix collisions are resolved on the rest of the id.
+	 */
+	private static List<ObjectId> randomIds(final Random random, final int n) {
+		final List<ObjectId> ids = Lists.newArrayList();
+		final byte[] raw = new byte[20];
+		for (int i = 0; i < n; i++) {
+			if (!ids.isEmpty() && random.nextInt(4) == 0) {
+				ids.get(random.nextInt(ids.size())).copyRawTo(raw, 0);
+				raw[8 + random.nextInt(12)] ^= 1 << random.nextInt(8);
+			} else {
+				random.nextBytes(raw);
+			}
+			ids.add(ObjectId.fromRaw(raw));
+		}
+		return ids;
+	}
+
+	private static int countCommon(final List<ObjectId> a,
+			final List<ObjectId> b) {
+		final Set<ObjectId> common = Sets.newHashSet(a);
+		common.retainAll(Sets.newHashSet(b));
+		return common.size();
+	}
+
+	@Test
+	public void testContains() {
+		final Random random = new Random(1);
+		final List<ObjectId> ids = randomIds(random, 500);
+		final CommitIdSet set = CommitIdSet.of(ids.subList(0, 250));
+		final Set<ObjectId> expected = Sets.newHashSet(ids.subList(0, 250));
+		for (final ObjectId id : ids) {
+			assertEquals(expected.contains(id), set.contains(id));
+		}
+		assertFalse(CommitIdSet.EMPTY.contains(ids.get(0)));
+	}
+
+	@Test
+	public void testCountCommon() {
+		final Random random = new Random(2);
+		final List<ObjectId> ids = randomIds(random, 3000);
+		final int[][] ranges = { { 0, 1000, 500, 1500 }, // similar sizes
+				{ 0, 3000, 1000, 1050 }, // galloping
+				{ 990, 1000, 0, 3000 }, // galloping, the other way
+				{ 0, 100, 100, 200 } }; // no common commits
+		for (final int[] range : ranges) {
+			final List<ObjectId> a = ids.subList(range[0], range[1]);
+			final List<ObjectId> b = ids.subList(range[2], range[3]);
+			final CommitIdSet setA = CommitIdSet.of(a);
+			final CommitIdSet setB = CommitIdSet.of(b);
+			final int common = countCommon(a, b);
+			assertEquals(common, setA.countCommon(setB));
+			assertEquals(common, setB.countCommon(setA));
+			assertTrue(setA.sharesMoreThan(setB, common - 1));
+			assertFalse(setA.sharesMoreThan(setB, common));
+			assertFalse(setB.sharesMoreThan(setA, common));
+		}
+		assertEquals(0, CommitIdSet.EMPTY.countCommon(CommitIdSet.of(ids)));
+	}
+
+	@Test
+	public void testIgnoresDuplicates() {
+		final List<ObjectId> ids = randomIds(new Random(3), 100);
+		final List<ObjectId> withDuplicates = Lists.newArrayList(ids);
+		withDuplicates.addAll(ids.subList(0, 50));
+		final CommitIdSet set = CommitIdSet.of(withDuplicates);
+		assertEquals(Sets.newHashSet(ids).size(), set.size());
+		assertEquals(set.size(), set.countCommon(CommitIdSet.of(ids)));
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final List<ObjectId> ids = randomIds(new Random(4), 1000);
+		final CommitIdSet set = CommitIdSet.of(ids);
+		final File file = Files.createTempFile("commits", ".ids").toFile();
+		try {
+			set.write(file);
+			final CommitIdSet read = CommitIdSet.read(file);
+			assertEquals(set.size(), read.size());
+			assertEquals(set.size(), read.countCommon(set));
+			for (final ObjectId id : ids) {
+				assertTrue(read.contains(id));
+			}
+		} finally {
+			assertTrue(file.delete());
+		}
+	}
+}
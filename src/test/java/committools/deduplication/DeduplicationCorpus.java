@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import committools.data.FixtureRepository;
+import committools.data.GitCommitUtils;
+
+/**
+ * A small corpus of repositories for the deduplicator tests and the
+ * duplicates that the original all-pairs comparison of
+ * {@link RepositoryDeduplicator} finds in it.
+ */
+final class DeduplicationCorpus {
+
+	/**
+	 * The threshold at which the corpus has both duplicate pairs and pairs
+	 * that share exactly threshold commits.
+	 */
+	static final int THRESHOLD = 10;
+
+	/**
+	 * The number of duplicate pairs of the corpus at {@link #THRESHOLD}: the
+	 * six pairs of the family and its forks and pair with pair_fork.
+	 */
+	static final int NUM_DUPLICATES = 7;
+
+	/**
+	 * Add commits to a copy of the given repository.
+	 */
+	private static void addFork(final File original, final File fork,
+			final int nCommits, final int time) throws IOException {
+		FileUtils.copyDirectory(original, fork);
+		final FixtureRepository repository = FixtureRepository.open(fork);
+		try {
+			for (int i = 0; i < nCommits; i++) {
+				repository.setFile("Fork.java", fork.getName() + i + "\n");
+				repository.commit("Fork change " + i + "\n", fork.getName(),
+						fork.getName() + "@example.org", time + i);
+			}
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * Create a repository with the given number of commits, each changing
+	 * the same file.
+	 */
+	private static void addRepository(final File directory,
+			final String name, final int nCommits, final int time)
+			throws IOException {
+		final FixtureRepository repository = FixtureRepository
+				.create(directory);
+		try {
+			for (int i = 0; i < nCommits; i++) {
+				repository.setFile("Main.java", name + i + "\n");
+				repository.commit("Change " + i + "\n", "Author",
+						"author@example.org", time + i);
+			}
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * Create the corpus in the given directory:
+	 * <ul>
+	 * <li>family, with 30 commits, and its forks family_fork0-2, that each
+	 * have 3 more commits of their own</li>
+	 * <li>pair and pair_fork, that share 11 commits</li>
+	 * <li>near and near_fork, that share exactly 10 commits</li>
+	 * <li>alone, that shares no commits</li>
+	 * <li>notARepository, a folder that is not a repository</li>
+	 * </ul>
+	 */
+	static void create(final File directory) throws IOException {
+		final File family = new File(directory, "family");
+		addRepository(family, "family", 30, 1000000);
+		for (int i = 0; i < 3; i++) {
+			addFork(family, new File(directory, "family_fork" + i), 3,
+					2000000 + 100 * i);
+		}
+		final File pair = new File(directory, "pair");
+		addRepository(pair, "pair", 11, 3000000);
+		addFork(pair, new File(directory, "pair_fork"), 1, 3000100);
+		final File near = new File(directory, "near");
+		addRepository(near, "near", 10, 4000000);
+		addFork(near, new File(directory, "near_fork"), 2, 4000100);
+		addRepository(new File(directory, "alone"), "alone", 20, 5000000);
+		FileUtils.write(new File(directory, "notARepository/README"),
+				"Not a repository\n");
+	}
+
+	/**
+	 * Find the duplicate pairs of the repositories in the directory by
+	 * intersecting the commits of all pairs, as RepositoryDeduplicator did.
+	 */
+	static SortedSet<String> findBaselineDuplicates(final File directory,
+			final int threshold) throws Exception {
+		final Map<String, Set<ObjectId>> projectCommits = Maps.newTreeMap();
+		for (final String repository : RepositoryDeduplicator
+				.getAllFoldersIn(directory.getAbsolutePath())) {
+			try {
+				projectCommits.put(repository,
+						Sets.newHashSet(GitCommitUtils.getCommits(repository)));
+			} catch (final Exception e) {
+				// Not a repository
+			}
+		}
+		final SortedSet<String> duplicates = Sets.newTreeSet();
+		for (final String project1 : projectCommits.keySet()) {
+			for (final String project2 : projectCommits.keySet()) {
+				if (project1.compareTo(project2) >= 0) {
+					continue;
+				}
+				final Set<ObjectId> commonCommits = Sets.newTreeSet(projectCommits
+						.get(project1));
+				commonCommits.retainAll(projectCommits.get(project2));
+				if (commonCommits.size() > threshold) {
+					duplicates.add(project1 + " " + project2);
+				}
+			}
+		}
+		return duplicates;
+	}
+
+	/**
+	 * Return the "repository otherRepository" pairs of the duplicates of each
+	 * repository, with the lexicographically smaller repository first.
+	 */
+	static SortedSet<String> toPairs(
+			final Map<String, ? extends Collection<String>> duplicates) {
+		final SortedSet<String> pairs = Sets.newTreeSet();
+		for (final Map.Entry<String, ? extends Collection<String>> entry : duplicates
+				.entrySet()) {
+			for (final String otherRepository : entry.getValue()) {
+				if (entry.getKey().compareTo(otherRepository) < 0) {
+					pairs.add(entry.getKey() + " " + otherRepository);
+				} else {
+					pairs.add(otherRepository + " " + entry.getKey());
+				}
+			}
+		}
+		return pairs;
+	}
+
+	private DeduplicationCorpus() {
+		// Cannot be constructed.
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import committools.data.FixtureRepository;
+
+/**
+ * Check that {@link IncrementalDeduplicator} finds the same duplicates as
+ * comparing all pairs of repositories, both when building the index and
+ * after updating it.
+ */
+public class IncrementalDeduplicatorTest {
+
+	private File directory;
+
+	private File corpus;
+
+	private File index;
+
+	@Before
+	public void createCorpus() throws IOException {
+		directory = Files.createTempDirectory("dedup").toFile();
+		corpus = new File(directory, "corpus");
+		index = new File(directory, "index");
+		DeduplicationCorpus.create(corpus);
+	}
+
+	@After
+	public void deleteCorpus() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private SortedSet<String> update(final int threshold) throws Exception {
+		final IncrementalDeduplicator deduplicator = new IncrementalDeduplicator(
+				index, threshold);
+		deduplicator.update(corpus.getAbsolutePath());
+		return DeduplicationCorpus.toPairs(deduplicator.getDuplicates());
+	}
+
+	@Test
+	public void testSameAsAllPairs() throws Exception {
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(corpus, DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES, expected.size());
+		assertEquals(expected, update(DeduplicationCorpus.THRESHOLD));
+		// Nothing changed
+		assertEquals(expected, update(DeduplicationCorpus.THRESHOLD));
+	}
+
+	@Test
+	public void testSameAsAllPairsAfterChanges() throws Exception {
+		update(DeduplicationCorpus.THRESHOLD);
+
+		// A new fork of pair, a near_fork that now shares more than the
+		// threshold with near, and a removed repository
+		FileUtils.copyDirectory(new File(corpus, "pair"), new File(corpus,
+				"pair_fork2"));
+		final FixtureRepository near = FixtureRepository.open(new File(corpus,
+				"near"));
+		try {
+			near.setFile("Near.java", "near\n");
+			near.commit("Change\n", "Author", "author@example.org", 4000050);
+		} finally {
+			near.close();
+		}
+		FileUtils.deleteDirectory(new File(corpus, "near_fork"));
+		FileUtils.copyDirectory(new File(corpus, "near"), new File(corpus,
+				"near_fork"));
+		FileUtils.deleteDirectory(new File(corpus, "family_fork2"));
+
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(corpus, DeduplicationCorpus.THRESHOLD);
+		assertEquals(7, expected.size());
+		assertEquals(expected, update(DeduplicationCorpus.THRESHOLD));
+
+		// A different threshold recomputes all the pairs
+		assertEquals(DeduplicationCorpus.findBaselineDuplicates(corpus, 25),
+				update(25));
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import committools.data.GitCommitUtils;
+
+/**
+ * Check that {@link InvertedIndexDeduplicator} finds the same duplicates as
+ * comparing all pairs of repositories.
+ */
+public class InvertedIndexDeduplicatorTest {
+
+	private File directory;
+
+	@Before
+	public void createCorpus() throws IOException {
+		directory = Files.createTempDirectory("dedup").toFile();
+		DeduplicationCorpus.create(directory);
+	}
+
+	@After
+	public void deleteCorpus() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testCommitIdSetsSameAsCommitLists() throws Exception {
+		final Map<String, CommitIdSet> projectCommits = RepositoryDeduplicator
+				.getCommitsForAllProjects(directory.getAbsolutePath());
+		assertEquals(9, projectCommits.size());
+		final InvertedIndexDeduplicator deduplicator = new InvertedIndexDeduplicator(
+				DeduplicationCorpus.THRESHOLD);
+		for (final Map.Entry<String, CommitIdSet> project : projectCommits
+				.entrySet()) {
+			deduplicator.addRepository(project.getKey(), project.getValue());
+		}
+		assertEquals(DeduplicationCorpus.findBaselineDuplicates(directory,
+				DeduplicationCorpus.THRESHOLD),
+				DeduplicationCorpus.toPairs(deduplicator.findDuplicates()));
+	}
+
+	@Test
+	public void testSameAsAllPairs() throws Exception {
+		final InvertedIndexDeduplicator deduplicator = new InvertedIndexDeduplicator(
+				DeduplicationCorpus.THRESHOLD);
+		for (final String repository : RepositoryDeduplicator
+				.getAllFoldersIn(directory.getAbsolutePath())) {
+			try {
+				deduplicator.addRepository(repository,
+						GitCommitUtils.getCommits(repository));
+			} catch (final Exception e) {
+				// Not a repository
+			}
+		}
+		assertEquals(9, deduplicator.numRepositories());
+
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(directory,
+						DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES, expected.size());
+		assertEquals(expected,
+				DeduplicationCorpus.toPairs(deduplicator.findDuplicates()));
+	}
+}
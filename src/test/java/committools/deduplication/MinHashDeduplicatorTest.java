@@ -0,0 +1,148 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Table;
+import com.google.common.collect.TreeBasedTable;
+
+import committools.data.FixtureRepository;
+
+/**
+ * Check that {@link MinHashDeduplicator} finds the same duplicates as
+ * comparing all pairs of repositories on a small corpus, and that it reuses
+ * the verified pairs of the repositories that did not change.
+ */
+public class MinHashDeduplicatorTest {
+
+	private File directory;
+
+	private File corpus;
+
+	private File sketchFile;
+
+	@Before
+	public void createCorpus() throws IOException {
+		directory = Files.createTempDirectory("dedup").toFile();
+		corpus = new File(directory, "corpus");
+		sketchFile = new File(directory, "sketches");
+		DeduplicationCorpus.create(corpus);
+	}
+
+	@After
+	public void deleteCorpus() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	private static MinHashDeduplicator newDeduplicator() {
+		return new MinHashDeduplicator(DeduplicationCorpus.THRESHOLD,
+				MinHashDeduplicator.DEFAULT_NUM_BANDS,
+				MinHashDeduplicator.DEFAULT_ROWS_PER_BAND);
+	}
+
+	@Test
+	public void testCapsLargeBuckets() {
+		// Identical sketches fall in the same bucket in every band
+		final List<ObjectId> commits = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			commits.add(ObjectId.fromString(String.format("%040x", i + 1)));
+		}
+		final MinHashDeduplicator deduplicator = new MinHashDeduplicator(0, 4,
+				2, 3);
+		final SortedMap<String, MinHashSketch> sketches = Maps.newTreeMap();
+		for (int i = 0; i < 5; i++) {
+			sketches.put("repository" + i, MinHashSketch.compute(
+					commits.get(0), commits, deduplicator.getNumHashes()));
+		}
+		final SortedMap<String, SortedSet<String>> candidates = deduplicator
+				.getCandidatePairs(sketches);
+		// Each repository is paired with the next two only
+		assertEquals(7, DeduplicationCorpus.toPairs(candidates).size());
+		assertEquals(2, candidates.get("repository0").size());
+		assertEquals(1, candidates.get("repository3").size());
+	}
+
+	@Test
+	public void testReusesVerifiedPairs() throws Exception {
+		final SortedMap<String, List<String>> duplicates = newDeduplicator()
+				.findDuplicatesIn(corpus.getAbsolutePath(), sketchFile);
+		final String pair = new File(corpus, "pair").getAbsolutePath();
+		final String pairFork = new File(corpus, "pair_fork")
+				.getAbsolutePath();
+		assertEquals(Lists.newArrayList(pairFork), duplicates.get(pair));
+
+		// All the candidates are stored, the non-duplicates too
+		final Table<String, String, Boolean> verifiedPairs = MinHashDeduplicator
+				.loadVerifiedPairs(sketchFile, DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES,
+				DeduplicationCorpus.toPairs(duplicates).size());
+		assertTrue(verifiedPairs.size() > duplicates.size());
+		assertTrue(verifiedPairs.get(pair, pairFork));
+		assertEquals(0, MinHashDeduplicator.loadVerifiedPairs(sketchFile, 5)
+				.size());
+
+		// A stored result is used instead of the commits
+		final MinHashDeduplicator deduplicator = newDeduplicator();
+		final SortedMap<String, SortedSet<String>> candidates = deduplicator
+				.getCandidatePairs(MinHashDeduplicator.loadSketches(sketchFile));
+		final Table<String, String, Boolean> storedPairs = TreeBasedTable
+				.create();
+		storedPairs.put(pair, pairFork, false);
+		final SortedMap<String, List<String>> verified = deduplicator.verify(
+				candidates, storedPairs);
+		assertFalse(verified.containsKey(pair));
+		assertEquals(verifiedPairs.size(), storedPairs.size());
+
+		// The pairs of a changed repository are verified again
+		FileUtils.deleteDirectory(new File(corpus, "near_fork"));
+		FileUtils.copyDirectory(new File(corpus, "pair"), new File(corpus,
+				"near_fork"));
+		final FixtureRepository nearFork = FixtureRepository.open(new File(
+				corpus, "near_fork"));
+		try {
+			nearFork.setFile("Fork.java", "fork\n");
+			nearFork.commit("Fork\n", "Author", "author@example.org", 3000200);
+		} finally {
+			nearFork.close();
+		}
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(corpus, DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES + 2, expected.size());
+		assertEquals(expected, DeduplicationCorpus.toPairs(newDeduplicator()
+				.findDuplicatesIn(corpus.getAbsolutePath(), sketchFile)));
+		assertTrue(MinHashDeduplicator.loadVerifiedPairs(sketchFile,
+				DeduplicationCorpus.THRESHOLD).get(
+				new File(corpus, "near_fork").getAbsolutePath(), pairFork));
+	}
+
+	@Test
+	public void testSameAsAllPairs() throws Exception {
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(corpus, DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES, expected.size());
+		assertEquals(expected, DeduplicationCorpus.toPairs(newDeduplicator()
+				.findDuplicatesIn(corpus.getAbsolutePath(), sketchFile)));
+		// Reusing the sketches and the verified pairs
+		assertEquals(expected, DeduplicationCorpus.toPairs(newDeduplicator()
+				.findDuplicatesIn(corpus.getAbsolutePath(), sketchFile)));
+	}
+}
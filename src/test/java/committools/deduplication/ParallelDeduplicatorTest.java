@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package committools.deduplication;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that {@link ParallelDeduplicator} finds the same duplicates as
+ * comparing all pairs of repositories one by one.
+ */
+public class ParallelDeduplicatorTest {
+
+	private File directory;
+
+	@Before
+	public void createCorpus() throws IOException {
+		directory = Files.createTempDirectory("dedup").toFile();
+		DeduplicationCorpus.create(directory);
+	}
+
+	@After
+	public void deleteCorpus() throws IOException {
+		FileUtils.deleteDirectory(directory);
+	}
+
+	@Test
+	public void testProjectsToCompare() {
+		final Map<String, List<String>> combinations = new ParallelDeduplicator(
+				0).getAllProjectsToCompare(Arrays.asList("a", "b", "c"));
+		assertEquals(Arrays.asList("b", "c"), combinations.get("a"));
+		assertEquals(Arrays.asList("c"), combinations.get("b"));
+		assertEquals(Collections.emptyList(), combinations.get("c"));
+		assertEquals(3, combinations.size());
+	}
+
+	@Test
+	public void testSameAsAllPairs() throws Exception {
+		final ParallelDeduplicator deduplicator = new ParallelDeduplicator(
+				DeduplicationCorpus.THRESHOLD);
+		deduplicator.findAndPrintDuplicatesIn(directory.getAbsolutePath());
+
+		final SortedSet<String> expected = DeduplicationCorpus
+				.findBaselineDuplicates(directory,
+						DeduplicationCorpus.THRESHOLD);
+		assertEquals(DeduplicationCorpus.NUM_DUPLICATES, expected.size());
+		assertEquals(expected,
+				DeduplicationCorpus.toPairs(deduplicator.duplicateProjects));
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Check the power-of-two buckets of {@link Histogram}. Histograms record
+ * nothing unless metrics are enabled when {@link Metrics} is initialized, so
+ * the histograms under test are loaded by their own class loader, with
+ * metrics enabled.
+ */
+public class HistogramTest {
+
+	private static Class<?> enabledHistogramClass;
+
+	/**
+	 * Load the metrics classes in a class loader of their own, with metrics
+	 * enabled.
+	 */
+	private static synchronized Class<?> getEnabledHistogramClass()
+			throws Exception {
+		if (enabledHistogramClass != null) {
+			return enabledHistogramClass;
+		}
+		final ClassLoader loader = new URLClassLoader(new URL[] {
+				getLocation(Metrics.class), getLocation(Maps.class),
+				getLocation(ExceptionUtils.class) }, ClassLoader
+				.getSystemClassLoader().getParent());
+		final String enabled = System.getProperty("committools.metrics");
+		System.setProperty("committools.metrics", "true");
+		try {
+			Class.forName(Metrics.class.getName(), true, loader);
+		} finally {
+			if (enabled == null) {
+				System.clearProperty("committools.metrics");
+			} else {
+				System.setProperty("committools.metrics", enabled);
+			}
+		}
+		enabledHistogramClass = Class.forName(Histogram.class.getName(), true,
+				loader);
+		return enabledHistogramClass;
+	}
+
+	private static URL getLocation(final Class<?> type) {
+		return type.getProtectionDomain().getCodeSource().getLocation();
+	}
+
+	private Object histogram;
+
+	private Object call(final String name, final Class<?> parameterType,
+			final Object parameter) throws Exception {
+		try {
+			return histogram.getClass().getMethod(name, parameterType)
+					.invoke(histogram, parameter);
+		} catch (final InvocationTargetException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+
+	private long get(final String name) throws Exception {
+		return (Long) histogram.getClass().getMethod(name).invoke(histogram);
+	}
+
+	private long getPercentile(final double percentile) throws Exception {
+		return (Long) call("getPercentile", double.class, percentile);
+	}
+
+	private void record(final long value) throws Exception {
+		call("record", long.class, value);
+	}
+
+	@Before
+	public void createHistogram() throws Exception {
+		final Constructor<?> constructor = getEnabledHistogramClass()
+				.getDeclaredConstructor();
+		constructor.setAccessible(true);
+		histogram = constructor.newInstance();
+	}
+
+	@Test
+	public void testBucketBoundaries() throws Exception {
+		// With a larger value, the median is the upper bound of the bucket
+		// of the smaller one
+		record(Long.MAX_VALUE);
+		record(0);
+		assertEquals(0, getPercentile(.5));
+		for (int i = 0; i < 63; i++) {
+			createHistogram();
+			record(Long.MAX_VALUE);
+			record(1L << i);
+			assertEquals("2^" + i, (1L << i + 1) - 1, getPercentile(.5));
+
+			createHistogram();
+			record(Long.MAX_VALUE);
+			record((1L << i + 1) - 1);
+			assertEquals("2^" + (i + 1) + "-1", (1L << i + 1) - 1,
+					getPercentile(.5));
+		}
+	}
+
+	@Test
+	public void testPercentilesAreBoundedByMax() throws Exception {
+		assertEquals(0, getPercentile(.99));
+		for (long value = 1; value <= 100; value++) {
+			record(value);
+		}
+		assertEquals(100, get("getCount"));
+		assertEquals(5050, get("getSum"));
+		assertEquals(100, get("getMax"));
+		// 50 is in [32, 64) and 99 in [64, 128), bounded by the maximum
+		assertEquals(63, getPercentile(.5));
+		assertEquals(100, getPercentile(.99));
+		assertEquals(1, getPercentile(.01));
+	}
+
+	@Test
+	public void testNegativeValuesAreInTheZeroBucket() throws Exception {
+		record(Long.MAX_VALUE);
+		record(-5);
+		assertEquals(0, getPercentile(.5));
+		assertEquals(2, get("getCount"));
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package committools.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that the registry of {@link Metrics} records and registers nothing
+ * when metrics are disabled, as they are in the tests.
+ */
+public class MetricsTest {
+
+	@Before
+	public void checkDisabled() {
+		assertFalse("Run the tests without -Dcommittools.metrics=true",
+				Metrics.ENABLED);
+	}
+
+	@Test
+	public void testDisabledMetricsRecordNothing() throws Exception {
+		final Counter counter = Metrics.counter("metricsTest.counter");
+		counter.increment();
+		counter.add(10);
+		assertEquals(0, counter.getCount());
+
+		final Histogram histogram = Metrics.histogram("metricsTest.histogram");
+		histogram.record(5);
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getSum());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile99());
+
+		final Timer timer = Metrics.timer("metricsTest.timer");
+		final long start = timer.start();
+		assertEquals(0, start);
+		timer.stop(start);
+		assertEquals(0, timer.getCount());
+
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+				new ObjectName("committools:type=Counter,name="
+						+ ObjectName.quote("metricsTest.counter"))));
+		assertFalse(Thread.getAllStackTraces().keySet().toString()
+				.contains("metrics-reporter"));
+	}
+
+	@Test
+	public void testSameNameIsSameMetric() {
+		final Counter counter = Metrics.counter("metricsTest.shared");
+		assertSame(counter, Metrics.counter("metricsTest.shared"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSameNameOfOtherType() {
+		Metrics.counter("metricsTest.typed");
+		Metrics.timer("metricsTest.typed");
+	}
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package committools.output;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Check that the rows written by {@link ColumnarResultSink} are read back
+ * unchanged by {@link ColumnarResultReader}.
+ */
+public class ColumnarResultSinkTest {
+
+	private static final long[] LONGS = { 0, -1, 1, Long.MIN_VALUE,
+			Long.MAX_VALUE, Long.MIN_VALUE, 1L << 40, -(1L << 40) };
+
+	private static final double[] DOUBLES = { 0, -0.0, 1.5, Double.NaN,
+			Double.NEGATIVE_INFINITY, Double.MAX_VALUE, Double.MIN_VALUE };
+
+	private static final String[] STRINGS = { "", "a",
+			"\u00e9\u20ac\ud83d\ude00", "a,\"b\"\n" };
+
+	private static ResultSchema newSchema() {
+		return ResultSchema.create().addString("name").addLong("count")
+				.addDouble("ratio", "%.3f").addString("kind");
+	}
+
+	private static byte[] toColumnar(final int nRows, final long seed)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new ColumnarResultSink(newSchema(),
+				Channels.newChannel(out), true);
+		writeRows(sink, nRows, seed);
+		sink.close();
+		return out.toByteArray();
+	}
+
+	private static String toCsv(final ColumnarResultReader reader)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(reader.getSchema(),
+				Channels.newChannel(out), true);
+		reader.copyTo(sink);
+		sink.close();
+		return new String(out.toByteArray(), Charsets.UTF_8);
+	}
+
+	private static String toCsv(final int nRows, final long seed)
+			throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final IResultSink sink = new CsvResultSink(newSchema(),
+				Channels.newChannel(out), true);
+		writeRows(sink, nRows, seed);
+		sink.close();
+		return new String(out.toByteArray(), Charsets.UTF_8);
+	}
+
+	/**
+	 * Write rows of special and random values, with strings that repeat
+	 * within a block.
+	 */
+	private static void writeRows(final IResultSink sink, final int nRows,
+			final long seed) throws IOException {
+		final Random random = new Random(seed);
+		for (int i = 0; i < nRows; i++) {
+			sink.writeString(i < STRINGS.length ? STRINGS[i] : "name"
+					+ random.nextInt(1000));
+			sink.writeLong(i < LONGS.length ? LONGS[i] : random.nextLong());
+			sink.writeDouble(i < DOUBLES.length ? DOUBLES[i] : random
+					.nextDouble());
+			sink.writeString(STRINGS[i % STRINGS.length]);
+			sink.endRow();
+		}
+	}
+
+	@Test
+	public void testCopySameAsCsv() throws IOException {
+		final ColumnarResultReader reader = new ColumnarResultReader(
+				new ByteArrayInputStream(toColumnar(1000, 3)));
+		final String csv = toCsv(reader);
+		reader.close();
+		assertTrue(csv.startsWith("name,count,ratio,kind"));
+		assertEquals(toCsv(1000, 3), csv);
+	}
+
+	@Test
+	public void testNoRows() throws IOException {
+		final ColumnarResultReader reader = new ColumnarResultReader(
+				new ByteArrayInputStream(toColumnar(0, 1)));
+		assertEquals(4, reader.getSchema().getNumColumns());
+		assertEquals("ratio", reader.getSchema().getName(2));
+		assertEquals("%.3f", reader.getSchema().getFormat(2));
+		assertFalse(reader.nextBlock());
+		reader.close();
+	}
+
+	@Test
+	public void testReadsWrittenValues() throws IOException {
+		final int nRows = ColumnarResultSink.ROWS_PER_BLOCK + 100;
+		final ColumnarResultReader reader = new ColumnarResultReader(
+				new ByteArrayInputStream(toColumnar(nRows, 2)));
+		final Random random = new Random(2);
+		int row = 0;
+		int nBlocks = 0;
+		while (reader.nextBlock()) {
+			nBlocks++;
+			for (int i = 0; i < reader.getNumRows(); i++, row++) {
+				final String name = row < STRINGS.length ? STRINGS[row]
+						: "name" + random.nextInt(1000);
+				final long count = row < LONGS.length ? LONGS[row] : random
+						.nextLong();
+				final double ratio = row < DOUBLES.length ? DOUBLES[row]
+						: random.nextDouble();
+				assertEquals(name, reader.getString(0, i));
+				assertEquals(count, reader.getLong(1, i));
+				assertEquals(Double.doubleToRawLongBits(ratio),
+						Double.doubleToRawLongBits(reader.getDouble(2, i)));
+				assertEquals(STRINGS[row % STRINGS.length],
+						reader.getString(3, i));
+			}
+		}
+		reader.close();
+		assertEquals(nRows, row);
+		assertEquals(2, nBlocks);
+	}
+}